@@ -0,0 +1,54 @@
+/**
+ * Copyright (C) 2010 David Rousselie <drousselie@octo.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.octo.java.sql.benchmark;
+
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.octo.java.sql.query.BasicQueryOptimizer;
+import com.octo.java.sql.query.QueryContext;
+import com.octo.java.sql.query.visitor.DefaultQueryBuilder;
+import com.octo.java.sql.query.visitor.OracleQueryBuilder;
+import com.octo.java.sql.query.visitor.QueryBuilderFactory;
+import com.octo.java.sql.query.visitor.QueryBuilderPool;
+
+/**
+ * Context used to render the benchmarked queries: dialect and optimization
+ */
+@State(Scope.Benchmark)
+public class ContextState {
+  @Param( { "default", "oracle" })
+  public String dialect;
+
+  @Param( { "false", "true" })
+  public boolean optimized;
+
+  public QueryContext context;
+
+  @Setup
+  public void setUp() {
+    final QueryBuilderFactory factory = "oracle".equals(dialect) ? OracleQueryBuilder.FACTORY
+        : DefaultQueryBuilder.FACTORY;
+    QueryContext newContext = QueryContext.getInitial()
+        .withQueryBuilderFactory(new QueryBuilderPool(factory));
+    if (optimized)
+      newContext = newContext.withVisitor(BasicQueryOptimizer.FACTORY);
+    context = newContext;
+  }
+}
@@ -0,0 +1,52 @@
+/**
+ * Copyright (C) 2010 David Rousselie <drousselie@octo.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.octo.java.sql.benchmark;
+
+import static com.octo.java.sql.query.Query.c;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.octo.java.sql.query.QueryException;
+
+/**
+ * Build and render a SELECT filtering on an IN list
+ */
+@State(Scope.Benchmark)
+public class InListBenchmark {
+  @Param( { "1", "10", "100", "1000", "50000" })
+  public int size;
+
+  private Object[] ids;
+
+  @Setup
+  public void setUp() {
+    ids = new Object[size];
+    for (int i = 0; i < size; i++)
+      ids[i] = Long.valueOf(i);
+  }
+
+  @Benchmark
+  public String inList(final ContextState state) throws QueryException {
+    return state.context.select(c("client.name")).from("client") //
+        .where(c("client.id")).in(ids) //
+        .toSql();
+  }
+}
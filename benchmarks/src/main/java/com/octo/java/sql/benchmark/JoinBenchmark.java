@@ -0,0 +1,55 @@
+/**
+ * Copyright (C) 2010 David Rousselie <drousselie@octo.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.octo.java.sql.benchmark;
+
+import static com.octo.java.sql.query.Query.c;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import com.octo.java.sql.query.QueryException;
+import com.octo.java.sql.query.SelectQuery;
+
+/**
+ * Build and render a SELECT joining a chain of tables (table1 joins table0,
+ * table2 joins table1...). Only the first and the last tables are used so that
+ * the optimizer can only remove joins that nothing depends on.
+ */
+@State(Scope.Benchmark)
+public class JoinBenchmark {
+  @Param( { "1", "4", "8", "16" })
+  public int joins;
+
+  @Benchmark
+  public String joinChain(final ContextState state) throws QueryException {
+    final SelectQuery query = state.context.select(c("table0.id"),
+        c("table0.name")).from("table0");
+    for (int i = 1; i <= joins; i++) {
+      if ((i % 2) == 0)
+        query.innerJoin("table" + i).on(c("table" + i + ".parent")).eq(
+            c("table" + (i - 1) + ".id"));
+      else
+        query.leftOuterJoin("table" + i).on(c("table" + i + ".parent")).eq(
+            c("table" + (i - 1) + ".id"));
+    }
+    return query.where(c("table0.name")).eq("name") //
+        .and(c("table" + joins + ".code")).eq(null) //
+        .toSql();
+  }
+}
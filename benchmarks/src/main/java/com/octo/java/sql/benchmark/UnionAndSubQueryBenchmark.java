@@ -0,0 +1,68 @@
+/**
+ * Copyright (C) 2010 David Rousselie <drousselie@octo.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.octo.java.sql.benchmark;
+
+import static com.octo.java.sql.query.Query.c;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import com.octo.java.sql.query.QueryContext;
+import com.octo.java.sql.query.QueryException;
+import com.octo.java.sql.query.SelectQuery;
+
+/**
+ * Build and render nested unions, each branch filtering with an IN sub query
+ */
+@State(Scope.Benchmark)
+public class UnionAndSubQueryBenchmark {
+  @Param( { "1", "4", "16" })
+  public int branches;
+
+  @Param( { "1", "3" })
+  public int depth;
+
+  private SelectQuery subQuery(final QueryContext context, final int level)
+      throws QueryException {
+    final SelectQuery query = context.select(c("archive" + level + ".id"))
+        .from("archive" + level);
+    if (level < depth)
+      query.where(c("archive" + level + ".parent")).in(
+          subQuery(context, level + 1));
+    else
+      query.where(c("archive" + level + ".status")).eq("ACTIVE");
+    return query;
+  }
+
+  @Benchmark
+  public String nestedUnions(final ContextState state) throws QueryException {
+    final QueryContext context = state.context;
+    final SelectQuery query = context.select(c("client.id")).from("client") //
+        .where(c("client.id")).in(subQuery(context, 1));
+    SelectQuery lastQuery = query;
+    for (int i = 1; i < branches; i++) {
+      final SelectQuery branch = context.select(c("client.id")) //
+          .from("client_" + i) //
+          .where(c("client.id")).in(subQuery(context, 1));
+      lastQuery.union(branch);
+      lastQuery = branch;
+    }
+    return query.toSql();
+  }
+}
@@ -0,0 +1,63 @@
+/**
+ * Copyright (C) 2010 David Rousselie <drousselie@octo.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.octo.java.sql.benchmark;
+
+import static com.octo.java.sql.query.Query.c;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.octo.java.sql.exp.Column;
+import com.octo.java.sql.query.QueryException;
+import com.octo.java.sql.query.SelectQuery;
+
+/**
+ * Build and render a SELECT with a chain of AND predicates, one value out of
+ * four is null so that the optimizer has clauses to remove
+ */
+@State(Scope.Benchmark)
+public class WhereClauseBenchmark {
+  @Param( { "0", "1", "10", "100" })
+  public int predicates;
+
+  private Column[] columns;
+  private Object[] values;
+
+  @Setup
+  public void setUp() {
+    columns = new Column[predicates + 1];
+    values = new Object[predicates + 1];
+    for (int i = 0; i <= predicates; i++) {
+      columns[i] = c("client.column" + i);
+      values[i] = (i % 4) == 3 ? null : Integer.valueOf(i);
+    }
+  }
+
+  @Benchmark
+  public String andChain(final ContextState state) throws QueryException {
+    final SelectQuery query = state.context.select("*").from("client");
+    if (predicates > 0) {
+      query.where(columns[0]).eq(values[0]);
+      for (int i = 1; i < predicates; i++)
+        query.and(columns[i]).eq(values[i]);
+    }
+    return query.toSql();
+  }
+}
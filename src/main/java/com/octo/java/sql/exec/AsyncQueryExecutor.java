@@ -0,0 +1,178 @@
+/**
+ * Copyright (C) 2010 David Rousselie <drousselie@octo.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.octo.java.sql.exec;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.function.Supplier;
+
+import com.octo.java.sql.query.DeleteQuery;
+import com.octo.java.sql.query.InsertQuery;
+import com.octo.java.sql.query.QueryException;
+import com.octo.java.sql.query.SelectQuery;
+import com.octo.java.sql.query.UpdateQuery;
+
+/**
+ * Execute queries asynchronously, each one in its own session of a
+ * QueryExecutor:
+ * 
+ * <code>
+ * CompletableFuture&lt;List&lt;Client&gt;&gt; clients = async.executeAsync(
+ *     select("*").from("client"), clientMapper);
+ * CompletableFuture&lt;List&lt;Order&gt;&gt; orders = async.executeAsync(
+ *     select("*").from("orders"), orderMapper);
+ * CompletableFuture.allOf(clients, orders).join();
+ * </code>
+ * 
+ * Queries are rendered by the calling thread, so they can be modified once
+ * submitted. They are executed on virtual threads when the JVM supports them
+ * (Java 21 and later), on a pool of platform threads otherwise. A semaphore
+ * bounds the number of queries executed at once, so that the connection pool
+ * of the DataSource is not oversubscribed: create one AsyncQueryExecutor per
+ * DataSource, or give the same Semaphore to the executors of a DataSource.
+ * Failures complete the futures with a CompletionException wrapping the
+ * QueryException.
+ */
+public class AsyncQueryExecutor {
+  private final QueryExecutor queryExecutor;
+  private final Semaphore permits;
+  private final int maxConcurrency;
+  private final ExecutorService executorService;
+  private final boolean virtualThreads;
+
+  /**
+   * @param queryExecutor
+   * @param maxConcurrency
+   *          maximum number of queries executed at once, at most the size of
+   *          the connection pool
+   */
+  public AsyncQueryExecutor(final QueryExecutor queryExecutor,
+      final int maxConcurrency) {
+    this(queryExecutor, new Semaphore(maxConcurrency, true));
+  }
+
+  /**
+   * @param queryExecutor
+   * @param permits
+   *          shared by the executors of the same DataSource, each query
+   *          holding a permit while it is executed. All its permits must be
+   *          available: their number is the maximum concurrency, at most the
+   *          size of the connection pool.
+   */
+  public AsyncQueryExecutor(final QueryExecutor queryExecutor,
+      final Semaphore permits) {
+    maxConcurrency = permits.availablePermits();
+    if (maxConcurrency <= 0)
+      throw new IllegalArgumentException(
+          "Maximum concurrency must be positive: " + maxConcurrency);
+    this.queryExecutor = queryExecutor;
+    this.permits = permits;
+    final ExecutorService virtualThreadExecutor = ThreadPools
+        .newVirtualThreadExecutor();
+    virtualThreads = virtualThreadExecutor != null;
+    executorService = virtualThreads ? virtualThreadExecutor : ThreadPools
+        .newPlatformThreadPool("async-query-", maxConcurrency);
+  }
+
+  public CompletableFuture<Integer> executeAsync(final UpdateQuery query)
+      throws QueryException {
+    return submitUpdate(RenderedQuery.render(query));
+  }
+
+  public CompletableFuture<Integer> executeAsync(final InsertQuery query)
+      throws QueryException {
+    return submitUpdate(RenderedQuery.render(query));
+  }
+
+  public CompletableFuture<Integer> executeAsync(final DeleteQuery query)
+      throws QueryException {
+    return submitUpdate(RenderedQuery.render(query));
+  }
+
+  public <T> CompletableFuture<List<T>> executeAsync(final SelectQuery query,
+      final RowMapper<T> rowMapper) throws QueryException {
+    final RenderedQuery renderedQuery = RenderedQuery.render(query);
+    return submit(new Task<List<T>>() {
+      public List<T> execute(final QuerySession session)
+          throws QueryException {
+        return session.query(renderedQuery, rowMapper);
+      }
+    });
+  }
+
+  private CompletableFuture<Integer> submitUpdate(
+      final RenderedQuery renderedQuery) {
+    return submit(new Task<Integer>() {
+      public Integer execute(final QuerySession session)
+          throws QueryException {
+        return session.executeUpdate(renderedQuery);
+      }
+    });
+  }
+
+  private interface Task<T> {
+    T execute(QuerySession session) throws QueryException;
+  }
+
+  private <T> CompletableFuture<T> submit(final Task<T> task) {
+    return CompletableFuture.supplyAsync(new Supplier<T>() {
+      public T get() {
+        permits.acquireUninterruptibly();
+        try {
+          final QuerySession session = queryExecutor.openSession();
+          try {
+            return task.execute(session);
+          } finally {
+            session.close();
+          }
+        } catch (final QueryException e) {
+          throw new CompletionException(e);
+        } finally {
+          permits.release();
+        }
+      }
+    }, executorService);
+  }
+
+  /**
+   * @return true if the queries are executed on virtual threads
+   */
+  public boolean isVirtualThreads() {
+    return virtualThreads;
+  }
+
+  public int getMaxConcurrency() {
+    return maxConcurrency;
+  }
+
+  /**
+   * @return the number of queries which can start right now
+   */
+  public int getAvailablePermits() {
+    return permits.availablePermits();
+  }
+
+  /**
+   * Stop accepting queries, the submitted ones are still executed
+   */
+  public void shutdown() {
+    executorService.shutdown();
+  }
+}
@@ -0,0 +1,67 @@
+/**
+ * Copyright (C) 2010 David Rousselie <drousselie@octo.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.octo.java.sql.exec;
+
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+/**
+ * Spread the keys over the shards by hash, integral numbers being spread by
+ * modulo so that Integer and Long keys of the same value are on the same
+ * shard. A range of keys is routed to its shards only for integral keys
+ * ranges smaller than the number of shards.
+ */
+public class HashShardMap implements ShardMap {
+  private final int shardCount;
+
+  public HashShardMap(final int shardCount) {
+    if (shardCount <= 0)
+      throw new IllegalArgumentException("Shard count must be positive: "
+          + shardCount);
+    this.shardCount = shardCount;
+  }
+
+  public int getShardCount() {
+    return shardCount;
+  }
+
+  public int getShard(final Object key) {
+    if (isIntegral(key))
+      return (int) Math.floorMod(((Number) key).longValue(),
+          (long) shardCount);
+    return Math.floorMod(key.hashCode(), shardCount);
+  }
+
+  public SortedSet<Integer> getShards(final Object start, final Object end) {
+    if (!isIntegral(start) || !isIntegral(end))
+      return null;
+    final long first = ((Number) start).longValue();
+    final long last = ((Number) end).longValue();
+    final SortedSet<Integer> shards = new TreeSet<Integer>();
+    if ((last >= first) && (last - first < shardCount))
+      for (long key = first; key <= last; key++)
+        shards.add(getShard(key));
+    else if (last >= first)
+      return null;
+    return shards;
+  }
+
+  private static boolean isIntegral(final Object key) {
+    return (key instanceof Long) || (key instanceof Integer)
+        || (key instanceof Short) || (key instanceof Byte);
+  }
+}
@@ -0,0 +1,308 @@
+/**
+ * Copyright (C) 2010 David Rousselie <drousselie@octo.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.octo.java.sql.exec;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import com.octo.java.sql.query.QueryException;
+import com.octo.java.sql.query.SelectQuery;
+
+/**
+ * Execute the union branches of a SELECT query (see
+ * SelectQuery.getUnionBranches()) as separate statements, concurrently, and
+ * merge their rows into one stream as they are read:
+ * 
+ * <code>
+ * Stream&lt;Order&gt; orders = unionExecutor.stream(select("*").from("orders_2009")
+ *     .unionAll(select("*").from("orders_2010")), orderMapper);
+ * try {
+ *   orders.forEach(exporter);
+ * } finally {
+ *   orders.close();
+ * }
+ * </code>
+ * 
+ * The rows of the branches are interleaved, so the query cannot have an ORDER
+ * BY, a LIMIT or a seek clause, which would only apply to its first branch.
+ * <br>
+ * As in SQL, a UNION removes the duplicates of the rows of every branch up to
+ * its right operand, while the branches after the last UNION are appended as
+ * with UNION ALL. This requires the mapped rows to implement equals() and
+ * hashCode(), and keeps every distinct row read from these branches in memory
+ * until the stream is closed: for large results, prefer a single SELECT
+ * DISTINCT executed by the database.<br>
+ * Each branch is read with a cursor on its own connection, given by a
+ * BranchExecutorSelector, for instance a connection to the shard or archive
+ * database of the branch. The stream must be closed unless it has been
+ * consumed until its end, which releases the connections.
+ */
+public class ParallelUnionExecutor {
+  public static final int DEFAULT_BUFFER_SIZE = 1024;
+
+  /**
+   * Choose the executor of each union branch
+   */
+  public interface BranchExecutorSelector {
+    /**
+     * @param branch
+     * @param index
+     *          of the branch, 0 for the query without its unions
+     * @return
+     */
+    QueryExecutor getExecutor(SelectQuery branch, int index);
+  }
+
+  /**
+   * End of a branch, with its failure if any
+   */
+  private static class BranchEnd {
+    private final Throwable failure;
+
+    BranchEnd(final Throwable failure) {
+      this.failure = failure;
+    }
+  }
+
+  /**
+   * Wrapper of the null rows, the queue does not accept null
+   */
+  private static final Object NULL_ROW = new Object();
+
+  private final BranchExecutorSelector selector;
+  private final Semaphore permits;
+  private final ExecutorService executorService;
+  private final int bufferSize;
+
+  /**
+   * Execute every branch on the given executor
+   */
+  public ParallelUnionExecutor(final QueryExecutor executor,
+      final int maxConcurrency) {
+    this(new BranchExecutorSelector() {
+      public QueryExecutor getExecutor(final SelectQuery branch,
+          final int index) {
+        return executor;
+      }
+    }, maxConcurrency, DEFAULT_BUFFER_SIZE);
+  }
+
+  /**
+   * @param selector
+   * @param maxConcurrency
+   *          maximum number of branches read at once
+   * @param bufferSize
+   *          maximum number of rows read but not consumed yet
+   */
+  public ParallelUnionExecutor(final BranchExecutorSelector selector,
+      final int maxConcurrency, final int bufferSize) {
+    if ((maxConcurrency <= 0) || (bufferSize <= 0))
+      throw new IllegalArgumentException(
+          "Concurrency and buffer size must be positive");
+    this.selector = selector;
+    this.bufferSize = bufferSize;
+    permits = new Semaphore(maxConcurrency, true);
+    final ExecutorService virtualThreadExecutor = ThreadPools
+        .newVirtualThreadExecutor();
+    executorService = virtualThreadExecutor != null ? virtualThreadExecutor
+        : ThreadPools.newPlatformThreadPool("union-branch-", maxConcurrency);
+  }
+
+  /**
+   * Start reading every branch and return their merged rows
+   * 
+   * @param query
+   * @param rowMapper
+   *          called concurrently by the branches
+   * @return a stream to be closed
+   * @throws QueryException
+   *           if a branch cannot be rendered, or if the query is ordered or
+   *           limited
+   */
+  public <T> Stream<T> stream(final SelectQuery query,
+      final RowMapper<T> rowMapper) throws QueryException {
+    if (!query.getOrderBy().isEmpty() || (query.getLimit() != null)
+        || (query.getSeekClause() != null))
+      throw new QueryException(
+          "Cannot merge the branches of an ordered or limited union");
+    final List<SelectQuery> branches = query.getUnionBranches();
+    // a UNION removes the duplicates of every branch up to its right operand
+    int distinctBranches = 0;
+    for (int i = 0; i < query.getUnions().size(); i++)
+      if (!query.isUnionAll(i))
+        distinctBranches = i + 2;
+
+    final MergeIterator<T> iterator = new MergeIterator<T>(branches.size(),
+        distinctBranches > 0);
+    for (int i = 0; i < branches.size(); i++) {
+      final SelectQuery branch = branches.get(i);
+      final QueryExecutor executor = selector.getExecutor(branch, i);
+      final RenderedQuery renderedQuery = RenderedQuery.render(branch);
+      final Integer fetchSize = branch.getFetchSize();
+      final boolean distinct = i < distinctBranches;
+      iterator.futures.add(executorService.submit(new Runnable() {
+        public void run() {
+          iterator.readBranch(executor, renderedQuery, fetchSize, rowMapper,
+              distinct);
+        }
+      }));
+    }
+    return StreamSupport.stream(
+        Spliterators.spliteratorUnknownSize(iterator,
+            distinctBranches == branches.size() ? Spliterator.DISTINCT : 0),
+        false).onClose(new Runnable() {
+      public void run() {
+        iterator.cancel();
+      }
+    });
+  }
+
+  /**
+   * Stop accepting queries, the streams being read are not interrupted
+   */
+  public void shutdown() {
+    executorService.shutdown();
+  }
+
+  private class MergeIterator<T> implements Iterator<T> {
+    private final BlockingQueue<Object> queue = new ArrayBlockingQueue<Object>(
+        bufferSize);
+    private final List<Future<?>> futures = new ArrayList<Future<?>>();
+    /**
+     * Rows read from the branches before the last UNION, added concurrently
+     * by these branches. Unbounded: it holds every distinct row of these
+     * branches.
+     */
+    private final Set<Object> seenRows;
+    private int runningBranches;
+    private volatile boolean cancelled = false;
+    private Object nextRow = null;
+
+    MergeIterator(final int branchCount, final boolean distinct) {
+      runningBranches = branchCount;
+      seenRows = distinct ? Collections
+          .newSetFromMap(new ConcurrentHashMap<Object, Boolean>()) : null;
+    }
+
+    void readBranch(final QueryExecutor executor, final RenderedQuery query,
+        final Integer fetchSize, final RowMapper<T> rowMapper,
+        final boolean distinct) {
+      Throwable failure = null;
+      try {
+        permits.acquire();
+        try {
+          final QueryCursor<T> cursor = executor.cursor(query, fetchSize,
+              rowMapper);
+          try {
+            while (!cancelled && cursor.hasNext()) {
+              final T row = cursor.next();
+              final Object element = row == null ? NULL_ROW : row;
+              if (!distinct || seenRows.add(element))
+                put(element);
+            }
+          } finally {
+            cursor.close();
+          }
+        } finally {
+          permits.release();
+        }
+      } catch (final Throwable e) {
+        // Errors too, like an OutOfMemoryError of the row mapper: the reader
+        // must be told the branch has ended
+        failure = e;
+      }
+      try {
+        put(new BranchEnd(failure));
+      } catch (final InterruptedException e) {
+        // cancelled, nobody is reading anymore
+      }
+      if (failure instanceof Error)
+        throw (Error) failure;
+    }
+
+    private void put(final Object element) throws InterruptedException {
+      while (!cancelled)
+        if (queue.offer(element, 100, TimeUnit.MILLISECONDS))
+          return;
+    }
+
+    public boolean hasNext() {
+      while ((nextRow == null) && (runningBranches > 0) && !cancelled) {
+        final Object element;
+        try {
+          element = queue.take();
+        } catch (final InterruptedException e) {
+          cancel();
+          Thread.currentThread().interrupt();
+          throw new IllegalStateException("Interrupted while reading rows", e);
+        }
+        if (element instanceof BranchEnd) {
+          runningBranches--;
+          final Throwable failure = ((BranchEnd) element).failure;
+          if (failure != null) {
+            cancel();
+            throw new IllegalStateException("Cannot read union branch",
+                failure);
+          }
+        } else
+          nextRow = element;
+      }
+      return nextRow != null;
+    }
+
+    public T next() {
+      if (!hasNext())
+        throw new NoSuchElementException();
+      final T row = toRow(nextRow);
+      nextRow = null;
+      return row;
+    }
+
+    @SuppressWarnings("unchecked")
+    private T toRow(final Object element) {
+      return element == NULL_ROW ? null : (T) element;
+    }
+
+    public void remove() {
+      throw new UnsupportedOperationException();
+    }
+
+    void cancel() {
+      if (cancelled)
+        return;
+      cancelled = true;
+      for (final Future<?> future : futures)
+        future.cancel(true);
+      queue.clear();
+    }
+  }
+}
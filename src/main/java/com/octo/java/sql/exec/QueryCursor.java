@@ -0,0 +1,164 @@
+/**
+ * Copyright (C) 2010 David Rousselie <drousselie@octo.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.octo.java.sql.exec;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Forward-only iterator over the rows of a SELECT query, each row is mapped
+ * when it is read. The rows are fetched from the database by batches of the
+ * fetch size, so that large results are never held in memory.<br>
+ * A cursor must be closed, in a finally block or a try-with-resources
+ * statement, unless it has been read until
+ * its end: its result set and statement are closed when the last row has been
+ * read, when close() is called or when reading a row fails.
+ * 
+ * @param <T>
+ *          type of the mapped rows
+ */
+public class QueryCursor<T> implements Iterator<T>, AutoCloseable {
+  /**
+   * Logger for this class
+   */
+  private static final Logger logger = Logger.getLogger(QueryCursor.class);
+
+  private final PreparedStatement statement;
+  private final ResultSet resultSet;
+  private final RowMapper<T> rowMapper;
+  private final QuerySession ownedSession;
+  private int rowNum = 0;
+  private boolean rowAvailable = false;
+  private boolean closed = false;
+
+  /**
+   * @param statement
+   *          closed with the cursor
+   * @param resultSet
+   * @param rowMapper
+   * @param ownedSession
+   *          session opened for this cursor and closed with it, its transaction
+   *          is ended and auto-commit restored, null if the cursor runs in a
+   *          session of the caller
+   */
+  QueryCursor(final PreparedStatement statement, final ResultSet resultSet,
+      final RowMapper<T> rowMapper, final QuerySession ownedSession) {
+    this.statement = statement;
+    this.resultSet = resultSet;
+    this.rowMapper = rowMapper;
+    this.ownedSession = ownedSession;
+  }
+
+  public boolean hasNext() {
+    if (closed)
+      return false;
+    if (!rowAvailable) {
+      try {
+        rowAvailable = resultSet.next();
+      } catch (final SQLException e) {
+        close();
+        throw new IllegalStateException("Cannot read next row", e);
+      }
+      if (!rowAvailable)
+        close();
+    }
+    return rowAvailable;
+  }
+
+  public T next() {
+    if (!hasNext())
+      throw new NoSuchElementException();
+    rowAvailable = false;
+    try {
+      return rowMapper.mapRow(resultSet, rowNum++);
+    } catch (final SQLException e) {
+      close();
+      throw new IllegalStateException("Cannot map row " + (rowNum - 1), e);
+    }
+  }
+
+  public void remove() {
+    throw new UnsupportedOperationException();
+  }
+
+  /**
+   * @return the number of rows read so far
+   */
+  public int getRowCount() {
+    return rowNum;
+  }
+
+  /**
+   * @return a sequential stream of the rows not read yet, which closes this
+   *         cursor when it is closed: use it in a try-with-resources statement
+   *         unless it is consumed until its end
+   */
+  public Stream<T> stream() {
+    return StreamSupport.stream(
+        Spliterators.spliteratorUnknownSize(this, Spliterator.ORDERED), false)
+        .onClose(new Runnable() {
+          public void run() {
+            close();
+          }
+        });
+  }
+
+  public boolean isClosed() {
+    return closed;
+  }
+
+  /**
+   * Close the result set and the statement, and the session if it has been
+   * opened for this cursor
+   */
+  public void close() {
+    if (closed)
+      return;
+    closed = true;
+    rowAvailable = false;
+    try {
+      resultSet.close();
+    } catch (final SQLException e) {
+      logger.warn("Cannot close result set", e);
+    }
+    try {
+      statement.close();
+    } catch (final SQLException e) {
+      logger.warn("Cannot close statement", e);
+    }
+    if (ownedSession != null) {
+      final Connection connection = ownedSession.getConnection();
+      try {
+        connection.commit();
+        connection.setAutoCommit(true);
+      } catch (final SQLException e) {
+        logger.warn("Cannot end cursor transaction", e);
+      }
+      ownedSession.close();
+    }
+  }
+}
@@ -0,0 +1,266 @@
+/**
+ * Copyright (C) 2010 David Rousselie <drousselie@octo.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.octo.java.sql.exec;
+
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.List;
+
+import javax.sql.DataSource;
+
+import com.octo.java.sql.query.Query;
+import com.octo.java.sql.query.QueryException;
+import com.octo.java.sql.query.SelectQuery;
+
+/**
+ * Execute queries on the connections of a DataSource:
+ * 
+ * <code>
+ * QuerySession session = executor.openSession();
+ * try {
+ *   for (Client client : clients)
+ *     session.executeUpdate(update("client") //
+ *         .set(c("name"), client.getName()) //
+ *         .where(c("id")).eq(client.getId()));
+ * } finally {
+ *   session.close();
+ * }
+ * </code>
+ * 
+ * Each session keeps the prepared statements of its connection, so the same
+ * query executed again in a session is not prepared again, its values are
+ * only bound. The one-shot methods (query(), executeUpdate(), queryCached(),
+ * cursor()) open their own session, so their statements are prepared at each
+ * call: the statistics count them as uncached prepares, not as misses. Use a
+ * session to benefit from the statement cache. The executor itself is
+ * thread-safe.
+ */
+public class QueryExecutor {
+  public static final int DEFAULT_STATEMENT_CACHE_SIZE = 64;
+
+  private final DataSource dataSource;
+  private final int statementCacheSize;
+  private final StatementCacheStatistics statistics = new StatementCacheStatistics();
+  private final StatementCacheStatistics oneShotStatistics = new StatementCacheStatistics() {
+    @Override
+    void hit() {
+      statistics.hit();
+    }
+
+    @Override
+    void miss() {
+      statistics.prepareUncached();
+    }
+
+    @Override
+    void evict() {
+      statistics.evict();
+    }
+  };
+  private final ResultCache resultCache;
+
+  public QueryExecutor(final DataSource dataSource) {
+    this(dataSource, DEFAULT_STATEMENT_CACHE_SIZE);
+  }
+
+  /**
+   * @param dataSource
+   * @param statementCacheSize
+   *          maximum number of prepared statements kept per session
+   */
+  public QueryExecutor(final DataSource dataSource,
+      final int statementCacheSize) {
+    this(dataSource, statementCacheSize, null);
+  }
+
+  /**
+   * @param dataSource
+   * @param statementCacheSize
+   *          maximum number of prepared statements kept per session
+   * @param resultCache
+   *          results of queryCached(), invalidated by the updates of the
+   *          sessions of this executor, may be shared by several executors of
+   *          the same database
+   */
+  public QueryExecutor(final DataSource dataSource,
+      final int statementCacheSize, final ResultCache resultCache) {
+    if (statementCacheSize <= 0)
+      throw new IllegalArgumentException("Cache size must be positive: "
+          + statementCacheSize);
+    this.dataSource = dataSource;
+    this.statementCacheSize = statementCacheSize;
+    this.resultCache = resultCache;
+  }
+
+  /**
+   * @return a session on a new connection of the DataSource, to be closed
+   * @throws QueryException
+   *           if no connection can be obtained
+   */
+  public QuerySession openSession() throws QueryException {
+    return openSession(statistics);
+  }
+
+  private QuerySession openSession(
+      final StatementCacheStatistics sessionStatistics) throws QueryException {
+    try {
+      return new QuerySession(dataSource.getConnection(), statementCacheSize,
+          sessionStatistics, resultCache);
+    } catch (final SQLException e) {
+      throw new QueryException("Cannot get a connection", e);
+    }
+  }
+
+  /**
+   * @return a session closed after a single call
+   */
+  private QuerySession openOneShotSession() throws QueryException {
+    return openSession(oneShotStatistics);
+  }
+
+  /**
+   * Execute an UPDATE, INSERT or DELETE query in its own session, a large
+   * multi-row insert being split into chunks (see QuerySession.executeUpdate())
+   * 
+   * @param query
+   * @return the number of modified rows
+   * @throws QueryException
+   */
+  public int executeUpdate(final Query<?> query) throws QueryException {
+    final QuerySession session = openOneShotSession();
+    try {
+      return session.executeUpdate(query);
+    } finally {
+      session.close();
+    }
+  }
+
+  int executeUpdate(final RenderedQuery query) throws QueryException {
+    final QuerySession session = openOneShotSession();
+    try {
+      return session.executeUpdate(query);
+    } finally {
+      session.close();
+    }
+  }
+
+  /**
+   * Execute a SELECT query in its own session
+   * 
+   * @param query
+   * @param rowMapper
+   * @return the mapped rows
+   * @throws QueryException
+   */
+  public <T> List<T> query(final SelectQuery query,
+      final RowMapper<T> rowMapper) throws QueryException {
+    final QuerySession session = openOneShotSession();
+    try {
+      return session.query(query, rowMapper);
+    } finally {
+      session.close();
+    }
+  }
+
+  /**
+   * Execute a SELECT query in its own session, or return its rows from the
+   * result cache if the same query has already been executed with the same
+   * values and RowMapper. Without result cache, the query is always executed.
+   * 
+   * @param query
+   * @param rowMapper
+   * @return the mapped rows, not modifiable
+   * @throws QueryException
+   */
+  public <T> List<T> queryCached(final SelectQuery query,
+      final RowMapper<T> rowMapper) throws QueryException {
+    final RenderedQuery renderedQuery = RenderedQuery.render(query);
+    if (resultCache == null)
+      return Collections.unmodifiableList(query(renderedQuery, rowMapper));
+    final List<T> cachedRows = resultCache.get(renderedQuery, rowMapper);
+    if (cachedRows != null)
+      return cachedRows;
+    final long ticket = resultCache.startLoad();
+    final List<T> rows = query(renderedQuery, rowMapper);
+    return resultCache.put(ticket, renderedQuery, rowMapper, TableCollector
+        .getReadTables(query), rows);
+  }
+
+  <T> List<T> query(final RenderedQuery query, final RowMapper<T> rowMapper)
+      throws QueryException {
+    final QuerySession session = openOneShotSession();
+    try {
+      return session.query(query, rowMapper);
+    } finally {
+      session.close();
+    }
+  }
+
+  /**
+   * Read the rows of a SELECT query with a cursor in its own session. The
+   * session runs in a transaction, so that drivers like PostgreSQL stream the
+   * rows, and is closed with the cursor.
+   * 
+   * @param query
+   * @param rowMapper
+   * @return an open cursor, to be closed
+   * @throws QueryException
+   */
+  public <T> QueryCursor<T> cursor(final SelectQuery query,
+      final RowMapper<T> rowMapper) throws QueryException {
+    return cursor(RenderedQuery.render(query), query.getFetchSize(),
+        rowMapper);
+  }
+
+  <T> QueryCursor<T> cursor(final RenderedQuery query,
+      final Integer fetchSize, final RowMapper<T> rowMapper)
+      throws QueryException {
+    final QuerySession session = openOneShotSession();
+    try {
+      session.getConnection().setAutoCommit(false);
+      return session.openCursor(query, fetchSize, rowMapper, session);
+    } catch (final SQLException e) {
+      session.close();
+      throw new QueryException("Cannot start cursor transaction", e);
+    } catch (final QueryException e) {
+      session.close();
+      throw e;
+    } catch (final RuntimeException e) {
+      session.close();
+      throw e;
+    }
+  }
+
+  public DataSource getDataSource() {
+    return dataSource;
+  }
+
+  /**
+   * @return the cache of queryCached(), null if none
+   */
+  public ResultCache getResultCache() {
+    return resultCache;
+  }
+
+  /**
+   * @return the statement cache counters of every session of this executor,
+   *         one-shot calls included
+   */
+  public StatementCacheStatistics getStatementCacheStatistics() {
+    return statistics;
+  }
+}
@@ -0,0 +1,285 @@
+/**
+ * Copyright (C) 2010 David Rousselie <drousselie@octo.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.octo.java.sql.exec;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.log4j.Logger;
+
+import com.octo.java.sql.query.InsertQuery;
+import com.octo.java.sql.query.Query;
+import com.octo.java.sql.query.QueryException;
+import com.octo.java.sql.query.SelectQuery;
+
+/**
+ * Execute queries on one connection, reusing its prepared statements. Queries
+ * are rendered with positional parameters and their values are bound directly,
+ * in the order of the placeholders.<br>
+ * A session must be used by one thread at a time and closed after use, in a
+ * finally block or a try-with-resources statement, which closes its statements
+ * and gives its connection back.
+ */
+public class QuerySession implements AutoCloseable {
+  public static final int DEFAULT_FETCH_SIZE = 500;
+
+  /**
+   * Logger for this class
+   */
+  private static final Logger logger = Logger.getLogger(QuerySession.class);
+
+  private final Connection connection;
+  private final StatementCache statementCache;
+  private final ResultCache resultCache;
+  private final Set<String> modifiedTables = new HashSet<String>();
+  private boolean closed = false;
+
+  QuerySession(final Connection connection, final int statementCacheSize,
+      final StatementCacheStatistics statistics,
+      final ResultCache resultCache) {
+    this.connection = connection;
+    this.resultCache = resultCache;
+    statementCache = new StatementCache(connection, statementCacheSize,
+        statistics);
+  }
+
+  /**
+   * @return the connection of this session, to manage transactions
+   */
+  public Connection getConnection() {
+    return connection;
+  }
+
+  public StatementCache getStatementCache() {
+    return statementCache;
+  }
+
+  /**
+   * Execute an UPDATE, INSERT or DELETE query. A multi-row insert exceeding
+   * the limits of its dialect is executed as several statements (see
+   * InsertQuery.chunks()), which are not atomic in auto-commit mode.
+   * 
+   * @param query
+   * @return the number of modified rows
+   * @throws QueryException
+   *           wrapping the SQLException if the execution has failed
+   */
+  public int executeUpdate(final Query<?> query) throws QueryException {
+    assertOpen();
+    if (query instanceof InsertQuery) {
+      int count = 0;
+      for (final InsertQuery chunk : ((InsertQuery) query).chunks())
+        count += executeUpdate(RenderedQuery.render(chunk));
+      return count;
+    }
+    return executeUpdate(RenderedQuery.render(query));
+  }
+
+  /**
+   * Execute an already rendered UPDATE, INSERT or DELETE query. The results
+   * of its modified table are removed from the result cache of the executor,
+   * once again when the session is closed as the modification may not have
+   * been committed before.
+   * 
+   * @param query
+   * @return the number of modified rows
+   * @throws QueryException
+   *           wrapping the SQLException if the execution has failed
+   */
+  public int executeUpdate(final RenderedQuery query) throws QueryException {
+    assertOpen();
+    if (query.isNeverMatching())
+      return 0;
+    final String sql = query.getSql();
+    try {
+      final PreparedStatement statement = prepare(query);
+      return statement.executeUpdate();
+    } catch (final SQLException e) {
+      statementCache.discard(sql);
+      throw new QueryException("Cannot execute " + sql, e);
+    } finally {
+      if (resultCache != null) {
+        resultCache.invalidate(query.getModifiedTables());
+        modifiedTables.addAll(query.getModifiedTables());
+      }
+    }
+  }
+
+  /**
+   * Execute a SELECT query and map every row
+   * 
+   * @param query
+   * @param rowMapper
+   * @return
+   * @throws QueryException
+   *           wrapping the SQLException if the execution has failed
+   */
+  public <T> List<T> query(final SelectQuery query,
+      final RowMapper<T> rowMapper) throws QueryException {
+    assertOpen();
+    return query(RenderedQuery.render(query), rowMapper);
+  }
+
+  /**
+   * Execute an already rendered SELECT query and map every row
+   * 
+   * @param query
+   * @param rowMapper
+   * @return
+   * @throws QueryException
+   *           wrapping the SQLException if the execution has failed
+   */
+  public <T> List<T> query(final RenderedQuery query,
+      final RowMapper<T> rowMapper) throws QueryException {
+    assertOpen();
+    if (query.isNeverMatching())
+      return new ArrayList<T>();
+    final String sql = query.getSql();
+    try {
+      final PreparedStatement statement = prepare(query);
+      final ResultSet resultSet = statement.executeQuery();
+      try {
+        final List<T> rows = new ArrayList<T>();
+        int rowNum = 0;
+        while (resultSet.next())
+          rows.add(rowMapper.mapRow(resultSet, rowNum++));
+        return rows;
+      } finally {
+        resultSet.close();
+      }
+    } catch (final SQLException e) {
+      statementCache.discard(sql);
+      throw new QueryException("Cannot execute " + sql, e);
+    }
+  }
+
+  /**
+   * Read the rows of a SELECT query with a forward-only and read-only cursor.
+   * The cursor has its own statement, not cached. Some drivers, like
+   * PostgreSQL, only honour the fetch size outside of auto-commit mode.
+   * 
+   * @param query
+   *          its fetch size is used, DEFAULT_FETCH_SIZE if not set
+   * @param rowMapper
+   *          called for each row when it is read
+   * @return an open cursor, to be closed
+   * @throws QueryException
+   *           wrapping the SQLException if the execution has failed
+   */
+  public <T> QueryCursor<T> cursor(final SelectQuery query,
+      final RowMapper<T> rowMapper) throws QueryException {
+    assertOpen();
+    return openCursor(RenderedQuery.render(query), query.getFetchSize(),
+        rowMapper, null);
+  }
+
+  <T> QueryCursor<T> openCursor(final RenderedQuery renderedQuery,
+      final Integer fetchSize, final RowMapper<T> rowMapper,
+      final QuerySession ownedSession) throws QueryException {
+    assertOpen();
+    final String sql = renderedQuery.getSql();
+    PreparedStatement statement = null;
+    try {
+      statement = connection.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY,
+          ResultSet.CONCUR_READ_ONLY);
+      statement.setFetchSize(fetchSize == null ? DEFAULT_FETCH_SIZE
+          : fetchSize);
+      bind(statement, renderedQuery);
+      return new QueryCursor<T>(statement, statement.executeQuery(),
+          rowMapper, ownedSession);
+    } catch (final SQLException e) {
+      if (statement != null)
+        try {
+          statement.close();
+        } catch (final SQLException closeException) {
+          logger.warn("Cannot close statement", closeException);
+        }
+      throw new QueryException("Cannot execute " + sql, e);
+    }
+  }
+
+  /**
+   * Close the cached statements and the connection
+   */
+  public void close() {
+    if (closed)
+      return;
+    closed = true;
+    statementCache.clear();
+    if (resultCache != null)
+      resultCache.invalidate(modifiedTables);
+    try {
+      connection.close();
+    } catch (final SQLException e) {
+      logger.warn("Cannot close connection", e);
+    }
+  }
+
+  private void assertOpen() throws QueryException {
+    if (closed)
+      throw new QueryException("Session is closed");
+  }
+
+  private PreparedStatement prepare(final RenderedQuery query)
+      throws SQLException {
+    final PreparedStatement statement = statementCache.prepare(query.getSql());
+    bind(statement, query);
+    return statement;
+  }
+
+  private void bind(final PreparedStatement statement,
+      final RenderedQuery query) throws SQLException {
+    final List<Object> values = query.getValues();
+    for (int i = 0; i < values.size(); i++) {
+      final Object value = values.get(i);
+      if (value == null)
+        bindNull(statement, i + 1);
+      else if (value instanceof Object[])
+        // an IN list bound as a single array parameter
+        statement.setObject(i + 1, query.toArrayParameter(connection,
+            (Object[]) value));
+      else
+        statement.setObject(i + 1, value);
+    }
+  }
+
+  /**
+   * Bind a null with the SQL type of the parameter when the driver gives it,
+   * as setNull() with Types.NULL is rejected by some drivers
+   */
+  private static void bindNull(final PreparedStatement statement,
+      final int index) throws SQLException {
+    int sqlType;
+    try {
+      sqlType = statement.getParameterMetaData().getParameterType(index);
+    } catch (final SQLException e) {
+      // parameter metadata not supported by the driver
+      sqlType = Types.NULL;
+    }
+    if (sqlType == Types.NULL)
+      statement.setObject(index, null);
+    else
+      statement.setNull(index, sqlType);
+  }
+}
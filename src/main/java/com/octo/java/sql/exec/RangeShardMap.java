@@ -0,0 +1,125 @@
+/**
+ * Copyright (C) 2010 David Rousselie <drousselie@octo.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.octo.java.sql.exec;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+/**
+ * Split the keys into consecutive ranges: shard i holds the keys lower than
+ * its upper bound and greater than or equal to the upper bound of shard i -
+ * 1, the last shard holds the keys greater than or equal to the last bound:
+ * 
+ * <code>
+ * // [..1000[ [1000..5000[ [5000..]
+ * new RangeShardMap(1000, 5000);
+ * </code>
+ * 
+ * Numbers of different types are compared by value, NaN being greater than
+ * any other number. Other keys must be comparable with the bounds.
+ */
+public class RangeShardMap implements ShardMap {
+  private final Comparable<?>[] upperBounds;
+
+  /**
+   * @param upperBounds
+   *          in increasing order, the last shard has no upper bound
+   */
+  public RangeShardMap(final Comparable<?>... upperBounds) {
+    for (int i = 1; i < upperBounds.length; i++)
+      if (compare(upperBounds[i - 1], upperBounds[i]) >= 0)
+        throw new IllegalArgumentException(
+            "Upper bounds must be in increasing order");
+    this.upperBounds = upperBounds.clone();
+  }
+
+  public int getShardCount() {
+    return upperBounds.length + 1;
+  }
+
+  public int getShard(final Object key) {
+    int low = 0;
+    int high = upperBounds.length;
+    while (low < high) {
+      final int middle = (low + high) >>> 1;
+      if (compare(key, upperBounds[middle]) < 0)
+        high = middle;
+      else
+        low = middle + 1;
+    }
+    return low;
+  }
+
+  public SortedSet<Integer> getShards(final Object start, final Object end) {
+    final SortedSet<Integer> shards = new TreeSet<Integer>();
+    if (compare(start, end) <= 0)
+      for (int shard = getShard(start); shard <= getShard(end); shard++)
+        shards.add(shard);
+    return shards;
+  }
+
+  /**
+   * @throws IllegalArgumentException
+   *           if the key cannot be compared with the bound
+   */
+  @SuppressWarnings("unchecked")
+  private static int compare(final Object key, final Object bound) {
+    if ((key instanceof Number) && (bound instanceof Number))
+      return compare((Number) key, (Number) bound);
+    if (!(key instanceof Comparable)
+        || (!key.getClass().isInstance(bound) && !bound.getClass()
+            .isInstance(key)))
+      throw new IllegalArgumentException("Cannot compare the shard key "
+          + key + " with the bound " + bound);
+    return ((Comparable<Object>) key).compareTo(bound);
+  }
+
+  private static int compare(final Number key, final Number bound) {
+    final BigDecimal keyValue = toBigDecimal(key);
+    final BigDecimal boundValue = toBigDecimal(bound);
+    if ((keyValue == null) || (boundValue == null))
+      return Double.compare(key.doubleValue(), bound.doubleValue());
+    return keyValue.compareTo(boundValue);
+  }
+
+  /**
+   * @return the exact value of the number, null for NaN, infinites and
+   *         numbers without decimal representation
+   */
+  private static BigDecimal toBigDecimal(final Number number) {
+    if (number instanceof BigDecimal)
+      return (BigDecimal) number;
+    if (number instanceof BigInteger)
+      return new BigDecimal((BigInteger) number);
+    if ((number instanceof Long) || (number instanceof Integer)
+        || (number instanceof Short) || (number instanceof Byte))
+      return BigDecimal.valueOf(number.longValue());
+    if ((number instanceof Double) || (number instanceof Float)) {
+      final double value = number.doubleValue();
+      if (Double.isNaN(value) || Double.isInfinite(value))
+        return null;
+      return new BigDecimal(number.toString());
+    }
+    try {
+      return new BigDecimal(number.toString());
+    } catch (final NumberFormatException e) {
+      return null;
+    }
+  }
+}
@@ -0,0 +1,189 @@
+/**
+ * Copyright (C) 2010 David Rousselie <drousselie@octo.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.octo.java.sql.exec;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import com.octo.java.sql.query.DeleteQuery;
+import com.octo.java.sql.query.InsertQuery;
+import com.octo.java.sql.query.Query;
+import com.octo.java.sql.query.QueryContext;
+import com.octo.java.sql.query.QueryException;
+import com.octo.java.sql.query.RenderedSQL;
+import com.octo.java.sql.query.UpdateQuery;
+import com.octo.java.sql.query.visitor.DefaultQueryBuilder;
+import com.octo.java.sql.query.visitor.ParameterStyle;
+
+/**
+ * Immutable SQL with positional parameters and its values, ready to be
+ * executed. Rendering a query into a RenderedQuery detaches it from the query,
+ * which can then be modified or executed by another thread.
+ */
+public final class RenderedQuery {
+  private final String sql;
+  private final List<Object> values;
+  private final Set<String> modifiedTables;
+  private final boolean neverMatching;
+  private final QueryContext context;
+
+  public RenderedQuery(final String sql, final List<Object> values) {
+    this(sql, values, Collections.<String> emptySet());
+  }
+
+  /**
+   * @param sql
+   * @param values
+   * @param modifiedTables
+   *          tables modified by an UPDATE, INSERT or DELETE query
+   */
+  public RenderedQuery(final String sql, final List<Object> values,
+      final Set<String> modifiedTables) {
+    this(sql, values, modifiedTables, false);
+  }
+
+  /**
+   * @param sql
+   * @param values
+   * @param modifiedTables
+   *          tables modified by an UPDATE, INSERT or DELETE query
+   * @param neverMatching
+   *          true if the where clause cannot match any row
+   */
+  public RenderedQuery(final String sql, final List<Object> values,
+      final Set<String> modifiedTables, final boolean neverMatching) {
+    this(sql, values, modifiedTables, neverMatching, null);
+  }
+
+  private RenderedQuery(final String sql, final List<Object> values,
+      final Set<String> modifiedTables, final boolean neverMatching,
+      final QueryContext context) {
+    this.sql = sql;
+    this.context = context;
+    this.neverMatching = neverMatching;
+    this.values = Collections.unmodifiableList(new ArrayList<Object>(values));
+    this.modifiedTables = Collections.unmodifiableSet(new HashSet<String>(
+        modifiedTables));
+  }
+
+  /**
+   * Render a query with its context and positional parameters. The visitors of
+   * the context are run on a copy of the query, which is not modified: the
+   * same query can be rendered by several threads.
+   * 
+   * @param query
+   * @return
+   * @throws QueryException
+   */
+  public static RenderedQuery render(final Query<?> query)
+      throws QueryException {
+    return renderOptimized(query.optimize());
+  }
+
+  /**
+   * @param query
+   *          a query returned by Query.optimize()
+   */
+  static RenderedQuery renderOptimized(final Query<?> query)
+      throws QueryException {
+    final QueryContext context = query.getContext();
+    final RenderedSQL rendered;
+    if (context.getParameterStyle() == ParameterStyle.POSITIONAL)
+      rendered = query.render();
+    else
+      rendered = query.render(context
+          .withParameterStyle(ParameterStyle.POSITIONAL));
+    return new RenderedQuery(rendered.getSql(), rendered.getParamValues(),
+        getModifiedTables(query), rendered.isNeverMatching(), context);
+  }
+
+  private static Set<String> getModifiedTables(final Query<?> query) {
+    final Set<String> tables = new HashSet<String>();
+    if (query instanceof UpdateQuery)
+      tables.add(ResultCache.getTableName(((UpdateQuery) query).getTable()));
+    else if (query instanceof InsertQuery)
+      tables.add(ResultCache.getTableName(((InsertQuery) query).getTable()));
+    else if (query instanceof DeleteQuery)
+      for (final String table : ((DeleteQuery) query).getTables())
+        tables.add(ResultCache.getTableName(table));
+    return tables;
+  }
+
+  public String getSql() {
+    return sql;
+  }
+
+  /**
+   * @return the values in the order of the placeholders
+   */
+  public List<Object> getValues() {
+    return values;
+  }
+
+  /**
+   * @return the lower case names of the tables modified by the query, empty
+   *         for a SELECT
+   */
+  public Set<String> getModifiedTables() {
+    return modifiedTables;
+  }
+
+  /**
+   * @return true if the query cannot match any row, a session does not execute
+   *         it
+   */
+  public boolean isNeverMatching() {
+    return neverMatching;
+  }
+
+  /**
+   * Convert the Object[] value of an IN list bound as an array parameter into
+   * a JDBC array, created by the query builder of the rendering context
+   * 
+   * @param connection
+   * @param values
+   * @return the array, or the values themselves when the query has not been
+   *         rendered by render()
+   * @throws SQLException
+   */
+  Object toArrayParameter(final Connection connection, final Object[] values)
+      throws SQLException {
+    if (context == null)
+      return values;
+    final DefaultQueryBuilder builder;
+    try {
+      builder = context.newQueryBuilder();
+    } catch (final QueryException e) {
+      throw new SQLException("Cannot create array parameter", e);
+    }
+    try {
+      return builder.createArray(connection, values);
+    } finally {
+      context.releaseQueryBuilder(builder);
+    }
+  }
+
+  @Override
+  public String toString() {
+    return sql;
+  }
+}
@@ -0,0 +1,288 @@
+/**
+ * Copyright (C) 2010 David Rousselie <drousselie@octo.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.octo.java.sql.exec;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Thread-safe LRU cache of the rows of SELECT queries, keyed by their SQL,
+ * values and RowMapper. Each entry is tagged with the tables read by its query
+ * (FROM, JOIN, unions and sub-queries) and expires after a time to live.<br>
+ * The UPDATE, INSERT and DELETE queries executed by the sessions of a
+ * QueryExecutor sharing this cache invalidate the entries of the modified
+ * table. Modifications made outside of this library are only seen when the
+ * entries expire.
+ */
+public class ResultCache {
+  private final long timeToLiveNanos;
+  private final LinkedHashMap<Key, CachedResult> entries;
+  private final Map<String, Set<Key>> keysByTable = new HashMap<String, Set<Key>>();
+  private final Map<String, Long> tableInvalidations = new HashMap<String, Long>();
+  private long invalidationCount = 0;
+  private long lastClear = 0;
+  private long hits = 0;
+  private long misses = 0;
+  private long evictions = 0;
+
+  /**
+   * @param maxSize
+   *          maximum number of cached results
+   * @param timeToLive
+   * @param unit
+   */
+  public ResultCache(final int maxSize, final long timeToLive,
+      final TimeUnit unit) {
+    if ((maxSize <= 0) || (timeToLive <= 0))
+      throw new IllegalArgumentException(
+          "Cache size and time to live must be positive");
+    timeToLiveNanos = unit.toNanos(timeToLive);
+    entries = new LinkedHashMap<Key, CachedResult>(16, 0.75f, true) {
+      private static final long serialVersionUID = 1L;
+
+      @Override
+      protected boolean removeEldestEntry(
+          final Map.Entry<Key, CachedResult> eldest) {
+        if (size() <= maxSize)
+          return false;
+        untag(eldest.getKey(), eldest.getValue());
+        evictions++;
+        return true;
+      }
+    };
+  }
+
+  /**
+   * Key of the rows of a query mapped by a RowMapper
+   */
+  private static final class Key {
+    private final String sql;
+    private final Object[] values;
+    private final RowMapper<?> rowMapper;
+    private final int hashCode;
+
+    Key(final RenderedQuery query, final RowMapper<?> rowMapper) {
+      sql = query.getSql();
+      values = query.getValues().toArray();
+      this.rowMapper = rowMapper;
+      hashCode = 31 * (31 * sql.hashCode() + Arrays.deepHashCode(values))
+          + rowMapper.hashCode();
+    }
+
+    @Override
+    public int hashCode() {
+      return hashCode;
+    }
+
+    @Override
+    public boolean equals(final Object obj) {
+      if (!(obj instanceof Key))
+        return false;
+      final Key otherKey = (Key) obj;
+      return sql.equals(otherKey.sql) && rowMapper.equals(otherKey.rowMapper)
+          && Arrays.deepEquals(values, otherKey.values);
+    }
+  }
+
+  private static final class CachedResult {
+    private final List<?> rows;
+    private final Set<String> tables;
+    private final long expiresAt;
+
+    CachedResult(final List<?> rows, final Set<String> tables,
+        final long expiresAt) {
+      this.rows = rows;
+      this.tables = tables;
+      this.expiresAt = expiresAt;
+    }
+  }
+
+  /**
+   * @return the cached rows, null if they are not cached or have expired
+   */
+  @SuppressWarnings("unchecked")
+  synchronized <T> List<T> get(final RenderedQuery query,
+      final RowMapper<T> rowMapper) {
+    final Key key = new Key(query, rowMapper);
+    final CachedResult entry = entries.get(key);
+    if ((entry != null) && (entry.expiresAt - System.nanoTime() > 0)) {
+      hits++;
+      return (List<T>) entry.rows;
+    }
+    if (entry != null) {
+      entries.remove(key);
+      untag(key, entry);
+    }
+    misses++;
+    return null;
+  }
+
+  /**
+   * @return a ticket to give to put(), to detect the invalidations made while
+   *         the query is executed
+   */
+  synchronized long startLoad() {
+    return invalidationCount;
+  }
+
+  /**
+   * Cache rows read since the given ticket, unless one of their tables has
+   * been invalidated meanwhile
+   * 
+   * @return the cached rows
+   */
+  synchronized <T> List<T> put(final long ticket, final RenderedQuery query,
+      final RowMapper<T> rowMapper, final Set<String> tables,
+      final List<T> rows) {
+    final List<T> cachedRows = Collections
+        .unmodifiableList(new ArrayList<T>(rows));
+    if (lastClear > ticket)
+      return cachedRows;
+    for (final String table : tables) {
+      final Long invalidation = tableInvalidations.get(table);
+      if ((invalidation != null) && (invalidation > ticket))
+        return cachedRows;
+    }
+    final Key key = new Key(query, rowMapper);
+    final CachedResult previous = entries.put(key, new CachedResult(
+        cachedRows, tables, System.nanoTime() + timeToLiveNanos));
+    if (previous != null)
+      untag(key, previous);
+    for (final String table : tables) {
+      Set<Key> keys = keysByTable.get(table);
+      if (keys == null) {
+        keys = new HashSet<Key>();
+        keysByTable.put(table, keys);
+      }
+      keys.add(key);
+    }
+    return cachedRows;
+  }
+
+  /**
+   * Remove the results read from the given tables
+   * 
+   * @param tables
+   *          names of the tables, an alias is ignored
+   */
+  public synchronized void invalidate(final Collection<String> tables) {
+    if (tables.isEmpty())
+      return;
+    invalidationCount++;
+    for (final String tableExpression : tables) {
+      final String table = getTableName(tableExpression);
+      tableInvalidations.put(table, invalidationCount);
+      final Set<Key> keys = keysByTable.remove(table);
+      if (keys != null)
+        for (final Key key : keys) {
+          final CachedResult entry = entries.remove(key);
+          if (entry != null)
+            untag(key, entry);
+        }
+    }
+  }
+
+  public void invalidate(final String table) {
+    invalidate(Collections.singleton(table));
+  }
+
+  /**
+   * Remove all the results, the rows being read are not cached either
+   */
+  public synchronized void clear() {
+    invalidationCount++;
+    lastClear = invalidationCount;
+    entries.clear();
+    keysByTable.clear();
+    tableInvalidations.clear();
+  }
+
+  public synchronized int size() {
+    return entries.size();
+  }
+
+  public synchronized long getHitCount() {
+    return hits;
+  }
+
+  public synchronized long getMissCount() {
+    return misses;
+  }
+
+  public synchronized long getEvictionCount() {
+    return evictions;
+  }
+
+  /**
+   * @return hits divided by lookups, 0 before the first lookup
+   */
+  public synchronized double getHitRatio() {
+    final long lookupCount = hits + misses;
+    return lookupCount == 0 ? 0 : (double) hits / lookupCount;
+  }
+
+  private void untag(final Key key, final CachedResult entry) {
+    for (final String table : entry.tables) {
+      final Set<Key> keys = keysByTable.get(table);
+      if (keys != null) {
+        keys.remove(key);
+        if (keys.isEmpty())
+          keysByTable.remove(table);
+      }
+    }
+  }
+
+  /**
+   * Remove the expired entries, which are otherwise removed when looked up or
+   * evicted
+   */
+  public synchronized void purgeExpired() {
+    final long now = System.nanoTime();
+    for (final Iterator<Map.Entry<Key, CachedResult>> iterator = entries
+        .entrySet().iterator(); iterator.hasNext();) {
+      final Map.Entry<Key, CachedResult> entry = iterator.next();
+      if (entry.getValue().expiresAt - now <= 0) {
+        iterator.remove();
+        untag(entry.getKey(), entry.getValue());
+      }
+    }
+  }
+
+  /**
+   * @param tableExpression
+   *          a table name, possibly followed by an alias
+   * @return the lower case name of the table, without its schema: a table
+   *         written with and without its schema is invalidated the same way,
+   *         same-named tables of other schemas are invalidated too
+   */
+  static String getTableName(final String tableExpression) {
+    final String trimmed = tableExpression.trim();
+    final int space = trimmed.indexOf(' ');
+    final String table = space < 0 ? trimmed : trimmed.substring(0, space);
+    return table.substring(table.lastIndexOf('.') + 1).toLowerCase();
+  }
+}
@@ -0,0 +1,38 @@
+/**
+ * Copyright (C) 2010 David Rousselie <drousselie@octo.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.octo.java.sql.exec;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Map the current row of a result set
+ * 
+ * @param <T>
+ *          type of the mapped rows
+ */
+public interface RowMapper<T> {
+  /**
+   * @param resultSet
+   *          positioned on the row to map, must not be moved
+   * @param rowNum
+   *          index of the row, starting at 0
+   * @return
+   * @throws SQLException
+   */
+  T mapRow(ResultSet resultSet, int rowNum) throws SQLException;
+}
@@ -0,0 +1,44 @@
+/**
+ * Copyright (C) 2010 David Rousselie <drousselie@octo.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.octo.java.sql.exec;
+
+import java.util.SortedSet;
+
+/**
+ * Map the values of a shard key to the shards holding them, numbered from 0
+ * to getShardCount() - 1
+ */
+public interface ShardMap {
+  int getShardCount();
+
+  /**
+   * @param key
+   *          not null
+   * @return the shard holding the rows of this key
+   */
+  int getShard(Object key);
+
+  /**
+   * @param start
+   *          not null
+   * @param end
+   *          not null
+   * @return the shards holding the keys between start and end included, or
+   *         null if they may be on any shard
+   */
+  SortedSet<Integer> getShards(Object start, Object end);
+}
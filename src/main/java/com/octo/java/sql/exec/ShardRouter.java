@@ -0,0 +1,211 @@
+/**
+ * Copyright (C) 2010 David Rousselie <drousselie@octo.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.octo.java.sql.exec;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+import com.octo.java.sql.exp.BetweenExp;
+import com.octo.java.sql.exp.Column;
+import com.octo.java.sql.exp.Exp;
+import com.octo.java.sql.exp.ExpSeq;
+import com.octo.java.sql.exp.InExp;
+import com.octo.java.sql.exp.Nullable;
+import com.octo.java.sql.exp.OpExp;
+import com.octo.java.sql.exp.Operator;
+import com.octo.java.sql.query.Query;
+import com.octo.java.sql.query.QueryException;
+import com.octo.java.sql.query.SelectQuery;
+import com.octo.java.sql.query.visitor.Visitable;
+
+/**
+ * Find the shards a query must be sent to from the conditions on the shard key
+ * column in its where clause:
+ * <ul>
+ * <li><code>key = value</code> is routed to the shard of the value,</li>
+ * <li><code>key IN (values)</code> to the shards of the values,</li>
+ * <li><code>key BETWEEN start AND end</code> to the shards of the range, if the
+ * ShardMap knows them,</li>
+ * <li>AND keeps the shards matching all its conditions on the key, OR the
+ * shards matching any of them.</li>
+ * </ul>
+ * Any other condition, a NOT IN, a NULL or a sub-query value does not restrict
+ * the shards: a query without a usable condition on the key is sent to all the
+ * shards. The key column is matched by name, ignoring its table alias and
+ * case.<br>
+ * Route the query returned by Query.optimize(), so that the conditions
+ * removed by the optimizers are ignored.
+ */
+public class ShardRouter {
+  private final String keyColumn;
+  private final ShardMap shardMap;
+
+  public ShardRouter(final String keyColumn, final ShardMap shardMap) {
+    this.keyColumn = getUnqualifiedName(keyColumn);
+    this.shardMap = shardMap;
+  }
+
+  public ShardMap getShardMap() {
+    return shardMap;
+  }
+
+  /**
+   * @param query
+   * @return the shards that can hold rows matching the query
+   * @throws QueryException
+   */
+  public SortedSet<Integer> route(final Query<?> query) throws QueryException {
+    if (query instanceof SelectQuery) {
+      final List<SelectQuery> branches = ((SelectQuery) query)
+          .getUnionBranches();
+      if (branches.size() > 1) {
+        final SortedSet<Integer> shards = new TreeSet<Integer>();
+        for (final SelectQuery branch : branches)
+          shards.addAll(route(branch));
+        return shards;
+      }
+    }
+    return restrict(getShards(query.getWhereClause()));
+  }
+
+  /**
+   * @param key
+   * @return the shard of a single key, as used for INSERT queries
+   */
+  public int getShard(final Object key) {
+    return shardMap.getShard(key);
+  }
+
+  public boolean isKeyColumn(final String columnName) {
+    return keyColumn.equalsIgnoreCase(getUnqualifiedName(columnName));
+  }
+
+  private SortedSet<Integer> restrict(final SortedSet<Integer> shards) {
+    if (shards != null)
+      return Collections.unmodifiableSortedSet(shards);
+    final SortedSet<Integer> allShards = new TreeSet<Integer>();
+    for (int shard = 0; shard < shardMap.getShardCount(); shard++)
+      allShards.add(shard);
+    return Collections.unmodifiableSortedSet(allShards);
+  }
+
+  /**
+   * @return the shards matching the expression, null for all shards
+   */
+  private SortedSet<Integer> getShards(final Exp exp) {
+    if ((exp == null) || !exp.isValid())
+      return null;
+    if (exp instanceof ExpSeq)
+      return getShards((ExpSeq) exp);
+    if (exp instanceof OpExp)
+      return getShards((OpExp) exp);
+    if (exp instanceof InExp)
+      return getShards((InExp) exp);
+    if (exp instanceof BetweenExp)
+      return getShards((BetweenExp) exp);
+    return null;
+  }
+
+  private SortedSet<Integer> getShards(final ExpSeq expSeq) {
+    final boolean and = Operator.AND.equals(expSeq.getOperator());
+    SortedSet<Integer> shards = null;
+    for (final Exp clause : expSeq.getClauses()) {
+      if (!clause.isValid())
+        continue;
+      final SortedSet<Integer> clauseShards = getShards(clause);
+      if (and) {
+        if (clauseShards == null)
+          continue;
+        if (shards == null)
+          shards = new TreeSet<Integer>(clauseShards);
+        else
+          shards.retainAll(clauseShards);
+      } else {
+        if (clauseShards == null)
+          return null;
+        if (shards == null)
+          shards = new TreeSet<Integer>();
+        shards.addAll(clauseShards);
+      }
+    }
+    return shards;
+  }
+
+  private SortedSet<Integer> getShards(final OpExp opExp) {
+    if (!Operator.EQ.equals(opExp.getOperator()))
+      return null;
+    final Object key;
+    if (isKeyColumn(opExp.getLhsValue()))
+      key = getKey(opExp.getRhsValue());
+    else if (isKeyColumn(opExp.getRhsValue()))
+      key = getKey(opExp.getLhsValue());
+    else
+      return null;
+    if (key == null)
+      return null;
+    final SortedSet<Integer> shards = new TreeSet<Integer>();
+    shards.add(shardMap.getShard(key));
+    return shards;
+  }
+
+  private SortedSet<Integer> getShards(final InExp inExp) {
+    final Object[] values = inExp.getValues();
+    if (inExp.isNegative() || !isKeyColumn(inExp.getColumn())
+        || (values == null) || (values.length == 0))
+      return null;
+    final SortedSet<Integer> shards = new TreeSet<Integer>();
+    for (final Object value : values) {
+      final Object key = getKey(value);
+      if (key == null)
+        return null;
+      shards.add(shardMap.getShard(key));
+    }
+    return shards;
+  }
+
+  private SortedSet<Integer> getShards(final BetweenExp betweenExp) {
+    if (!isKeyColumn(betweenExp.getColumn()))
+      return null;
+    final Object start = getKey(betweenExp.getValueStart());
+    final Object end = getKey(betweenExp.getValueEnd());
+    if ((start == null) || (end == null))
+      return null;
+    return shardMap.getShards(start, end);
+  }
+
+  private boolean isKeyColumn(final Object value) {
+    return (value instanceof Column)
+        && keyColumn.equalsIgnoreCase(((Column) value).getUnqualifiedName());
+  }
+
+  /**
+   * @return the key value, null if it is not a constant
+   */
+  static Object getKey(final Object value) {
+    if (value instanceof Nullable)
+      return ((Nullable) value).getValue();
+    if (value instanceof Visitable)
+      return null;
+    return value;
+  }
+
+  private static String getUnqualifiedName(final String columnName) {
+    return columnName.substring(columnName.lastIndexOf('.') + 1).trim();
+  }
+}
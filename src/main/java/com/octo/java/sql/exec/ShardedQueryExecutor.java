@@ -0,0 +1,195 @@
+/**
+ * Copyright (C) 2010 David Rousselie <drousselie@octo.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.octo.java.sql.exec;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedSet;
+
+import com.octo.java.sql.exp.SQLFunc;
+import com.octo.java.sql.query.InsertQuery;
+import com.octo.java.sql.query.Query;
+import com.octo.java.sql.query.QueryException;
+import com.octo.java.sql.query.SelectQuery;
+
+/**
+ * Execute queries only on the shards that can hold their rows, as found by a
+ * ShardRouter:
+ * 
+ * <code>
+ * ShardedQueryExecutor sharded = new ShardedQueryExecutor(new ShardRouter(
+ *     "customer_id", new HashShardMap(3)), executors);
+ * // executed on the shard of customer 42 only
+ * sharded.query(select("*").from("orders").where(c("customer_id")).eq(42),
+ *     orderMapper);
+ * </code>
+ * 
+ * The rows of several shards are concatenated in the order of the shards. As
+ * they are not merged, a query routed to several shards cannot be ordered,
+ * limited or aggregated. An update on several shards is not atomic: each shard
+ * commits its own rows.
+ */
+public class ShardedQueryExecutor {
+  private static final Set<String> AGGREGATES = new HashSet<String>(Arrays
+      .asList("count", "sum", "avg", "min", "max"));
+
+  private final ShardRouter router;
+  private final List<QueryExecutor> shards;
+
+  /**
+   * @param router
+   * @param shards
+   *          the executor of each shard, in the order of the ShardMap
+   */
+  public ShardedQueryExecutor(final ShardRouter router,
+      final List<QueryExecutor> shards) {
+    if (shards.size() != router.getShardMap().getShardCount())
+      throw new IllegalArgumentException("Expected "
+          + router.getShardMap().getShardCount() + " shards, got "
+          + shards.size());
+    this.router = router;
+    this.shards = new ArrayList<QueryExecutor>(shards);
+  }
+
+  /**
+   * Execute an UPDATE or DELETE query on the shards matching its where clause,
+   * or an INSERT query on the shard of its key value
+   * 
+   * @param query
+   * @return the number of modified rows on all the shards
+   * @throws QueryException
+   *           if an INSERT has no key value or rows of several shards
+   */
+  public int executeUpdate(final Query<?> query) throws QueryException {
+    final Query<?> optimized = query.optimize();
+    final RenderedQuery renderedQuery = RenderedQuery
+        .renderOptimized(optimized);
+    if (query instanceof InsertQuery)
+      return shards.get(getInsertShard((InsertQuery) query)).executeUpdate(
+          renderedQuery);
+    int count = 0;
+    for (final int shard : router.route(optimized))
+      count += shards.get(shard).executeUpdate(renderedQuery);
+    return count;
+  }
+
+  /**
+   * Execute a SELECT query on the shards matching its where clause
+   * 
+   * @param query
+   * @param rowMapper
+   * @return the rows of all the shards
+   * @throws QueryException
+   *           if the query is routed to several shards and is ordered, limited
+   *           or aggregated
+   */
+  public <T> List<T> query(final SelectQuery query,
+      final RowMapper<T> rowMapper) throws QueryException {
+    final SelectQuery optimized = query.optimize();
+    final SortedSet<Integer> targetShards = router.route(optimized);
+    if (targetShards.size() > 1)
+      checkConcatenable(optimized);
+    final RenderedQuery renderedQuery = RenderedQuery
+        .renderOptimized(optimized);
+    final List<T> rows = new ArrayList<T>();
+    for (final int shard : targetShards)
+      rows.addAll(shards.get(shard).query(renderedQuery, rowMapper));
+    return rows;
+  }
+
+  /**
+   * @param query
+   * @return the shards the query would be executed on
+   * @throws QueryException
+   */
+  public SortedSet<Integer> route(final Query<?> query) throws QueryException {
+    return router.route(query.optimize());
+  }
+
+  /**
+   * @param key
+   * @return the executor of the shard holding the key
+   */
+  public QueryExecutor getShardExecutor(final Object key) {
+    return shards.get(router.getShard(key));
+  }
+
+  private void checkConcatenable(final SelectQuery query)
+      throws QueryException {
+    if (!query.getOrderBy().isEmpty() || (query.getLimit() != null)
+        || (query.getSeekClause() != null))
+      throw new QueryException("Cannot merge the rows of an ordered or "
+          + "limited query on several shards");
+    for (final SelectQuery branch : query.getUnionBranches())
+      for (final Object column : branch.getColumns())
+        if (isAggregate(column))
+          throw new QueryException("Cannot merge the aggregates of "
+              + ((SQLFunc) column).getName() + " on several shards");
+  }
+
+  /**
+   * @param column
+   *          of the select list
+   * @return true if the column is computed from the rows of each shard, COUNT,
+   *         SUM, AVG, MIN or MAX by default
+   */
+  protected boolean isAggregate(final Object column) {
+    return (column instanceof SQLFunc)
+        && AGGREGATES.contains(((SQLFunc) column).getName().toLowerCase());
+  }
+
+  private int getInsertShard(final InsertQuery query) throws QueryException {
+    if (!query.isMultiRow()) {
+      for (final Object entry : query.getColumnsValues().entrySet()) {
+        final Map.Entry<?, ?> columnValue = (Map.Entry<?, ?>) entry;
+        final Object key = ShardRouter.getKey(columnValue.getValue());
+        if (router.isKeyColumn((String) columnValue.getKey()) && (key != null))
+          return router.getShard(key);
+      }
+      throw new QueryException("No shard key value in INSERT into "
+          + query.getTable());
+    }
+
+    final String[] columns = query.getColumns();
+    int keyIndex = -1;
+    for (int i = 0; i < columns.length; i++)
+      if (router.isKeyColumn(columns[i]))
+        keyIndex = i;
+    if (keyIndex < 0)
+      throw new QueryException("No shard key column in INSERT into "
+          + query.getTable());
+    Integer shard = null;
+    for (final Object[] row : query.getRows()) {
+      final Object key = ShardRouter.getKey(row[keyIndex]);
+      if (key == null)
+        throw new QueryException("No shard key value in a row of INSERT into "
+            + query.getTable());
+      final int rowShard = router.getShard(key);
+      if ((shard != null) && (shard.intValue() != rowShard))
+        throw new QueryException("INSERT into " + query.getTable()
+            + " has rows of several shards");
+      shard = rowShard;
+    }
+    if (shard == null)
+      throw new QueryException("No row in INSERT into " + query.getTable());
+    return shard;
+  }
+}
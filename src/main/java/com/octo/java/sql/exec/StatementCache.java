@@ -0,0 +1,116 @@
+/**
+ * Copyright (C) 2010 David Rousselie <drousselie@octo.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.octo.java.sql.exec;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+
+/**
+ * LRU cache of the prepared statements of one connection, keyed by SQL. The
+ * least recently used statement is closed when the cache is full. Like a
+ * connection, a cache must not be used by several threads.
+ */
+public class StatementCache {
+  /**
+   * Logger for this class
+   */
+  private static final Logger logger = Logger.getLogger(StatementCache.class);
+
+  private final Connection connection;
+  private final StatementCacheStatistics statistics;
+  private final LinkedHashMap<String, PreparedStatement> statements;
+
+  public StatementCache(final Connection connection, final int maxSize,
+      final StatementCacheStatistics statistics) {
+    if (maxSize <= 0)
+      throw new IllegalArgumentException("Cache size must be positive: "
+          + maxSize);
+    this.connection = connection;
+    this.statistics = statistics;
+    statements = new LinkedHashMap<String, PreparedStatement>(16, 0.75f, true) {
+      private static final long serialVersionUID = 1L;
+
+      @Override
+      protected boolean removeEldestEntry(
+          final Map.Entry<String, PreparedStatement> eldest) {
+        if (size() <= maxSize)
+          return false;
+        closeQuietly(eldest.getValue());
+        statistics.evict();
+        return true;
+      }
+    };
+  }
+
+  /**
+   * @param sql
+   * @return the cached statement of this SQL, prepared if needed
+   * @throws SQLException
+   */
+  public PreparedStatement prepare(final String sql) throws SQLException {
+    final PreparedStatement cached = statements.get(sql);
+    if (cached != null) {
+      statistics.hit();
+      return cached;
+    }
+    statistics.miss();
+    final PreparedStatement statement = connection.prepareStatement(sql);
+    statements.put(sql, statement);
+    return statement;
+  }
+
+  /**
+   * Remove a statement which is in an unknown state, after a failure
+   * 
+   * @param sql
+   */
+  public void discard(final String sql) {
+    final PreparedStatement statement = statements.remove(sql);
+    if (statement != null)
+      closeQuietly(statement);
+  }
+
+  public int size() {
+    return statements.size();
+  }
+
+  /**
+   * Close every cached statement
+   */
+  public void clear() {
+    final List<PreparedStatement> toClose = new ArrayList<PreparedStatement>(
+        statements.values());
+    statements.clear();
+    for (final PreparedStatement statement : toClose)
+      closeQuietly(statement);
+  }
+
+  private static void closeQuietly(final PreparedStatement statement) {
+    try {
+      statement.close();
+    } catch (final SQLException e) {
+      logger.warn("Cannot close prepared statement", e);
+    }
+  }
+}
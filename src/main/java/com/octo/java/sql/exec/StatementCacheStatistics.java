@@ -0,0 +1,77 @@
+/**
+ * Copyright (C) 2010 David Rousselie <drousselie@octo.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.octo.java.sql.exec;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Thread-safe counters of prepared statement caches, shared by every session of
+ * a QueryExecutor. The statements first prepared by the one-shot methods of the
+ * executor (query(), executeUpdate()...) are not misses but uncached prepares:
+ * their session, and its cache, are closed after a single call.
+ */
+public class StatementCacheStatistics {
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+  private final AtomicLong evictions = new AtomicLong();
+  private final AtomicLong uncachedPrepares = new AtomicLong();
+
+  void hit() {
+    hits.incrementAndGet();
+  }
+
+  void miss() {
+    misses.incrementAndGet();
+  }
+
+  void evict() {
+    evictions.incrementAndGet();
+  }
+
+  void prepareUncached() {
+    uncachedPrepares.incrementAndGet();
+  }
+
+  public long getHitCount() {
+    return hits.get();
+  }
+
+  public long getMissCount() {
+    return misses.get();
+  }
+
+  public long getEvictionCount() {
+    return evictions.get();
+  }
+
+  /**
+   * @return number of statements prepared by one-shot calls of the executor,
+   *         counted neither as hits nor as misses
+   */
+  public long getUncachedPrepareCount() {
+    return uncachedPrepares.get();
+  }
+
+  /**
+   * @return hits divided by lookups, 0 before the first lookup
+   */
+  public double getHitRatio() {
+    final long hitCount = hits.get();
+    final long lookupCount = hitCount + misses.get();
+    return lookupCount == 0 ? 0 : (double) hitCount / lookupCount;
+  }
+}
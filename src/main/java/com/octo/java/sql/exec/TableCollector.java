@@ -0,0 +1,52 @@
+/**
+ * Copyright (C) 2010 David Rousselie <drousselie@octo.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.octo.java.sql.exec;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import com.octo.java.sql.exp.JoinClause;
+import com.octo.java.sql.query.QueryException;
+import com.octo.java.sql.query.SelectQuery;
+import com.octo.java.sql.query.visitor.DefaultVisitor;
+
+/**
+ * Collect the tables read by a SELECT query, its joins, unions and sub-queries
+ */
+class TableCollector extends DefaultVisitor {
+  private final Set<String> tables = new HashSet<String>();
+
+  static Set<String> getReadTables(final SelectQuery query)
+      throws QueryException {
+    final TableCollector collector = new TableCollector();
+    query.accept(collector);
+    return collector.tables;
+  }
+
+  @Override
+  public void visit(final SelectQuery query) throws QueryException {
+    for (final String table : query.getTables())
+      tables.add(ResultCache.getTableName(table));
+    super.visit(query);
+  }
+
+  @Override
+  public void visit(final JoinClause joinClause) throws QueryException {
+    tables.add(ResultCache.getTableName(joinClause.getTable()));
+    super.visit(joinClause);
+  }
+}
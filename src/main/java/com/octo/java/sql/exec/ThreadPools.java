@@ -0,0 +1,73 @@
+/**
+ * Copyright (C) 2010 David Rousselie <drousselie@octo.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.octo.java.sql.exec;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Executors running queries, on virtual threads when the JVM supports them
+ */
+final class ThreadPools {
+  /**
+   * Logger for this class
+   */
+  private static final Logger logger = Logger.getLogger(ThreadPools.class);
+
+  private ThreadPools() {
+  }
+
+  /**
+   * @return Executors.newVirtualThreadPerTaskExecutor() or null if virtual
+   *         threads are not supported by this JVM
+   */
+  static ExecutorService newVirtualThreadExecutor() {
+    try {
+      final Method factory = Executors.class
+          .getMethod("newVirtualThreadPerTaskExecutor");
+      return (ExecutorService) factory.invoke(null);
+    } catch (final NoSuchMethodException e) {
+      return null;
+    } catch (final Exception e) {
+      logger.warn("Cannot create virtual threads, using platform threads", e);
+      return null;
+    }
+  }
+
+  /**
+   * @param namePrefix
+   * @param size
+   * @return a fixed pool of daemon threads
+   */
+  static ExecutorService newPlatformThreadPool(final String namePrefix,
+      final int size) {
+    final AtomicInteger threadCount = new AtomicInteger();
+    return Executors.newFixedThreadPool(size, new ThreadFactory() {
+      public Thread newThread(final Runnable runnable) {
+        final Thread thread = new Thread(runnable, namePrefix
+            + threadCount.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+  }
+}
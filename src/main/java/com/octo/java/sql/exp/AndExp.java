@@ -21,6 +21,31 @@ public class AndExp extends ExpSeq {
     super(clauses);
   }
 
+  private AndExp(final AndExp previous, final Exp clause,
+      final boolean appended) {
+    super(previous, clause, appended);
+  }
+
+  /**
+   * @return a new AndExp of the clauses of this sequence followed by exp, so
+   *         that a chain of and() stays one flat AndExp. This sequence is not
+   *         modified.
+   */
+  @Override
+  public AndExp and(final Exp exp) {
+    return new AndExp(this, exp, true);
+  }
+
+  @Override
+  AndExp newSeq(final Exp[] newClauses) {
+    return new AndExp(newClauses);
+  }
+
+  @Override
+  AndExp withLastClause(final Exp newLastClause) {
+    return new AndExp(this, newLastClause, false);
+  }
+
   @Override
   public Operator getOperator() {
     return Operator.AND;
@@ -60,6 +60,12 @@ public class BetweenExp extends Exp {
         "Cannot apply BETWEEN on a BETWEEN expression.");
   }
 
+  @Override
+  public BetweenExp copy() {
+    return copyValidity(new BetweenExp(column, copyValue(valueStart),
+        copyValue(valueEnd)));
+  }
+
   public void accept(final QueryVisitor visitor) throws QueryException {
     visitor.visit(this);
   }
@@ -19,11 +19,63 @@ package com.octo.java.sql.exp;
 import com.octo.java.sql.query.visitor.QueryVisitor;
 import com.octo.java.sql.query.visitor.Visitable;
 
+/**
+ * A column, qualified or not by a table reference. The name is parsed once
+ * when the column is created, dots between double quotes, back quotes or
+ * brackets are part of the identifiers. Columns are immutable, the common ones
+ * are shared through the SymbolTable.
+ */
 public class Column implements Visitable {
   private final String name;
+  private final String qualifier;
+  private final String unqualifiedName;
+  private final String tableName;
+  private final boolean quoted;
+  private final int hash;
 
   public Column(final String name) {
     this.name = name;
+    if (name == null) {
+      qualifier = null;
+      unqualifiedName = null;
+      tableName = null;
+      quoted = false;
+      hash = 0;
+      return;
+    }
+    int firstDot = -1;
+    int lastDot = -1;
+    char closingQuote = 0;
+    for (int i = 0; i < name.length(); i++) {
+      final char c = name.charAt(i);
+      if (closingQuote != 0) {
+        if (c == closingQuote)
+          closingQuote = 0;
+      } else if (c == '.') {
+        if (firstDot < 0)
+          firstDot = i;
+        lastDot = i;
+      } else
+        closingQuote = getClosingQuote(c);
+    }
+    qualifier = lastDot > 0 ? name.substring(0, lastDot) : null;
+    unqualifiedName = lastDot < 0 ? name : name.substring(lastDot + 1);
+    tableName = firstDot > 0 ? name.substring(0, firstDot) : null;
+    quoted = (unqualifiedName.length() > 0)
+        && (getClosingQuote(unqualifiedName.charAt(0)) != 0);
+    hash = name.hashCode();
+  }
+
+  private static char getClosingQuote(final char c) {
+    switch (c) {
+    case '"':
+    case '`':
+      return c;
+    case '[':
+      return ']';
+    default:
+      return 0;
+    }
   }
 
   public String getName() {
@@ -32,7 +84,7 @@ public class Column implements Visitable {
 
   @Override
   public int hashCode() {
-    return name.hashCode();
+    return hash;
   }
 
   @Override
@@ -46,7 +98,7 @@ public class Column implements Visitable {
     if (name == null)
       return otherObj.getName() == null;
     else
-      return name.equals(otherObj.getName());
+      return (hash == otherObj.hash) && name.equals(otherObj.getName());
   }
 
   @Override
@@ -58,10 +110,33 @@ public class Column implements Visitable {
     visitor.visit(this);
   }
 
+  /**
+   * @return the first identifier of a qualified column, null if the column is
+   *         not qualified
+   */
   public String getTableName() {
-    if (name.indexOf(".") > 0)
-      return name.split("\\.")[0];
-    else
-      return null;
+    return tableName;
+  }
+
+  /**
+   * @return the table reference of the column, everything before its last
+   *         dot, like "schema.table", null if the column is not qualified
+   */
+  public String getQualifier() {
+    return qualifier;
+  }
+
+  /**
+   * @return the name of the column without its qualifier, with its quotes
+   */
+  public String getUnqualifiedName() {
+    return unqualifiedName;
+  }
+
+  /**
+   * @return true if the unqualified name of the column is a quoted identifier
+   */
+  public boolean isQuoted() {
+    return quoted;
   }
 }
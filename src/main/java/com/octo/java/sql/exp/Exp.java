@@ -20,6 +20,7 @@ import static org.apache.commons.lang.StringUtils.isEmpty;
 
 import java.util.Collection;
 
+import com.octo.java.sql.query.Query;
 import com.octo.java.sql.query.QueryGrammarException;
 import com.octo.java.sql.query.visitor.Visitable;
 
@@ -34,32 +35,90 @@ public abstract class Exp implements Visitable {
     return valid;
   }
 
+  /**
+   * @return a copy of this expression and of its nested expressions, which can
+   *         be invalidated or rewritten without changing this expression
+   */
+  public abstract Exp copy();
+
+  /**
+   * @return the copy, invalidated if this expression is invalid
+   */
+  protected <E extends Exp> E copyValidity(final E copy) {
+    if (!valid)
+      copy.invalidate();
+    return copy;
+  }
+
+  /**
+   * Copy a value of an expression: expressions, queries and SQL functions are
+   * copied, other values (columns, constants, bound values) are shared
+   */
+  public static Object copyValue(final Object value) {
+    if (value instanceof Exp)
+      return ((Exp) value).copy();
+    if (value instanceof Query<?>)
+      return ((Query<?>) value).copy();
+    if (value instanceof SQLFunc)
+      return ((SQLFunc) value).copy();
+    return value;
+  }
+
+  /**
+   * @return the array itself if none of its values has to be copied, a copy
+   *         of the array with copied values otherwise
+   */
+  public static Object[] copyValues(final Object[] values) {
+    if (values == null)
+      return null;
+    Object[] result = values;
+    for (int i = 0; i < values.length; i++) {
+      final Object copy = copyValue(values[i]);
+      if (copy != values[i]) {
+        if (result == values)
+          result = values.clone();
+        result[i] = copy;
+      }
+    }
+    return result;
+  }
+
   public AndExp and(final Column andColumn, final Operator andOperator,
       final Object andValue) {
-    return new AndExp(this, new OpExp(andColumn, andOperator, andValue));
+    return and(new OpExp(andColumn, andOperator, andValue));
   }
 
   public AndExp and(final Column andColumn) {
-    return new AndExp(this, new OpExp(andColumn));
+    return and(new OpExp(andColumn));
   }
 
   public AndExp and(final SQLFunc func) {
-    return new AndExp(this, new OpExp(func));
+    return and(new OpExp(func));
   }
 
+  /**
+   * @param exp
+   * @return an AndExp of this expression and exp, a new flat AndExp with exp
+   *         appended if this expression is already an AndExp
+   */
   public AndExp and(final Exp exp) {
     return new AndExp(this, exp);
   }
 
   public OrExp or(final Column orColumn, final Operator orOperator,
       final Object orValue, final boolean orValueIsColumnName) {
-    return new OrExp(this, new OpExp(orColumn, orOperator, orValue));
+    return or(new OpExp(orColumn, orOperator, orValue));
   }
 
   public OrExp or(final Column orColumn) {
-    return new OrExp(this, new OpExp(orColumn));
+    return or(new OpExp(orColumn));
   }
 
+  /**
+   * @param exp
+   * @return an OrExp of this expression and exp, a new flat OrExp with exp
+   *         appended if this expression is already an OrExp
+   */
   public OrExp or(final Exp exp) {
     return new OrExp(this, exp);
   }
@@ -16,6 +16,7 @@
 
 package com.octo.java.sql.exp;
 
+import java.util.AbstractList;
 import java.util.Arrays;
 import java.util.List;
 
@@ -23,49 +24,156 @@ import com.octo.java.sql.query.QueryException;
 import com.octo.java.sql.query.QueryGrammarException;
 import com.octo.java.sql.query.visitor.QueryVisitor;
 
+/**
+ * Sequence of clauses joined by the same operator. The operations building a
+ * query never modify a sequence: and(), or() and the operations applied to the
+ * last clause return a new sequence sharing the other clauses, so that a
+ * sequence can be shared by several queries (see Query.freeze()).<br>
+ * The clauses before the last one are kept in an array shared by the
+ * sequences derived from each other. A sequence only reads the clauses of the
+ * array up to its own size, so another sequence can append its clauses after
+ * them: a chain of and() appends in place instead of copying the clauses.
+ */
 public abstract class ExpSeq extends Exp {
-  protected final List<Exp> clauses;
+  /**
+   * Array of the clauses shared by several sequences, size being the number of
+   * clauses already appended
+   */
+  private static final class Prefix {
+    private Exp[] clauses;
+    private int size;
+    private boolean shared = false;
+
+    Prefix(final Exp[] clauses, final int size) {
+      this.clauses = clauses;
+      this.size = size;
+    }
+  }
+
+  private static final int MIN_CAPACITY = 4;
 
+  private Prefix prefix;
+  private Exp[] prefixClauses;
+  private final int prefixSize;
+  private Exp lastClause;
+  private final List<Exp> clauseList = new AbstractList<Exp>() {
+    @Override
+    public Exp get(final int index) {
+      if ((index < 0) || (index > prefixSize))
+        throw new IndexOutOfBoundsException("Index: " + index + ", size: "
+            + size());
+      return index == prefixSize ? lastClause : prefixClauses[index];
+    }
+
+    @Override
+    public int size() {
+      return prefixSize + 1;
+    }
+  };
+
+  /**
+   * @param clauses
+   *          at least one clause
+   */
   ExpSeq(final Exp... clauses) {
     super();
-    this.clauses = Arrays.asList(clauses);
+    if (clauses.length == 0)
+      throw new IllegalArgumentException(
+          "A sequence needs at least one clause");
+    prefixSize = clauses.length - 1;
+    prefixClauses = Arrays.copyOf(clauses, Math.max(MIN_CAPACITY,
+        clauses.length));
+    prefixClauses[prefixSize] = null;
+    prefix = new Prefix(prefixClauses, prefixSize);
+    lastClause = clauses[prefixSize];
   }
 
+  /**
+   * @param previous
+   *          the sequence whose clauses are shared
+   * @param clause
+   *          the clause appended to the previous clauses, or replacing the
+   *          last one
+   * @param appended
+   *          false to replace the last clause
+   */
+  ExpSeq(final ExpSeq previous, final Exp clause, final boolean appended) {
+    super();
+    final Prefix previousPrefix = previous.prefix;
+    final int size = previous.prefixSize;
+    synchronized (previousPrefix) {
+      previousPrefix.shared = true;
+      if (!appended) {
+        prefix = previousPrefix;
+        prefixClauses = previous.prefixClauses;
+        prefixSize = size;
+      } else if ((previousPrefix.size == size)
+          || (previousPrefix.clauses[size] == previous.lastClause)) {
+        // append in place, or reuse the clause appended by another sequence
+        // derived from the previous one
+        if (previousPrefix.size == size) {
+          if (previousPrefix.clauses.length == size)
+            previousPrefix.clauses = Arrays.copyOf(previousPrefix.clauses,
+                Math.max(MIN_CAPACITY, 2 * size));
+          previousPrefix.clauses[size] = previous.lastClause;
+          previousPrefix.size = size + 1;
+        }
+        prefix = previousPrefix;
+        prefixClauses = previousPrefix.clauses;
+        prefixSize = size + 1;
+      } else {
+        prefixClauses = Arrays.copyOf(previous.prefixClauses, Math.max(
+            MIN_CAPACITY, 2 * size));
+        prefixClauses[size] = previous.lastClause;
+        prefix = new Prefix(prefixClauses, size + 1);
+        prefixSize = size + 1;
+      }
+    }
+    lastClause = clause;
+  }
+
+  /**
+   * @return a new sequence of the same operator with these clauses
+   */
+  abstract ExpSeq newSeq(final Exp[] newClauses);
+
+  /**
+   * @return a new sequence of the same operator sharing the clauses of this
+   *         one but the last one
+   */
+  abstract ExpSeq withLastClause(final Exp newLastClause);
+
   @Override
   public Exp applyOperation(final Operator operator, final Object value)
       throws QueryGrammarException {
-    final int lastIndex = clauses.size() - 1;
-    final Exp lastClause = clauses.get(lastIndex);
-    clauses.set(lastIndex, lastClause.applyOperation(operator, value));
-    return this;
+    return withLastClause(lastClause.applyOperation(operator, value));
   }
 
   @Override
   public Exp applyBetweenOperation(final Object valueStart,
       final Object valueEnd) throws QueryGrammarException {
-    final int lastIndex = clauses.size() - 1;
-    final Exp lastClause = clauses.get(lastIndex);
-    clauses.set(lastIndex, lastClause.applyBetweenOperation(valueStart,
+    return withLastClause(lastClause.applyBetweenOperation(valueStart,
         valueEnd));
-    return this;
   }
 
   @Override
   public Exp applyInOperation(final Object... values)
       throws QueryGrammarException {
-    final int lastIndex = clauses.size() - 1;
-    final Exp lastClause = clauses.get(lastIndex);
-    clauses.set(lastIndex, lastClause.applyInOperation(values));
-    return this;
+    return withLastClause(lastClause.applyInOperation(values));
   }
 
   @Override
   public Exp applyNotInOperation(final Object... values)
       throws QueryGrammarException {
-    final int lastIndex = clauses.size() - 1;
-    final Exp lastClause = clauses.get(lastIndex);
-    clauses.set(lastIndex, lastClause.applyNotInOperation(values));
-    return this;
+    return withLastClause(lastClause.applyNotInOperation(values));
+  }
+
+  @Override
+  public ExpSeq copy() {
+    final Exp[] copies = new Exp[prefixSize + 1];
+    for (int i = 0; i < copies.length; i++)
+      copies[i] = clauseList.get(i).copy();
+    return copyValidity(newSeq(copies));
   }
 
   public void accept(final QueryVisitor visitor) throws QueryException {
@@ -74,7 +182,33 @@ public abstract class ExpSeq extends Exp {
 
   public abstract Operator getOperator();
 
+  /**
+   * @return the clauses of this sequence, read only
+   */
   public List<Exp> getClauses() {
-    return clauses;
+    return clauseList;
+  }
+
+  /**
+   * Replace a clause of this sequence. Only the visitors working on the copy
+   * of a query made by Query.optimize() should modify its sequences: the
+   * clauses shared with other sequences are copied first.
+   */
+  public void setClause(final int index, final Exp clause) {
+    if (index == prefixSize) {
+      lastClause = clause;
+      return;
+    }
+    if ((index < 0) || (index > prefixSize))
+      throw new IndexOutOfBoundsException("Index: " + index + ", size: "
+          + (prefixSize + 1));
+    synchronized (prefix) {
+      if (prefix.shared) {
+        prefixClauses = Arrays.copyOf(prefixClauses, Math.max(MIN_CAPACITY,
+            prefixSize));
+        prefix = new Prefix(prefixClauses, prefixSize);
+      }
+    }
+    prefixClauses[index] = clause;
   }
 }
@@ -0,0 +1,68 @@
+/**
+ * Copyright (C) 2010 David Rousselie <drousselie@octo.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.octo.java.sql.exp;
+
+import com.octo.java.sql.query.QueryException;
+import com.octo.java.sql.query.QueryGrammarException;
+import com.octo.java.sql.query.visitor.QueryVisitor;
+
+/**
+ * A condition which never matches, like an empty IN list. Rendered as "(1 =
+ * 0)", which every dialect accepts.
+ */
+public class FalseExp extends Exp {
+  public FalseExp() {
+    super();
+  }
+
+  @Override
+  public Exp applyInOperation(final Object... newValues)
+      throws QueryGrammarException {
+    throw new QueryGrammarException(
+        "Cannot apply IN operation on a FALSE expression.");
+  }
+
+  @Override
+  public Exp applyNotInOperation(final Object... newValues)
+      throws QueryGrammarException {
+    throw new QueryGrammarException(
+        "Cannot apply NOT IN operation on a FALSE expression.");
+  }
+
+  @Override
+  public Exp applyOperation(final Operator operator, final Object value)
+      throws QueryGrammarException {
+    throw new QueryGrammarException("Cannot apply " + operator
+        + " operation on a FALSE expression.");
+  }
+
+  @Override
+  public Exp applyBetweenOperation(final Object valueStart,
+      final Object valueEnd) throws QueryGrammarException {
+    throw new QueryGrammarException(
+        "Cannot apply BETWEEN on a FALSE expression.");
+  }
+
+  @Override
+  public FalseExp copy() {
+    return copyValidity(new FalseExp());
+  }
+
+  public void accept(final QueryVisitor visitor) throws QueryException {
+    visitor.visit(this);
+  }
+}
@@ -59,6 +59,11 @@ public class InExp extends Exp {
     throw new QueryGrammarException("Cannot apply IN on a BETWEEN expression.");
   }
 
+  @Override
+  public InExp copy() {
+    return copyValidity(new InExp(column, negative, copyValues(values)));
+  }
+
   public void accept(final QueryVisitor visitor) throws QueryException {
     visitor.visit(this);
   }
@@ -34,6 +34,17 @@ public class JavaSQLFunc extends SQLFunc {
     this.evaluator = evaluator;
   }
 
+  /**
+   * The parameters of a Java function are evaluated, not visited: they are
+   * shared with the copy
+   */
+  @Override
+  public JavaSQLFunc copy() {
+    final JavaSQLFunc copy = new JavaSQLFunc(funcName, params, evaluator);
+    copy.alias = alias;
+    return copy;
+  }
+
   public Evaluable<String> getEvaluator() {
     return evaluator;
   }
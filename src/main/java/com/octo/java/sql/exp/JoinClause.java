@@ -77,6 +77,19 @@ public class JoinClause implements Visitable {
           + "' operation without an initialized join clause.");
   }
 
+  /**
+   * @param owner
+   *          the copy of the query of this join
+   * @return a copy of this join, with a copy of its ON clause
+   */
+  public JoinClause copy(final SelectQuery owner) {
+    final JoinClause copy = new JoinClause(table, joinType, owner);
+    if (onClause != null)
+      copy.onClause = onClause.copy();
+    copy.valid = valid;
+    return copy;
+  }
+
   public void accept(final QueryVisitor visitor) throws QueryException {
     visitor.visit(this);
   }
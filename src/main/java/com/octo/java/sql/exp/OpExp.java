@@ -90,6 +90,12 @@ public class OpExp extends Exp {
     return new BetweenExp((Column) lhsValue, valueStart, valueEnd);
   }
 
+  @Override
+  public OpExp copy() {
+    return copyValidity(new OpExp(copyValue(lhsValue), operator,
+        copyValue(rhsValue)));
+  }
+
   public void accept(final QueryVisitor visitor) throws QueryException {
     visitor.visit(this);
   }
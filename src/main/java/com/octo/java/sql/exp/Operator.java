@@ -18,7 +18,8 @@ package com.octo.java.sql.exp;
 
 public enum Operator {
   IS("IS"), BTW("BETWEEN"), LIKE("LIKE"), EQ("="), NEQ("!="), GEQ(">="), LEQ(
-      "<="), NOT("NOT"), IN("IN"), IS_NOT("IS NOT"), AND("AND"), OR("OR");
+      "<="), NOT("NOT"), IN("IN"), IS_NOT("IS NOT"), AND("AND"), OR("OR"), GT(
+      ">"), LT("<");
 
   private final String value;
 
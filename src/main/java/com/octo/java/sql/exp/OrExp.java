@@ -21,6 +21,31 @@ public class OrExp extends ExpSeq {
     super(clauses);
   }
 
+  private OrExp(final OrExp previous, final Exp clause,
+      final boolean appended) {
+    super(previous, clause, appended);
+  }
+
+  /**
+   * @return a new OrExp of the clauses of this sequence followed by exp, so
+   *         that a chain of or() stays one flat OrExp. This sequence is not
+   *         modified.
+   */
+  @Override
+  public OrExp or(final Exp exp) {
+    return new OrExp(this, exp, true);
+  }
+
+  @Override
+  OrExp newSeq(final Exp[] newClauses) {
+    return new OrExp(newClauses);
+  }
+
+  @Override
+  OrExp withLastClause(final Exp newLastClause) {
+    return new OrExp(this, newLastClause, false);
+  }
+
   @Override
   public Operator getOperator() {
     return Operator.OR;
@@ -46,6 +46,16 @@ public class SQLFunc implements Visitable {
     return this;
   }
 
+  /**
+   * @return a copy of this function with copies of its expression and query
+   *         parameters
+   */
+  public SQLFunc copy() {
+    final SQLFunc copy = new SQLFunc(funcName, Exp.copyValues(params));
+    copy.alias = alias;
+    return copy;
+  }
+
   public void accept(final QueryVisitor visitor) throws QueryException {
     visitor.visit(this);
   }
@@ -0,0 +1,109 @@
+/**
+ * Copyright (C) 2010 David Rousselie <drousselie@octo.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.octo.java.sql.exp;
+
+import com.octo.java.sql.query.QueryException;
+import com.octo.java.sql.query.QueryGrammarException;
+import com.octo.java.sql.query.visitor.QueryVisitor;
+
+/**
+ * Keyset pagination predicate: select the rows following the given key in the
+ * order of the key columns. Rendered as a row value comparison "(a, b) > (x,
+ * y)" when the dialect supports it and all columns have the same direction, or
+ * else expanded as "(a > x) OR (a = x AND b > y)".
+ */
+public class SeekExp extends Exp {
+  private final Column[] columns;
+  private final boolean[] descending;
+  private final Object[] values;
+
+  public SeekExp(final Column[] columns, final boolean[] descending,
+      final Object[] values) {
+    super();
+    this.columns = columns;
+    this.descending = descending;
+    this.values = values;
+  }
+
+  @Override
+  public Exp applyInOperation(final Object... newValues)
+      throws QueryGrammarException {
+    throw new QueryGrammarException(
+        "Cannot apply IN operation on a seek expression.");
+  }
+
+  @Override
+  public Exp applyNotInOperation(final Object... newValues)
+      throws QueryGrammarException {
+    throw new QueryGrammarException(
+        "Cannot apply NOT IN operation on a seek expression.");
+  }
+
+  @Override
+  public Exp applyOperation(final Operator operator, final Object value)
+      throws QueryGrammarException {
+    throw new QueryGrammarException("Cannot apply " + operator
+        + " operation on a seek expression.");
+  }
+
+  @Override
+  public Exp applyBetweenOperation(final Object valueStart,
+      final Object valueEnd) throws QueryGrammarException {
+    throw new QueryGrammarException(
+        "Cannot apply BETWEEN on a seek expression.");
+  }
+
+  @Override
+  public SeekExp copy() {
+    return copyValidity(new SeekExp(columns, descending, copyValues(values)));
+  }
+
+  public void accept(final QueryVisitor visitor) throws QueryException {
+    visitor.visit(this);
+  }
+
+  public Column[] getColumns() {
+    return columns;
+  }
+
+  public Object[] getValues() {
+    return values;
+  }
+
+  public boolean isDescending(final int index) {
+    return descending[index];
+  }
+
+  /**
+   * @param index
+   * @return the operator selecting the rows after the key on given column
+   */
+  public Operator getOperator(final int index) {
+    return descending[index] ? Operator.LT : Operator.GT;
+  }
+
+  /**
+   * @return true if every column is sorted in the same direction, the only
+   *         case where a row value comparison can be used
+   */
+  public boolean isSameDirection() {
+    for (int i = 1; i < descending.length; i++)
+      if (descending[i] != descending[0])
+        return false;
+    return true;
+  }
+}
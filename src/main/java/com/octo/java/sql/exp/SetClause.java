@@ -30,6 +30,10 @@ public class SetClause implements Visitable {
     this.value = value;
   }
 
+  public SetClause copy() {
+    return new SetClause(column, Exp.copyValue(value));
+  }
+
   public void accept(final QueryVisitor visitor) throws QueryException {
     visitor.visit(this);
   }
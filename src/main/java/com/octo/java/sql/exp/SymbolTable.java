@@ -0,0 +1,69 @@
+/**
+ * Copyright (C) 2010 David Rousselie <drousselie@octo.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.octo.java.sql.exp;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Canonical instances of the columns and tables used by the queries, so that
+ * their names are parsed once and the same instances are shared by all the
+ * queries. The table is bounded: once full, new names get a new instance
+ * which is not interned.
+ */
+public final class SymbolTable {
+  public static final int MAX_SYMBOLS = 8192;
+
+  private static final ConcurrentHashMap<String, Column> columns = new ConcurrentHashMap<String, Column>();
+  private static final ConcurrentHashMap<String, Table> tables = new ConcurrentHashMap<String, Table>();
+
+  private SymbolTable() {
+  }
+
+  /**
+   * @param name
+   *          the column name, possibly qualified
+   * @return the canonical column of this name
+   */
+  public static Column column(final String name) {
+    if (name == null)
+      return new Column(null);
+    final Column column = columns.get(name);
+    if (column != null)
+      return column;
+    final Column newColumn = new Column(name);
+    if (columns.size() >= MAX_SYMBOLS)
+      return newColumn;
+    final Column previous = columns.putIfAbsent(name, newColumn);
+    return previous == null ? newColumn : previous;
+  }
+
+  /**
+   * @param expression
+   *          a table name, possibly followed by an alias
+   * @return the canonical table of this expression
+   */
+  public static Table table(final String expression) {
+    final Table table = tables.get(expression);
+    if (table != null)
+      return table;
+    final Table newTable = new Table(expression);
+    if (tables.size() >= MAX_SYMBOLS)
+      return newTable;
+    final Table previous = tables.putIfAbsent(expression, newTable);
+    return previous == null ? newTable : previous;
+  }
+}
@@ -0,0 +1,78 @@
+/**
+ * Copyright (C) 2010 David Rousselie <drousselie@octo.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.octo.java.sql.exp;
+
+/**
+ * A table of a FROM clause or of a join, parsed once from its expression: the
+ * table name possibly followed by an alias. Tables are immutable, the common
+ * ones are shared through the SymbolTable.
+ */
+public class Table {
+  private final String expression;
+  private final String name;
+  private final String reference;
+  private final int hash;
+
+  public Table(final String expression) {
+    this.expression = expression;
+    final String[] tokens = expression.trim().split("\\s+");
+    name = tokens[0].toLowerCase();
+    reference = tokens[tokens.length - 1].toLowerCase();
+    hash = expression.hashCode();
+  }
+
+  /**
+   * @return the expression of the table, as given to the query
+   */
+  public String getExpression() {
+    return expression;
+  }
+
+  /**
+   * @return the lower case name of the table
+   */
+  public String getName() {
+    return name;
+  }
+
+  /**
+   * @return the lower case alias of the table, its name if it has no alias
+   */
+  public String getReference() {
+    return reference;
+  }
+
+  @Override
+  public int hashCode() {
+    return hash;
+  }
+
+  @Override
+  public boolean equals(final Object obj) {
+    if (this == obj)
+      return true;
+    if (!(obj instanceof Table))
+      return false;
+    final Table otherObj = (Table) obj;
+    return (hash == otherObj.hash) && expression.equals(otherObj.expression);
+  }
+
+  @Override
+  public String toString() {
+    return expression;
+  }
+}
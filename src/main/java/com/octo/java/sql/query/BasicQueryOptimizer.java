@@ -2,17 +2,19 @@ package com.octo.java.sql.query;
 
 import static org.apache.commons.collections.CollectionUtils.exists;
 import static org.apache.commons.lang.ArrayUtils.isEmpty;
-import static org.apache.commons.lang.StringUtils.isEmpty;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
-import org.apache.commons.collections.CollectionUtils;
 import org.apache.commons.collections.Predicate;
 
+import com.octo.java.sql.exp.AndExp;
 import com.octo.java.sql.exp.BetweenExp;
 import com.octo.java.sql.exp.Column;
 import com.octo.java.sql.exp.Constant;
@@ -21,27 +23,76 @@ import com.octo.java.sql.exp.ExpSeq;
 import com.octo.java.sql.exp.InExp;
 import com.octo.java.sql.exp.JoinClause;
 import com.octo.java.sql.exp.OpExp;
+import com.octo.java.sql.exp.Operator;
 import com.octo.java.sql.query.visitor.DefaultVisitor;
+import com.octo.java.sql.query.visitor.QueryVisitor;
+import com.octo.java.sql.query.visitor.QueryVisitorFactory;
+import com.octo.java.sql.query.visitor.Visitable;
 
-public class BasicQueryOptimizer extends DefaultVisitor {
-  private final Set<String> usedTables = new HashSet<String>();
-  private final Map<String, Set<String>> tableReverseDependency = new HashMap<String, Set<String>>();
-  private final Map<String, JoinClause> tableJoin = new HashMap<String, JoinClause>();
-  private String currentJoinedTable;
+public class BasicQueryOptimizer extends DefaultVisitor implements Cloneable {
+  /**
+   * A registered optimizer keeps no state, each query is visited by a copy of
+   * its own: a single instance can also be registered and shared between
+   * threads
+   */
+  public static final QueryVisitorFactory FACTORY = new QueryVisitorFactory() {
+    public QueryVisitor newVisitor() {
+      return new BasicQueryOptimizer();
+    }
+  };
+
+  /**
+   * @return a factory of optimizers removing the joins only when the given
+   *         metadata proves they cannot change the result of the query
+   */
+  public static QueryVisitorFactory factory(final SchemaMetadata metadata) {
+    return new QueryVisitorFactory() {
+      public QueryVisitor newVisitor() {
+        return new BasicQueryOptimizer(metadata);
+      }
+    };
+  }
+
+  private final SchemaMetadata metadata;
+  /**
+   * Join graphs of the visited query and of the queries enclosing it, null in
+   * a registered optimizer
+   */
+  private LinkedList<JoinGraph> visitedGraphs;
+
+  /**
+   * Without metadata, every join whose table is not used by the query is
+   * removed
+   */
+  public BasicQueryOptimizer() {
+    this(null);
+  }
+
+  /**
+   * @param metadata
+   *          null to remove every join whose table is not used, otherwise
+   *          only the joins the metadata proves removable are (see
+   *          SchemaMetadata); a column without table is then looked up in the
+   *          metadata to find the table it belongs to
+   */
+  public BasicQueryOptimizer(final SchemaMetadata metadata) {
+    super();
+    this.metadata = metadata;
+  }
 
   @Override
   public void visit(final BetweenExp betweenExp) throws QueryException {
     super.visit(betweenExp);
     if ((betweenExp.getValueStart() == null)
         || (betweenExp.getValueEnd() == null))
-      betweenExp.invalidate();
+      invalidate(betweenExp);
   }
 
   @Override
   public void visit(final InExp inExp) throws QueryException {
     super.visit(inExp);
     if (isEmpty(inExp.getValues()))
-      inExp.invalidate();
+      invalidate(inExp);
     else {
       final boolean atLeastOneInValueIsNull = exists(Arrays.asList(inExp
           .getValues()), new Predicate() {
@@ -50,7 +101,7 @@ public class BasicQueryOptimizer extends DefaultVisitor {
         }
       });
       if (atLeastOneInValueIsNull)
-        inExp.invalidate();
+        invalidate(inExp);
     }
   }
 
@@ -58,7 +109,7 @@ public class BasicQueryOptimizer extends DefaultVisitor {
   public void visit(final OpExp exp) throws QueryException {
     super.visit(exp);
     if ((exp.getLhsValue() == null) || (exp.getRhsValue() == null))
-      exp.invalidate();
+      invalidate(exp);
   }
 
   @Override
@@ -77,84 +128,246 @@ public class BasicQueryOptimizer extends DefaultVisitor {
   @Override
   public void visit(final Column column) {
     super.visit(column);
-    final String tableName = column.getTableName();
-    if (!isEmpty(tableName)) {
-      if (currentJoinedTable == null)
-        usedTables.add(tableName);
-      else if (!currentJoinedTable.equals(tableName))
-        addTableReverseDependency(currentJoinedTable, tableName);
-    }
+    addColumn(column);
   }
 
   @Override
   public void visit(final JoinClause joinClause) throws QueryException {
-    currentJoinedTable = joinClause.getTable();
-    super.visit(joinClause);
-    tableJoin.put(currentJoinedTable, joinClause);
-    currentJoinedTable = null;
+    final LinkedList<JoinGraph> graphs = visitedGraphs;
+    if ((graphs == null) || graphs.isEmpty()) {
+      super.visit(joinClause);
+      return;
+    }
+    final JoinGraph graph = graphs.getFirst();
+    final String previousJoin = graph.getCurrentJoin();
+    graph.setCurrentJoin(JoinGraph.getReference(joinClause.getTable()));
+    try {
+      super.visit(joinClause);
+    } finally {
+      graph.setCurrentJoin(previousJoin);
+    }
   }
 
   @Override
   public void visit(final SelectQuery query) throws QueryException {
-    super.visit(query);
-    for (final String table : tableJoin.keySet())
-      if (!isJoinNecessary(table))
-        tableJoin.get(table).invalidate();
+    if (visitedGraphs == null) {
+      newInvocation().visit(query);
+      return;
+    }
+    final LinkedList<JoinGraph> graphs = visitedGraphs;
+    final JoinGraph graph = new JoinGraph(query);
+    graphs.addFirst(graph);
+    try {
+      for (final Object column : query.getColumns())
+        acceptOrVisitValue(column);
+      for (final JoinClause clause : query.getJoinClauses())
+        clause.accept(this);
+      final Exp whereClause = query.getWhereClause();
+      if (whereClause != null)
+        whereClause.accept(this);
+      if (query.getSeekClause() != null)
+        query.getSeekClause().accept(this);
+      for (final String orderBy : query.getOrderBy().keySet())
+        graph.addExpressionReferences(orderBy);
+
+      if (metadata != null)
+        for (final JoinClause clause : query.getJoinClauses())
+          if (!isRemovable(graph, clause))
+            graph.addUsed(JoinGraph.getReference(clause.getTable()));
+      for (final JoinClause clause : query.getJoinClauses())
+        if (!isJoinNecessary(JoinGraph.getReference(clause.getTable()))) {
+          ClauseCounter.joinRemoved();
+          clause.invalidate();
+        }
+    } finally {
+      graphs.removeFirst();
+    }
+    for (final SelectQuery union : query.getUnions())
+      union.accept(this);
+  }
+
+  /**
+   * @return an optimizer of the same class and settings, keeping the state of
+   *         the visit of one query
+   */
+  private BasicQueryOptimizer newInvocation() {
+    try {
+      final BasicQueryOptimizer invocation = (BasicQueryOptimizer) clone();
+      invocation.visitedGraphs = new LinkedList<JoinGraph>();
+      return invocation;
+    } catch (final CloneNotSupportedException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private static void invalidate(final Exp exp) throws QueryException {
+    ClauseCounter.removed(exp);
+    exp.invalidate();
   }
 
   @Override
   public void visit(final Constant constant) {
     super.visit(constant);
-    if (Constant.STAR.equals(constant))
-      usedTables.add(null);
+    final LinkedList<JoinGraph> graphs = visitedGraphs;
+    if (Constant.STAR.equals(constant) && (graphs != null)
+        && !graphs.isEmpty())
+      graphs.getFirst().addAllUsed();
   }
 
   /**
-   * Add table1 as a reverse dependency of table2 (ie. table1 depends on table2)
-   * 
-   * @param table1
-   * @param table2
+   * Record the table of a column as used by the visited queries: by the
+   * innermost query having a table with this column and by the queries
+   * enclosing it, which may be referenced by a correlated sub-query.
    */
-  private void addTableReverseDependency(final String table1,
-      final String table2) {
-    Set<String> reverseDependencies;
-    if (!tableReverseDependency.containsKey(table2)) {
-      reverseDependencies = new HashSet<String>();
-      tableReverseDependency.put(table2, reverseDependencies);
-    } else
-      reverseDependencies = tableReverseDependency.get(table2);
-    reverseDependencies.add(table1);
+  private void addColumn(final Column column) {
+    final LinkedList<JoinGraph> graphs = visitedGraphs;
+    if (graphs == null)
+      return;
+    final String qualifier = JoinGraph.getQualifier(column);
+    if (qualifier != null) {
+      for (final JoinGraph graph : graphs)
+        graph.addReference(qualifier);
+      return;
+    }
+    if (metadata == null)
+      return;
+    final String name = JoinGraph.getUnqualifiedName(column);
+    for (final JoinGraph graph : graphs) {
+      boolean found = false;
+      for (final String reference : graph.getReferences()) {
+        final String table = graph.getReferencedTable(reference);
+        if (!metadata.isKnownTable(table))
+          graph.addReference(reference);
+        else if (metadata.hasColumn(table, name)) {
+          graph.addReference(reference);
+          found = true;
+        }
+      }
+      if (found)
+        return;
+    }
   }
 
   /**
-   * Determine if given joined table is used. <br>
-   * 4 possibles cases : <br>
-   * - null is in usedTables which means a column name has been specified
-   * without the table it belongs to<br>
-   * - '*' is in usedTables<br>
-   * - a column of the table has been used in SELECT or in a WHERE clause<br>
-   * - another table which is necessary has a dependency on the given table<br>
-   * In this exemple, "table1" depends on "table2", "table3" depends on "table1"
-   * and join on "table1" is necessary because "table3" is necessary because a
-   * "table3" column is used in SELECT:<br>
-   * <code>
-   * query = select(c("table3.column")).from("table2");
-   * query.innerJoin("table1").on(c("table1.column")).eq(c("table2.column"));
-   * query.innerJoin("table3").on(c("table3.column")).eq(c("table1.column"));
-   * </code>
+   * Determine if the join of a table is necessary to the visited query: if a
+   * column of the table is used by the select, where or order by clauses, or by
+   * the ON clause of another necessary join. With metadata, a join which may
+   * change the rows of the query is always necessary.
    * 
    * @param table
+   *          the alias of the joined table, or its name when it has none
    * @return
    */
   protected boolean isJoinNecessary(final String table) {
-    return usedTables.contains(null)
-        || usedTables.contains(Constant.STAR.getValue())
-        || usedTables.contains(table) //
-        || (tableReverseDependency.containsKey(table) && CollectionUtils
-            .exists(tableReverseDependency.get(table), new Predicate() {
-              public boolean evaluate(final Object dependency) {
-                return isJoinNecessary((String) dependency);
-              }
-            }));
+    final LinkedList<JoinGraph> graphs = visitedGraphs;
+    return (graphs == null) || graphs.isEmpty()
+        || graphs.getFirst().isNecessary(table.toLowerCase());
+  }
+
+  /**
+   * Determine if a join is removable from the query when none of its columns
+   * is used. It is if it cannot add or remove rows:<br>
+   * - a LEFT OUTER JOIN whose ON clause binds a unique key of the joined
+   * table, with equalities to other tables or to values<br>
+   * - an INNER JOIN whose ON clause only contains the equalities of a NOT NULL
+   * foreign key of a FROM table or an inner joined table to the joined table
+   */
+  private boolean isRemovable(final JoinGraph graph, final JoinClause join) {
+    final String reference = JoinGraph.getReference(join.getTable());
+    final String table = JoinGraph.getTableName(join.getTable());
+    if (!metadata.isKnownTable(table) || (join.getOnClause() == null))
+      return false;
+    final List<Exp> conditions = new ArrayList<Exp>();
+    addConditions(join.getOnClause(), conditions);
+
+    switch (join.getType()) {
+    case LEFT_OUTER_JOIN:
+      final Set<String> boundColumns = new HashSet<String>();
+      for (final Exp condition : conditions)
+        if (isEquality(condition)) {
+          final OpExp exp = (OpExp) condition;
+          addBoundColumn(reference, exp.getLhsValue(), exp.getRhsValue(),
+              boundColumns);
+          addBoundColumn(reference, exp.getRhsValue(), exp.getLhsValue(),
+              boundColumns);
+        }
+      return metadata.containsUniqueKey(table, boundColumns);
+    case INNER_JOIN:
+      return isForeignKeyJoin(graph, reference, table, conditions);
+    default:
+      return false;
+    }
+  }
+
+  private boolean isForeignKeyJoin(final JoinGraph graph,
+      final String reference, final String table, final List<Exp> conditions) {
+    String anchor = null;
+    final Map<String, String> foreignKey = new HashMap<String, String>();
+    for (final Exp condition : conditions) {
+      if (!isEquality(condition))
+        return false;
+      final OpExp exp = (OpExp) condition;
+      if (!(exp.getLhsValue() instanceof Column)
+          || !(exp.getRhsValue() instanceof Column))
+        return false;
+      Column joined = (Column) exp.getLhsValue();
+      Column other = (Column) exp.getRhsValue();
+      if (!reference.equals(JoinGraph.getQualifier(joined))) {
+        joined = other;
+        other = (Column) exp.getLhsValue();
+      }
+      final String otherQualifier = JoinGraph.getQualifier(other);
+      if (!reference.equals(JoinGraph.getQualifier(joined))
+          || (otherQualifier == null) || reference.equals(otherQualifier)
+          || ((anchor != null) && !anchor.equals(otherQualifier)))
+        return false;
+      anchor = otherQualifier;
+      foreignKey.put(JoinGraph.getUnqualifiedName(other), JoinGraph
+          .getUnqualifiedName(joined));
+    }
+    if ((anchor == null) || !graph.getReferences().contains(anchor))
+      return false;
+    final JoinClause anchorJoin = graph.getJoin(anchor);
+    if ((anchorJoin != null)
+        && (anchorJoin.getType() != JoinClause.JoinType.INNER_JOIN))
+      return false;
+    final String anchorTable = graph.getReferencedTable(anchor);
+    for (final String column : foreignKey.keySet())
+      if (!metadata.isNotNull(anchorTable, column))
+        return false;
+    return metadata.isForeignKey(anchorTable, foreignKey, table);
+  }
+
+  private static void addConditions(final Exp exp, final List<Exp> conditions) {
+    if (!exp.isValid())
+      return;
+    if (exp instanceof AndExp)
+      for (final Exp clause : ((AndExp) exp).getClauses())
+        addConditions(clause, conditions);
+    else
+      conditions.add(exp);
+  }
+
+  private static boolean isEquality(final Exp exp) {
+    return (exp instanceof OpExp)
+        && (((OpExp) exp).getOperator() == Operator.EQ);
+  }
+
+  /**
+   * Add the column to the bound columns if it is a column of the joined table
+   * equal to a value or to a column of another table
+   */
+  private static void addBoundColumn(final String reference,
+      final Object column, final Object value, final Set<String> boundColumns) {
+    if (!(column instanceof Column)
+        || !reference.equals(JoinGraph.getQualifier((Column) column)))
+      return;
+    if (value instanceof Column) {
+      final String qualifier = JoinGraph.getQualifier((Column) value);
+      if ((qualifier == null) || reference.equals(qualifier))
+        return;
+    } else if ((value == null) || (value instanceof Visitable))
+      return;
+    boundColumns.add(JoinGraph.getUnqualifiedName((Column) column));
   }
 }
@@ -0,0 +1,128 @@
+/**
+ * Copyright (C) 2010 David Rousselie <drousselie@octo.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.octo.java.sql.query;
+
+import com.octo.java.sql.exp.BetweenExp;
+import com.octo.java.sql.exp.Exp;
+import com.octo.java.sql.exp.ExpSeq;
+import com.octo.java.sql.exp.InExp;
+import com.octo.java.sql.exp.JoinClause;
+import com.octo.java.sql.exp.OpExp;
+import com.octo.java.sql.exp.SeekExp;
+import com.octo.java.sql.query.visitor.DefaultVisitor;
+
+/**
+ * Count the predicates and the joins removed by the optimizers of this
+ * package while Query.optimize() runs them. The optimizers report each clause
+ * before invalidating or replacing it, so that the query is not walked again
+ * to find what has been removed. The counter of the current optimization is
+ * kept per thread, a removal reported outside of Query.optimize() is ignored.
+ */
+final class ClauseCounter extends DefaultVisitor {
+  private static final ThreadLocal<ClauseCounter> removals = new ThreadLocal<ClauseCounter>();
+
+  private int clauses = 0;
+  private int joins = 0;
+  private ClauseCounter previous = null;
+
+  /**
+   * Count the removals reported by the current thread until stop() is called
+   */
+  static ClauseCounter start() {
+    final ClauseCounter counter = new ClauseCounter();
+    counter.previous = removals.get();
+    removals.set(counter);
+    return counter;
+  }
+
+  void stop() {
+    if (previous == null)
+      removals.remove();
+    else
+      removals.set(previous);
+  }
+
+  /**
+   * Report an expression about to be invalidated or replaced: its predicates
+   * still rendered, sub-queries included, are counted as removed
+   */
+  static void removed(final Exp exp) throws QueryException {
+    final ClauseCounter counter = removals.get();
+    if (counter != null)
+      exp.accept(counter);
+  }
+
+  static void joinRemoved() {
+    final ClauseCounter counter = removals.get();
+    if (counter != null)
+      counter.joins++;
+  }
+
+  @Override
+  public void visit(final ExpSeq expSeq) throws QueryException {
+    if (expSeq.isValid())
+      super.visit(expSeq);
+  }
+
+  @Override
+  public void visit(final OpExp exp) throws QueryException {
+    if (!exp.isValid())
+      return;
+    clauses++;
+    super.visit(exp);
+  }
+
+  @Override
+  public void visit(final InExp inExp) throws QueryException {
+    if (!inExp.isValid())
+      return;
+    clauses++;
+    super.visit(inExp);
+  }
+
+  @Override
+  public void visit(final BetweenExp betweenExp) throws QueryException {
+    if (!betweenExp.isValid())
+      return;
+    clauses++;
+    super.visit(betweenExp);
+  }
+
+  @Override
+  public void visit(final SeekExp seekExp) throws QueryException {
+    if (!seekExp.isValid())
+      return;
+    clauses++;
+    super.visit(seekExp);
+  }
+
+  /**
+   * The joins of a removed sub-query are not counted, like its ON clauses
+   */
+  @Override
+  public void visit(final JoinClause joinClause) {
+    // nothing to count
+  }
+
+  int getClauses() {
+    return clauses;
+  }
+
+  int getJoins() {
+    return joins;
+  }
+}
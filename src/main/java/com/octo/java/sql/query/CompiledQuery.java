@@ -0,0 +1,89 @@
+/**
+ * Copyright (C) 2010 David Rousselie <drousselie@octo.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.octo.java.sql.query;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import com.octo.java.sql.query.cache.SQLTemplate;
+import com.octo.java.sql.query.visitor.ParameterStyle;
+
+/**
+ * Immutable SQL template produced by Query.compile(). It can be shared between
+ * threads and bound many times with new values, without building the query
+ * again.<br>
+ * The shape of the query is frozen at compile time: clauses removed by the
+ * optimizers stay removed and binding a null value does not remove a clause.
+ */
+public class CompiledQuery {
+  private final SQLTemplate template;
+
+  CompiledQuery(final String sql, final ParameterStyle parameterStyle,
+      final List<String> parameterNames, final int parameterCount) {
+    this.template = new SQLTemplate(sql, parameterStyle, parameterNames,
+        parameterCount);
+  }
+
+  public String getSql() {
+    return template.getSql();
+  }
+
+  /**
+   * @return POSITIONAL if the values must be bound in slot order on the '?'
+   *         placeholders of the SQL, without calling bind()
+   */
+  public ParameterStyle getParameterStyle() {
+    return template.getParameterStyle();
+  }
+
+  public int getParameterCount() {
+    return template.getParameterCount();
+  }
+
+  /**
+   * @param slot
+   *          0 based position of a bound value
+   * @return the name of the parameter bound at this position, null with
+   *         positional parameters
+   */
+  public String getParameterName(final int slot) {
+    return template.getParameterName(slot);
+  }
+
+  /**
+   * Build the parameters map for the given values
+   * 
+   * @param values
+   *          one value per slot, in the order they appear in the query
+   * @return
+   * @throws QueryException
+   *           if the number of values does not match the number of slots or
+   *           if the query has been compiled with positional parameters
+   */
+  public Map<String, Object> bind(final Object... values)
+      throws QueryException {
+    if (template.getParameterStyle() == ParameterStyle.POSITIONAL)
+      throw new QueryException(
+          "Cannot name the values of a query compiled with positional parameters");
+    final int parameterCount = template.getParameterCount();
+    if ((values == null) || (values.length != parameterCount))
+      throw new QueryException("Compiled query expects " + parameterCount
+          + " values but got " + (values == null ? 0 : values.length));
+    return template.bind(Arrays.asList(values));
+  }
+}
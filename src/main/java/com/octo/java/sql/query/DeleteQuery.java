@@ -24,9 +24,12 @@ public class DeleteQuery extends Query<DeleteQuery> {
   /**
    * Constructor can only be called by factory methods in Query class
    * 
+   * @param context
+   *          null to use the default context
    * @param tables
    */
-  DeleteQuery(final String... tables) {
+  DeleteQuery(final QueryContext context, final String... tables) {
+    super(context);
     this.tables = tables;
   }
 
@@ -34,6 +37,21 @@ public class DeleteQuery extends Query<DeleteQuery> {
     visitor.visit(this);
   }
 
+  @Override
+  DeleteQuery derive() {
+    final DeleteQuery derived = new DeleteQuery(getRawContext(), tables);
+    derived.whereClause = whereClause;
+    return derived;
+  }
+
+  @Override
+  public DeleteQuery copy() {
+    final DeleteQuery copy = new DeleteQuery(getRawContext(), tables);
+    if (whereClause != null)
+      copy.whereClause = whereClause.copy();
+    return copy;
+  }
+
   public String[] getTables() {
     return tables;
   }
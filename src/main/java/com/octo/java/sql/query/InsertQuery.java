@@ -16,30 +16,45 @@
 
 package com.octo.java.sql.query;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
 import org.apache.commons.collections.map.ListOrderedMap;
 
+import com.octo.java.sql.exp.Exp;
+import com.octo.java.sql.query.visitor.DefaultQueryBuilder;
 import com.octo.java.sql.query.visitor.QueryVisitor;
 
 public class InsertQuery extends Query<InsertQuery> {
   private final ListOrderedMap columnsValues = new ListOrderedMap();
   private final String table;
+  private String[] columns;
+  private final List<Object[]> rows = new ArrayList<Object[]>();
 
   /**
    * Constructor
    * 
+   * @param context
+   *          null to use the default context
    * @param table
    */
-  InsertQuery(final String table) {
+  InsertQuery(final QueryContext context, final String table) {
+    super(context);
     this.table = table;
   }
 
   public InsertQuery set(final String column, final Object value)
       throws QueryGrammarException {
+    if (columns != null)
+      throw new QueryGrammarException(
+          "Cannot set a column of a multi-row insert.");
     if (columnsValues.containsKey(column))
       throw new QueryGrammarException("Column '" + column
           + "' has already been set.");
-    columnsValues.put(column, value);
-    return this;
+    final InsertQuery query = mutable();
+    query.columnsValues.put(column, value);
+    return query;
   }
 
   public InsertQuery set(final String column, final Object value,
@@ -50,10 +65,117 @@ public class InsertQuery extends Query<InsertQuery> {
       return set(column, value);
   }
 
+  /**
+   * Start a multi-row insert of the given columns, the rows are added with
+   * row()
+   * 
+   * @param newColumns
+   * @return this query
+   * @throws QueryGrammarException
+   *           if columns have already been set
+   */
+  public InsertQuery columns(final String... newColumns)
+      throws QueryGrammarException {
+    if ((columns != null) || !columnsValues.isEmpty())
+      throw new QueryGrammarException("Columns have already been set.");
+    if ((newColumns == null) || (newColumns.length == 0))
+      throw new QueryGrammarException("Insert columns cannot be empty.");
+    final InsertQuery query = mutable();
+    query.columns = newColumns.clone();
+    return query;
+  }
+
+  /**
+   * Add a row to a multi-row insert
+   * 
+   * @param values
+   *          in the order of the columns given to columns()
+   * @return this query
+   * @throws QueryGrammarException
+   *           if columns() has not been called or if the number of values
+   *           does not match the number of columns
+   */
+  public InsertQuery row(final Object... values) throws QueryGrammarException {
+    if (columns == null)
+      throw new QueryGrammarException(
+          "Cannot add a row without calling columns() first.");
+    if ((values == null) || (values.length != columns.length))
+      throw new QueryGrammarException("Row has "
+          + (values == null ? 0 : values.length) + " values for "
+          + columns.length + " columns.");
+    final InsertQuery query = mutable();
+    query.rows.add(values.clone());
+    return query;
+  }
+
+  /**
+   * Split a multi-row insert into queries respecting the bind parameters and
+   * rows limits of the query builder of this query context. Every chunk but
+   * the last one has the same number of rows, so they share the same SQL.
+   * 
+   * @return this query alone if it does not exceed the limits
+   * @throws QueryException
+   */
+  public List<InsertQuery> chunks() throws QueryException {
+    final QueryContext currentContext = getContext();
+    final int chunkSize;
+    final DefaultQueryBuilder builder = currentContext.newQueryBuilder();
+    try {
+      chunkSize = getRowsPerChunk(builder);
+    } finally {
+      currentContext.releaseQueryBuilder(builder);
+    }
+    if (rows.size() <= chunkSize)
+      return Collections.singletonList(this);
+
+    final List<InsertQuery> chunks = new ArrayList<InsertQuery>(
+        (rows.size() + chunkSize - 1) / chunkSize);
+    for (int start = 0; start < rows.size(); start += chunkSize) {
+      final InsertQuery chunk = new InsertQuery(currentContext, table);
+      chunk.columns = columns;
+      chunk.rows.addAll(rows.subList(start, Math.min(rows.size(), start
+          + chunkSize)));
+      chunks.add(chunk);
+    }
+    return chunks;
+  }
+
+  private int getRowsPerChunk(final DefaultQueryBuilder builder)
+      throws QueryGrammarException {
+    final int columnCount = columns == null ? 1 : columns.length;
+    final int rowsPerChunk = Math.min(builder.getMaxInsertRows(), builder
+        .getMaxInsertValues() / columnCount);
+    if (rowsPerChunk < 1)
+      throw new QueryGrammarException("Cannot insert " + columnCount
+          + " columns with at most " + builder.getMaxInsertValues()
+          + " values.");
+    return rowsPerChunk;
+  }
+
   public void accept(final QueryVisitor visitor) throws QueryException {
     visitor.visit(this);
   }
 
+  @Override
+  InsertQuery derive() {
+    final InsertQuery derived = new InsertQuery(getRawContext(), table);
+    derived.columnsValues.putAll(columnsValues);
+    derived.columns = columns;
+    derived.rows.addAll(rows);
+    return derived;
+  }
+
+  @Override
+  public InsertQuery copy() {
+    final InsertQuery copy = new InsertQuery(getRawContext(), table);
+    for (final Object column : columnsValues.keyList())
+      copy.columnsValues.put(column, Exp.copyValue(columnsValues.get(column)));
+    copy.columns = columns;
+    for (final Object[] row : rows)
+      copy.rows.add(Exp.copyValues(row));
+    return copy;
+  }
+
   public ListOrderedMap getColumnsValues() {
     return columnsValues;
   }
@@ -62,4 +184,25 @@ public class InsertQuery extends Query<InsertQuery> {
     return table;
   }
 
+  /**
+   * @return true if columns() has been called
+   */
+  public boolean isMultiRow() {
+    return columns != null;
+  }
+
+  /**
+   * @return the columns of a multi-row insert, null otherwise
+   */
+  public String[] getColumns() {
+    return columns;
+  }
+
+  /**
+   * @return the rows of a multi-row insert
+   */
+  public List<Object[]> getRows() {
+    return rows;
+  }
+
 }
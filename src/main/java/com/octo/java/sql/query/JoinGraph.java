@@ -0,0 +1,190 @@
+/**
+ * Copyright (C) 2010 David Rousselie <drousselie@octo.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.octo.java.sql.query;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.octo.java.sql.exp.Column;
+import com.octo.java.sql.exp.JoinClause;
+import com.octo.java.sql.exp.SymbolTable;
+
+/**
+ * Tables of one select query and the references between its joins, used by
+ * the BasicQueryOptimizer to find the joins the query needs.<br>
+ * A table is referenced by its alias, or by its name when it has none, in
+ * lower case: <code>Orders o</code> is referenced as <code>o</code>. A join
+ * depends on the tables its ON clause uses; it is necessary when it is used,
+ * or when a necessary join depends on it. The necessary joins are computed
+ * once, with a worklist walking each dependency a single time, so cyclic
+ * dependencies and long chains of joins cost a linear time.
+ */
+final class JoinGraph {
+  private static final Pattern QUALIFIED_COLUMN = Pattern
+      .compile("([\\w$.]+)\\.[\\w$*]+");
+
+  private final Map<String, String> tables = new LinkedHashMap<String, String>();
+  private final Map<String, JoinClause> joins = new HashMap<String, JoinClause>();
+  private final Map<String, Set<String>> dependencies = new HashMap<String, Set<String>>();
+  private final Set<String> used = new HashSet<String>();
+  private boolean allUsed = false;
+  private String currentJoin = null;
+  private Set<String> necessary = null;
+
+  JoinGraph(final SelectQuery query) {
+    if (query.getTables() != null)
+      for (final String table : query.getTables())
+        tables.put(getReference(table), getTableName(table));
+    for (final JoinClause join : query.getJoinClauses()) {
+      final String reference = getReference(join.getTable());
+      tables.put(reference, getTableName(join.getTable()));
+      joins.put(reference, join);
+    }
+  }
+
+  /**
+   * @return the references of the tables of the query, FROM and joins
+   */
+  Set<String> getReferences() {
+    return tables.keySet();
+  }
+
+  /**
+   * @return the name of the table of the given reference, in lower case
+   */
+  String getReferencedTable(final String reference) {
+    return tables.get(reference);
+  }
+
+  /**
+   * @return the join of the given reference, null for a FROM table
+   */
+  JoinClause getJoin(final String reference) {
+    return joins.get(reference);
+  }
+
+  /**
+   * Following references are made by the ON clause of the given join, until
+   * it is set back to null
+   */
+  void setCurrentJoin(final String reference) {
+    currentJoin = reference;
+  }
+
+  String getCurrentJoin() {
+    return currentJoin;
+  }
+
+  /**
+   * Record a reference from the current join, or from the query itself when
+   * no join is being visited
+   */
+  void addReference(final String reference) {
+    if (currentJoin == null)
+      addUsed(reference);
+    else if (!currentJoin.equals(reference)) {
+      Set<String> joinDependencies = dependencies.get(currentJoin);
+      if (joinDependencies == null) {
+        joinDependencies = new HashSet<String>();
+        dependencies.put(currentJoin, joinDependencies);
+      }
+      joinDependencies.add(reference);
+      necessary = null;
+    }
+  }
+
+  /**
+   * Record the tables referenced by a SQL expression, like the ORDER BY
+   * <code>c.name DESC</code>
+   */
+  void addExpressionReferences(final String expression) {
+    final Matcher matcher = QUALIFIED_COLUMN.matcher(expression);
+    while (matcher.find())
+      addReference(matcher.group(1).toLowerCase());
+  }
+
+  void addUsed(final String reference) {
+    used.add(reference);
+    necessary = null;
+  }
+
+  void addAllUsed() {
+    allUsed = true;
+  }
+
+  boolean isNecessary(final String reference) {
+    if (allUsed)
+      return true;
+    if (necessary == null)
+      necessary = computeNecessary();
+    return necessary.contains(reference);
+  }
+
+  private Set<String> computeNecessary() {
+    final Set<String> result = new HashSet<String>(used);
+    final LinkedList<String> pending = new LinkedList<String>(used);
+    while (!pending.isEmpty()) {
+      final Set<String> joinDependencies = dependencies.get(pending
+          .removeFirst());
+      if (joinDependencies != null)
+        for (final String dependency : joinDependencies)
+          if (result.add(dependency))
+            pending.add(dependency);
+    }
+    return result;
+  }
+
+  /**
+   * @param tableExpression
+   *          like <code>Orders</code>, <code>Orders o</code> or
+   *          <code>Orders AS o</code>
+   * @return the alias of the table, or its name when it has none, in lower
+   *         case
+   */
+  static String getReference(final String tableExpression) {
+    return SymbolTable.table(tableExpression).getReference();
+  }
+
+  /**
+   * @return the name of the table, without its alias, in lower case
+   */
+  static String getTableName(final String tableExpression) {
+    return SymbolTable.table(tableExpression).getName();
+  }
+
+  /**
+   * @return the table part of a column, in lower case, or null if the column
+   *         is not qualified
+   */
+  static String getQualifier(final Column column) {
+    final String qualifier = column.getQualifier();
+    return qualifier == null ? null : qualifier.toLowerCase();
+  }
+
+  /**
+   * @return the column name without its table, in lower case
+   */
+  static String getUnqualifiedName(final Column column) {
+    return column.getUnqualifiedName().toLowerCase();
+  }
+}
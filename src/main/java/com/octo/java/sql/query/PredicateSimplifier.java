@@ -0,0 +1,534 @@
+/**
+ * Copyright (C) 2010 David Rousselie <drousselie@octo.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.octo.java.sql.query;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.octo.java.sql.exp.BetweenExp;
+import com.octo.java.sql.exp.Column;
+import com.octo.java.sql.exp.Constant;
+import com.octo.java.sql.exp.Exp;
+import com.octo.java.sql.exp.ExpSeq;
+import com.octo.java.sql.exp.FalseExp;
+import com.octo.java.sql.exp.InExp;
+import com.octo.java.sql.exp.Nullable;
+import com.octo.java.sql.exp.OpExp;
+import com.octo.java.sql.exp.Operator;
+import com.octo.java.sql.exp.SQLFunc;
+import com.octo.java.sql.query.visitor.DefaultVisitor;
+import com.octo.java.sql.query.visitor.QueryVisitor;
+import com.octo.java.sql.query.visitor.QueryVisitorFactory;
+import com.octo.java.sql.query.visitor.Visitable;
+
+/**
+ * Rewrite the where clauses into simpler equivalent conditions:
+ * <ul>
+ * <li>a condition repeated in the same AND or OR is removed,</li>
+ * <li><code>c = 1 OR c = 2 OR c IN (2, 3)</code> becomes
+ * <code>c IN (1, 2, 3)</code>,</li>
+ * <li><code>c IN (1, 2) AND c IN (2, 3)</code> becomes <code>c = 2</code>,</li>
+ * <li>the duplicate values of an IN list are removed.</li>
+ * </ul>
+ * A where clause that cannot match any row, like <code>c = 1 AND c = 2</code>
+ * or an empty IN list, flags the query as never matching
+ * (RenderedSQL.isNeverMatching()) and the QuerySession returns its result
+ * without executing it. Only numbers are compared to find contradictions, and
+ * a SELECT whose select list may aggregate, like <code>COUNT(*)</code>, is not
+ * flagged as it still returns a row. The SQL of such a query stays valid: an
+ * empty IN list is rendered as <code>(1 = 0)</code>.<br>
+ * Registered after the BasicQueryOptimizer, the conditions it has removed are
+ * ignored, including the empty IN lists. Like the optimizer, the simplifier is
+ * run on the copy made by Query.optimize(). A registered simplifier keeps no
+ * state, each query is visited by a new simplifier of its own: one instance
+ * can be shared between threads.
+ */
+public class PredicateSimplifier extends DefaultVisitor {
+  public static final QueryVisitorFactory FACTORY = new QueryVisitorFactory() {
+    public QueryVisitor newVisitor() {
+      return new PredicateSimplifier();
+    }
+  };
+
+  /**
+   * null in a registered simplifier
+   */
+  private final Map<Object, Boolean> neverMatchingQueries;
+  private final Map<Exp, Boolean> neverMatchingExps;
+  private int depth = 0;
+
+  public PredicateSimplifier() {
+    this(false);
+  }
+
+  /**
+   * @param invocation
+   *          true for the simplifier of one query, false for a registered
+   *          simplifier
+   */
+  private PredicateSimplifier(final boolean invocation) {
+    super();
+    if (invocation) {
+      neverMatchingQueries = new IdentityHashMap<Object, Boolean>();
+      neverMatchingExps = new IdentityHashMap<Exp, Boolean>();
+    } else {
+      neverMatchingQueries = null;
+      neverMatchingExps = null;
+    }
+  }
+
+  @Override
+  public void visit(final SelectQuery query) throws QueryException {
+    if (neverMatchingExps == null) {
+      new PredicateSimplifier(true).visit(query);
+      return;
+    }
+    depth++;
+    try {
+      boolean neverMatching = simplifyWhereClause(query)
+          && !mayAggregate(query);
+      super.visit(query);
+      for (final SelectQuery union : query.getUnions())
+        neverMatching &= neverMatchingQueries.containsKey(union);
+      markIfNeverMatching(query, neverMatching);
+    } finally {
+      depth--;
+    }
+  }
+
+  @Override
+  public void visit(final UpdateQuery query) throws QueryException {
+    if (neverMatchingExps == null) {
+      new PredicateSimplifier(true).visit(query);
+      return;
+    }
+    depth++;
+    try {
+      final boolean neverMatching = simplifyWhereClause(query);
+      super.visit(query);
+      markIfNeverMatching(query, neverMatching);
+    } finally {
+      depth--;
+    }
+  }
+
+  @Override
+  public void visit(final DeleteQuery query) throws QueryException {
+    if (neverMatchingExps == null) {
+      new PredicateSimplifier(true).visit(query);
+      return;
+    }
+    depth++;
+    try {
+      final boolean neverMatching = simplifyWhereClause(query);
+      super.visit(query);
+      markIfNeverMatching(query, neverMatching);
+    } finally {
+      depth--;
+    }
+  }
+
+  private void markIfNeverMatching(final Query<?> query,
+      final boolean neverMatching) {
+    if (!neverMatching)
+      return;
+    neverMatchingQueries.put(query, Boolean.TRUE);
+    if (depth == 1)
+      query.markNeverMatching();
+  }
+
+  /**
+   * @return true if the select list may return a row without any matching
+   *         row, like COUNT(*): every function, and every column written as an
+   *         expression, may be an aggregate
+   */
+  private static boolean mayAggregate(final SelectQuery query) {
+    for (final Object column : query.getColumns()) {
+      if (column instanceof SQLFunc)
+        return true;
+      final String name = column instanceof Column ? ((Column) column)
+          .getName() : column instanceof String ? (String) column : null;
+      if ((name != null) && (name.indexOf('(') >= 0))
+        return true;
+    }
+    return false;
+  }
+
+  /**
+   * @return true if the simplified where clause never matches
+   */
+  private boolean simplifyWhereClause(final Query<?> query)
+      throws QueryException {
+    final Exp whereClause = query.getWhereClause();
+    if (whereClause == null)
+      return false;
+    final Exp simplified = simplify(whereClause);
+    if (simplified != whereClause)
+      query.where(simplified);
+    return neverMatchingExps.containsKey(simplified);
+  }
+
+  /**
+   * A clause of a sequence, nested sequences of the same operator being seen
+   * as one flat sequence
+   */
+  private static final class Slot {
+    private final ExpSeq expSeq;
+    private final int index;
+
+    Slot(final ExpSeq expSeq, final int index) {
+      this.expSeq = expSeq;
+      this.index = index;
+    }
+
+    Exp get() {
+      return expSeq.getClauses().get(index);
+    }
+
+    void set(final Exp exp) {
+      expSeq.setClause(index, exp);
+    }
+  }
+
+  /**
+   * @return the expression to use instead of exp
+   */
+  private Exp simplify(final Exp exp) throws QueryException {
+    if (!exp.isValid())
+      return exp;
+    if (exp instanceof ExpSeq)
+      return simplifySeq((ExpSeq) exp);
+    if (exp instanceof InExp) {
+      final InExp inExp = (InExp) exp;
+      final Object[] values = inExp.getValues();
+      if ((values == null) || (values.length == 0)) {
+        if (inExp.isNegative())
+          return exp;
+        ClauseCounter.removed(inExp);
+        final Exp falseExp = new FalseExp();
+        neverMatchingExps.put(falseExp, Boolean.TRUE);
+        return falseExp;
+      }
+      final Set<Object> uniqueValues = new LinkedHashSet<Object>(Arrays
+          .asList(values));
+      if ((uniqueValues.size() < values.length) && isConstants(uniqueValues))
+        return newIn(inExp.getColumn(), uniqueValues, inExp.isNegative());
+    }
+    return exp;
+  }
+
+  private Exp simplifySeq(final ExpSeq expSeq) throws QueryException {
+    final boolean and = Operator.AND.equals(expSeq.getOperator());
+    final List<Exp> clauses = expSeq.getClauses();
+    for (int i = 0; i < clauses.size(); i++)
+      expSeq.setClause(i, simplify(clauses.get(i)));
+
+    final List<Slot> slots = new ArrayList<Slot>();
+    flatten(expSeq, expSeq.getOperator(), slots);
+    removeDuplicates(slots);
+    final boolean contradiction = mergeEqualities(slots, and);
+
+    boolean neverMatching = contradiction;
+    boolean allNeverMatching = true;
+    for (final Slot slot : slots)
+      if (slot.get().isValid()) {
+        final boolean slotNeverMatching = neverMatchingExps.containsKey(slot
+            .get());
+        neverMatching |= and && slotNeverMatching;
+        allNeverMatching &= slotNeverMatching;
+      }
+    if (!and && !allNeverMatching)
+      for (final Slot slot : slots)
+        if (slot.get().isValid() && neverMatchingExps.containsKey(slot.get()))
+          invalidate(slot.get());
+    invalidateEmptySeqs(expSeq);
+
+    if (neverMatching || (!and && allNeverMatching))
+      neverMatchingExps.put(expSeq, Boolean.TRUE);
+    Exp onlyClause = null;
+    for (final Slot slot : slots)
+      if (slot.get().isValid()) {
+        if (onlyClause != null)
+          return expSeq;
+        onlyClause = slot.get();
+      }
+    return onlyClause == null ? expSeq : onlyClause;
+  }
+
+  private void flatten(final ExpSeq expSeq, final Operator operator,
+      final List<Slot> slots) {
+    final List<Exp> clauses = expSeq.getClauses();
+    for (int i = 0; i < clauses.size(); i++) {
+      final Exp clause = clauses.get(i);
+      if (!clause.isValid())
+        continue;
+      if ((clause instanceof ExpSeq)
+          && operator.equals(((ExpSeq) clause).getOperator())
+          && !neverMatchingExps.containsKey(clause))
+        flatten((ExpSeq) clause, operator, slots);
+      else
+        slots.add(new Slot(expSeq, i));
+    }
+  }
+
+  /**
+   * Merge the equalities on the same column into one IN or equality, union of
+   * their values in an OR, intersection in an AND. The equalities of an AND are
+   * kept as is when their values cannot be compared exactly, like 1 and 1.0.
+   * 
+   * @return true if the intersection of the values of a column is empty
+   */
+  private boolean mergeEqualities(final List<Slot> slots, final boolean and)
+      throws QueryException {
+    final Map<Column, List<Slot>> equalitiesByColumn = new LinkedHashMap<Column, List<Slot>>();
+    for (final Slot slot : slots) {
+      final Column column = getEqualityColumn(slot.get());
+      if (column != null) {
+        List<Slot> columnSlots = equalitiesByColumn.get(column);
+        if (columnSlots == null) {
+          columnSlots = new ArrayList<Slot>();
+          equalitiesByColumn.put(column, columnSlots);
+        }
+        columnSlots.add(slot);
+      }
+    }
+
+    boolean contradiction = false;
+    for (final Map.Entry<Column, List<Slot>> entry : equalitiesByColumn
+        .entrySet()) {
+      final List<Slot> columnSlots = entry.getValue();
+      if (columnSlots.size() < 2)
+        continue;
+      final Set<Object> values;
+      if (and) {
+        values = intersect(columnSlots);
+        if (values == null)
+          continue;
+      } else {
+        values = new LinkedHashSet<Object>(getEqualityValues(columnSlots
+            .get(0).get()));
+        for (final Slot slot : columnSlots.subList(1, columnSlots.size()))
+          values.addAll(getEqualityValues(slot.get()));
+      }
+      if (values.isEmpty()) {
+        // kept as is to render a valid condition
+        contradiction = true;
+        continue;
+      }
+      columnSlots.get(0).set(newIn(entry.getKey(), values, false));
+      for (final Slot slot : columnSlots.subList(1, columnSlots.size()))
+        invalidate(slot.get());
+    }
+    return contradiction;
+  }
+
+  /**
+   * @return the values of the first slot equal to a value of every other slot,
+   *         null if two values cannot be compared exactly
+   */
+  private static Set<Object> intersect(final List<Slot> columnSlots) {
+    final Set<Object> values = new LinkedHashSet<Object>(
+        getEqualityValues(columnSlots.get(0).get()));
+    for (final Slot slot : columnSlots.subList(1, columnSlots.size())) {
+      final List<Object> slotValues = getEqualityValues(slot.get());
+      for (final Iterator<Object> iterator = values.iterator(); iterator
+          .hasNext();) {
+        final Object value = iterator.next();
+        boolean found = false;
+        for (final Object slotValue : slotValues) {
+          final Boolean equal = isEqual(value, slotValue);
+          if (equal == null)
+            return null;
+          found |= equal;
+        }
+        if (!found)
+          iterator.remove();
+      }
+    }
+    return values;
+  }
+
+  /**
+   * @return whether the database finds both values equal, null if it depends
+   *         on the types or the collation of the database: only integral and
+   *         decimal numbers are compared, by value. Strings may be equal in a
+   *         case insensitive or PAD SPACE collation, floating point numbers
+   *         once converted to the type of the column.
+   */
+  private static Boolean isEqual(final Object value, final Object otherValue) {
+    final BigDecimal decimal = toExactDecimal(value);
+    final BigDecimal otherDecimal = toExactDecimal(otherValue);
+    if ((decimal != null) && (otherDecimal != null))
+      return decimal.compareTo(otherDecimal) == 0;
+    return null;
+  }
+
+  private static BigDecimal toExactDecimal(final Object value) {
+    if (value instanceof BigDecimal)
+      return (BigDecimal) value;
+    if (value instanceof BigInteger)
+      return new BigDecimal((BigInteger) value);
+    if ((value instanceof Long) || (value instanceof Integer)
+        || (value instanceof Short) || (value instanceof Byte))
+      return BigDecimal.valueOf(((Number) value).longValue());
+    return null;
+  }
+
+  private static void invalidate(final Exp exp) throws QueryException {
+    ClauseCounter.removed(exp);
+    exp.invalidate();
+  }
+
+  /**
+   * Invalidate the nested sequences left without valid clause
+   * 
+   * @return true if the sequence still has a valid clause
+   */
+  private static boolean invalidateEmptySeqs(final ExpSeq expSeq) {
+    boolean anyValidClause = false;
+    for (final Exp clause : expSeq.getClauses())
+      if (clause.isValid()) {
+        if ((clause instanceof ExpSeq) && !invalidateEmptySeqs((ExpSeq) clause))
+          clause.invalidate();
+        else
+          anyValidClause = true;
+      }
+    return anyValidClause;
+  }
+
+  /**
+   * Invalidate the clauses equal to a previous valid clause
+   */
+  private void removeDuplicates(final List<Slot> slots)
+      throws QueryException {
+    final Set<List<Object>> keys = new LinkedHashSet<List<Object>>();
+    for (final Slot slot : slots) {
+      final Exp clause = slot.get();
+      if (!clause.isValid() || neverMatchingExps.containsKey(clause))
+        continue;
+      final List<Object> key = getKey(clause);
+      if ((key != null) && !keys.add(key))
+        invalidate(clause);
+    }
+  }
+
+  /**
+   * @return a key equal for equal conditions, null if it cannot be compared
+   */
+  private static List<Object> getKey(final Exp exp) {
+    if (exp instanceof OpExp) {
+      final OpExp opExp = (OpExp) exp;
+      final Object lhs = getValueKey(opExp.getLhsValue());
+      final Object rhs = getValueKey(opExp.getRhsValue());
+      if ((lhs == null) || (rhs == null))
+        return null;
+      return Arrays.asList("op", lhs, opExp.getOperator(), rhs);
+    }
+    if (exp instanceof InExp) {
+      final InExp inExp = (InExp) exp;
+      final List<Object> key = new ArrayList<Object>();
+      key.add(inExp.isNegative() ? "not in" : "in");
+      key.add(inExp.getColumn());
+      if (inExp.getValues() != null)
+        for (final Object value : inExp.getValues()) {
+          final Object valueKey = getValueKey(value);
+          if (valueKey == null)
+            return null;
+          key.add(valueKey);
+        }
+      return key;
+    }
+    if (exp instanceof BetweenExp) {
+      final BetweenExp betweenExp = (BetweenExp) exp;
+      final Object start = getValueKey(betweenExp.getValueStart());
+      final Object end = getValueKey(betweenExp.getValueEnd());
+      if ((start == null) || (end == null))
+        return null;
+      return Arrays.asList("between", betweenExp.getColumn(), start, end);
+    }
+    return null;
+  }
+
+  private static Object getValueKey(final Object value) {
+    if (value instanceof Nullable)
+      return Arrays.asList("nullable", getValueKey(((Nullable) value)
+          .getValue()));
+    if ((value instanceof Column) || (value instanceof Constant)
+        || !(value instanceof Visitable))
+      return value == null ? Collections.emptyList() : value;
+    return null;
+  }
+
+  /**
+   * @return the column of a "column = constant" or "column IN (constants)"
+   *         condition, null for other conditions
+   */
+  private Column getEqualityColumn(final Exp exp) {
+    if (!exp.isValid() || neverMatchingExps.containsKey(exp))
+      return null;
+    if (exp instanceof OpExp) {
+      final OpExp opExp = (OpExp) exp;
+      if (Operator.EQ.equals(opExp.getOperator())
+          && (opExp.getLhsValue() instanceof Column)
+          && isConstants(Collections.singleton(opExp.getRhsValue())))
+        return (Column) opExp.getLhsValue();
+    } else if (exp instanceof InExp) {
+      final InExp inExp = (InExp) exp;
+      if (!inExp.isNegative() && (inExp.getValues() != null)
+          && (inExp.getValues().length > 0)
+          && isConstants(Arrays.asList(inExp.getValues())))
+        return inExp.getColumn();
+    }
+    return null;
+  }
+
+  private static List<Object> getEqualityValues(final Exp exp) {
+    if (exp instanceof OpExp)
+      return Collections.singletonList(((OpExp) exp).getRhsValue());
+    return Arrays.asList(((InExp) exp).getValues());
+  }
+
+  private static boolean isConstants(final Iterable<?> values) {
+    for (final Object value : values)
+      if ((value == null) || (value instanceof Visitable))
+        return false;
+    return true;
+  }
+
+  private static Exp newIn(final Column column, final Set<Object> values,
+      final boolean negative) {
+    try {
+      if ((values.size() == 1) && !negative)
+        return new OpExp(column, Operator.EQ, values.iterator().next());
+      if (negative)
+        return new OpExp(column).applyNotInOperation(values.toArray());
+      return new OpExp(column).applyInOperation(values.toArray());
+    } catch (final QueryGrammarException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+}
@@ -16,10 +16,9 @@
 
 package com.octo.java.sql.query;
 
-import java.util.HashMap;
-import java.util.HashSet;
+import java.nio.ByteBuffer;
+import java.util.List;
 import java.util.Map;
-import java.util.Set;
 
 import org.apache.log4j.Logger;
 
@@ -30,8 +29,20 @@ import com.octo.java.sql.exp.Nullable;
 import com.octo.java.sql.exp.OpExp;
 import com.octo.java.sql.exp.Operator;
 import com.octo.java.sql.exp.SQLFunc;
+import com.octo.java.sql.exp.SymbolTable;
+import com.octo.java.sql.query.cache.QueryShapeVisitor;
+import com.octo.java.sql.query.cache.SQLTemplate;
+import com.octo.java.sql.query.cache.SQLTemplateCache;
+import com.octo.java.sql.query.metrics.QueryMetricsListener;
+import com.octo.java.sql.query.sink.AppendableSink;
+import com.octo.java.sql.query.sink.CountingSink;
+import com.octo.java.sql.query.sink.SQLSink;
+import com.octo.java.sql.query.sink.Utf8ByteBufferSink;
 import com.octo.java.sql.query.visitor.DefaultQueryBuilder;
+import com.octo.java.sql.query.visitor.DefaultVisitor;
+import com.octo.java.sql.query.visitor.InListPadding;
 import com.octo.java.sql.query.visitor.QueryVisitor;
+import com.octo.java.sql.query.visitor.QueryVisitorFactory;
 import com.octo.java.sql.query.visitor.Visitable;
 
 public abstract class Query<T extends Query<T>> implements Visitable {
@@ -42,24 +53,90 @@ public abstract class Query<T extends Query<T>> implements Visitable {
 
   /**
    * Set it to false when using HSQLDB
+   * 
+   * @deprecated never read, the dialect is given by the query builder of the
+   *             QueryContext
    */
+  @Deprecated
   public static boolean oracleDialect = true;
-  private static Map<String, JavaSQLFunc.Evaluable<String>> funcEvaluatorMap = new HashMap<String, JavaSQLFunc.Evaluable<String>>();
 
   protected Exp whereClause;
 
-  private static Class<? extends DefaultQueryBuilder> querybuilderClass = DefaultQueryBuilder.class;
+  /**
+   * null to use the default context when rendering the query
+   */
+  private QueryContext context;
+
+  /**
+   * Set by the visitors of the optimized copies of a query
+   */
+  private boolean neverMatching = false;
+  /**
+   * Last rendering of toSql(), null before
+   */
+  private volatile RenderedSQL lastRendered;
+  private volatile boolean frozen = false;
+
+  protected Query(final QueryContext context) {
+    this.context = context;
+  }
+
+  /**
+   * @return the context this query has been created from, or the current
+   *         default context
+   */
+  public QueryContext getContext() {
+    return context == null ? QueryContext.getDefault() : context;
+  }
 
-  private static Set<QueryVisitor> visitors = new HashSet<QueryVisitor>();
-  private DefaultQueryBuilder builder;
+  /**
+   * @return the context given at creation, null for the default context
+   */
+  QueryContext getRawContext() {
+    return context;
+  }
 
   public static void setDefaultQueryBuilder(
       final Class<? extends DefaultQueryBuilder> queryBuilderClass) {
-    querybuilderClass = queryBuilderClass;
+    synchronized (QueryContext.class) {
+      QueryContext.setDefault(QueryContext.getDefault().withQueryBuilder(
+          queryBuilderClass));
+    }
   }
 
   public static void resetDefaultQueryBuilder() {
-    querybuilderClass = DefaultQueryBuilder.class;
+    setDefaultQueryBuilder(DefaultQueryBuilder.class);
+  }
+
+  /**
+   * Reuse the SQL rendered by toSql() for queries of the same shape. Only the
+   * parameter values are collected when the shape is already in the cache.
+   * 
+   * @param cache
+   *          null to disable the cache
+   */
+  public static void setTemplateCache(final SQLTemplateCache cache) {
+    synchronized (QueryContext.class) {
+      QueryContext.setDefault(QueryContext.getDefault()
+          .withTemplateCache(cache));
+    }
+  }
+
+  /**
+   * Round IN lists sizes up in the default context
+   * 
+   * @param padding
+   *          InListPadding.NONE to render one placeholder per value
+   */
+  public static void setInListPadding(final InListPadding padding) {
+    synchronized (QueryContext.class) {
+      QueryContext.setDefault(QueryContext.getDefault().withInListPadding(
+          padding));
+    }
+  }
+
+  public static SQLTemplateCache getTemplateCache() {
+    return QueryContext.getDefault().getTemplateCache();
   }
 
   public Exp getWhereClause() {
@@ -71,7 +148,7 @@ public abstract class Query<T extends Query<T>> implements Visitable {
    *          to put both SQLFunc & Colsname
    */
   public static SelectQuery select(final Object... columnsAndFunc) {
-    return new SelectQuery(columnsAndFunc);
+    return new SelectQuery(null, columnsAndFunc);
   }
 
   /**
@@ -81,7 +158,7 @@ public abstract class Query<T extends Query<T>> implements Visitable {
    * @return
    */
   public static UpdateQuery update(final String table) {
-    return new UpdateQuery(table);
+    return new UpdateQuery(null, table);
   }
 
   /**
@@ -91,7 +168,7 @@ public abstract class Query<T extends Query<T>> implements Visitable {
    * @return
    */
   public static InsertQuery insertInto(final String table) {
-    return new InsertQuery(table);
+    return new InsertQuery(null, table);
   }
 
   /**
@@ -101,7 +178,7 @@ public abstract class Query<T extends Query<T>> implements Visitable {
    * @return
    */
   public static DeleteQuery deleteFrom(final String table) {
-    return new DeleteQuery(table);
+    return new DeleteQuery(null, table);
   }
 
   /**
@@ -112,13 +189,7 @@ public abstract class Query<T extends Query<T>> implements Visitable {
    * @return
    */
   public static SQLFunc f(final String funcName, final Object... params) {
-    if (funcEvaluatorMap.containsKey(funcName)) {
-      final JavaSQLFunc.Evaluable<String> evaluator = funcEvaluatorMap
-          .get(funcName);
-      return new JavaSQLFunc(funcName, params, evaluator);
-    } else {
-      return new SQLFunc(funcName, params);
-    }
+    return QueryContext.getDefault().f(funcName, params);
   }
 
   /**
@@ -128,7 +199,7 @@ public abstract class Query<T extends Query<T>> implements Visitable {
    * @return
    */
   public static Column c(final String name) {
-    return new Column(name);
+    return SymbolTable.column(name);
   }
 
   /**
@@ -145,173 +216,589 @@ public abstract class Query<T extends Query<T>> implements Visitable {
     return new OpExp(func);
   }
 
+  /**
+   * Render this query with its context. The parameters are then given by
+   * getParams(), a query shared between threads is rendered with render().
+   * 
+   * @return the SQL
+   * @throws QueryException
+   */
   public String toSql() throws QueryException {
-    return toSql(getQueryBuilder());
+    return remember(render()).getSql();
+  }
+
+  /**
+   * Render with another context than the one of this query, for instance the
+   * same context with positional parameters
+   * 
+   * @param renderingContext
+   * @return
+   * @throws QueryException
+   */
+  public String toSql(final QueryContext renderingContext)
+      throws QueryException {
+    return remember(render(renderingContext)).getSql();
+  }
+
+  /**
+   * Render this query with its context. The query is not modified, it can be
+   * rendered by several threads.
+   * 
+   * @return the SQL with its parameters
+   * @throws QueryException
+   */
+  public RenderedSQL render() throws QueryException {
+    return render(getContext());
+  }
+
+  /**
+   * Render with another context than the one of this query, without modifying
+   * it
+   * 
+   * @param renderingContext
+   * @return the SQL with its parameters
+   * @throws QueryException
+   */
+  public RenderedSQL render(final QueryContext renderingContext)
+      throws QueryException {
+    return render(renderingContext, getOptimized(renderingContext));
+  }
+
+  /**
+   * Write the SQL into the given sink without building a String. With a
+   * template cache, the SQL string of the template is written.
+   * 
+   * @param sink
+   * @return the parameters of the SQL, whose SQL is null when it has been
+   *         written directly into the sink
+   * @throws QueryException
+   */
+  public RenderedSQL renderTo(final SQLSink sink) throws QueryException {
+    final QueryContext currentContext = getContext();
+    final Query<?> optimized = getOptimized(currentContext);
+    if (currentContext.getTemplateCache() != null) {
+      final RenderedSQL rendered = render(currentContext, optimized);
+      sink.append(rendered.getSql());
+      return remember(rendered);
+    }
+
+    final QueryMetricsListener listener = currentContext
+        .getMetricsListener();
+    final long start = listener == null ? 0 : System.nanoTime();
+    final CountingSink countingSink = listener == null ? null
+        : new CountingSink(sink);
+    final DefaultQueryBuilder builder = currentContext.newQueryBuilder();
+    final RenderedSQL rendered;
+    try {
+      builder.setSink(countingSink == null ? sink : countingSink);
+      builder.setPaddingBudget(getPaddingBudget(builder, optimized));
+      optimized.accept(builder);
+      if (builder.getResult().length() > 0)
+        throw new QueryException("Query builder " + builder.getClass()
+            + " writes into its result instead of getSink()");
+      rendered = new RenderedSQL(null, builder.getParams(), builder
+          .getParamValues(), optimized.neverMatching);
+    } finally {
+      currentContext.releaseQueryBuilder(builder);
+    }
+    if (listener != null)
+      listener.queryRendered(this, builder.getClass(), System.nanoTime()
+          - start, countingSink.getLength(), rendered.getParamValues().size());
+    return remember(rendered);
+  }
+
+  /**
+   * Write the SQL into an Appendable (Writer, CharBuffer...)
+   * 
+   * @param appendable
+   * @return the parameters of the SQL
+   * @throws QueryException
+   *           if the Appendable has thrown an IOException
+   */
+  public RenderedSQL renderTo(final Appendable appendable)
+      throws QueryException {
+    final AppendableSink sink = new AppendableSink(appendable);
+    final RenderedSQL rendered = renderTo(sink);
+    if (sink.getError() != null)
+      throw new QueryException("Cannot write SQL query", sink.getError());
+    return rendered;
+  }
+
+  /**
+   * Write the SQL encoded in UTF-8 into the given buffer
+   * 
+   * @param buffer
+   * @return the parameters of the SQL
+   * @throws QueryException
+   * @throws java.nio.BufferOverflowException
+   *           if the buffer is too small
+   */
+  public RenderedSQL renderTo(final ByteBuffer buffer) throws QueryException {
+    final Utf8ByteBufferSink sink = new Utf8ByteBufferSink(buffer);
+    final RenderedSQL rendered = renderTo(sink);
+    sink.flush();
+    return rendered;
+  }
+
+  private RenderedSQL render(final QueryContext currentContext,
+      final Query<?> optimized) throws QueryException {
+    final QueryMetricsListener listener = currentContext
+        .getMetricsListener();
+    if (listener == null)
+      return render(currentContext, optimized, null);
+    final long start = System.nanoTime();
+    final RenderedSQL rendered = render(currentContext, optimized, listener);
+    listener.queryRendered(this, currentContext.getQueryBuilderFactory()
+        .getQueryBuilderClass(), System.nanoTime() - start, rendered.getSql()
+        .length(), rendered.getParamValues().size());
+    return rendered;
+  }
+
+  private RenderedSQL render(final QueryContext currentContext,
+      final Query<?> optimized, final QueryMetricsListener listener)
+      throws QueryException {
+    final SQLTemplateCache cache = currentContext.getTemplateCache();
+    if (cache == null) {
+      final DefaultQueryBuilder builder = currentContext.newQueryBuilder();
+      try {
+        builder.setPaddingBudget(getPaddingBudget(builder, optimized));
+        return build(builder, optimized);
+      } finally {
+        currentContext.releaseQueryBuilder(builder);
+      }
+    }
+
+    final DefaultQueryBuilder builder = currentContext.newQueryBuilder();
+    try {
+      final int paddingBudget = getPaddingBudget(builder, optimized);
+      builder.setPaddingBudget(paddingBudget);
+      final QueryShapeVisitor shapeVisitor = new QueryShapeVisitor(builder);
+      optimized.accept(shapeVisitor);
+      final String shapeKey = shapeVisitor.getKey();
+      final List<Object> values = shapeVisitor.getValues();
+      final SQLTemplate template = cache.get(shapeKey);
+      if (listener != null) {
+        if (template != null)
+          listener.templateCacheHit(this, builder.getClass());
+        else
+          listener.templateCacheMiss(this, builder.getClass());
+      }
+      if (template != null)
+        return new RenderedSQL(template.getSql(), template.bind(values),
+            values, optimized.neverMatching);
+
+      builder.setPaddingBudget(paddingBudget);
+      final RenderedSQL rendered = build(builder, optimized);
+      if (isSameParameters(builder, values))
+        cache.put(shapeKey, new SQLTemplate(rendered.getSql(), builder
+            .getParameterStyle(), builder.getVariableNames(), values.size()));
+      return rendered;
+    } finally {
+      currentContext.releaseQueryBuilder(builder);
+    }
   }
 
   public String toSql(final DefaultQueryBuilder queryBuilder)
       throws QueryException {
-    runVisitors();
-    builder = queryBuilder;
-    accept(builder);
+    return remember(render(queryBuilder)).getSql();
+  }
+
+  private RenderedSQL render(final DefaultQueryBuilder queryBuilder)
+      throws QueryException {
+    final QueryContext currentContext = getContext();
+    final Query<?> optimized = getOptimized(currentContext);
+    final QueryMetricsListener listener = currentContext
+        .getMetricsListener();
+    if (listener == null)
+      return build(queryBuilder, optimized);
+    final long start = System.nanoTime();
+    final RenderedSQL rendered = build(queryBuilder, optimized);
+    listener.queryRendered(this, queryBuilder.getClass(), System.nanoTime()
+        - start, rendered.getSql().length(), rendered.getParamValues().size());
+    return rendered;
+  }
+
+  /**
+   * Render this query once into a reusable template
+   * 
+   * @return
+   * @throws QueryException
+   */
+  public CompiledQuery compile() throws QueryException {
+    final QueryContext currentContext = getContext();
+    final DefaultQueryBuilder builder = currentContext.newQueryBuilder();
+    try {
+      return compile(builder);
+    } finally {
+      currentContext.releaseQueryBuilder(builder);
+    }
+  }
+
+  public CompiledQuery compile(final DefaultQueryBuilder queryBuilder)
+      throws QueryException {
+    final RenderedSQL rendered = render(queryBuilder);
+    return new CompiledQuery(rendered.getSql(), queryBuilder
+        .getParameterStyle(), queryBuilder.getVariableNames(), rendered
+        .getParamValues().size());
+  }
+
+  private static RenderedSQL build(final DefaultQueryBuilder builder,
+      final Query<?> optimized) throws QueryException {
+    optimized.accept(builder);
     final String sqlQuery = builder.getResult().toString();
     if (logger.isDebugEnabled())
       logger.debug("buildSQLQuery() - String sqlQuery=" + sqlQuery);
-    return sqlQuery;
+    return new RenderedSQL(sqlQuery, builder.getParams(), builder
+        .getParamValues(), optimized.neverMatching);
   }
 
+  /**
+   * Keep the last rendering of toSql() for the getters of its parameters
+   */
+  private RenderedSQL remember(final RenderedSQL rendered) {
+    lastRendered = rendered;
+    return rendered;
+  }
+
+  /**
+   * IN list padding must not push a statement over the parameter limit of
+   * the dialect: the parameters of the query are counted without padding,
+   * padding may only use the placeholders left.
+   */
+  private static int getPaddingBudget(final DefaultQueryBuilder builder,
+      final Query<?> optimized) throws QueryException {
+    if ((builder.getInListPadding() == InListPadding.NONE)
+        || (builder.getMaxParameters() == Integer.MAX_VALUE))
+      return Integer.MAX_VALUE;
+    builder.setPaddingBudget(0);
+    final QueryShapeVisitor counter = new QueryShapeVisitor(builder);
+    optimized.accept(counter);
+    return Math.max(0, builder.getMaxParameters()
+        - counter.getValues().size());
+  }
+
+  /**
+   * A rendered query can only be cached if the builder has bound exactly the
+   * values collected by the shape visitor, in the same order.
+   */
+  private boolean isSameParameters(final DefaultQueryBuilder builder,
+      final List<Object> values) {
+    if (builder.hasFunctions())
+      return false;
+    final List<Object> builderValues = builder.getParamValues();
+    if (builderValues.size() != values.size())
+      return false;
+    for (int i = 0; i < values.size(); i++)
+      if (builderValues.get(i) != values.get(i))
+        return false;
+    return true;
+  }
+
+  /**
+   * @return a builder of the context of this query, taken from its pool: it
+   *         can be given back with QueryContext.releaseQueryBuilder() once its
+   *         result has been read, otherwise it is left to the garbage collector
+   *         and the pool creates another one
+   * @throws QueryException
+   */
   public DefaultQueryBuilder getQueryBuilder() throws QueryException {
+    return getContext().newQueryBuilder();
+  }
+
+  /**
+   * @return a copy of this query, with copies of its clauses and sub-queries,
+   *         which can be modified without changing this query. A base query
+   *         can be built once, then copied to add the criteria of each request.
+   */
+  public abstract T copy();
+
+  /**
+   * Make this query a base query shared by the queries derived from it: the
+   * methods adding clauses to a frozen query, like where(), and() or orderBy(),
+   * return a new query, which shares the unchanged clauses of this one and can
+   * be modified. This query, its sub-queries and union branches are not
+   * modified anymore, they can be shared between threads.
+   * 
+   * @return this query
+   */
+  @SuppressWarnings("unchecked")
+  public T freeze() {
     try {
-      return querybuilderClass.newInstance();
-    } catch (final InstantiationException e) {
-      throw new QueryException("Cannot instanciate query builder "
-          + querybuilderClass);
-    } catch (final IllegalAccessException e) {
-      throw new QueryException("Cannot instanciate query builder "
-          + querybuilderClass);
+      accept(new DefaultVisitor() {
+        @Override
+        public void visit(final SelectQuery query) throws QueryException {
+          markFrozen(query);
+          super.visit(query);
+        }
+
+        @Override
+        public void visit(final UpdateQuery query) throws QueryException {
+          markFrozen(query);
+          super.visit(query);
+        }
+
+        @Override
+        public void visit(final InsertQuery query) throws QueryException {
+          markFrozen(query);
+          super.visit(query);
+        }
+
+        @Override
+        public void visit(final DeleteQuery query) throws QueryException {
+          markFrozen(query);
+          super.visit(query);
+        }
+      });
+    } catch (final QueryException e) {
+      throw new IllegalStateException(e);
     }
+    return (T) this;
+  }
+
+  private static void markFrozen(final Query<?> query) {
+    query.frozen = true;
+  }
+
+  public boolean isFrozen() {
+    return frozen;
+  }
+
+  /**
+   * @return a new query sharing the clauses of this one, the expressions being
+   *         never modified by the methods building a query
+   */
+  abstract T derive();
+
+  /**
+   * @return this query, or a new query derived from it if it is frozen
+   */
+  @SuppressWarnings("unchecked")
+  T mutable() {
+    return frozen ? derive() : (T) this;
   }
 
-  private void runVisitors() throws QueryException {
-    for (final QueryVisitor visitor : visitors) {
-      accept(visitor);
+  /**
+   * Run the visitors of the context of this query, like the
+   * BasicQueryOptimizer, on a copy of it. This query is not modified by the
+   * visitors, it can be built once and optimized by several threads.
+   * 
+   * @return the optimized copy, whose context has no visitors: it is rendered
+   *         as is. This query itself when its context has no visitors.
+   * @throws QueryException
+   */
+  public T optimize() throws QueryException {
+    return optimize(getContext());
+  }
+
+  /**
+   * Run the visitors of the given context on a copy of this query
+   * 
+   * @param optimizingContext
+   * @return the optimized copy, with the given context without its visitors,
+   *         or this query when the given context is its own and has no
+   *         visitors
+   * @throws QueryException
+   */
+  @SuppressWarnings("unchecked")
+  public T optimize(final QueryContext optimizingContext)
+      throws QueryException {
+    if (optimizingContext.getVisitorFactories().isEmpty()
+        && (optimizingContext == getContext()))
+      return (T) this;
+    final T copy = copy();
+    final Query<?> optimized = copy;
+    optimized.context = optimizingContext.withoutVisitors();
+    final QueryMetricsListener listener = optimizingContext
+        .getMetricsListener();
+    if (listener == null) {
+      for (final QueryVisitorFactory visitorFactory : optimizingContext
+          .getVisitorFactories())
+        copy.accept(visitorFactory.newVisitor());
+      return copy;
     }
+
+    final long start = System.nanoTime();
+    final ClauseCounter removed = ClauseCounter.start();
+    try {
+      for (final QueryVisitorFactory visitorFactory : optimizingContext
+          .getVisitorFactories())
+        copy.accept(visitorFactory.newVisitor());
+    } finally {
+      removed.stop();
+    }
+    listener.queryOptimized(this, optimizingContext.getQueryBuilderFactory()
+        .getQueryBuilderClass(), System.nanoTime() - start, removed
+        .getClauses(), removed.getJoins());
+    return copy;
+  }
+
+  /**
+   * @return this query when the context has no visitors, otherwise a copy of
+   *         it optimized by the visitors of the context
+   */
+  private Query<?> getOptimized(final QueryContext currentContext)
+      throws QueryException {
+    if (currentContext.getVisitorFactories().isEmpty())
+      return this;
+    return optimize(currentContext);
   }
 
+  /**
+   * @return true if a visitor, like the PredicateSimplifier, has found that
+   *         the where clause cannot match any row when this query was last
+   *         rendered by toSql(), false if it was rendered without visitors. A
+   *         query returned by optimize() has the flag of its optimization.
+   * @deprecated the flag of the last toSql() of any thread, use
+   *             render().isNeverMatching()
+   */
+  @Deprecated
+  public boolean isNeverMatching() {
+    final RenderedSQL rendered = lastRendered;
+    return rendered == null ? neverMatching : rendered.isNeverMatching();
+  }
+
+  void markNeverMatching() {
+    neverMatching = true;
+  }
+
+  /**
+   * @return the named parameters of the last SQL rendered by toSql(), empty
+   *         when rendered with positional parameters
+   * @deprecated the parameters of the last toSql() of any thread, use
+   *             render().getParams()
+   */
+  @Deprecated
   public Map<String, Object> getParams() {
-    return builder.getParams();
+    final RenderedSQL rendered = lastRendered;
+    return rendered == null ? null : rendered.getParams();
   }
 
+  /**
+   * @return the values of the last SQL rendered by toSql(), in the order of
+   *         their placeholders
+   * @deprecated the values of the last toSql() of any thread, use
+   *             render().getParamValues()
+   */
+  @Deprecated
+  public List<Object> getParamValues() {
+    final RenderedSQL rendered = lastRendered;
+    return rendered == null ? null : rendered.getParamValues();
+  }
+
+  /**
+   * Add a visitor to the default context. The same instance is used to visit
+   * every query, see QueryContext.withVisitor(QueryVisitorFactory) for
+   * visitors keeping state.
+   * 
+   * @param visitor
+   */
   public static void addVisitor(final QueryVisitor visitor) {
-    visitors.add(visitor);
+    synchronized (QueryContext.class) {
+      QueryContext.setDefault(QueryContext.getDefault().withVisitor(visitor));
+    }
+  }
+
+  public static void addVisitor(final QueryVisitorFactory visitorFactory) {
+    synchronized (QueryContext.class) {
+      QueryContext.setDefault(QueryContext.getDefault().withVisitor(
+          visitorFactory));
+    }
   }
 
   public static void clearVisitors() {
-    visitors.clear();
+    synchronized (QueryContext.class) {
+      QueryContext.setDefault(QueryContext.getDefault().withoutVisitors());
+    }
   }
 
-  @SuppressWarnings("unchecked")
   public T where(final Column column) {
-    whereClause = new OpExp(column);
-    return (T) this;
+    return withWhereClause(new OpExp(column));
   }
 
-  @SuppressWarnings("unchecked")
   public T where(final Exp newWhereClause) {
-    whereClause = newWhereClause;
-    return (T) this;
+    return withWhereClause(newWhereClause);
   }
 
   @SuppressWarnings("unchecked")
   public T where(final Column column, final Operator operator,
       final Object value) {
     if (value != null)
-      whereClause = new OpExp(column, operator, value);
+      return withWhereClause(new OpExp(column, operator, value));
     return (T) this;
   }
 
-  @SuppressWarnings("unchecked")
   public T where(final SQLFunc func) {
-    whereClause = new OpExp(func);
-    return (T) this;
+    return withWhereClause(new OpExp(func));
   }
 
-  @SuppressWarnings("unchecked")
   public T eq(final Object value) throws QueryGrammarException {
     assertWhereClauseIsInitialized("eq");
-    whereClause = whereClause.eq(value);
-    return (T) this;
+    return withWhereClause(whereClause.eq(value));
   }
 
-  @SuppressWarnings("unchecked")
   public T eqOrIsNull(final Object value) throws QueryGrammarException {
     assertWhereClauseIsInitialized("eq");
-    whereClause = whereClause.eq(new Nullable(value));
-    return (T) this;
+    return withWhereClause(whereClause.eq(new Nullable(value)));
   }
 
-  @SuppressWarnings("unchecked")
   public T neq(final Object value) throws QueryGrammarException {
     assertWhereClauseIsInitialized("neq");
-    whereClause = whereClause.neq(value);
-    return (T) this;
+    return withWhereClause(whereClause.neq(value));
   }
 
-  @SuppressWarnings("unchecked")
   public T neqNullable(final Object value) throws QueryGrammarException {
     assertWhereClauseIsInitialized("neq");
-    whereClause = whereClause.neq(new Nullable(value));
-    return (T) this;
+    return withWhereClause(whereClause.neq(new Nullable(value)));
   }
 
-  @SuppressWarnings("unchecked")
   public T geq(final Long value) throws QueryGrammarException {
     assertWhereClauseIsInitialized("geq");
-    whereClause = whereClause.geq(value);
-    return (T) this;
+    return withWhereClause(whereClause.geq(value));
   }
 
-  @SuppressWarnings("unchecked")
   public T leq(final Long value) throws QueryGrammarException {
     assertWhereClauseIsInitialized("leq");
-    whereClause = whereClause.leq(value);
-    return (T) this;
+    return withWhereClause(whereClause.leq(value));
   }
 
-  @SuppressWarnings("unchecked")
   public T like(final String value) throws QueryGrammarException {
     assertWhereClauseIsInitialized("like");
-    whereClause = whereClause.like(value);
-    return (T) this;
+    return withWhereClause(whereClause.like(value));
   }
 
-  @SuppressWarnings("unchecked")
   public T in(final Object... values) throws QueryGrammarException {
     assertWhereClauseIsInitialized("in");
-    whereClause = whereClause.in(values);
-    return (T) this;
+    return withWhereClause(whereClause.in(values));
   }
 
-  @SuppressWarnings("unchecked")
   public T notIn(final Object... values) throws QueryGrammarException {
     assertWhereClauseIsInitialized("not in");
-    whereClause = whereClause.notIn(values);
-    return (T) this;
+    return withWhereClause(whereClause.notIn(values));
   }
 
-  @SuppressWarnings("unchecked")
   public T and(final Column column) throws QueryGrammarException {
     assertWhereClauseIsInitialized("and");
-    whereClause = whereClause.and(column);
-    return (T) this;
+    return withWhereClause(whereClause.and(column));
   }
 
-  @SuppressWarnings("unchecked")
   public T and(final SQLFunc func) throws QueryGrammarException {
     assertWhereClauseIsInitialized("and");
-    whereClause = whereClause.and(func);
-    return (T) this;
+    return withWhereClause(whereClause.and(func));
   }
 
-  @SuppressWarnings("unchecked")
   public T and(final Exp exp) throws QueryGrammarException {
     assertWhereClauseIsInitialized("and");
-    whereClause = whereClause.and(exp);
-    return (T) this;
+    return withWhereClause(whereClause.and(exp));
   }
 
-  @SuppressWarnings("unchecked")
   public T isNull() throws QueryGrammarException {
     assertWhereClauseIsInitialized("isNull");
-    whereClause = whereClause.isNull();
-    return (T) this;
+    return withWhereClause(whereClause.isNull());
   }
 
-  @SuppressWarnings("unchecked")
   public T isNotNull() throws QueryGrammarException {
     assertWhereClauseIsInitialized("isNotNull");
-    whereClause = whereClause.isNotNull();
-    return (T) this;
+    return withWhereClause(whereClause.isNotNull());
   }
 
   /**
@@ -322,51 +809,57 @@ public abstract class Query<T extends Query<T>> implements Visitable {
    *         operation with op on valueStart.
    * @throws QueryGrammarException
    */
-  @SuppressWarnings("unchecked")
   public T betweenOrOp(final Operator op, final Object valueStart,
       final Object valueEnd) throws QueryGrammarException {
     assertWhereClauseIsInitialized(op == null ? null : op.getValue());
-    whereClause = whereClause.betweenOrOp(op, valueStart, valueEnd);
-    return (T) this;
+    return withWhereClause(whereClause.betweenOrOp(op, valueStart, valueEnd));
   }
 
-  @SuppressWarnings("unchecked")
   public T between(final Object valueStart, final Object valueEnd)
       throws QueryGrammarException {
     assertWhereClauseIsInitialized("between");
-    whereClause = whereClause.between(valueStart, valueEnd);
-    return (T) this;
+    return withWhereClause(whereClause.between(valueStart, valueEnd));
   }
 
-  @SuppressWarnings("unchecked")
   public T op(final Operator op, final Object value)
       throws QueryGrammarException {
     assertWhereClauseIsInitialized(op == null ? null : op.getValue());
-    whereClause = whereClause.applyOperation(op, value);
-    return (T) this;
+    return withWhereClause(whereClause.applyOperation(op, value));
   }
 
-  @SuppressWarnings("unchecked")
   public T startWith(final String value) throws QueryGrammarException {
     assertWhereClauseIsInitialized("startWith");
-    whereClause = whereClause.startWith(value);
-    return (T) this;
+    return withWhereClause(whereClause.startWith(value));
   }
 
-  @SuppressWarnings("unchecked")
   public T contains(final String value) throws QueryGrammarException {
     assertWhereClauseIsInitialized("contains");
-    whereClause = whereClause.contains(value);
-    return (T) this;
+    return withWhereClause(whereClause.contains(value));
   }
 
   public static void addFuncEvaluator(final String funcName,
       final JavaSQLFunc.Evaluable<String> evaluator) {
-    funcEvaluatorMap.put(funcName, evaluator);
+    synchronized (QueryContext.class) {
+      QueryContext.setDefault(QueryContext.getDefault().withFuncEvaluator(
+          funcName, evaluator));
+    }
   }
 
   public static void clearFuncEvaluatorMap() {
-    funcEvaluatorMap.clear();
+    synchronized (QueryContext.class) {
+      QueryContext.setDefault(QueryContext.getDefault()
+          .withoutFuncEvaluators());
+    }
+  }
+
+  /**
+   * @return this query with the given where clause, or a new query derived
+   *         from it if it is frozen
+   */
+  private T withWhereClause(final Exp newWhereClause) {
+    final T query = mutable();
+    ((Query<?>) query).whereClause = newWhereClause;
+    return query;
   }
 
   private void assertWhereClauseIsInitialized(final String operation)
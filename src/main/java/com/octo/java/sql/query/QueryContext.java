@@ -0,0 +1,349 @@
+/**
+ * Copyright (C) 2010 David Rousselie <drousselie@octo.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.octo.java.sql.query;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.octo.java.sql.exp.JavaSQLFunc;
+import com.octo.java.sql.exp.SQLFunc;
+import com.octo.java.sql.query.cache.SQLTemplateCache;
+import com.octo.java.sql.query.metrics.QueryMetricsListener;
+import com.octo.java.sql.query.visitor.ClassQueryBuilderFactory;
+import com.octo.java.sql.query.visitor.DefaultQueryBuilder;
+import com.octo.java.sql.query.visitor.InListPadding;
+import com.octo.java.sql.query.visitor.ParameterStyle;
+import com.octo.java.sql.query.visitor.QueryBuilderFactory;
+import com.octo.java.sql.query.visitor.QueryBuilderPool;
+import com.octo.java.sql.query.visitor.QueryVisitor;
+import com.octo.java.sql.query.visitor.QueryVisitorFactory;
+
+/**
+ * Immutable configuration used to build and render queries: SQL dialect (ie.
+ * the query builder factory), visitors run before rendering, Java evaluated
+ * functions, SQL template cache and metrics listener.<br>
+ * Every with*() method returns a new context, so a context can be shared
+ * between threads and several contexts can be used in the same JVM:
+ * 
+ * <code>
+ * QueryContext oracle = QueryContext.getDefault()
+ *     .withQueryBuilderFactory(new QueryBuilderPool(OracleQueryBuilder.FACTORY))
+ *     .withVisitor(BasicQueryOptimizer.FACTORY);
+ * oracle.select("*").from("table").toSql();
+ * </code>
+ * 
+ * Queries created by the static factory methods of Query use the default
+ * context at the time they are rendered.
+ */
+public final class QueryContext {
+  private static final QueryContext INITIAL = new QueryContext(
+      new QueryBuilderPool(DefaultQueryBuilder.FACTORY),
+      ParameterStyle.NAMED, InListPadding.NONE, 0, Collections
+          .<QueryVisitorFactory> emptyList(), Collections
+          .<String, JavaSQLFunc.Evaluable<String>> emptyMap(), null, null);
+
+  private static volatile QueryContext defaultContext = INITIAL;
+
+  private final QueryBuilderFactory queryBuilderFactory;
+  private final ParameterStyle parameterStyle;
+  private final InListPadding inListPadding;
+  private final int arrayBindingThreshold;
+  private final List<QueryVisitorFactory> visitorFactories;
+  private final Map<String, JavaSQLFunc.Evaluable<String>> funcEvaluators;
+  private final SQLTemplateCache templateCache;
+  private final QueryMetricsListener metricsListener;
+
+  private QueryContext(final QueryBuilderFactory queryBuilderFactory,
+      final ParameterStyle parameterStyle,
+      final InListPadding inListPadding, final int arrayBindingThreshold,
+      final List<QueryVisitorFactory> visitorFactories,
+      final Map<String, JavaSQLFunc.Evaluable<String>> funcEvaluators,
+      final SQLTemplateCache templateCache,
+      final QueryMetricsListener metricsListener) {
+    this.queryBuilderFactory = queryBuilderFactory;
+    this.parameterStyle = parameterStyle;
+    this.inListPadding = inListPadding;
+    this.arrayBindingThreshold = arrayBindingThreshold;
+    this.visitorFactories = visitorFactories;
+    this.funcEvaluators = funcEvaluators;
+    this.templateCache = templateCache;
+    this.metricsListener = metricsListener;
+  }
+
+  /**
+   * @return the context used by the static factory methods of Query
+   */
+  public static QueryContext getDefault() {
+    return defaultContext;
+  }
+
+  public static synchronized void setDefault(final QueryContext context) {
+    defaultContext = context;
+  }
+
+  /**
+   * @return a context without visitors nor functions, rendering with
+   *         DefaultQueryBuilder
+   */
+  public static QueryContext getInitial() {
+    return INITIAL;
+  }
+
+  public QueryContext withQueryBuilderFactory(
+      final QueryBuilderFactory newQueryBuilderFactory) {
+    return new QueryContext(newQueryBuilderFactory, parameterStyle,
+        inListPadding, arrayBindingThreshold, visitorFactories,
+        funcEvaluators, templateCache, metricsListener);
+  }
+
+  /**
+   * @param newParameterStyle
+   *          POSITIONAL to render JDBC '?' placeholders
+   * @return
+   */
+  public QueryContext withParameterStyle(final ParameterStyle newParameterStyle) {
+    return new QueryContext(queryBuilderFactory, newParameterStyle,
+        inListPadding, arrayBindingThreshold, visitorFactories,
+        funcEvaluators, templateCache, metricsListener);
+  }
+
+  /**
+   * @param newInListPadding
+   *          InListPadding.NONE to render one placeholder per IN value
+   * @return
+   */
+  public QueryContext withInListPadding(final InListPadding newInListPadding) {
+    return new QueryContext(queryBuilderFactory, parameterStyle,
+        newInListPadding, arrayBindingThreshold, visitorFactories,
+        funcEvaluators, templateCache, metricsListener);
+  }
+
+  /**
+   * Bind IN lists of at least the given size as a single array parameter with
+   * the dialects supporting it, other dialects keep one placeholder per value.
+   * 
+   * @param minSize
+   *          0 to never bind arrays
+   * @return
+   */
+  public QueryContext withArrayBinding(final int minSize) {
+    if (minSize < 0)
+      throw new IllegalArgumentException(
+          "Array binding size cannot be negative: " + minSize);
+    return new QueryContext(queryBuilderFactory, parameterStyle,
+        inListPadding, minSize, visitorFactories, funcEvaluators,
+        templateCache, metricsListener);
+  }
+
+  /**
+   * Render with builders of the given class, pooled per thread
+   * 
+   * @param queryBuilderClass
+   * @return
+   */
+  public QueryContext withQueryBuilder(
+      final Class<? extends DefaultQueryBuilder> queryBuilderClass) {
+    return withQueryBuilderFactory(new QueryBuilderPool(
+        new ClassQueryBuilderFactory(queryBuilderClass)));
+  }
+
+  /**
+   * Add a visitor created again for each rendered query. The visitors run in
+   * the order they have been added, a factory already added is not added
+   * again.
+   * 
+   * @param visitorFactory
+   * @return
+   */
+  public QueryContext withVisitor(final QueryVisitorFactory visitorFactory) {
+    if (visitorFactories.contains(visitorFactory))
+      return this;
+    final List<QueryVisitorFactory> newVisitorFactories = new ArrayList<QueryVisitorFactory>(
+        visitorFactories);
+    newVisitorFactories.add(visitorFactory);
+    return new QueryContext(queryBuilderFactory, parameterStyle,
+        inListPadding, arrayBindingThreshold, Collections
+            .unmodifiableList(newVisitorFactories), funcEvaluators,
+        templateCache, metricsListener);
+  }
+
+  /**
+   * Add a visitor shared by every rendered query. It must not keep any state
+   * to be used concurrently. A visitor already added is not added again.
+   * 
+   * @param visitor
+   * @return
+   */
+  public QueryContext withVisitor(final QueryVisitor visitor) {
+    return withVisitor(new SharedVisitorFactory(visitor));
+  }
+
+  /**
+   * Factory of a shared visitor, equal to the factories of the same visitor
+   */
+  private static class SharedVisitorFactory implements QueryVisitorFactory {
+    private final QueryVisitor visitor;
+
+    SharedVisitorFactory(final QueryVisitor visitor) {
+      this.visitor = visitor;
+    }
+
+    public QueryVisitor newVisitor() {
+      return visitor;
+    }
+
+    @Override
+    public boolean equals(final Object obj) {
+      return (obj instanceof SharedVisitorFactory)
+          && (((SharedVisitorFactory) obj).visitor == visitor);
+    }
+
+    @Override
+    public int hashCode() {
+      return System.identityHashCode(visitor);
+    }
+  }
+
+  public QueryContext withoutVisitors() {
+    return new QueryContext(queryBuilderFactory, parameterStyle,
+        inListPadding, arrayBindingThreshold, Collections
+            .<QueryVisitorFactory> emptyList(), funcEvaluators, templateCache,
+        metricsListener);
+  }
+
+  public QueryContext withFuncEvaluator(final String funcName,
+      final JavaSQLFunc.Evaluable<String> evaluator) {
+    final Map<String, JavaSQLFunc.Evaluable<String>> newFuncEvaluators = new HashMap<String, JavaSQLFunc.Evaluable<String>>(
+        funcEvaluators);
+    newFuncEvaluators.put(funcName, evaluator);
+    return new QueryContext(queryBuilderFactory, parameterStyle,
+        inListPadding, arrayBindingThreshold, visitorFactories, Collections
+            .unmodifiableMap(newFuncEvaluators), templateCache,
+        metricsListener);
+  }
+
+  public QueryContext withoutFuncEvaluators() {
+    return new QueryContext(queryBuilderFactory, parameterStyle,
+        inListPadding, arrayBindingThreshold, visitorFactories, Collections
+            .<String, JavaSQLFunc.Evaluable<String>> emptyMap(), templateCache,
+        metricsListener);
+  }
+
+  /**
+   * @param cache
+   *          null to disable the cache
+   * @return
+   */
+  public QueryContext withTemplateCache(final SQLTemplateCache cache) {
+    return new QueryContext(queryBuilderFactory, parameterStyle,
+        inListPadding, arrayBindingThreshold, visitorFactories,
+        funcEvaluators, cache, metricsListener);
+  }
+
+  /**
+   * @param listener
+   *          notified of the optimization and rendering of the queries, null
+   *          to disable the metrics
+   * @return
+   */
+  public QueryContext withMetricsListener(final QueryMetricsListener listener) {
+    return new QueryContext(queryBuilderFactory, parameterStyle,
+        inListPadding, arrayBindingThreshold, visitorFactories,
+        funcEvaluators, templateCache, listener);
+  }
+
+  /**
+   * Factory methods
+   */
+  public SelectQuery select(final Object... columnsAndFunc) {
+    return new SelectQuery(this, columnsAndFunc);
+  }
+
+  public UpdateQuery update(final String table) {
+    return new UpdateQuery(this, table);
+  }
+
+  public InsertQuery insertInto(final String table) {
+    return new InsertQuery(this, table);
+  }
+
+  public DeleteQuery deleteFrom(final String table) {
+    return new DeleteQuery(this, table);
+  }
+
+  public SQLFunc f(final String funcName, final Object... params) {
+    final JavaSQLFunc.Evaluable<String> evaluator = funcEvaluators
+        .get(funcName);
+    if (evaluator != null)
+      return new JavaSQLFunc(funcName, params, evaluator);
+    else
+      return new SQLFunc(funcName, params);
+  }
+
+  public DefaultQueryBuilder newQueryBuilder() throws QueryException {
+    final DefaultQueryBuilder builder = queryBuilderFactory.newQueryBuilder();
+    builder.setParameterStyle(parameterStyle);
+    builder.setInListPadding(inListPadding);
+    builder.setArrayBindingThreshold(arrayBindingThreshold);
+    return builder;
+  }
+
+  /**
+   * Give back a builder created by newQueryBuilder() once its result and
+   * parameters have been read
+   * 
+   * @param builder
+   */
+  public void releaseQueryBuilder(final DefaultQueryBuilder builder) {
+    queryBuilderFactory.release(builder);
+  }
+
+  public QueryBuilderFactory getQueryBuilderFactory() {
+    return queryBuilderFactory;
+  }
+
+  public ParameterStyle getParameterStyle() {
+    return parameterStyle;
+  }
+
+  public InListPadding getInListPadding() {
+    return inListPadding;
+  }
+
+  public int getArrayBindingThreshold() {
+    return arrayBindingThreshold;
+  }
+
+  public List<QueryVisitorFactory> getVisitorFactories() {
+    return visitorFactories;
+  }
+
+  public Map<String, JavaSQLFunc.Evaluable<String>> getFuncEvaluators() {
+    return funcEvaluators;
+  }
+
+  public SQLTemplateCache getTemplateCache() {
+    return templateCache;
+  }
+
+  public QueryMetricsListener getMetricsListener() {
+    return metricsListener;
+  }
+}
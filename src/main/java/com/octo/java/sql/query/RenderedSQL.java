@@ -0,0 +1,75 @@
+/**
+ * Copyright (C) 2010 David Rousselie <drousselie@octo.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.octo.java.sql.query;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Immutable result of Query.render(): the SQL, its parameters and whether the
+ * query can match a row. Nothing is kept on the query, so the same query can be
+ * rendered by several threads, with different contexts.
+ */
+public final class RenderedSQL {
+  private final String sql;
+  private final Map<String, Object> params;
+  private final List<Object> paramValues;
+  private final boolean neverMatching;
+
+  RenderedSQL(final String sql, final Map<String, Object> params,
+      final List<Object> paramValues, final boolean neverMatching) {
+    this.sql = sql;
+    this.params = Collections.unmodifiableMap(params);
+    this.paramValues = Collections.unmodifiableList(paramValues);
+    this.neverMatching = neverMatching;
+  }
+
+  /**
+   * @return the SQL, null if it has been written into a sink
+   */
+  public String getSql() {
+    return sql;
+  }
+
+  /**
+   * @return the named parameters, empty with positional parameters
+   */
+  public Map<String, Object> getParams() {
+    return params;
+  }
+
+  /**
+   * @return the values in the order of their placeholders
+   */
+  public List<Object> getParamValues() {
+    return paramValues;
+  }
+
+  /**
+   * @return true if a visitor, like the PredicateSimplifier, has found that
+   *         the where clause cannot match any row
+   */
+  public boolean isNeverMatching() {
+    return neverMatching;
+  }
+
+  @Override
+  public String toString() {
+    return sql;
+  }
+}
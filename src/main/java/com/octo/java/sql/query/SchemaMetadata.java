@@ -0,0 +1,344 @@
+/**
+ * Copyright (C) 2010 David Rousselie <drousselie@octo.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.octo.java.sql.query;
+
+import java.sql.DatabaseMetaData;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Keys and constraints of the tables of a schema, used by the
+ * BasicQueryOptimizer to remove the joins that cannot change the result of a
+ * query:
+ * <ul>
+ * <li>an unused LEFT OUTER JOIN whose ON clause binds a unique key of the
+ * joined table, which matches at most one row,</li>
+ * <li>an unused INNER JOIN following a NOT NULL foreign key to the joined
+ * table, which matches exactly one row.</li>
+ * </ul>
+ * Table and column names are case insensitive, a table may be prefixed by its
+ * schema. A table name without schema designates the table of this name if it
+ * is the only one, the tables of the same name in several schemas are then
+ * unknown. The metadata is declared once, or loaded from the database, then
+ * shared read-only by the optimizers.
+ */
+public class SchemaMetadata {
+  private static class TableMetadata {
+    private final Set<String> columns = new HashSet<String>();
+    private final Set<String> notNullColumns = new HashSet<String>();
+    private final List<Set<String>> uniqueKeys = new ArrayList<Set<String>>();
+    private final List<ForeignKey> foreignKeys = new ArrayList<ForeignKey>();
+  }
+
+  private static class ForeignKey {
+    private final String referencedTable;
+    private final Map<String, String> columns;
+
+    ForeignKey(final String referencedTable, final Map<String, String> columns) {
+      this.referencedTable = referencedTable;
+      this.columns = columns;
+    }
+  }
+
+  private final Map<String, TableMetadata> tables = new HashMap<String, TableMetadata>();
+  private final Map<String, List<TableMetadata>> tablesByName = new HashMap<String, List<TableMetadata>>();
+
+  /**
+   * Declare a table and its columns. Only the tables declared or loaded are
+   * considered by the optimizer.
+   */
+  public SchemaMetadata addTable(final String table, final String... columns) {
+    final TableMetadata metadata = getOrCreate(table);
+    for (final String column : columns)
+      metadata.columns.add(column.toLowerCase());
+    return this;
+  }
+
+  public SchemaMetadata addNotNull(final String table,
+      final String... columns) {
+    final TableMetadata metadata = getOrCreate(table);
+    for (final String column : columns) {
+      metadata.columns.add(column.toLowerCase());
+      metadata.notNullColumns.add(column.toLowerCase());
+    }
+    return this;
+  }
+
+  /**
+   * Declare the primary key, or a unique key, of a table. The columns of a
+   * primary key should also be declared NOT NULL.
+   */
+  public SchemaMetadata addUniqueKey(final String table,
+      final String... columns) {
+    final TableMetadata metadata = getOrCreate(table);
+    final Set<String> key = new HashSet<String>();
+    for (final String column : columns) {
+      metadata.columns.add(column.toLowerCase());
+      key.add(column.toLowerCase());
+    }
+    metadata.uniqueKeys.add(key);
+    return this;
+  }
+
+  /**
+   * Declare a foreign key of a table to a unique key of the referenced table
+   * 
+   * @param columns
+   *          columns of the table
+   * @param referencedColumns
+   *          columns of the referenced table, in the same order
+   */
+  public SchemaMetadata addForeignKey(final String table,
+      final String[] columns, final String referencedTable,
+      final String[] referencedColumns) {
+    if (columns.length != referencedColumns.length)
+      throw new IllegalArgumentException("Foreign key of " + table + " has "
+          + columns.length + " columns referencing " + referencedColumns.length
+          + " columns");
+    final TableMetadata metadata = getOrCreate(table);
+    final Map<String, String> keyColumns = new HashMap<String, String>();
+    for (int i = 0; i < columns.length; i++) {
+      metadata.columns.add(columns[i].toLowerCase());
+      keyColumns.put(columns[i].toLowerCase(), referencedColumns[i]
+          .toLowerCase());
+    }
+    metadata.foreignKeys.add(new ForeignKey(referencedTable, keyColumns));
+    return this;
+  }
+
+  public boolean isKnownTable(final String table) {
+    return get(table) != null;
+  }
+
+  public boolean hasColumn(final String table, final String column) {
+    final TableMetadata metadata = get(table);
+    return (metadata != null)
+        && metadata.columns.contains(column.toLowerCase());
+  }
+
+  public boolean isNotNull(final String table, final String column) {
+    final TableMetadata metadata = get(table);
+    return (metadata != null)
+        && metadata.notNullColumns.contains(column.toLowerCase());
+  }
+
+  /**
+   * @return true if the given columns contain all the columns of a unique key
+   *         of the table
+   */
+  public boolean containsUniqueKey(final String table,
+      final Set<String> columns) {
+    final TableMetadata metadata = get(table);
+    if (metadata == null)
+      return false;
+    final Set<String> lowerCaseColumns = toLowerCase(columns);
+    for (final Set<String> key : metadata.uniqueKeys)
+      if (lowerCaseColumns.containsAll(key))
+        return true;
+    return false;
+  }
+
+  /**
+   * @param columns
+   *          columns of the table, mapped to the column of the referenced
+   *          table they are equal to
+   * @return true if the columns are exactly a foreign key of the table to the
+   *         referenced table
+   */
+  public boolean isForeignKey(final String table,
+      final Map<String, String> columns, final String referencedTable) {
+    final TableMetadata metadata = get(table);
+    if (metadata == null)
+      return false;
+    final Map<String, String> lowerCaseColumns = new HashMap<String, String>();
+    for (final Map.Entry<String, String> entry : columns.entrySet())
+      lowerCaseColumns.put(entry.getKey().toLowerCase(), entry.getValue()
+          .toLowerCase());
+    final TableMetadata referenced = get(referencedTable);
+    if (referenced == null)
+      return false;
+    for (final ForeignKey foreignKey : metadata.foreignKeys)
+      if ((get(foreignKey.referencedTable) == referenced)
+          && foreignKey.columns.equals(lowerCaseColumns))
+        return true;
+    return false;
+  }
+
+  /**
+   * Load the columns, NOT NULL constraints, primary keys, unique indexes and
+   * foreign keys of the tables of a schema, named with their schema
+   * 
+   * @param catalog
+   *          null to ignore the catalog
+   * @param schemaPattern
+   *          null to load the tables of all schemas
+   */
+  public static SchemaMetadata load(final DatabaseMetaData databaseMetaData,
+      final String catalog, final String schemaPattern) throws SQLException {
+    final SchemaMetadata result = new SchemaMetadata();
+    final List<String[]> schemaTables = new ArrayList<String[]>();
+    ResultSet rs = databaseMetaData.getTables(catalog, schemaPattern, "%",
+        new String[] { "TABLE" });
+    try {
+      while (rs.next())
+        schemaTables.add(new String[] { rs.getString("TABLE_SCHEM"),
+            rs.getString("TABLE_NAME") });
+    } finally {
+      rs.close();
+    }
+
+    for (final String[] schemaTable : schemaTables) {
+      final String schema = schemaTable[0];
+      final String table = schemaTable[1];
+      final String qualifiedTable = qualify(schema, table);
+
+      rs = databaseMetaData.getColumns(catalog, schema, table, "%");
+      try {
+        while (rs.next())
+          if (table.equals(rs.getString("TABLE_NAME"))) {
+            if (rs.getInt("NULLABLE") == DatabaseMetaData.columnNoNulls)
+              result.addNotNull(qualifiedTable, rs.getString("COLUMN_NAME"));
+            else
+              result.addTable(qualifiedTable, rs.getString("COLUMN_NAME"));
+          }
+      } finally {
+        rs.close();
+      }
+
+      final Map<Integer, String> primaryKey = new TreeMap<Integer, String>();
+      rs = databaseMetaData.getPrimaryKeys(catalog, schema, table);
+      try {
+        while (rs.next())
+          primaryKey.put(rs.getInt("KEY_SEQ"), rs.getString("COLUMN_NAME"));
+      } finally {
+        rs.close();
+      }
+      if (!primaryKey.isEmpty())
+        result.addUniqueKey(qualifiedTable, primaryKey.values().toArray(
+            new String[primaryKey.size()]));
+
+      final Map<String, List<String>> uniqueIndexes = new HashMap<String, List<String>>();
+      rs = databaseMetaData.getIndexInfo(catalog, schema, table, true, true);
+      try {
+        while (rs.next()) {
+          final String column = rs.getString("COLUMN_NAME");
+          if (rs.getBoolean("NON_UNIQUE")
+              || (rs.getShort("TYPE") == DatabaseMetaData.tableIndexStatistic)
+              || (column == null))
+            continue;
+          final String index = rs.getString("INDEX_NAME");
+          if (!uniqueIndexes.containsKey(index))
+            uniqueIndexes.put(index, new ArrayList<String>());
+          uniqueIndexes.get(index).add(column);
+        }
+      } finally {
+        rs.close();
+      }
+      for (final List<String> columns : uniqueIndexes.values())
+        result.addUniqueKey(qualifiedTable, columns.toArray(new String[columns
+            .size()]));
+
+      final Map<String, List<String[]>> foreignKeys = new LinkedHashMap<String, List<String[]>>();
+      rs = databaseMetaData.getImportedKeys(catalog, schema, table);
+      try {
+        while (rs.next()) {
+          final String referencedTable = qualify(rs.getString("PKTABLE_SCHEM"),
+              rs.getString("PKTABLE_NAME"));
+          String name = rs.getString("FK_NAME");
+          if (name == null)
+            name = referencedTable;
+          if (!foreignKeys.containsKey(name))
+            foreignKeys.put(name, new ArrayList<String[]>());
+          foreignKeys.get(name).add(
+              new String[] { rs.getString("FKCOLUMN_NAME"),
+                  rs.getString("PKCOLUMN_NAME"), referencedTable });
+        }
+      } finally {
+        rs.close();
+      }
+      for (final List<String[]> key : foreignKeys.values()) {
+        final String[] columns = new String[key.size()];
+        final String[] referencedColumns = new String[key.size()];
+        for (int i = 0; i < key.size(); i++) {
+          columns[i] = key.get(i)[0];
+          referencedColumns[i] = key.get(i)[1];
+        }
+        result.addForeignKey(qualifiedTable, columns, key.get(0)[2],
+            referencedColumns);
+      }
+    }
+    return result;
+  }
+
+  private TableMetadata getOrCreate(final String table) {
+    final String qualifiedName = table.toLowerCase();
+    TableMetadata metadata = tables.get(qualifiedName);
+    if (metadata == null) {
+      metadata = new TableMetadata();
+      tables.put(qualifiedName, metadata);
+      final String name = getName(qualifiedName);
+      if (!tablesByName.containsKey(name))
+        tablesByName.put(name, new ArrayList<TableMetadata>());
+      tablesByName.get(name).add(metadata);
+    }
+    return metadata;
+  }
+
+  /**
+   * @return the metadata of the table with this schema, of the table declared
+   *         without schema, or of the only table of this name if the given
+   *         table has no schema
+   */
+  private TableMetadata get(final String table) {
+    final String qualifiedName = table.toLowerCase();
+    final TableMetadata metadata = tables.get(qualifiedName);
+    if (metadata != null)
+      return metadata;
+    final String name = getName(qualifiedName);
+    if (!name.equals(qualifiedName))
+      return tables.get(name);
+    final List<TableMetadata> sameName = tablesByName.get(name);
+    return (sameName != null) && (sameName.size() == 1) ? sameName.get(0)
+        : null;
+  }
+
+  /**
+   * @return the table name without its schema
+   */
+  private static String getName(final String table) {
+    return table.substring(table.lastIndexOf('.') + 1);
+  }
+
+  private static String qualify(final String schema, final String table) {
+    return schema == null ? table : schema + "." + table;
+  }
+
+  private static Set<String> toLowerCase(final Set<String> values) {
+    final Set<String> result = new HashSet<String>();
+    for (final String value : values)
+      result.add(value.toLowerCase());
+    return result;
+  }
+}
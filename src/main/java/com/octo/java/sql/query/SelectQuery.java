@@ -21,8 +21,12 @@ import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
+import com.octo.java.sql.exp.Column;
 import com.octo.java.sql.exp.Constant;
+import com.octo.java.sql.exp.Exp;
 import com.octo.java.sql.exp.JoinClause;
+import com.octo.java.sql.exp.SeekExp;
+import com.octo.java.sql.exp.SymbolTable;
 import com.octo.java.sql.query.visitor.QueryVisitor;
 
 public class SelectQuery extends Query<SelectQuery> {
@@ -41,15 +45,21 @@ public class SelectQuery extends Query<SelectQuery> {
   private String lastOrderByColumn = null;
   private boolean lastOrderByNeeded = true;
   private final List<SelectQuery> unions = new ArrayList<SelectQuery>();
+  private final List<Boolean> unionAllFlags = new ArrayList<Boolean>();
   private String alias;
+  private SeekExp seekClause = null;
+  private Integer fetchSize = null;
 
   /**
    * Constructor can only be called by factory methods in Query class
    * 
+   * @param context
+   *          null to use the default context
    * @param columns
    *          to put both SQLFunc & Colsname
    */
-  SelectQuery(final Object... columns) {
+  SelectQuery(final QueryContext context, final Object... columns) {
+    super(context);
     if ((columns != null) && (columns.length == 1)
         && Constant.STAR.getValue().equals(columns[0]))
       this.columns = new Object[] { Constant.STAR };
@@ -58,36 +68,45 @@ public class SelectQuery extends Query<SelectQuery> {
   }
 
   public SelectQuery from(final String... newTables) {
-    tables = newTables;
-    return this;
+    final SelectQuery query = mutable();
+    query.tables = newTables;
+    return query;
   }
 
+  /**
+   * @return the join, whose on() methods return this query, or the query
+   *         derived from it if it is frozen
+   */
   public JoinClause innerJoin(final String table) {
+    final SelectQuery query = mutable();
     final JoinClause result = new JoinClause(table,
-        JoinClause.JoinType.INNER_JOIN, this);
-    joinClauses.add(result);
+        JoinClause.JoinType.INNER_JOIN, query);
+    query.joinClauses.add(result);
     return result;
   }
 
   public JoinClause leftOuterJoin(final String table) {
+    final SelectQuery query = mutable();
     final JoinClause result = new JoinClause(table,
-        JoinClause.JoinType.LEFT_OUTER_JOIN, this);
-    joinClauses.add(result);
+        JoinClause.JoinType.LEFT_OUTER_JOIN, query);
+    query.joinClauses.add(result);
     return result;
   }
 
   public SelectQuery orderBy(final String value) {
-    this.orderBy.put(value, null);
-    lastOrderByColumn = value;
-    return this;
+    final SelectQuery query = mutable();
+    query.orderBy.put(value, null);
+    query.lastOrderByColumn = value;
+    return query;
   }
 
   public SelectQuery orderBy(final String value, final boolean isOrderByNeeded) {
-    lastOrderByNeeded = isOrderByNeeded;
+    final SelectQuery query = mutable();
+    query.lastOrderByNeeded = isOrderByNeeded;
     if (isOrderByNeeded) {
-      return orderBy(value);
+      return query.orderBy(value);
     }
-    return this;
+    return query;
   }
 
   public SelectQuery desc() throws QueryGrammarException {
@@ -95,8 +114,9 @@ public class SelectQuery extends Query<SelectQuery> {
       return this;
     }
     assertOrderBySpecified("desc");
-    orderBy.put(lastOrderByColumn, Order.DESC);
-    return this;
+    final SelectQuery query = mutable();
+    query.orderBy.put(lastOrderByColumn, Order.DESC);
+    return query;
   }
 
   private void assertOrderBySpecified(final String operation)
@@ -112,29 +132,148 @@ public class SelectQuery extends Query<SelectQuery> {
       return this;
     }
     assertOrderBySpecified("asc");
-    orderBy.put(lastOrderByColumn, Order.ASC);
-    return this;
+    final SelectQuery query = mutable();
+    query.orderBy.put(lastOrderByColumn, Order.ASC);
+    return query;
   }
 
   public SelectQuery limit(final Long newLimit) throws QueryGrammarException {
-    this.limit = newLimit;
-    return this;
+    final SelectQuery query = mutable();
+    query.limit = newLimit;
+    return query;
+  }
+
+  /**
+   * Keyset pagination: only select the rows following the given key in the
+   * order by columns order. Combined with limit() it fetches the next page
+   * without scanning the rows of the previous ones as OFFSET would.
+   * 
+   * @param lastKeyValues
+   *          values of the order by columns in the last row of the previous
+   *          page, null to select the first page
+   * @return this query
+   * @throws QueryGrammarException
+   *           if there is no order by column, if the number of values does not
+   *           match the number of order by columns or if a value is null
+   */
+  public SelectQuery seekAfter(final Object... lastKeyValues)
+      throws QueryGrammarException {
+    if ((lastKeyValues == null) || (lastKeyValues.length == 0)) {
+      final SelectQuery query = mutable();
+      query.seekClause = null;
+      return query;
+    }
+    if (orderBy.isEmpty())
+      throw new QueryGrammarException(
+          "Cannot apply 'seekAfter' operator without order by column.");
+    if (lastKeyValues.length != orderBy.size())
+      throw new QueryGrammarException("Cannot seek after "
+          + lastKeyValues.length + " values with " + orderBy.size()
+          + " order by columns.");
+
+    final Column[] keyColumns = new Column[orderBy.size()];
+    final boolean[] descending = new boolean[orderBy.size()];
+    int i = 0;
+    for (final Map.Entry<String, Order> entry : orderBy.entrySet()) {
+      if (lastKeyValues[i] == null)
+        throw new QueryGrammarException("Cannot seek after a NULL value of "
+            + entry.getKey() + ".");
+      keyColumns[i] = SymbolTable.column(entry.getKey());
+      descending[i] = Order.DESC.equals(entry.getValue());
+      i++;
+    }
+    final SelectQuery query = mutable();
+    query.seekClause = new SeekExp(keyColumns, descending, lastKeyValues
+        .clone());
+    return query;
+  }
+
+  /**
+   * Number of rows fetched from the database at once when the rows are read
+   * with a cursor, it does not change the rendered SQL
+   * 
+   * @param newFetchSize
+   *          null to use the default fetch size
+   * @return this query
+   */
+  public SelectQuery fetchSize(final Integer newFetchSize) {
+    final SelectQuery query = mutable();
+    query.fetchSize = newFetchSize;
+    return query;
   }
 
-  public SelectQuery as(final String alias) {
-    this.alias = alias;
-    return this;
+  public SelectQuery as(final String newAlias) {
+    final SelectQuery query = mutable();
+    query.alias = newAlias;
+    return query;
   }
 
   public SelectQuery union(final SelectQuery innerQuery) {
-    unions.add(innerQuery);
-    return this;
+    final SelectQuery query = mutable();
+    query.unions.add(innerQuery);
+    query.unionAllFlags.add(Boolean.FALSE);
+    return query;
+  }
+
+  /**
+   * Add a branch whose rows are kept even if they are duplicates, which saves
+   * the sort of UNION when the branches are disjoint
+   * 
+   * @param innerQuery
+   * @return this query
+   */
+  public SelectQuery unionAll(final SelectQuery innerQuery) {
+    final SelectQuery query = mutable();
+    query.unions.add(innerQuery);
+    query.unionAllFlags.add(Boolean.TRUE);
+    return query;
   }
 
   public void accept(final QueryVisitor visitor) throws QueryException {
     visitor.visit(this);
   }
 
+  @Override
+  SelectQuery derive() {
+    final SelectQuery derived = new SelectQuery(getRawContext(), columns);
+    derived.tables = tables;
+    derived.joinClauses.addAll(joinClauses);
+    derived.whereClause = whereClause;
+    derived.orderBy.putAll(orderBy);
+    derived.limit = limit;
+    derived.lastOrderByColumn = lastOrderByColumn;
+    derived.lastOrderByNeeded = lastOrderByNeeded;
+    derived.unions.addAll(unions);
+    derived.unionAllFlags.addAll(unionAllFlags);
+    derived.alias = alias;
+    derived.seekClause = seekClause;
+    derived.fetchSize = fetchSize;
+    return derived;
+  }
+
+  @Override
+  public SelectQuery copy() {
+    final SelectQuery copy = new SelectQuery(getRawContext(), Exp
+        .copyValues(columns));
+    copy.tables = tables;
+    for (final JoinClause clause : joinClauses)
+      copy.joinClauses.add(clause.copy(copy));
+    if (whereClause != null)
+      copy.whereClause = whereClause.copy();
+    copy.orderBy.putAll(orderBy);
+    copy.limit = limit;
+    copy.lastOrderByColumn = lastOrderByColumn;
+    copy.lastOrderByNeeded = lastOrderByNeeded;
+    for (final SelectQuery union : unions)
+      copy.unions.add(union.copy());
+    copy.unionAllFlags.addAll(unionAllFlags);
+    copy.alias = alias;
+    if (seekClause != null)
+      copy.seekClause = seekClause.copy();
+    copy.fetchSize = fetchSize;
+    return copy;
+  }
+
   public Object[] getColumns() {
     return columns;
   }
@@ -162,4 +301,49 @@ public class SelectQuery extends Query<SelectQuery> {
   public List<SelectQuery> getUnions() {
     return unions;
   }
+
+  /**
+   * @param index
+   *          of the union in getUnions()
+   * @return true if the union has been added with unionAll()
+   */
+  public boolean isUnionAll(final int index) {
+    return unionAllFlags.get(index);
+  }
+
+  /**
+   * Split this query into its union branches: this query without its unions,
+   * followed by every union. Executed separately, the branches select the rows
+   * of UNION ALL. The ORDER BY and LIMIT of this query are kept by the first
+   * branch only.
+   * 
+   * @return
+   */
+  public List<SelectQuery> getUnionBranches() {
+    final List<SelectQuery> branches = new ArrayList<SelectQuery>(unions
+        .size() + 1);
+    final SelectQuery head = new SelectQuery(getRawContext(), columns);
+    head.tables = tables;
+    head.joinClauses.addAll(joinClauses);
+    head.whereClause = whereClause;
+    head.orderBy.putAll(orderBy);
+    head.limit = limit;
+    head.alias = alias;
+    head.seekClause = seekClause;
+    head.fetchSize = fetchSize;
+    branches.add(head);
+    branches.addAll(unions);
+    return branches;
+  }
+
+  /**
+   * @return the keyset pagination clause set by seekAfter(), or null
+   */
+  public SeekExp getSeekClause() {
+    return seekClause;
+  }
+
+  public Integer getFetchSize() {
+    return fetchSize;
+  }
 }
@@ -30,21 +30,43 @@ public class UpdateQuery extends Query<UpdateQuery> {
   /**
    * Constructor can only be called by factory methods in Query class
    * 
+   * @param context
+   *          null to use the default context
    * @param columns
    */
-  UpdateQuery(final String table) {
+  UpdateQuery(final QueryContext context, final String table) {
+    super(context);
     this.table = table;
   }
 
   public UpdateQuery set(final Column column, final Object value) {
-    setClauses.add(new SetClause(column, value));
-    return this;
+    final UpdateQuery query = mutable();
+    query.setClauses.add(new SetClause(column, value));
+    return query;
   }
 
   public void accept(final QueryVisitor visitor) throws QueryException {
     visitor.visit(this);
   }
 
+  @Override
+  UpdateQuery derive() {
+    final UpdateQuery derived = new UpdateQuery(getRawContext(), table);
+    derived.setClauses.addAll(setClauses);
+    derived.whereClause = whereClause;
+    return derived;
+  }
+
+  @Override
+  public UpdateQuery copy() {
+    final UpdateQuery copy = new UpdateQuery(getRawContext(), table);
+    for (final SetClause clause : setClauses)
+      copy.setClauses.add(clause.copy());
+    if (whereClause != null)
+      copy.whereClause = whereClause.copy();
+    return copy;
+  }
+
   public String getTable() {
     return table;
   }
@@ -0,0 +1,308 @@
+/**
+ * Copyright (C) 2010 David Rousselie <drousselie@octo.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.octo.java.sql.query.cache;
+
+import static org.apache.commons.lang.ArrayUtils.isEmpty;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.collections.map.ListOrderedMap;
+
+import com.octo.java.sql.exp.BetweenExp;
+import com.octo.java.sql.exp.Column;
+import com.octo.java.sql.exp.Constant;
+import com.octo.java.sql.exp.Exp;
+import com.octo.java.sql.exp.ExpSeq;
+import com.octo.java.sql.exp.FalseExp;
+import com.octo.java.sql.exp.InExp;
+import com.octo.java.sql.exp.JoinClause;
+import com.octo.java.sql.exp.Nullable;
+import com.octo.java.sql.exp.OpExp;
+import com.octo.java.sql.exp.SQLFunc;
+import com.octo.java.sql.exp.SeekExp;
+import com.octo.java.sql.exp.SetClause;
+import com.octo.java.sql.query.DeleteQuery;
+import com.octo.java.sql.query.InsertQuery;
+import com.octo.java.sql.query.QueryException;
+import com.octo.java.sql.query.SelectQuery;
+import com.octo.java.sql.query.UpdateQuery;
+import com.octo.java.sql.query.SelectQuery.Order;
+import com.octo.java.sql.query.visitor.BaseVisitor;
+import com.octo.java.sql.query.visitor.DefaultQueryBuilder;
+
+/**
+ * Compute the structural shape of a query and collect its bound values.<br>
+ * The traversal mirrors the one of DefaultQueryBuilder: the same nodes are
+ * skipped and the values are collected in the same order the builder names
+ * its parameters. Two queries with the same key thus render the same SQL
+ * string, only the collected values differ.
+ */
+public class QueryShapeVisitor extends BaseVisitor {
+  private final StringBuilder key = new StringBuilder();
+  private final List<Object> values = new ArrayList<Object>();
+  private final DefaultQueryBuilder builder;
+
+  /**
+   * @param builder
+   *          that will render the query, IN lists are keyed and their values
+   *          collected the way it renders them
+   */
+  public QueryShapeVisitor(final DefaultQueryBuilder builder) {
+    this.builder = builder;
+    appendToken('B', builder.getClass().getName());
+    key.append(builder.getParameterStyle().ordinal());
+  }
+
+  public String getKey() {
+    return key.toString();
+  }
+
+  public List<Object> getValues() {
+    return values;
+  }
+
+  /**
+   * Names are length prefixed so that no table or column name can be mistaken
+   * for a token
+   */
+  private void appendToken(final char type, final String name) {
+    key.append(type);
+    if (name == null)
+      key.append('-');
+    else
+      key.append(name.length()).append(':').append(name);
+  }
+
+  private void appendValidity(final Exp exp) {
+    key.append(exp.isValid() ? '+' : '!');
+  }
+
+  public void visitValue(final Object value) {
+    key.append('?');
+    values.add(value);
+  }
+
+  /**
+   * Visit methods
+   */
+  public void visit(final Column column) {
+    appendToken('c', column.getName());
+  }
+
+  public void visit(final OpExp exp) throws QueryException {
+    key.append('o');
+    appendValidity(exp);
+    acceptOrVisitValue(exp.getLhsValue());
+    final Object rhsValue = exp.getRhsValue();
+    key.append(exp.getOperator() == null ? -1 : exp.getOperator().ordinal());
+    if ((rhsValue == null) //
+        || ((rhsValue instanceof Nullable) && ((Nullable) rhsValue).isNull()))
+      key.append('n');
+    else
+      acceptOrVisitValue(rhsValue);
+    key.append(';');
+  }
+
+  public void visit(final BetweenExp betweenExp) throws QueryException {
+    key.append('b');
+    appendValidity(betweenExp);
+    visit(betweenExp.getColumn());
+    visitBoundary(betweenExp.getValueStart());
+    visitBoundary(betweenExp.getValueEnd());
+  }
+
+  private void visitBoundary(final Object boundary) throws QueryException {
+    if (boundary == null)
+      key.append('n');
+    else
+      acceptOrVisitValue(boundary);
+  }
+
+  public void visit(final ExpSeq expSeq) throws QueryException {
+    key.append('(');
+    appendValidity(expSeq);
+    key.append(expSeq.getOperator().ordinal());
+    for (final Exp clause : expSeq.getClauses())
+      if (clause.isValid())
+        clause.accept(this);
+    key.append(')');
+  }
+
+  public void visit(final InExp inExp) throws QueryException {
+    key.append('i');
+    appendValidity(inExp);
+    key.append(inExp.isNegative() ? '!' : '=');
+    inExp.getColumn().accept(this);
+    final Object[] inValues = inExp.getValues();
+    if (isEmpty(inValues))
+      key.append(0);
+    else if (builder.isArrayBound(inValues)) {
+      appendToken('a', inValues[0].getClass().getName());
+      visitValue(inValues);
+    } else {
+      final int size = builder.getInListSize(inValues);
+      key.append(size);
+      for (int i = 0; i < size; i++)
+        acceptOrVisitValue(inValues[Math.min(i, inValues.length - 1)]);
+    }
+    key.append(';');
+  }
+
+  public void visit(final FalseExp falseExp) {
+    key.append('f');
+  }
+
+  /**
+   * Multi-column seeks in the same direction collect the values in the row
+   * value order, the others in the expanded OR order. Builders not supporting
+   * row values are not cached for the former: their values do not match.
+   */
+  public void visit(final SeekExp seekExp) throws QueryException {
+    final Column[] columns = seekExp.getColumns();
+    final Object[] seekValues = seekExp.getValues();
+    key.append('q').append(columns.length);
+    for (int i = 0; i < columns.length; i++) {
+      key.append(seekExp.isDescending(i) ? '<' : '>');
+      columns[i].accept(this);
+    }
+    if ((columns.length == 1) || seekExp.isSameDirection())
+      for (final Object value : seekValues)
+        acceptOrVisitValue(value);
+    else
+      for (int i = 0; i < columns.length; i++)
+        for (int j = 0; j <= i; j++)
+          acceptOrVisitValue(seekValues[j]);
+    key.append(';');
+  }
+
+  public void visit(final JoinClause joinClause) throws QueryException {
+    key.append('j').append(joinClause.getType().ordinal());
+    appendToken('t', joinClause.getTable());
+    joinClause.getOnClause().accept(this);
+  }
+
+  public void visit(final SetClause setClause) throws QueryException {
+    key.append('s');
+    setClause.getColumn().accept(this);
+    acceptOrVisitValue(setClause.getValue());
+  }
+
+  public void visit(final SQLFunc sqlFunc) throws QueryException {
+    appendToken('f', sqlFunc.getName());
+    appendToken('a', sqlFunc.getAlias());
+    for (final Object param : sqlFunc.getParams())
+      acceptOrVisitValue(param);
+    key.append(';');
+  }
+
+  public void visit(final Constant constant) {
+    key.append('k').append(constant.ordinal());
+  }
+
+  public void visit(final SelectQuery query) throws QueryException {
+    key.append("S[");
+    for (final Object column : query.getColumns())
+      acceptOrVisitValue(column);
+    visitTables(query.getTables());
+
+    for (final JoinClause clause : query.getJoinClauses())
+      if (clause.isValid())
+        clause.accept(this);
+
+    appendToken('a', query.getAlias());
+    visitWhereClause(query.getWhereClause());
+    if (query.getSeekClause() != null)
+      query.getSeekClause().accept(this);
+
+    final Map<String, Order> orderBy = query.getOrderBy();
+    for (final String orderByColumn : orderBy.keySet()) {
+      appendToken('r', orderByColumn);
+      final Order columnOrder = orderBy.get(orderByColumn);
+      key.append(columnOrder == null ? -1 : columnOrder.ordinal());
+    }
+
+    if (query.getLimit() != null) {
+      key.append('l');
+      visitValue(query.getLimit());
+    }
+
+    final List<SelectQuery> unions = query.getUnions();
+    for (int i = 0; i < unions.size(); i++) {
+      key.append(query.isUnionAll(i) ? 'A' : 'u');
+      unions.get(i).accept(this);
+    }
+    key.append(']');
+  }
+
+  public void visit(final UpdateQuery updateQuery) throws QueryException {
+    key.append("U[");
+    appendToken('t', updateQuery.getTable());
+    for (final SetClause clause : updateQuery.getSetClauses())
+      clause.accept(this);
+    visitWhereClause(updateQuery.getWhereClause());
+    key.append(']');
+  }
+
+  public void visit(final InsertQuery insertQuery) throws QueryException {
+    key.append("I[");
+    appendToken('t', insertQuery.getTable());
+    if (insertQuery.isMultiRow()) {
+      for (final String column : insertQuery.getColumns())
+        appendToken('c', column);
+      key.append('r').append(insertQuery.getRows().size());
+      for (final Object[] row : insertQuery.getRows())
+        for (final Object value : row)
+          acceptOrVisitValue(value);
+      key.append(']');
+      return;
+    }
+    final ListOrderedMap columnValues = insertQuery.getColumnsValues();
+    for (final Object column : columnValues.keyList()) {
+      appendToken('c', (String) column);
+      acceptOrVisitValue(columnValues.get(column));
+    }
+    key.append(']');
+  }
+
+  public void visit(final DeleteQuery deleteQuery) throws QueryException {
+    key.append("D[");
+    visitTables(deleteQuery.getTables());
+    visitWhereClause(deleteQuery.getWhereClause());
+    key.append(']');
+  }
+
+  public void visit(final Nullable nullable) throws QueryException {
+    key.append('N');
+    acceptOrVisitValue(nullable.getValue());
+  }
+
+  private void visitTables(final String[] tables) {
+    if (tables == null)
+      key.append('-');
+    else
+      for (final String table : tables)
+        appendToken('t', table);
+  }
+
+  private void visitWhereClause(final Exp whereClause) throws QueryException {
+    key.append('w');
+    if ((whereClause != null) && whereClause.isValid())
+      whereClause.accept(this);
+  }
+}
@@ -0,0 +1,95 @@
+/**
+ * Copyright (C) 2010 David Rousselie <drousselie@octo.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.octo.java.sql.query.cache;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.octo.java.sql.query.visitor.ParameterStyle;
+
+/**
+ * Immutable rendered SQL string with the names of its parameters, in the order
+ * their values are collected by QueryShapeVisitor. Positional templates have
+ * no parameter names.
+ */
+public class SQLTemplate {
+  private final String sql;
+  private final ParameterStyle parameterStyle;
+  private final String[] parameterNames;
+  private final int parameterCount;
+  private final AtomicLong hits = new AtomicLong();
+
+  public SQLTemplate(final String sql, final ParameterStyle parameterStyle,
+      final List<String> parameterNames, final int parameterCount) {
+    this.sql = sql;
+    this.parameterStyle = parameterStyle;
+    this.parameterNames = parameterNames.toArray(new String[parameterNames
+        .size()]);
+    this.parameterCount = parameterCount;
+  }
+
+  public String getSql() {
+    return sql;
+  }
+
+  public ParameterStyle getParameterStyle() {
+    return parameterStyle;
+  }
+
+  public int getParameterCount() {
+    return parameterCount;
+  }
+
+  /**
+   * @return the number of times this template has been found in a cache
+   */
+  public long getHitCount() {
+    return hits.get();
+  }
+
+  void hit() {
+    hits.incrementAndGet();
+  }
+
+  /**
+   * @param index
+   * @return the parameter name, null for positional templates
+   */
+  public String getParameterName(final int index) {
+    if (parameterStyle == ParameterStyle.POSITIONAL)
+      return null;
+    return parameterNames[index];
+  }
+
+  /**
+   * Build the parameters map of this template for the given values, the map is
+   * empty for positional templates
+   * 
+   * @param values
+   *          collected in the same order as the parameter names
+   * @return
+   */
+  public Map<String, Object> bind(final List<Object> values) {
+    final Map<String, Object> params = new HashMap<String, Object>(
+        (parameterNames.length * 4) / 3 + 1);
+    for (int i = 0; i < parameterNames.length; i++)
+      params.put(parameterNames[i], values.get(i));
+    return params;
+  }
+}
@@ -0,0 +1,140 @@
+/**
+ * Copyright (C) 2010 David Rousselie <drousselie@octo.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.octo.java.sql.query.cache;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded and thread-safe cache of SQL templates keyed on the shape of the
+ * queries (see QueryShapeVisitor). When the cache is full, the oldest template
+ * is evicted.
+ */
+public class SQLTemplateCache {
+  public static final int DEFAULT_MAX_SIZE = 1024;
+
+  private final int maxSize;
+  private final ConcurrentHashMap<String, SQLTemplate> templates = new ConcurrentHashMap<String, SQLTemplate>();
+  private final Queue<String> insertionOrder = new ConcurrentLinkedQueue<String>();
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+  private final AtomicLong evictions = new AtomicLong();
+
+  public SQLTemplateCache() {
+    this(DEFAULT_MAX_SIZE);
+  }
+
+  public SQLTemplateCache(final int maxSize) {
+    if (maxSize <= 0)
+      throw new IllegalArgumentException("Cache size must be positive: "
+          + maxSize);
+    this.maxSize = maxSize;
+  }
+
+  /**
+   * @param shapeKey
+   * @return the cached template or null if this shape has not been rendered
+   *         yet
+   */
+  public SQLTemplate get(final String shapeKey) {
+    final SQLTemplate template = templates.get(shapeKey);
+    if (template == null)
+      misses.incrementAndGet();
+    else {
+      hits.incrementAndGet();
+      template.hit();
+    }
+    return template;
+  }
+
+  public void put(final String shapeKey, final SQLTemplate template) {
+    if (templates.putIfAbsent(shapeKey, template) != null)
+      return;
+    insertionOrder.add(shapeKey);
+    while (templates.size() > maxSize) {
+      final String oldestKey = insertionOrder.poll();
+      if (oldestKey == null)
+        break;
+      if (templates.remove(oldestKey) != null)
+        evictions.incrementAndGet();
+    }
+  }
+
+  /**
+   * Remove every template and reset the hit, miss and eviction counters
+   */
+  public void clear() {
+    templates.clear();
+    insertionOrder.clear();
+    hits.set(0);
+    misses.set(0);
+    evictions.set(0);
+  }
+
+  public int size() {
+    return templates.size();
+  }
+
+  public int getMaxSize() {
+    return maxSize;
+  }
+
+  public long getHitCount() {
+    return hits.get();
+  }
+
+  public long getMissCount() {
+    return misses.get();
+  }
+
+  public long getEvictionCount() {
+    return evictions.get();
+  }
+
+  /**
+   * @return hits divided by lookups, 0 before the first lookup
+   */
+  public double getHitRatio() {
+    final long hitCount = hits.get();
+    final long lookupCount = hitCount + misses.get();
+    return lookupCount == 0 ? 0 : (double) hitCount / lookupCount;
+  }
+
+  /**
+   * @return the cached templates, the most hit first
+   */
+  public List<SQLTemplate> getTemplates() {
+    final Collection<SQLTemplate> values = templates.values();
+    final List<SQLTemplate> result = new ArrayList<SQLTemplate>(values);
+    Collections.sort(result, new Comparator<SQLTemplate>() {
+      public int compare(final SQLTemplate template1,
+          final SQLTemplate template2) {
+        final long hits1 = template1.getHitCount();
+        final long hits2 = template2.getHitCount();
+        return hits1 > hits2 ? -1 : (hits1 == hits2 ? 0 : 1);
+      }
+    });
+    return result;
+  }
+}
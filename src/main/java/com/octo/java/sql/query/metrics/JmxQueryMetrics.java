@@ -0,0 +1,311 @@
+/**
+ * Copyright (C) 2010 David Rousselie <drousselie@octo.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.octo.java.sql.query.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.log4j.Logger;
+
+import com.octo.java.sql.query.Query;
+import com.octo.java.sql.query.visitor.DefaultQueryBuilder;
+
+/**
+ * Metrics listener exposing its totals as a JMX MBean. The counters are
+ * striped (LongAdder), so that the threads rendering queries do not contend
+ * on them:
+ * 
+ * <code>
+ * JmxQueryMetrics metrics = new JmxQueryMetrics();
+ * metrics.register();
+ * QueryContext.setDefault(QueryContext.getDefault().withMetricsListener(metrics));
+ * </code>
+ * 
+ * The totals of each query builder class are kept by a JmxQueryMetrics of
+ * their own (see getMetrics()), registered with the name of this MBean and a
+ * "builder" key holding the name of the class.
+ */
+public class JmxQueryMetrics implements QueryMetricsListener,
+    JmxQueryMetricsMBean {
+  public static final String DEFAULT_OBJECT_NAME = "com.octo.java.sql:type=QueryMetrics";
+
+  /**
+   * Logger for this class
+   */
+  private static final Logger logger = Logger.getLogger(JmxQueryMetrics.class);
+
+  private final LongAdder optimizeCount = new LongAdder();
+  private final LongAdder optimizeNanos = new LongAdder();
+  private final LongAdder clausesRemoved = new LongAdder();
+  private final LongAdder joinsRemoved = new LongAdder();
+  private final LongAdder renderCount = new LongAdder();
+  private final LongAdder renderNanos = new LongAdder();
+  private final LongAdder sqlLength = new LongAdder();
+  private final LongAdder paramCount = new LongAdder();
+  private final LongAdder cacheHits = new LongAdder();
+  private final LongAdder cacheMisses = new LongAdder();
+
+  /**
+   * null in the metrics of a builder class
+   */
+  private final ConcurrentMap<Class<? extends DefaultQueryBuilder>, JmxQueryMetrics> builderMetrics;
+  private MBeanServer server = null;
+  private ObjectName objectName = null;
+
+  public JmxQueryMetrics() {
+    this(new ConcurrentHashMap<Class<? extends DefaultQueryBuilder>, JmxQueryMetrics>());
+  }
+
+  private JmxQueryMetrics(
+      final ConcurrentMap<Class<? extends DefaultQueryBuilder>, JmxQueryMetrics> builderMetrics) {
+    super();
+    this.builderMetrics = builderMetrics;
+  }
+
+  public void queryOptimized(final Query<?> query,
+      final Class<? extends DefaultQueryBuilder> builderClass,
+      final long durationNanos, final int removedClauses,
+      final int removedJoins) {
+    addOptimized(durationNanos, removedClauses, removedJoins);
+    final JmxQueryMetrics metrics = getOrCreateMetrics(builderClass);
+    if (metrics != null)
+      metrics.addOptimized(durationNanos, removedClauses, removedJoins);
+  }
+
+  public void queryRendered(final Query<?> query,
+      final Class<? extends DefaultQueryBuilder> builderClass,
+      final long durationNanos, final int length, final int params) {
+    addRendered(durationNanos, length, params);
+    final JmxQueryMetrics metrics = getOrCreateMetrics(builderClass);
+    if (metrics != null)
+      metrics.addRendered(durationNanos, length, params);
+  }
+
+  public void templateCacheHit(final Query<?> query,
+      final Class<? extends DefaultQueryBuilder> builderClass) {
+    cacheHits.increment();
+    final JmxQueryMetrics metrics = getOrCreateMetrics(builderClass);
+    if (metrics != null)
+      metrics.cacheHits.increment();
+  }
+
+  public void templateCacheMiss(final Query<?> query,
+      final Class<? extends DefaultQueryBuilder> builderClass) {
+    cacheMisses.increment();
+    final JmxQueryMetrics metrics = getOrCreateMetrics(builderClass);
+    if (metrics != null)
+      metrics.cacheMisses.increment();
+  }
+
+  private void addOptimized(final long durationNanos,
+      final int removedClauses, final int removedJoins) {
+    optimizeCount.increment();
+    optimizeNanos.add(durationNanos);
+    clausesRemoved.add(removedClauses);
+    joinsRemoved.add(removedJoins);
+  }
+
+  private void addRendered(final long durationNanos, final int length,
+      final int params) {
+    renderCount.increment();
+    renderNanos.add(durationNanos);
+    sqlLength.add(length);
+    paramCount.add(params);
+  }
+
+  /**
+   * @return the totals of the queries optimized or rendered with the given
+   *         builder class, null if there has been none yet
+   */
+  public JmxQueryMetrics getMetrics(
+      final Class<? extends DefaultQueryBuilder> builderClass) {
+    return builderMetrics == null ? null : builderMetrics.get(builderClass);
+  }
+
+  /**
+   * @return null in the metrics of a builder class
+   */
+  private JmxQueryMetrics getOrCreateMetrics(
+      final Class<? extends DefaultQueryBuilder> builderClass) {
+    if (builderMetrics == null)
+      return null;
+    final JmxQueryMetrics metrics = builderMetrics.get(builderClass);
+    if (metrics != null)
+      return metrics;
+    final JmxQueryMetrics newMetrics = new JmxQueryMetrics(null);
+    final JmxQueryMetrics previous = builderMetrics.putIfAbsent(builderClass,
+        newMetrics);
+    if (previous != null)
+      return previous;
+    registerBuilderMetrics(builderClass, newMetrics);
+    return newMetrics;
+  }
+
+  /**
+   * Register this MBean in the platform MBean server with the default name
+   * 
+   * @return the name of the MBean
+   * @throws JMException
+   *           if a MBean is already registered with this name
+   */
+  public ObjectName register() throws JMException {
+    final ObjectName name = new ObjectName(DEFAULT_OBJECT_NAME);
+    register(ManagementFactory.getPlatformMBeanServer(), name);
+    return name;
+  }
+
+  /**
+   * Register this MBean and the metrics of the builder classes seen so far,
+   * the metrics of the next builder classes are registered once seen
+   */
+  public synchronized void register(final MBeanServer mbeanServer,
+      final ObjectName name) throws JMException {
+    mbeanServer.registerMBean(this, name);
+    server = mbeanServer;
+    objectName = name;
+    if (builderMetrics != null)
+      for (final Map.Entry<Class<? extends DefaultQueryBuilder>, JmxQueryMetrics> entry : builderMetrics
+          .entrySet())
+        server.registerMBean(entry.getValue(), getObjectName(entry.getKey()));
+  }
+
+  /**
+   * Unregister this MBean and the metrics of the builder classes
+   */
+  public synchronized void unregister() throws JMException {
+    if (server == null)
+      return;
+    if (builderMetrics != null)
+      for (final Class<? extends DefaultQueryBuilder> builderClass : builderMetrics
+          .keySet()) {
+        final ObjectName name = getObjectName(builderClass);
+        if (server.isRegistered(name))
+          server.unregisterMBean(name);
+      }
+    server.unregisterMBean(objectName);
+    server = null;
+    objectName = null;
+  }
+
+  private synchronized void registerBuilderMetrics(
+      final Class<? extends DefaultQueryBuilder> builderClass,
+      final JmxQueryMetrics metrics) {
+    if (server == null)
+      return;
+    try {
+      final ObjectName name = getObjectName(builderClass);
+      if (!server.isRegistered(name))
+        server.registerMBean(metrics, name);
+    } catch (final JMException e) {
+      logger.warn("Cannot register the query metrics of " + builderClass, e);
+    }
+  }
+
+  private ObjectName getObjectName(
+      final Class<? extends DefaultQueryBuilder> builderClass)
+      throws JMException {
+    return new ObjectName(objectName.getCanonicalName() + ",builder="
+        + builderClass.getName());
+  }
+
+  public long getOptimizeCount() {
+    return optimizeCount.sum();
+  }
+
+  public long getOptimizeTime() {
+    return optimizeNanos.sum() / 1000;
+  }
+
+  public double getAverageOptimizeTime() {
+    return average(optimizeNanos.sum() / 1000.0, optimizeCount.sum());
+  }
+
+  public long getClausesRemoved() {
+    return clausesRemoved.sum();
+  }
+
+  public long getJoinsRemoved() {
+    return joinsRemoved.sum();
+  }
+
+  public long getRenderCount() {
+    return renderCount.sum();
+  }
+
+  public long getRenderTime() {
+    return renderNanos.sum() / 1000;
+  }
+
+  public double getAverageRenderTime() {
+    return average(renderNanos.sum() / 1000.0, renderCount.sum());
+  }
+
+  public double getAverageSqlLength() {
+    return average(sqlLength.sum(), renderCount.sum());
+  }
+
+  public double getAverageParamCount() {
+    return average(paramCount.sum(), renderCount.sum());
+  }
+
+  public long getTemplateCacheHits() {
+    return cacheHits.sum();
+  }
+
+  public long getTemplateCacheMisses() {
+    return cacheMisses.sum();
+  }
+
+  /**
+   * @return hits divided by lookups, 0 before the first lookup
+   */
+  public double getTemplateCacheHitRatio() {
+    final long hits = cacheHits.sum();
+    return average(hits, hits + cacheMisses.sum());
+  }
+
+  /**
+   * Reset the counters, those of the builder classes included. The updates
+   * made while resetting may be lost.
+   */
+  public void reset() {
+    if (builderMetrics != null)
+      for (final JmxQueryMetrics metrics : builderMetrics.values())
+        metrics.reset();
+    optimizeCount.reset();
+    optimizeNanos.reset();
+    clausesRemoved.reset();
+    joinsRemoved.reset();
+    renderCount.reset();
+    renderNanos.reset();
+    sqlLength.reset();
+    paramCount.reset();
+    cacheHits.reset();
+    cacheMisses.reset();
+  }
+
+  private static double average(final double total, final long count) {
+    return count == 0 ? 0 : total / count;
+  }
+}
@@ -0,0 +1,50 @@
+/**
+ * Copyright (C) 2010 David Rousselie <drousselie@octo.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.octo.java.sql.query.metrics;
+
+/**
+ * Attributes of the JmxQueryMetrics MBean. Durations are in microseconds.
+ */
+public interface JmxQueryMetricsMBean {
+  public long getOptimizeCount();
+
+  public long getOptimizeTime();
+
+  public double getAverageOptimizeTime();
+
+  public long getClausesRemoved();
+
+  public long getJoinsRemoved();
+
+  public long getRenderCount();
+
+  public long getRenderTime();
+
+  public double getAverageRenderTime();
+
+  public double getAverageSqlLength();
+
+  public double getAverageParamCount();
+
+  public long getTemplateCacheHits();
+
+  public long getTemplateCacheMisses();
+
+  public double getTemplateCacheHitRatio();
+
+  public void reset();
+}
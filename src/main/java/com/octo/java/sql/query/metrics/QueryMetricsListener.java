@@ -0,0 +1,80 @@
+/**
+ * Copyright (C) 2010 David Rousselie <drousselie@octo.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.octo.java.sql.query.metrics;
+
+import com.octo.java.sql.query.Query;
+import com.octo.java.sql.query.visitor.DefaultQueryBuilder;
+
+/**
+ * Notified by the queries of a context having this listener (see
+ * QueryContext.withMetricsListener()). The listener is called by the threads
+ * rendering the queries: it must be thread-safe and fast. Each call gives the
+ * class of the query builder, ie. the SQL dialect, so that the metrics can be
+ * split by database.
+ */
+public interface QueryMetricsListener {
+  /**
+   * Called once the visitors of the context have run on a copy of the query
+   * 
+   * @param query
+   *          the optimized query, not its copy
+   * @param builderClass
+   *          class of the builders of the optimizing context
+   * @param durationNanos
+   *          time spent in the visitors
+   * @param clausesRemoved
+   *          number of predicates invalidated or merged by the
+   *          BasicQueryOptimizer and the PredicateSimplifier, other visitors
+   *          do not report their removals
+   * @param joinsRemoved
+   *          number of joins invalidated by the BasicQueryOptimizer
+   */
+  public void queryOptimized(Query<?> query,
+      Class<? extends DefaultQueryBuilder> builderClass, long durationNanos,
+      int clausesRemoved, int joinsRemoved);
+
+  /**
+   * Called once the SQL of the query has been rendered by a query builder or
+   * read from the template cache
+   * 
+   * @param query
+   *          the rendered query
+   * @param builderClass
+   *          class of the builder which has rendered the SQL
+   * @param durationNanos
+   *          time spent to render the SQL, without the optimization
+   * @param sqlLength
+   *          number of characters of the SQL
+   * @param paramCount
+   *          number of bound parameters
+   */
+  public void queryRendered(Query<?> query,
+      Class<? extends DefaultQueryBuilder> builderClass, long durationNanos,
+      int sqlLength, int paramCount);
+
+  /**
+   * Called when the SQL of the query has been found in the template cache
+   */
+  public void templateCacheHit(Query<?> query,
+      Class<? extends DefaultQueryBuilder> builderClass);
+
+  /**
+   * Called when the SQL of the query is not in the template cache
+   */
+  public void templateCacheMiss(Query<?> query,
+      Class<? extends DefaultQueryBuilder> builderClass);
+}
@@ -0,0 +1,192 @@
+/**
+ * Copyright (C) 2010 David Rousselie <drousselie@octo.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.octo.java.sql.query.page;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import com.octo.java.sql.query.QueryGrammarException;
+import com.octo.java.sql.query.SelectQuery;
+
+/**
+ * Iterate over the pages of a SELECT query using keyset pagination: each page
+ * is selected with the key of the last row of the previous one (see
+ * SelectQuery.seekAfter()) instead of an OFFSET.<br>
+ * When an executor is given, the next page is fetched in background as soon
+ * as the current one is returned, overlapping the database round trip with
+ * the processing of the current page. The query is modified by this iterator
+ * and must not be used elsewhere while iterating, unless it is frozen: the
+ * iterator then works on the queries derived from it.
+ * 
+ * @param <T>
+ *          type of the rows
+ */
+public class SeekPageIterator<T> implements Iterator<List<T>> {
+  /**
+   * Execute a page query and map its rows
+   */
+  public interface PageFetcher<T> {
+    List<T> fetch(SelectQuery query) throws Exception;
+  }
+
+  /**
+   * Extract the values of the order by columns from a row
+   */
+  public interface KeyExtractor<T> {
+    Object[] getKey(T row);
+  }
+
+  private SelectQuery query;
+  private final int pageSize;
+  private final PageFetcher<T> fetcher;
+  private final KeyExtractor<T> keyExtractor;
+  private final ExecutorService executor;
+  private List<T> page = null;
+  private Future<List<T>> prefetchedPage = null;
+  private boolean morePages = true;
+
+  /**
+   * Iterate without prefetching
+   */
+  public SeekPageIterator(final SelectQuery query, final int pageSize,
+      final PageFetcher<T> fetcher, final KeyExtractor<T> keyExtractor)
+      throws QueryGrammarException {
+    this(query, pageSize, fetcher, keyExtractor, null);
+  }
+
+  /**
+   * @param query
+   *          with order by columns identifying rows, its limit is set to the
+   *          page size
+   * @param pageSize
+   * @param fetcher
+   * @param keyExtractor
+   * @param executor
+   *          used to prefetch the next page, null to fetch pages on demand
+   * @throws QueryGrammarException
+   *           if the query has no order by column
+   */
+  public SeekPageIterator(final SelectQuery query, final int pageSize,
+      final PageFetcher<T> fetcher, final KeyExtractor<T> keyExtractor,
+      final ExecutorService executor) throws QueryGrammarException {
+    if (query.getOrderBy().isEmpty())
+      throw new QueryGrammarException(
+          "Cannot paginate a query without order by column.");
+    if (pageSize <= 0)
+      throw new IllegalArgumentException("Page size must be positive: "
+          + pageSize);
+    this.pageSize = pageSize;
+    this.fetcher = fetcher;
+    this.keyExtractor = keyExtractor;
+    this.executor = executor;
+    this.query = query.limit(Long.valueOf(pageSize));
+  }
+
+  public boolean hasNext() {
+    if ((page == null) && morePages)
+      page = nextPage();
+    return page != null;
+  }
+
+  public List<T> next() {
+    if (!hasNext())
+      throw new NoSuchElementException();
+    final List<T> result = page;
+    page = null;
+    return result;
+  }
+
+  public void remove() {
+    throw new UnsupportedOperationException();
+  }
+
+  /**
+   * Stop iterating, cancelling the page being prefetched if any
+   */
+  public void close() {
+    morePages = false;
+    page = null;
+    if (prefetchedPage != null) {
+      prefetchedPage.cancel(true);
+      prefetchedPage = null;
+    }
+  }
+
+  private List<T> nextPage() {
+    final List<T> result;
+    if (prefetchedPage != null) {
+      final Future<List<T>> future = prefetchedPage;
+      prefetchedPage = null;
+      result = waitFor(future);
+    } else
+      result = fetch();
+
+    if (result.size() < pageSize)
+      morePages = false;
+    else {
+      try {
+        query = query.seekAfter(keyExtractor.getKey(result
+            .get(result.size() - 1)));
+      } catch (final QueryGrammarException e) {
+        morePages = false;
+        throw new IllegalStateException("Cannot seek after the last row", e);
+      }
+      if (executor != null) {
+        final SelectQuery nextQuery = query;
+        prefetchedPage = executor.submit(new Callable<List<T>>() {
+          public List<T> call() throws Exception {
+            return fetcher.fetch(nextQuery);
+          }
+        });
+      }
+    }
+    return result.isEmpty() ? null : result;
+  }
+
+  private List<T> fetch() {
+    try {
+      return fetcher.fetch(query);
+    } catch (final RuntimeException e) {
+      morePages = false;
+      throw e;
+    } catch (final Exception e) {
+      morePages = false;
+      throw new IllegalStateException("Cannot fetch page", e);
+    }
+  }
+
+  private List<T> waitFor(final Future<List<T>> future) {
+    try {
+      return future.get();
+    } catch (final InterruptedException e) {
+      future.cancel(true);
+      morePages = false;
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while fetching page", e);
+    } catch (final ExecutionException e) {
+      morePages = false;
+      if (e.getCause() instanceof RuntimeException)
+        throw (RuntimeException) e.getCause();
+      throw new IllegalStateException("Cannot fetch page", e.getCause());
+    }
+  }
+}
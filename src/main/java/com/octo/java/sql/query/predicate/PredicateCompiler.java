@@ -0,0 +1,349 @@
+/**
+ * Copyright (C) 2010 David Rousselie <drousselie@octo.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.octo.java.sql.query.predicate;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+import org.apache.commons.collections.Predicate;
+import org.apache.commons.collections.PredicateUtils;
+
+import com.octo.java.sql.exp.BetweenExp;
+import com.octo.java.sql.exp.Column;
+import com.octo.java.sql.exp.Constant;
+import com.octo.java.sql.exp.Exp;
+import com.octo.java.sql.exp.ExpSeq;
+import com.octo.java.sql.exp.FalseExp;
+import com.octo.java.sql.exp.InExp;
+import com.octo.java.sql.exp.Nullable;
+import com.octo.java.sql.exp.OpExp;
+import com.octo.java.sql.exp.Operator;
+import com.octo.java.sql.query.Query;
+import com.octo.java.sql.query.QueryException;
+import com.octo.java.sql.query.QueryGrammarException;
+import com.octo.java.sql.query.visitor.Visitable;
+
+/**
+ * Compile the where clause of a query into a Predicate evaluated on in-memory
+ * rows, to filter cached data with the same criteria as the database:
+ * 
+ * <code>
+ * Predicate predicate = new PredicateCompiler(RowAccessor.MAP).compile(query);
+ * Collection&lt;Map&lt;String, Object&gt;&gt; matching = CollectionUtils.select(
+ *     cachedRows, predicate);
+ * </code>
+ * 
+ * Conditions with a null value, an empty IN list or a BETWEEN with a null
+ * bound are skipped, as they are by the BasicQueryOptimizer, and a where
+ * clause without any condition matches every row. As in SQL, a NULL column
+ * value matches no comparison.<br>
+ * Numbers are compared by value whatever their type, LIKE patterns are
+ * compiled once and IN lists are looked up in a hash set. Sub-queries and SQL
+ * functions cannot be evaluated in memory.<br>
+ * The compiled predicate does not depend on the query anymore and can be used
+ * by several threads.
+ */
+public class PredicateCompiler {
+  private final RowAccessor rowAccessor;
+
+  public PredicateCompiler(final RowAccessor rowAccessor) {
+    this.rowAccessor = rowAccessor;
+  }
+
+  /**
+   * @param query
+   * @return the predicate of the where clause of the query
+   * @throws QueryException
+   *           if the where clause cannot be evaluated in memory
+   */
+  public Predicate compile(final Query<?> query) throws QueryException {
+    return compile(query.getWhereClause());
+  }
+
+  /**
+   * @param exp
+   *          may be null
+   * @return
+   * @throws QueryException
+   *           if the expression cannot be evaluated in memory
+   */
+  public Predicate compile(final Exp exp) throws QueryException {
+    final Predicate predicate = compileExp(exp);
+    return predicate == null ? PredicateUtils.truePredicate() : predicate;
+  }
+
+  /**
+   * @return null if the expression is skipped
+   */
+  private Predicate compileExp(final Exp exp) throws QueryException {
+    if ((exp == null) || !exp.isValid())
+      return null;
+    if (exp instanceof ExpSeq)
+      return compileExpSeq((ExpSeq) exp);
+    if (exp instanceof OpExp)
+      return compileOpExp((OpExp) exp);
+    if (exp instanceof InExp)
+      return compileInExp((InExp) exp);
+    if (exp instanceof BetweenExp)
+      return compileBetweenExp((BetweenExp) exp);
+    if (exp instanceof FalseExp)
+      return PredicateUtils.falsePredicate();
+    throw new QueryGrammarException("Cannot evaluate "
+        + exp.getClass().getSimpleName() + " in memory");
+  }
+
+  private Predicate compileExpSeq(final ExpSeq expSeq) throws QueryException {
+    final List<Predicate> predicates = new ArrayList<Predicate>();
+    for (final Exp clause : expSeq.getClauses()) {
+      final Predicate predicate = compileExp(clause);
+      if (predicate != null)
+        predicates.add(predicate);
+    }
+    if (predicates.isEmpty())
+      return null;
+    if (predicates.size() == 1)
+      return predicates.get(0);
+    if (Operator.OR.equals(expSeq.getOperator()))
+      return PredicateUtils.anyPredicate(predicates);
+    return PredicateUtils.allPredicate(predicates);
+  }
+
+  private Predicate compileOpExp(final OpExp exp) throws QueryException {
+    final Operator operator = exp.getOperator();
+    if ((exp.getLhsValue() == null) || (exp.getRhsValue() == null))
+      return null;
+    if (operator == null)
+      throw new QueryGrammarException("No operator on " + exp.getLhsValue());
+
+    final Operand lhs = getOperand(exp.getLhsValue());
+    final Object rhsValue = exp.getRhsValue();
+    if (Constant.NULL.equals(rhsValue)
+        || ((rhsValue instanceof Nullable) && ((Nullable) rhsValue).isNull())) {
+      if (Operator.EQ.equals(operator) || Operator.IS.equals(operator))
+        return new Predicate() {
+          public boolean evaluate(final Object row) {
+            return lhs.getValue(row) == null;
+          }
+        };
+      if (Operator.IS_NOT.equals(operator))
+        return new Predicate() {
+          public boolean evaluate(final Object row) {
+            return lhs.getValue(row) != null;
+          }
+        };
+      throw new QueryGrammarException("Cannot use NULL value with operator "
+          + operator.getValue());
+    }
+
+    final Operand rhs = getOperand(rhsValue);
+    if (Operator.LIKE.equals(operator))
+      return compileLike(lhs, rhsValue);
+    if (Operator.EQ.equals(operator))
+      return new Predicate() {
+        public boolean evaluate(final Object row) {
+          final Object value = lhs.getValue(row);
+          final Object otherValue = rhs.getValue(row);
+          return (value != null) && (otherValue != null)
+              && normalize(value).equals(normalize(otherValue));
+        }
+      };
+    if (Operator.NEQ.equals(operator))
+      return new Predicate() {
+        public boolean evaluate(final Object row) {
+          final Object value = lhs.getValue(row);
+          final Object otherValue = rhs.getValue(row);
+          return (value != null) && (otherValue != null)
+              && !normalize(value).equals(normalize(otherValue));
+        }
+      };
+    if (Operator.GT.equals(operator) || Operator.GEQ.equals(operator)
+        || Operator.LT.equals(operator) || Operator.LEQ.equals(operator)) {
+      final boolean greater = Operator.GT.equals(operator)
+          || Operator.GEQ.equals(operator);
+      final boolean orEqual = Operator.GEQ.equals(operator)
+          || Operator.LEQ.equals(operator);
+      return new Predicate() {
+        public boolean evaluate(final Object row) {
+          final Object value = lhs.getValue(row);
+          final Object otherValue = rhs.getValue(row);
+          if ((value == null) || (otherValue == null))
+            return false;
+          final int comparison = compare(value, otherValue);
+          if (comparison == 0)
+            return orEqual;
+          return greater == (comparison > 0);
+        }
+      };
+    }
+    throw new QueryGrammarException("Cannot evaluate operator "
+        + operator.getValue() + " in memory");
+  }
+
+  private Predicate compileLike(final Operand lhs, final Object patternValue)
+      throws QueryGrammarException {
+    if (!(patternValue instanceof String))
+      throw new QueryGrammarException("LIKE pattern must be a String");
+    final Pattern pattern = toPattern((String) patternValue);
+    return new Predicate() {
+      public boolean evaluate(final Object row) {
+        final Object value = lhs.getValue(row);
+        return (value != null) && pattern.matcher(value.toString()).matches();
+      }
+    };
+  }
+
+  private Predicate compileInExp(final InExp inExp) throws QueryException {
+    final Object[] values = inExp.getValues();
+    if ((values == null) || (values.length == 0))
+      return null;
+    final Set<Object> valueSet = new HashSet<Object>();
+    for (final Object value : values) {
+      if (value == null)
+        return null;
+      valueSet.add(normalize(getConstant(value)));
+    }
+    final Operand column = getOperand(inExp.getColumn());
+    final boolean negative = inExp.isNegative();
+    return new Predicate() {
+      public boolean evaluate(final Object row) {
+        final Object value = column.getValue(row);
+        return (value != null)
+            && (valueSet.contains(normalize(value)) != negative);
+      }
+    };
+  }
+
+  private Predicate compileBetweenExp(final BetweenExp betweenExp)
+      throws QueryException {
+    if ((betweenExp.getValueStart() == null)
+        || (betweenExp.getValueEnd() == null))
+      return null;
+    final Operand column = getOperand(betweenExp.getColumn());
+    final Operand start = getOperand(betweenExp.getValueStart());
+    final Operand end = getOperand(betweenExp.getValueEnd());
+    return new Predicate() {
+      public boolean evaluate(final Object row) {
+        final Object value = column.getValue(row);
+        final Object startValue = start.getValue(row);
+        final Object endValue = end.getValue(row);
+        return (value != null) && (startValue != null) && (endValue != null)
+            && (compare(value, startValue) >= 0)
+            && (compare(value, endValue) <= 0);
+      }
+    };
+  }
+
+  /**
+   * A column or a constant value of a condition
+   */
+  private interface Operand {
+    Object getValue(Object row);
+  }
+
+  private Operand getOperand(final Object value) throws QueryException {
+    if (value instanceof Column) {
+      final RowAccessor.ColumnReader reader = rowAccessor
+          .getReader(((Column) value).getName());
+      return new Operand() {
+        public Object getValue(final Object row) {
+          return reader.read(row);
+        }
+      };
+    }
+    final Object constant = getConstant(value);
+    return new Operand() {
+      public Object getValue(final Object row) {
+        return constant;
+      }
+    };
+  }
+
+  private static Object getConstant(final Object value)
+      throws QueryGrammarException {
+    if (value instanceof Nullable)
+      return ((Nullable) value).getValue();
+    if (value instanceof Visitable)
+      throw new QueryGrammarException("Cannot evaluate "
+          + value.getClass().getSimpleName() + " in memory");
+    return value;
+  }
+
+  /**
+   * @return numbers as a BigDecimal without trailing zeros, so that equal
+   *         numbers of different types are equal
+   */
+  static Object normalize(final Object value) {
+    final BigDecimal decimal = toDecimal(value);
+    if (decimal == null)
+      return value;
+    return decimal.signum() == 0 ? BigDecimal.ZERO : decimal
+        .stripTrailingZeros();
+  }
+
+  @SuppressWarnings("unchecked")
+  static int compare(final Object value, final Object otherValue) {
+    final BigDecimal decimal = toDecimal(value);
+    final BigDecimal otherDecimal = toDecimal(otherValue);
+    if ((decimal != null) && (otherDecimal != null))
+      return decimal.compareTo(otherDecimal);
+    return ((Comparable<Object>) value).compareTo(otherValue);
+  }
+
+  private static BigDecimal toDecimal(final Object value) {
+    if (value instanceof BigDecimal)
+      return (BigDecimal) value;
+    if ((value instanceof Long) || (value instanceof Integer)
+        || (value instanceof Short) || (value instanceof Byte))
+      return BigDecimal.valueOf(((Number) value).longValue());
+    if (value instanceof BigInteger)
+      return new BigDecimal((BigInteger) value);
+    if ((value instanceof Double) || (value instanceof Float)) {
+      final double doubleValue = ((Number) value).doubleValue();
+      if (Double.isNaN(doubleValue) || Double.isInfinite(doubleValue))
+        return null;
+      return BigDecimal.valueOf(doubleValue);
+    }
+    return null;
+  }
+
+  /**
+   * @return the regular expression of a LIKE pattern, % matching any string
+   *         and _ any character
+   */
+  static Pattern toPattern(final String likePattern) {
+    final StringBuilder regex = new StringBuilder();
+    final StringBuilder literal = new StringBuilder();
+    for (final char character : likePattern.toCharArray()) {
+      if ((character == '%') || (character == '_')) {
+        if (literal.length() > 0) {
+          regex.append(Pattern.quote(literal.toString()));
+          literal.setLength(0);
+        }
+        regex.append(character == '%' ? ".*" : ".");
+      } else
+        literal.append(character);
+    }
+    if (literal.length() > 0)
+      regex.append(Pattern.quote(literal.toString()));
+    return Pattern.compile(regex.toString(), Pattern.DOTALL);
+  }
+}
@@ -0,0 +1,153 @@
+/**
+ * Copyright (C) 2010 David Rousselie <drousselie@octo.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.octo.java.sql.query.predicate;
+
+import java.beans.BeanInfo;
+import java.beans.IntrospectionException;
+import java.beans.Introspector;
+import java.beans.PropertyDescriptor;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.octo.java.sql.query.QueryException;
+
+/**
+ * Read the column values of in-memory rows. The column of each condition is
+ * resolved once, when the predicate is compiled, into a ColumnReader.
+ */
+public abstract class RowAccessor {
+  /**
+   * Read the value of one column in a row
+   */
+  public interface ColumnReader {
+    Object read(Object row);
+  }
+
+  /**
+   * Rows are Maps of column names to values. A qualified column "t.col" is
+   * looked up as "t.col", then as "col".
+   */
+  public static final RowAccessor MAP = new RowAccessor() {
+    @Override
+    public ColumnReader getReader(final String column) {
+      final String unqualifiedColumn = getUnqualifiedName(column);
+      return new ColumnReader() {
+        public Object read(final Object row) {
+          final Map<?, ?> map = (Map<?, ?>) row;
+          final Object value = map.get(column);
+          if ((value == null) && !map.containsKey(column))
+            return map.get(unqualifiedColumn);
+          return value;
+        }
+      };
+    }
+  };
+
+  /**
+   * @param column
+   *          the name of a column, possibly qualified by a table alias
+   * @return the reader of this column
+   * @throws QueryException
+   *           if the rows have no such column
+   */
+  public abstract ColumnReader getReader(String column) throws QueryException;
+
+  /**
+   * Rows are Object arrays, the values being in the order of the given columns
+   * 
+   * @param columns
+   *          matched ignoring their table alias and case
+   * @return
+   */
+  public static RowAccessor array(final String... columns) {
+    final Map<String, Integer> indexes = new HashMap<String, Integer>();
+    for (int i = 0; i < columns.length; i++)
+      indexes.put(getUnqualifiedName(columns[i]).toLowerCase(), i);
+    return new RowAccessor() {
+      @Override
+      public ColumnReader getReader(final String column)
+          throws QueryException {
+        final Integer index = indexes.get(getUnqualifiedName(column)
+            .toLowerCase());
+        if (index == null)
+          throw new QueryException("Unknown column: " + column);
+        return new ColumnReader() {
+          public Object read(final Object row) {
+            return ((Object[]) row)[index];
+          }
+        };
+      }
+    };
+  }
+
+  /**
+   * Rows are JavaBeans, the column customer_id being read by the getter of the
+   * property customerId or customer_id
+   * 
+   * @param beanClass
+   * @return
+   * @throws QueryException
+   *           if the class cannot be introspected
+   */
+  public static RowAccessor bean(final Class<?> beanClass)
+      throws QueryException {
+    final Map<String, Method> getters = new HashMap<String, Method>();
+    try {
+      final BeanInfo beanInfo = Introspector.getBeanInfo(beanClass);
+      for (final PropertyDescriptor property : beanInfo
+          .getPropertyDescriptors())
+        if (property.getReadMethod() != null)
+          getters.put(getPropertyKey(property.getName()), property
+              .getReadMethod());
+    } catch (final IntrospectionException e) {
+      throw new QueryException("Cannot introspect " + beanClass.getName(), e);
+    }
+    return new RowAccessor() {
+      @Override
+      public ColumnReader getReader(final String column)
+          throws QueryException {
+        final Method getter = getters.get(getPropertyKey(getUnqualifiedName(
+            column)));
+        if (getter == null)
+          throw new QueryException("No property for column " + column
+              + " in " + beanClass.getName());
+        return new ColumnReader() {
+          public Object read(final Object row) {
+            try {
+              return getter.invoke(row);
+            } catch (final IllegalAccessException e) {
+              throw new IllegalStateException("Cannot read " + column, e);
+            } catch (final InvocationTargetException e) {
+              throw new IllegalStateException("Cannot read " + column, e
+                  .getCause());
+            }
+          }
+        };
+      }
+    };
+  }
+
+  private static String getPropertyKey(final String name) {
+    return name.replace("_", "").toLowerCase();
+  }
+
+  static String getUnqualifiedName(final String column) {
+    return column.substring(column.lastIndexOf('.') + 1).trim();
+  }
+}
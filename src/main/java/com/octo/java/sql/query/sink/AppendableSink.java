@@ -0,0 +1,61 @@
+/**
+ * Copyright (C) 2010 David Rousselie <drousselie@octo.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.octo.java.sql.query.sink;
+
+import java.io.IOException;
+
+/**
+ * Write SQL into any Appendable (Writer, CharBuffer...). Like PrintWriter, the
+ * first IOException stops the writing and is kept to be checked once the query
+ * has been rendered.
+ */
+public class AppendableSink implements SQLSink {
+  private final Appendable appendable;
+  private IOException error;
+
+  public AppendableSink(final Appendable appendable) {
+    this.appendable = appendable;
+  }
+
+  public SQLSink append(final CharSequence text) {
+    if (error == null)
+      try {
+        appendable.append(text);
+      } catch (final IOException e) {
+        error = e;
+      }
+    return this;
+  }
+
+  public SQLSink append(final char c) {
+    if (error == null)
+      try {
+        appendable.append(c);
+      } catch (final IOException e) {
+        error = e;
+      }
+    return this;
+  }
+
+  /**
+   * @return the exception which stopped the writing, null if every character
+   *         has been written
+   */
+  public IOException getError() {
+    return error;
+  }
+}
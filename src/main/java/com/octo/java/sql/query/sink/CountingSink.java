@@ -0,0 +1,45 @@
+/**
+ * Copyright (C) 2010 David Rousselie <drousselie@octo.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.octo.java.sql.query.sink;
+
+/**
+ * Count the characters written into another sink
+ */
+public class CountingSink implements SQLSink {
+  private final SQLSink sink;
+  private int length = 0;
+
+  public CountingSink(final SQLSink sink) {
+    this.sink = sink;
+  }
+
+  public SQLSink append(final CharSequence text) {
+    length += text.length();
+    sink.append(text);
+    return this;
+  }
+
+  public SQLSink append(final char c) {
+    length++;
+    sink.append(c);
+    return this;
+  }
+
+  public int getLength() {
+    return length;
+  }
+}
@@ -0,0 +1,42 @@
+/**
+ * Copyright (C) 2010 David Rousselie <drousselie@octo.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.octo.java.sql.query.sink;
+
+/**
+ * Write SQL into a StringBuilder, the default sink of query builders
+ */
+public class StringBuilderSink implements SQLSink {
+  private final StringBuilder builder;
+
+  public StringBuilderSink(final StringBuilder builder) {
+    this.builder = builder;
+  }
+
+  public SQLSink append(final CharSequence text) {
+    builder.append(text);
+    return this;
+  }
+
+  public SQLSink append(final char c) {
+    builder.append(c);
+    return this;
+  }
+
+  public StringBuilder getBuilder() {
+    return builder;
+  }
+}
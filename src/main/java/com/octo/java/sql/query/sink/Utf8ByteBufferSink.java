@@ -0,0 +1,93 @@
+/**
+ * Copyright (C) 2010 David Rousselie <drousselie@octo.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.octo.java.sql.query.sink;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Encode SQL in UTF-8 directly into a ByteBuffer, without intermediate String
+ * nor CharsetEncoder. Unpaired surrogates are replaced by '?' as
+ * String.getBytes() does.<br>
+ * A BufferOverflowException is thrown if the buffer is too small.
+ */
+public class Utf8ByteBufferSink implements SQLSink {
+  private static final byte REPLACEMENT = '?';
+
+  private final ByteBuffer buffer;
+  private char highSurrogate;
+
+  public Utf8ByteBufferSink(final ByteBuffer buffer) {
+    this.buffer = buffer;
+  }
+
+  public SQLSink append(final CharSequence text) {
+    final int length = text.length();
+    for (int i = 0; i < length; i++)
+      append(text.charAt(i));
+    return this;
+  }
+
+  public SQLSink append(final char c) {
+    if (highSurrogate != 0) {
+      final char high = highSurrogate;
+      highSurrogate = 0;
+      if (Character.isLowSurrogate(c)) {
+        putCodePoint(Character.toCodePoint(high, c));
+        return this;
+      }
+      buffer.put(REPLACEMENT);
+    }
+    if (c < 0x80)
+      buffer.put((byte) c);
+    else if (Character.isHighSurrogate(c))
+      highSurrogate = c;
+    else if (Character.isLowSurrogate(c))
+      buffer.put(REPLACEMENT);
+    else
+      putCodePoint(c);
+    return this;
+  }
+
+  /**
+   * Write the replacement of a pending high surrogate, to call once the whole
+   * query has been written
+   */
+  public void flush() {
+    if (highSurrogate != 0) {
+      highSurrogate = 0;
+      buffer.put(REPLACEMENT);
+    }
+  }
+
+  private void putCodePoint(final int codePoint) {
+    if (codePoint < 0x80)
+      buffer.put((byte) codePoint);
+    else if (codePoint < 0x800) {
+      buffer.put((byte) (0xC0 | (codePoint >> 6)));
+      buffer.put((byte) (0x80 | (codePoint & 0x3F)));
+    } else if (codePoint < 0x10000) {
+      buffer.put((byte) (0xE0 | (codePoint >> 12)));
+      buffer.put((byte) (0x80 | ((codePoint >> 6) & 0x3F)));
+      buffer.put((byte) (0x80 | (codePoint & 0x3F)));
+    } else {
+      buffer.put((byte) (0xF0 | (codePoint >> 18)));
+      buffer.put((byte) (0x80 | ((codePoint >> 12) & 0x3F)));
+      buffer.put((byte) (0x80 | ((codePoint >> 6) & 0x3F)));
+      buffer.put((byte) (0x80 | (codePoint & 0x3F)));
+    }
+  }
+}
@@ -0,0 +1,52 @@
+/**
+ * Copyright (C) 2010 David Rousselie <drousselie@octo.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.octo.java.sql.query.visitor;
+
+import com.octo.java.sql.query.QueryException;
+
+/**
+ * Instanciate query builders from their class, by reflection. Prefer the
+ * FACTORY constants of the builders, or wrap this factory in a
+ * QueryBuilderPool.
+ */
+public class ClassQueryBuilderFactory implements QueryBuilderFactory {
+  private final Class<? extends DefaultQueryBuilder> queryBuilderClass;
+
+  public ClassQueryBuilderFactory(
+      final Class<? extends DefaultQueryBuilder> queryBuilderClass) {
+    this.queryBuilderClass = queryBuilderClass;
+  }
+
+  public void release(final DefaultQueryBuilder builder) {
+  }
+
+  public DefaultQueryBuilder newQueryBuilder() throws QueryException {
+    try {
+      return queryBuilderClass.newInstance();
+    } catch (final InstantiationException e) {
+      throw new QueryException("Cannot instanciate query builder "
+          + queryBuilderClass);
+    } catch (final IllegalAccessException e) {
+      throw new QueryException("Cannot instanciate query builder "
+          + queryBuilderClass);
+    }
+  }
+
+  public Class<? extends DefaultQueryBuilder> getQueryBuilderClass() {
+    return queryBuilderClass;
+  }
+}
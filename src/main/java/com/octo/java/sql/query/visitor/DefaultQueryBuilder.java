@@ -21,7 +21,13 @@ import static org.apache.commons.lang.ArrayUtils.isEmpty;
 import static org.apache.commons.lang.StringUtils.isEmpty;
 import static org.apache.commons.lang.StringUtils.join;
 
+import java.sql.Array;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Date;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import org.apache.commons.collections.map.ListOrderedMap;
@@ -31,12 +37,14 @@ import com.octo.java.sql.exp.Column;
 import com.octo.java.sql.exp.Constant;
 import com.octo.java.sql.exp.Exp;
 import com.octo.java.sql.exp.ExpSeq;
+import com.octo.java.sql.exp.FalseExp;
 import com.octo.java.sql.exp.InExp;
 import com.octo.java.sql.exp.JoinClause;
 import com.octo.java.sql.exp.Nullable;
 import com.octo.java.sql.exp.OpExp;
 import com.octo.java.sql.exp.Operator;
 import com.octo.java.sql.exp.SQLFunc;
+import com.octo.java.sql.exp.SeekExp;
 import com.octo.java.sql.exp.SetClause;
 import com.octo.java.sql.exp.JavaSQLFunc.Evaluable;
 import com.octo.java.sql.query.DeleteQuery;
@@ -45,9 +53,24 @@ import com.octo.java.sql.query.QueryException;
 import com.octo.java.sql.query.QueryGrammarException;
 import com.octo.java.sql.query.SelectQuery;
 import com.octo.java.sql.query.UpdateQuery;
+import com.octo.java.sql.query.sink.SQLSink;
+import com.octo.java.sql.query.sink.StringBuilderSink;
 import com.octo.java.sql.query.SelectQuery.Order;
 
 public class DefaultQueryBuilder extends BaseVisitor {
+  public static final QueryBuilderFactory FACTORY = new QueryBuilderFactory() {
+    public DefaultQueryBuilder newQueryBuilder() {
+      return new DefaultQueryBuilder();
+    }
+
+    public void release(final DefaultQueryBuilder builder) {
+    }
+
+    public Class<? extends DefaultQueryBuilder> getQueryBuilderClass() {
+      return DefaultQueryBuilder.class;
+    }
+  };
+
   public static final String DEFAULT_BASE_VARIABLE_NAME = "param";
   private static final String OPEN_BRACKET = "(";
   private static final String BETWEEN = "BETWEEN";
@@ -59,6 +82,7 @@ public class DefaultQueryBuilder extends BaseVisitor {
   private static final String WHERE = "WHERE";
   private static final String ORDER_BY = "ORDER BY";
   private static final String UNION = "UNION";
+  private static final String ALL = "ALL";
   private static final String INSERT = "INSERT INTO";
   private static final String VALUES = "VALUES";
   private static final String UPDATE = "UPDATE";
@@ -66,8 +90,16 @@ public class DefaultQueryBuilder extends BaseVisitor {
   private static final String DELETE_FROM = "DELETE FROM";
 
   protected final StringBuilder result = new StringBuilder();
+  private final SQLSink resultSink = new StringBuilderSink(result);
+  private SQLSink sink = resultSink;
   private int variableIndex = 1;
-  private final Map<String, Object> params = new HashMap<String, Object>();
+  private ParameterStyle parameterStyle = ParameterStyle.NAMED;
+  private InListPadding inListPadding = InListPadding.NONE;
+  private int paddingBudget = Integer.MAX_VALUE;
+  private int arrayBindingThreshold = 0;
+  private Map<String, Object> params = new HashMap<String, Object>();
+  private final List<String> variableNames = new ArrayList<String>();
+  private List<Object> variableValues = new ArrayList<Object>();
   private boolean addBracketToNextSelectQuery = false;
   private final Map<String, Evaluable<?>> functions = new HashMap<String, Evaluable<?>>();
 
@@ -76,14 +108,127 @@ public class DefaultQueryBuilder extends BaseVisitor {
     functions.put(functionName, function);
   }
 
+  /**
+   * Clear the rendered query so that this builder can render another one. The
+   * grown result buffer is kept, the parameters map and values list are
+   * replaced so that the ones returned by getParams() and getParamValues()
+   * before are not modified, the functions added by addFunction() are removed.
+   * <br>
+   * Builders adding rendering state must override this method.
+   */
+  public void reset() {
+    result.setLength(0);
+    sink = resultSink;
+    variableIndex = 1;
+    final int lastVariableCount = variableValues.size();
+    if (parameterStyle == ParameterStyle.NAMED)
+      params = new HashMap<String, Object>(Math.max(16,
+          (lastVariableCount * 4) / 3 + 1));
+    else if (!params.isEmpty())
+      params = new HashMap<String, Object>();
+    variableNames.clear();
+    variableValues = new ArrayList<Object>(Math.max(10, lastVariableCount));
+    addBracketToNextSelectQuery = false;
+    functions.clear();
+    paddingBudget = Integer.MAX_VALUE;
+  }
+
+  public ParameterStyle getParameterStyle() {
+    return parameterStyle;
+  }
+
+  public void setParameterStyle(final ParameterStyle parameterStyle) {
+    this.parameterStyle = parameterStyle;
+  }
+
+  public InListPadding getInListPadding() {
+    return inListPadding;
+  }
+
+  public void setInListPadding(final InListPadding inListPadding) {
+    this.inListPadding = inListPadding;
+  }
+
+  public int getPaddingBudget() {
+    return paddingBudget;
+  }
+
+  /**
+   * @param paddingBudget
+   *          number of placeholders the IN lists of the next rendering may add
+   *          by padding, consumed list after list
+   */
+  public void setPaddingBudget(final int paddingBudget) {
+    this.paddingBudget = paddingBudget;
+  }
+
+  public int getArrayBindingThreshold() {
+    return arrayBindingThreshold;
+  }
+
+  /**
+   * @param arrayBindingThreshold
+   *          minimum size of the IN lists bound as a single array parameter
+   *          when the dialect supports it, 0 to never bind arrays
+   */
+  public void setArrayBindingThreshold(final int arrayBindingThreshold) {
+    this.arrayBindingThreshold = arrayBindingThreshold;
+  }
+
+  public void ensureCapacity(final int minimumCapacity) {
+    result.ensureCapacity(minimumCapacity);
+  }
+
+  /**
+   * Write the SQL into the given sink instead of getResult(). Only the text
+   * written through getSink() goes into the sink.
+   * 
+   * @param sink
+   */
+  public void setSink(final SQLSink sink) {
+    this.sink = sink;
+  }
+
+  /**
+   * @return where the SQL is written: result, unless another sink has been
+   *         set. Builders write through it to render into any sink.
+   */
+  protected SQLSink getSink() {
+    return sink;
+  }
+
+  /**
+   * @return the rendered SQL, empty if it has been written into another sink
+   */
   public StringBuilder getResult() {
     return result;
   }
 
+  /**
+   * @return the named parameters, empty when rendering positional parameters
+   */
   public Map<String, Object> getParams() {
     return params;
   }
 
+  /**
+   * @return the parameter values in the order of their placeholders
+   */
+  public List<Object> getParamValues() {
+    return variableValues;
+  }
+
+  /**
+   * @return the parameter names in the order they have been added
+   */
+  public List<String> getVariableNames() {
+    return variableNames;
+  }
+
+  public boolean hasFunctions() {
+    return !functions.isEmpty();
+  }
+
   /**
    * Add a variable to parameters map and return its name
    * 
@@ -93,9 +238,26 @@ public class DefaultQueryBuilder extends BaseVisitor {
   protected String addVariable(final Object value, final String baseColumnName) {
     final String columnName = baseColumnName + variableIndex++;
     params.put(columnName, value);
+    variableNames.add(columnName);
+    variableValues.add(value);
     return columnName;
   }
 
+  /**
+   * Add a variable and append its placeholder to the result
+   * 
+   * @param value
+   * @param baseColumnName
+   *          used to name the variable with named parameters
+   */
+  protected void appendVariable(final Object value, final String baseColumnName) {
+    if (parameterStyle == ParameterStyle.POSITIONAL) {
+      variableValues.add(value);
+      sink.append('?');
+    } else
+      sink.append(':').append(addVariable(value, baseColumnName));
+  }
+
   private String getVariableName(final Object obj, final String defaultName) {
     if (obj instanceof Column)
       return ((Column) obj).getName();
@@ -109,34 +271,228 @@ public class DefaultQueryBuilder extends BaseVisitor {
       throws QueryException {
     if (value instanceof Visitable)
       ((Visitable) value).accept(this);
-    else {
-      final String variableName = addVariable(value, baseName);
-      result.append(":").append(variableName);
-    }
+    else
+      appendVariable(value, baseName);
   }
 
   public void visitValue(final Object value) {
-    final String variableName = addVariable(value, DEFAULT_BASE_VARIABLE_NAME);
-    result.append(":").append(variableName);
+    appendVariable(value, DEFAULT_BASE_VARIABLE_NAME);
   }
 
   protected void buildWhereClause(final Exp whereClause) throws QueryException {
     if (whereClause.isValid()) {
-      result.append(" ").append(WHERE).append(" ");
+      sink.append(" ").append(WHERE).append(" ");
       whereClause.accept(this);
     }
   }
 
+  /**
+   * @return true if the dialect can compare row values, as in "(a, b) > (1,
+   *         2)", with the index on (a, b) used as a range scan
+   */
+  protected boolean supportsRowValueComparison() {
+    return true;
+  }
+
+  /**
+   * @return true if the dialect can compare a value with an array parameter,
+   *         see buildArrayInList()
+   */
+  protected boolean supportsArrayParameters() {
+    return false;
+  }
+
+  /**
+   * @param values
+   *          of an IN list
+   * @return true if the IN list is rendered with a single array parameter
+   */
+  public boolean isArrayBound(final Object[] values) {
+    if ((arrayBindingThreshold <= 0)
+        || (values.length < arrayBindingThreshold)
+        || !supportsArrayParameters())
+      return false;
+    for (final Object value : values)
+      if ((value == null) || (value instanceof Visitable))
+        return false;
+    return true;
+  }
+
+  /**
+   * @param values
+   *          of an IN list
+   * @return the number of placeholders rendered for an IN list, lists ending
+   *         with a sub-query or a column are not padded. Padding stops at
+   *         getMaxInListSize(), larger lists are not padded, and a list whose
+   *         padding exceeds the padding budget is not padded either.
+   */
+  public int getInListSize(final Object[] values) {
+    if (values[values.length - 1] instanceof Visitable)
+      return values.length;
+    final int padding = Math.min(getMaxInListSize(), inListPadding
+        .getPaddedSize(values.length))
+        - values.length;
+    if ((padding <= 0) || (padding > paddingBudget))
+      return values.length;
+    paddingBudget -= padding;
+    return values.length + padding;
+  }
+
+  /**
+   * @return the maximum number of values of an IN list
+   */
+  public int getMaxInListSize() {
+    return Integer.MAX_VALUE;
+  }
+
+  /**
+   * Write an IN list bound as a single array parameter, "col = ANY(:col1)" by
+   * default.
+   * 
+   * @param inExp
+   * @throws QueryException
+   */
+  protected void buildArrayInList(final InExp inExp) throws QueryException {
+    if (inExp.isNegative())
+      sink.append(Operator.NOT.getValue()).append(" ").append(OPEN_BRACKET);
+    inExp.getColumn().accept(this);
+    sink.append(" ").append(Operator.EQ.getValue()).append(" ANY").append(
+        OPEN_BRACKET);
+    appendVariable(inExp.getValues(), inExp.getColumn().getName());
+    sink.append(CLOSE_BRACKET);
+    if (inExp.isNegative())
+      sink.append(CLOSE_BRACKET);
+  }
+
+  /**
+   * Create the JDBC array bound to an IN list rendered by buildArrayInList(),
+   * drivers do not convert a plain Object[] parameter
+   * 
+   * @param connection
+   *          executing the query
+   * @param values
+   *          of the IN list
+   * @return
+   * @throws SQLException
+   */
+  public Array createArray(final Connection connection, final Object[] values)
+      throws SQLException {
+    return connection.createArrayOf(getArrayTypeName(values), values);
+  }
+
+  /**
+   * @param values
+   * @return the SQL type of the array elements, chosen from the type of the
+   *         first value
+   */
+  protected String getArrayTypeName(final Object[] values) {
+    final Object value = values[0];
+    if ((value instanceof Integer) || (value instanceof Short)
+        || (value instanceof Byte))
+      return "INTEGER";
+    else if (value instanceof Long)
+      return "BIGINT";
+    else if ((value instanceof Double) || (value instanceof Float))
+      return "DOUBLE";
+    else if (value instanceof Number)
+      return "NUMERIC";
+    else if (value instanceof Boolean)
+      return "BOOLEAN";
+    else if (value instanceof java.sql.Date)
+      return "DATE";
+    else if (value instanceof Date)
+      return "TIMESTAMP";
+    else
+      return "VARCHAR";
+  }
+
+  /**
+   * @return the maximum number of bind parameters of a statement, used to
+   *         split multi-row inserts
+   */
+  public int getMaxParameters() {
+    return Integer.MAX_VALUE;
+  }
+
+  /**
+   * @return the maximum number of values, rows times columns, of a multi-row
+   *         insert, getMaxParameters() by default
+   */
+  public int getMaxInsertValues() {
+    return getMaxParameters();
+  }
+
+  /**
+   * @return the maximum number of rows of a multi-row insert
+   */
+  public int getMaxInsertRows() {
+    return Integer.MAX_VALUE;
+  }
+
+  /**
+   * Write a multi-row insert: "INSERT INTO table (a, b) VALUES (:a1, :b2),
+   * (:a3, :b4)"
+   * 
+   * @param insertQuery
+   * @throws QueryException
+   */
+  protected void buildMultiRowInsert(final InsertQuery insertQuery)
+      throws QueryException {
+    buildInsertInto(insertQuery);
+    sink.append(VALUES).append(" ");
+    boolean firstRow = true;
+    for (final Object[] row : insertQuery.getRows()) {
+      if (firstRow)
+        firstRow = false;
+      else
+        sink.append(", ");
+      buildInsertRow(insertQuery.getColumns(), row);
+    }
+  }
+
+  /**
+   * Write "INSERT INTO table (a, b) " of a multi-row insert
+   */
+  protected void buildInsertInto(final InsertQuery insertQuery) {
+    sink.append(INSERT).append(" ");
+    sink.append(insertQuery.getTable()).append(" ");
+    sink.append(OPEN_BRACKET);
+    sink.append(join(insertQuery.getColumns(), ", "));
+    sink.append(CLOSE_BRACKET).append(" ");
+  }
+
+  /**
+   * Write "(:a1, :b2)"
+   */
+  protected void buildInsertRow(final String[] columns, final Object[] row)
+      throws QueryException {
+    sink.append(OPEN_BRACKET);
+    for (int i = 0; i < columns.length; i++) {
+      if (i > 0)
+        sink.append(", ");
+      acceptOrVisitValue(row[i], columns[i]);
+    }
+    sink.append(CLOSE_BRACKET);
+  }
+
+  /**
+   * Called before writing a SELECT query having a limit
+   * 
+   * @param query
+   */
+  protected void buildLimitPrefix(final SelectQuery query) {
+  }
+
   protected void buildLimitClause(final SelectQuery query) {
-    result.append(" ").append("LIMIT").append(" ");
-    result.append(":").append(addVariable(query.getLimit(), "limit"));
+    sink.append(" ").append("LIMIT").append(" ");
+    appendVariable(query.getLimit(), "limit");
   }
 
   /**
    * Visit methods
    */
   public void visit(final Column column) {
-    result.append(column.getName());
+    sink.append(column.getName());
   }
 
   public void visit(final OpExp exp) throws QueryException {
@@ -144,7 +500,7 @@ public class DefaultQueryBuilder extends BaseVisitor {
     if (baseVariableName == null)
       baseVariableName = getVariableName(exp.getRhsValue(), "var");
 
-    result.append(OPEN_BRACKET);
+    sink.append(OPEN_BRACKET);
     acceptOrVisitValue(exp.getLhsValue(), baseVariableName);
     if ((exp.getRhsValue() == null) //
         || ((exp.getRhsValue() instanceof Nullable) //
@@ -152,13 +508,13 @@ public class DefaultQueryBuilder extends BaseVisitor {
       if (!Operator.EQ.equals(exp.getOperator()))
         throw new QueryGrammarException("Cannot use NULL value with operator "
             + exp.getOperator().getValue());
-      result.append(" ").append(Operator.IS.getValue());
-      result.append(" ").append(Constant.NULL);
+      sink.append(" ").append(Operator.IS.getValue());
+      sink.append(" ").append(Constant.NULL.getValue());
     } else {
-      result.append(" ").append(exp.getOperator().getValue()).append(" ");
+      sink.append(" ").append(exp.getOperator().getValue()).append(" ");
       acceptOrVisitValue(exp.getRhsValue(), baseVariableName);
     }
-    result.append(CLOSE_BRACKET);
+    sink.append(CLOSE_BRACKET);
   }
 
   public void visit(final BetweenExp betweenExp) throws QueryException {
@@ -168,17 +524,17 @@ public class DefaultQueryBuilder extends BaseVisitor {
       throw new QueryGrammarException(
           "Cannot apply BETWEEN with one NULL value");
 
-    result.append(OPEN_BRACKET);
+    sink.append(OPEN_BRACKET);
     visit(column);
-    result.append(" ").append(BETWEEN).append(" ");
+    sink.append(" ").append(BETWEEN).append(" ");
     acceptOrVisitValue(betweenExp.getValueStart(), column.getName());
-    result.append(" ").append(Operator.AND).append(" ");
+    sink.append(" ").append(Operator.AND.getValue()).append(" ");
     acceptOrVisitValue(betweenExp.getValueEnd(), column.getName());
-    result.append(CLOSE_BRACKET);
+    sink.append(CLOSE_BRACKET);
   }
 
   public void visit(final ExpSeq expSeq) throws QueryException {
-    result.append(OPEN_BRACKET);
+    sink.append(OPEN_BRACKET);
     final Operator operator = expSeq.getOperator();
     boolean firstClause = true;
     for (final Exp clause : expSeq.getClauses()) {
@@ -186,46 +542,104 @@ public class DefaultQueryBuilder extends BaseVisitor {
         if (firstClause)
           firstClause = false;
         else
-          result.append(" ").append(operator.getValue()).append(" ");
+          sink.append(" ").append(operator.getValue()).append(" ");
         clause.accept(this);
       }
     }
-    result.append(CLOSE_BRACKET);
+    sink.append(CLOSE_BRACKET);
   }
 
   public void visit(final InExp inExp) throws QueryException {
     if (isEmpty(inExp.getValues()))
       throw new QueryGrammarException("IN values cannot be empty or null");
 
-    result.append(OPEN_BRACKET);
+    sink.append(OPEN_BRACKET);
+    if (isArrayBound(inExp.getValues())) {
+      buildArrayInList(inExp);
+      sink.append(CLOSE_BRACKET);
+      return;
+    }
     inExp.getColumn().accept(this);
-    result.append(" ");
+    sink.append(" ");
     if (inExp.isNegative())
-      result.append(Operator.NOT.getValue()).append(" ");
-    result.append(Operator.IN.getValue()).append(" ").append(OPEN_BRACKET);
-    boolean firstValue = true;
-    for (final Object value : inExp.getValues()) {
-      if (firstValue)
-        firstValue = false;
-      else
-        result.append(",");
-      acceptOrVisitValue(value, inExp.getColumn().getName());
+      sink.append(Operator.NOT.getValue()).append(" ");
+    sink.append(Operator.IN.getValue()).append(" ").append(OPEN_BRACKET);
+    final Object[] values = inExp.getValues();
+    final int size = getInListSize(values);
+    for (int i = 0; i < size; i++) {
+      if (i > 0)
+        sink.append(",");
+      acceptOrVisitValue(values[Math.min(i, values.length - 1)], inExp
+          .getColumn().getName());
     }
-    result.append(CLOSE_BRACKET);
-    result.append(CLOSE_BRACKET);
+    sink.append(CLOSE_BRACKET);
+    sink.append(CLOSE_BRACKET);
+  }
+
+  public void visit(final FalseExp falseExp) {
+    sink.append(OPEN_BRACKET).append("1 = 0").append(CLOSE_BRACKET);
+  }
+
+  public void visit(final SeekExp seekExp) throws QueryException {
+    final Column[] columns = seekExp.getColumns();
+    final Object[] values = seekExp.getValues();
+    sink.append(OPEN_BRACKET);
+    if (columns.length == 1) {
+      appendSeekComparison(seekExp, 0);
+    } else if (seekExp.isSameDirection() && supportsRowValueComparison()) {
+      sink.append(OPEN_BRACKET);
+      for (int i = 0; i < columns.length; i++) {
+        if (i > 0)
+          sink.append(", ");
+        columns[i].accept(this);
+      }
+      sink.append(CLOSE_BRACKET);
+      sink.append(" ").append(seekExp.getOperator(0).getValue()).append(" ");
+      sink.append(OPEN_BRACKET);
+      for (int i = 0; i < columns.length; i++) {
+        if (i > 0)
+          sink.append(", ");
+        acceptOrVisitValue(values[i], columns[i].getName());
+      }
+      sink.append(CLOSE_BRACKET);
+    } else {
+      for (int i = 0; i < columns.length; i++) {
+        if (i > 0)
+          sink.append(" ").append(Operator.OR.getValue()).append(" ");
+        sink.append(OPEN_BRACKET);
+        for (int j = 0; j < i; j++) {
+          columns[j].accept(this);
+          sink.append(" ").append(Operator.EQ.getValue()).append(" ");
+          acceptOrVisitValue(values[j], columns[j].getName());
+          sink.append(" ").append(Operator.AND.getValue()).append(" ");
+        }
+        appendSeekComparison(seekExp, i);
+        sink.append(CLOSE_BRACKET);
+      }
+    }
+    sink.append(CLOSE_BRACKET);
+  }
+
+  private void appendSeekComparison(final SeekExp seekExp, final int index)
+      throws QueryException {
+    final Column column = seekExp.getColumns()[index];
+    column.accept(this);
+    sink.append(" ").append(seekExp.getOperator(index).getValue()).append(
+        " ");
+    acceptOrVisitValue(seekExp.getValues()[index], column.getName());
   }
 
   public void visit(final JoinClause joinClause) throws QueryException {
-    result.append(" ").append(joinClause.getType().value).append(" ");
-    result.append(joinClause.getTable());
-    result.append(" ").append(ON).append(" ");
+    sink.append(" ").append(joinClause.getType().value).append(" ");
+    sink.append(joinClause.getTable());
+    sink.append(" ").append(ON).append(" ");
     joinClause.getOnClause().accept(this);
   }
 
   public void visit(final SetClause setClause) throws QueryException {
     final Column column = setClause.getColumn();
     column.accept(this);
-    result.append(" ").append(Operator.EQ.getValue()).append(" ");
+    sink.append(" ").append(Operator.EQ.getValue()).append(" ");
     acceptOrVisitValue(setClause.getValue(), column.getName());
   }
 
@@ -233,98 +647,112 @@ public class DefaultQueryBuilder extends BaseVisitor {
     final String functionName = sqlFunc.getName();
     if (functions.containsKey(functionName)) {
       final Evaluable<?> functionPlaceHolder = functions.get(functionName);
-      result.append(functionPlaceHolder.eval(sqlFunc.getParams()));
+      sink.append(String.valueOf(functionPlaceHolder.eval(sqlFunc
+          .getParams())));
     } else {
-      result.append(functionName).append(OPEN_BRACKET);
+      sink.append(functionName).append(OPEN_BRACKET);
       boolean firstParam = true;
       for (final Object param : sqlFunc.getParams()) {
         if (firstParam)
           firstParam = false;
         else
-          result.append(",");
+          sink.append(",");
         acceptOrVisitValue(param, functionName);
       }
-      result.append(CLOSE_BRACKET);
+      sink.append(CLOSE_BRACKET);
       if (!isEmpty(sqlFunc.getAlias()))
-        result.append(" ").append(AS).append(" ").append(sqlFunc.getAlias());
+        sink.append(" ").append(AS).append(" ").append(sqlFunc.getAlias());
     }
   }
 
   public void visit(final Constant constant) {
-    result.append(constant.getValue());
+    sink.append(constant.getValue());
   }
 
   public void visit(final SelectQuery query) throws QueryException {
     final boolean innerQuery = addBracketToNextSelectQuery;
     if (innerQuery)
-      result.append(OPEN_BRACKET);
+      sink.append(OPEN_BRACKET);
     else
       addBracketToNextSelectQuery = true;
-    result.append(SELECT).append(" ");
+    if (query.getLimit() != null)
+      buildLimitPrefix(query);
+    sink.append(SELECT).append(" ");
     boolean firstColumn = true;
     for (final Object column : query.getColumns()) {
       if (firstColumn)
         firstColumn = false;
       else
-        result.append(",");
+        sink.append(",");
       acceptOrVisitValue(column);
     }
 
-    result.append(" ").append(FROM).append(" ");
-    result.append(join(query.getTables(), ','));
+    sink.append(" ").append(FROM).append(" ");
+    sink.append(join(query.getTables(), ','));
 
     for (final JoinClause clause : query.getJoinClauses())
       if (clause.isValid())
         clause.accept(this);
 
     if (!isEmpty(query.getAlias())) {
-      result.append(" ");
-      result.append(query.getAlias());
+      sink.append(" ");
+      sink.append(query.getAlias());
     }
 
     final Exp whereClause = query.getWhereClause();
-    if ((whereClause != null) && (whereClause.isValid()))
+    final boolean hasWhereClause = (whereClause != null)
+        && (whereClause.isValid());
+    if (hasWhereClause)
       buildWhereClause(whereClause);
 
+    final SeekExp seekClause = query.getSeekClause();
+    if (seekClause != null) {
+      sink.append(" ").append(
+          hasWhereClause ? Operator.AND.getValue() : WHERE).append(" ");
+      seekClause.accept(this);
+    }
+
     boolean firstOrderBy = true;
     final Map<String, Order> orderBy = query.getOrderBy();
     for (final String orderByColumn : orderBy.keySet()) {
       if (firstOrderBy) {
-        result.append(" ").append(ORDER_BY).append(" ");
+        sink.append(" ").append(ORDER_BY).append(" ");
         firstOrderBy = false;
       } else
-        result.append(", ");
-      result.append(orderByColumn);
+        sink.append(", ");
+      sink.append(orderByColumn);
       final Order columnOrder = orderBy.get(orderByColumn);
       if (columnOrder != null)
-        result.append(" ").append(columnOrder.toString());
+        sink.append(" ").append(columnOrder.toString());
     }
 
     if (query.getLimit() != null)
       buildLimitClause(query);
 
-    if (!isEmpty(query.getUnions())) {
-      result.append(" ").append(UNION).append(" ");
-      for (final SelectQuery union : query.getUnions()) {
-        addBracketToNextSelectQuery = false;
-        union.accept(this);
-      }
+    final List<SelectQuery> unions = query.getUnions();
+    for (int i = 0; i < unions.size(); i++) {
+      sink.append(" ").append(UNION);
+      if (query.isUnionAll(i))
+        sink.append(" ").append(ALL);
+      sink.append(" ");
+      addBracketToNextSelectQuery = false;
+      unions.get(i).accept(this);
     }
     if (innerQuery)
-      result.append(CLOSE_BRACKET);
+      sink.append(CLOSE_BRACKET);
   }
 
   public void visit(final UpdateQuery updateQuery) throws QueryException {
     addBracketToNextSelectQuery = true;
-    result.append(UPDATE).append(" ");
-    result.append(updateQuery.getTable());
-    result.append(" ").append(SET).append(" ");
+    sink.append(UPDATE).append(" ");
+    sink.append(updateQuery.getTable());
+    sink.append(" ").append(SET).append(" ");
     boolean firstClause = true;
     for (final SetClause clause : updateQuery.getSetClauses()) {
       if (firstClause) {
         firstClause = false;
       } else {
-        result.append(", ");
+        sink.append(", ");
       }
       clause.accept(this);
     }
@@ -336,29 +764,35 @@ public class DefaultQueryBuilder extends BaseVisitor {
 
   public void visit(final InsertQuery insertQuery) throws QueryException {
     addBracketToNextSelectQuery = true;
-    result.append(INSERT).append(" ");
-    result.append(insertQuery.getTable()).append(" ");
-    result.append(OPEN_BRACKET);
+    if (insertQuery.isMultiRow()) {
+      if (insertQuery.getRows().isEmpty())
+        throw new QueryGrammarException("Multi-row insert has no row.");
+      buildMultiRowInsert(insertQuery);
+      return;
+    }
+    sink.append(INSERT).append(" ");
+    sink.append(insertQuery.getTable()).append(" ");
+    sink.append(OPEN_BRACKET);
     final ListOrderedMap columnValues = insertQuery.getColumnsValues();
-    result.append(join(columnValues.keyList(), ", "));
-    result.append(CLOSE_BRACKET).append(" ");
-    result.append(VALUES).append(" ").append(OPEN_BRACKET);
+    sink.append(join(columnValues.keyList(), ", "));
+    sink.append(CLOSE_BRACKET).append(" ");
+    sink.append(VALUES).append(" ").append(OPEN_BRACKET);
     boolean firstClause = true;
     for (final Object column : columnValues.keyList()) {
       if (firstClause) {
         firstClause = false;
       } else {
-        result.append(", ");
+        sink.append(", ");
       }
       acceptOrVisitValue(columnValues.get(column), (String) column);
     }
-    result.append(CLOSE_BRACKET);
+    sink.append(CLOSE_BRACKET);
   }
 
   public void visit(final DeleteQuery deleteQuery) throws QueryException {
     addBracketToNextSelectQuery = true;
-    result.append(DELETE_FROM).append(" ");
-    result.append(join(deleteQuery.getTables(), ','));
+    sink.append(DELETE_FROM).append(" ");
+    sink.append(join(deleteQuery.getTables(), ','));
 
     final Exp whereClause = deleteQuery.getWhereClause();
     if ((whereClause != null) && (whereClause.isValid()))
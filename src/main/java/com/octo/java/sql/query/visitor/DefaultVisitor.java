@@ -25,12 +25,14 @@ import com.octo.java.sql.exp.Column;
 import com.octo.java.sql.exp.Constant;
 import com.octo.java.sql.exp.Exp;
 import com.octo.java.sql.exp.ExpSeq;
+import com.octo.java.sql.exp.FalseExp;
 import com.octo.java.sql.exp.InExp;
 import com.octo.java.sql.exp.JavaSQLFunc;
 import com.octo.java.sql.exp.JoinClause;
 import com.octo.java.sql.exp.Nullable;
 import com.octo.java.sql.exp.OpExp;
 import com.octo.java.sql.exp.SQLFunc;
+import com.octo.java.sql.exp.SeekExp;
 import com.octo.java.sql.exp.SetClause;
 import com.octo.java.sql.query.DeleteQuery;
 import com.octo.java.sql.query.InsertQuery;
@@ -78,6 +80,16 @@ public class DefaultVisitor extends BaseVisitor {
         acceptOrVisitValue(value);
   }
 
+  public void visit(final FalseExp falseExp) {
+  }
+
+  public void visit(final SeekExp seekExp) throws QueryException {
+    for (final Column column : seekExp.getColumns())
+      column.accept(this);
+    for (final Object value : seekExp.getValues())
+      acceptOrVisitValue(value);
+  }
+
   public void visit(final JoinClause joinClause) throws QueryException {
     joinClause.getOnClause().accept(this);
   }
@@ -98,6 +110,8 @@ public class DefaultVisitor extends BaseVisitor {
     final Exp whereClause = query.getWhereClause();
     if (whereClause != null)
       whereClause.accept(this);
+    if (query.getSeekClause() != null)
+      query.getSeekClause().accept(this);
     for (final SelectQuery union : query.getUnions())
       union.accept(this);
   }
@@ -114,6 +128,9 @@ public class DefaultVisitor extends BaseVisitor {
     final ListOrderedMap columnValues = insertQuery.getColumnsValues();
     for (final Object column : columnValues.keyList())
       acceptOrVisitValue(columnValues.get(column));
+    for (final Object[] row : insertQuery.getRows())
+      for (final Object value : row)
+        acceptOrVisitValue(value);
   }
 
   public void visit(final DeleteQuery deleteQuery) throws QueryException {
@@ -0,0 +1,92 @@
+/**
+ * Copyright (C) 2010 David Rousselie <drousselie@octo.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.octo.java.sql.query.visitor;
+
+import java.util.Arrays;
+
+/**
+ * Round the size of IN lists up to a few bucket sizes, the last value being
+ * repeated to fill the list. IN lists of any size then render only a handful of
+ * distinct SQL strings, which keeps driver and database statement caches
+ * efficient. Repeated values do not change the result of IN nor NOT IN.<br>
+ * The query builder does not pad a list beyond the maximum IN list size of its
+ * dialect, see DefaultQueryBuilder.getMaxInListSize().
+ */
+public abstract class InListPadding {
+  /**
+   * Render one placeholder per value
+   */
+  public static final InListPadding NONE = new InListPadding() {
+    @Override
+    public int getPaddedSize(final int size) {
+      return size;
+    }
+  };
+
+  /**
+   * Round up to the next power of two: 1, 2, 4, 8, 16...
+   */
+  public static final InListPadding POWERS_OF_TWO = new InListPadding() {
+    @Override
+    public int getPaddedSize(final int size) {
+      if (size <= 1)
+        return size;
+      final int highestBit = Integer.highestOneBit(size);
+      return highestBit == size ? size : highestBit << 1;
+    }
+  };
+
+  /**
+   * Round up to the next size of the given ladder, lists larger than the last
+   * size are rounded up to a multiple of it. For instance, with 10, 50, 100,
+   * 500, 1000 the lists of 1 to 10 values have 10 placeholders and a list of
+   * 1200 values has 2000 placeholders.
+   * 
+   * @param sizes
+   *          strictly increasing positive sizes
+   * @return
+   */
+  public static InListPadding ladder(final int... sizes) {
+    if ((sizes == null) || (sizes.length == 0))
+      throw new IllegalArgumentException("Ladder must have at least one size");
+    for (int i = 0; i < sizes.length; i++)
+      if ((sizes[i] <= 0) || ((i > 0) && (sizes[i] <= sizes[i - 1])))
+        throw new IllegalArgumentException(
+            "Ladder sizes must be positive and strictly increasing: "
+                + Arrays.toString(sizes));
+    final int[] ladder = sizes.clone();
+    final int lastSize = ladder[ladder.length - 1];
+    return new InListPadding() {
+      @Override
+      public int getPaddedSize(final int size) {
+        if (size <= 0)
+          return size;
+        for (final int ladderSize : ladder)
+          if (size <= ladderSize)
+            return ladderSize;
+        return ((size + lastSize - 1) / lastSize) * lastSize;
+      }
+    };
+  }
+
+  /**
+   * @param size
+   *          number of values of the IN list
+   * @return number of placeholders to render, greater or equal to size
+   */
+  public abstract int getPaddedSize(int size);
+}
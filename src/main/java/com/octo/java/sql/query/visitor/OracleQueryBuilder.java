@@ -15,13 +15,166 @@
  */
 package com.octo.java.sql.query.visitor;
 
+import static org.apache.commons.lang.StringUtils.join;
+
+import java.lang.reflect.InvocationTargetException;
+import java.sql.Array;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Date;
+
+import com.octo.java.sql.exp.InExp;
+import com.octo.java.sql.exp.Operator;
+import com.octo.java.sql.query.InsertQuery;
+import com.octo.java.sql.query.QueryException;
 import com.octo.java.sql.query.SelectQuery;
 
 public class OracleQueryBuilder extends DefaultQueryBuilder {
+  public static final QueryBuilderFactory FACTORY = new QueryBuilderFactory() {
+    public DefaultQueryBuilder newQueryBuilder() {
+      return new OracleQueryBuilder();
+    }
+
+    public void release(final DefaultQueryBuilder builder) {
+    }
+
+    public Class<? extends DefaultQueryBuilder> getQueryBuilderClass() {
+      return OracleQueryBuilder.class;
+    }
+  };
+
+  /**
+   * Oracle does not optimize row value comparisons into index range scans
+   */
+  @Override
+  protected boolean supportsRowValueComparison() {
+    return false;
+  }
+
+  @Override
+  public int getMaxInsertRows() {
+    return 1000;
+  }
+
+  /**
+   * Bind variables are numbered with a 16 bits integer by the driver
+   */
+  @Override
+  public int getMaxParameters() {
+    return 65535;
+  }
+
+  /**
+   * The INTO clauses of an INSERT ALL cannot have more than 999 target columns
+   * in total, whatever the number of rows
+   */
+  @Override
+  public int getMaxInsertValues() {
+    return 999;
+  }
+
+  /**
+   * ORA-01795: maximum number of expressions in a list is 1000
+   */
+  @Override
+  public int getMaxInListSize() {
+    return 1000;
+  }
+
+  /**
+   * Write "INSERT ALL INTO table (a, b) VALUES (:a1, :b2) INTO table (a, b)
+   * VALUES (:a3, :b4) SELECT * FROM dual"
+   */
+  @Override
+  protected void buildMultiRowInsert(final InsertQuery insertQuery)
+      throws QueryException {
+    getSink().append("INSERT ALL");
+    for (final Object[] row : insertQuery.getRows()) {
+      getSink().append(" INTO ").append(insertQuery.getTable()).append(" (");
+      getSink().append(join(insertQuery.getColumns(), ", "));
+      getSink().append(") VALUES ");
+      buildInsertRow(insertQuery.getColumns(), row);
+    }
+    getSink().append(" SELECT * FROM dual");
+  }
+
+  @Override
+  protected boolean supportsArrayParameters() {
+    return true;
+  }
+
+  /**
+   * Write "col IN (SELECT COLUMN_VALUE FROM TABLE(CAST(:col1 AS type)))", the
+   * array must be bound as an Oracle collection of the type given by
+   * getArrayTypeName()
+   */
+  @Override
+  protected void buildArrayInList(final InExp inExp) throws QueryException {
+    inExp.getColumn().accept(this);
+    getSink().append(" ");
+    if (inExp.isNegative())
+      getSink().append(Operator.NOT.getValue()).append(" ");
+    getSink().append(Operator.IN.getValue()).append(
+        " (SELECT COLUMN_VALUE FROM TABLE(CAST(");
+    appendVariable(inExp.getValues(), inExp.getColumn().getName());
+    getSink().append(" AS ").append(getArrayTypeName(inExp.getValues()));
+    getSink().append(")))");
+  }
+
+  /**
+   * The driver does not implement createArrayOf(): create the collection with
+   * OracleConnection.createOracleArray(), called by reflection as the driver
+   * is not a dependency
+   */
+  @Override
+  public Array createArray(final Connection connection, final Object[] values)
+      throws SQLException {
+    final Class<?> oracleConnection;
+    try {
+      oracleConnection = Class.forName("oracle.jdbc.OracleConnection");
+    } catch (final ClassNotFoundException e) {
+      return super.createArray(connection, values);
+    }
+    try {
+      return (Array) oracleConnection.getMethod("createOracleArray",
+          String.class, Object.class).invoke(
+          connection.unwrap(oracleConnection), getArrayTypeName(values),
+          values);
+    } catch (final InvocationTargetException e) {
+      if (e.getCause() instanceof SQLException)
+        throw (SQLException) e.getCause();
+      throw new SQLException("Cannot create Oracle array", e.getCause());
+    } catch (final NoSuchMethodException e) {
+      throw new SQLException("Cannot create Oracle array", e);
+    } catch (final IllegalAccessException e) {
+      throw new SQLException("Cannot create Oracle array", e);
+    }
+  }
+
+  /**
+   * @param values
+   * @return the SQL collection type used to cast and bind the array
+   *         parameter, chosen from the type of the first value
+   */
+  @Override
+  protected String getArrayTypeName(final Object[] values) {
+    if (values[0] instanceof Number)
+      return "SYS.ODCINUMBERLIST";
+    else if (values[0] instanceof Date)
+      return "SYS.ODCIDATELIST";
+    else
+      return "SYS.ODCIVARCHAR2LIST";
+  }
+
+  @Override
+  protected void buildLimitPrefix(final SelectQuery query) {
+    getSink().append("SELECT * FROM (");
+  }
+
   @Override
   protected void buildLimitClause(final SelectQuery query) {
-    result.insert(0, "SELECT * FROM (");
-    result.append(") WHERE (rownum<=:");
-    result.append(addVariable(query.getLimit(), "limit")).append(")");
+    getSink().append(") WHERE (rownum<=");
+    appendVariable(query.getLimit(), "limit");
+    getSink().append(")");
   }
 }
@@ -0,0 +1,49 @@
+/**
+ * Copyright (C) 2010 David Rousselie <drousselie@octo.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.octo.java.sql.query.visitor;
+
+/**
+ * PostgreSQL dialect: IN lists can be bound as a single array parameter,
+ * rendered as "col = ANY(:col1)"
+ */
+public class PostgreSQLQueryBuilder extends DefaultQueryBuilder {
+  public static final QueryBuilderFactory FACTORY = new QueryBuilderFactory() {
+    public DefaultQueryBuilder newQueryBuilder() {
+      return new PostgreSQLQueryBuilder();
+    }
+
+    public void release(final DefaultQueryBuilder builder) {
+    }
+
+    public Class<? extends DefaultQueryBuilder> getQueryBuilderClass() {
+      return PostgreSQLQueryBuilder.class;
+    }
+  };
+
+  /**
+   * Bind parameters are numbered with a 16 bits integer in the wire protocol
+   */
+  @Override
+  public int getMaxParameters() {
+    return 65535;
+  }
+
+  @Override
+  protected boolean supportsArrayParameters() {
+    return true;
+  }
+}
@@ -0,0 +1,40 @@
+/**
+ * Copyright (C) 2010 David Rousselie <drousselie@octo.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.octo.java.sql.query.visitor;
+
+import com.octo.java.sql.query.QueryException;
+
+/**
+ * Create the query builders used to render queries to SQL. Implementations
+ * must be thread-safe.
+ */
+public interface QueryBuilderFactory {
+  public DefaultQueryBuilder newQueryBuilder() throws QueryException;
+
+  /**
+   * Called when a builder created by this factory is no longer used
+   * 
+   * @param builder
+   */
+  public void release(DefaultQueryBuilder builder);
+
+  /**
+   * @return the class of the created builders, two queries of the same shape
+   *         rendered by builders of the same class have the same SQL
+   */
+  public Class<? extends DefaultQueryBuilder> getQueryBuilderClass();
+}
@@ -0,0 +1,81 @@
+/**
+ * Copyright (C) 2010 David Rousselie <drousselie@octo.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.octo.java.sql.query.visitor;
+
+import com.octo.java.sql.query.QueryException;
+
+/**
+ * Keep one builder per thread to avoid creating a builder, and growing its
+ * buffers, for each rendered query.<br>
+ * New builders are sized from the average length of the last rendered
+ * queries. A builder whose buffer has grown far beyond this average (after
+ * rendering a huge IN list for example) is not kept.
+ */
+public class QueryBuilderPool implements QueryBuilderFactory {
+  private static final int MAX_CAPACITY_RATIO = 4;
+  private static final int MIN_KEPT_CAPACITY = 1024;
+
+  private final QueryBuilderFactory factory;
+  private final ThreadLocal<DefaultQueryBuilder> pooledBuilders = new ThreadLocal<DefaultQueryBuilder>();
+
+  /**
+   * Exponential moving average of the rendered lengths, updates may be lost
+   * under contention which is fine for a sizing hint
+   */
+  private volatile int averageLength;
+
+  public QueryBuilderPool(final QueryBuilderFactory factory) {
+    this.factory = factory;
+  }
+
+  public DefaultQueryBuilder newQueryBuilder() throws QueryException {
+    final DefaultQueryBuilder pooledBuilder = pooledBuilders.get();
+    if (pooledBuilder != null) {
+      // Builder is removed while used, a nested rendering gets a new one
+      pooledBuilders.set(null);
+      pooledBuilder.reset();
+      return pooledBuilder;
+    }
+    final DefaultQueryBuilder builder = factory.newQueryBuilder();
+    builder.ensureCapacity(averageLength);
+    return builder;
+  }
+
+  public void release(final DefaultQueryBuilder builder) {
+    final StringBuilder result = builder.getResult();
+    final int length = result.length();
+    // Nothing has been written in the buffer when rendering in another sink
+    if (length > 0) {
+      final int average = averageLength;
+      averageLength = average == 0 ? length : ((average * 7) + length) / 8;
+    }
+
+    if (result.capacity() <= Math.max(MIN_KEPT_CAPACITY, averageLength
+        * MAX_CAPACITY_RATIO))
+      pooledBuilders.set(builder);
+    else
+      factory.release(builder);
+  }
+
+  public Class<? extends DefaultQueryBuilder> getQueryBuilderClass() {
+    return factory.getQueryBuilderClass();
+  }
+
+  public int getAverageLength() {
+    return averageLength;
+  }
+}
@@ -20,11 +20,13 @@ import com.octo.java.sql.exp.BetweenExp;
 import com.octo.java.sql.exp.Column;
 import com.octo.java.sql.exp.Constant;
 import com.octo.java.sql.exp.ExpSeq;
+import com.octo.java.sql.exp.FalseExp;
 import com.octo.java.sql.exp.InExp;
 import com.octo.java.sql.exp.JoinClause;
 import com.octo.java.sql.exp.Nullable;
 import com.octo.java.sql.exp.OpExp;
 import com.octo.java.sql.exp.SQLFunc;
+import com.octo.java.sql.exp.SeekExp;
 import com.octo.java.sql.exp.SetClause;
 import com.octo.java.sql.query.DeleteQuery;
 import com.octo.java.sql.query.InsertQuery;
@@ -45,6 +47,10 @@ public interface QueryVisitor {
 
   public void visit(InExp inExp) throws QueryException;
 
+  public void visit(SeekExp seekExp) throws QueryException;
+
+  public void visit(FalseExp falseExp);
+
   public void visit(JoinClause joinClause) throws QueryException;
 
   public void visit(SetClause setClause) throws QueryException;
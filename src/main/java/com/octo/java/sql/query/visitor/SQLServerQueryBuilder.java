@@ -0,0 +1,65 @@
+/**
+ * Copyright (C) 2010 David Rousselie <drousselie@octo.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.octo.java.sql.query.visitor;
+
+import com.octo.java.sql.query.SelectQuery;
+
+/**
+ * SQL Server dialect: a statement has at most 2100 bind parameters and a
+ * VALUES clause at most 1000 rows. Limits are rendered with OFFSET ... FETCH
+ * (SQL Server 2012 and later).
+ */
+public class SQLServerQueryBuilder extends DefaultQueryBuilder {
+  public static final QueryBuilderFactory FACTORY = new QueryBuilderFactory() {
+    public DefaultQueryBuilder newQueryBuilder() {
+      return new SQLServerQueryBuilder();
+    }
+
+    public void release(final DefaultQueryBuilder builder) {
+    }
+
+    public Class<? extends DefaultQueryBuilder> getQueryBuilderClass() {
+      return SQLServerQueryBuilder.class;
+    }
+  };
+
+  /**
+   * A statement has less than 2100 parameters, sp_executesql using two of
+   * them itself
+   */
+  @Override
+  public int getMaxParameters() {
+    return 2098;
+  }
+
+  @Override
+  public int getMaxInsertRows() {
+    return 1000;
+  }
+
+  /**
+   * OFFSET needs an ORDER BY clause
+   */
+  @Override
+  protected void buildLimitClause(final SelectQuery query) {
+    if (query.getOrderBy().isEmpty())
+      getSink().append(" ORDER BY (SELECT NULL)");
+    getSink().append(" OFFSET 0 ROWS FETCH NEXT ");
+    appendVariable(query.getLimit(), "limit");
+    getSink().append(" ROWS ONLY");
+  }
+}
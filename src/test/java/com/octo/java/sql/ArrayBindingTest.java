@@ -0,0 +1,221 @@
+/**
+ * Copyright (C) 2010 David Rousselie <drousselie@octo.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.octo.java.sql;
+
+import static com.octo.java.sql.query.Query.c;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Array;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.sql.DataSource;
+
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.Test;
+
+import com.octo.java.sql.exec.QueryExecutor;
+import com.octo.java.sql.exec.RowMapper;
+import com.octo.java.sql.query.QueryContext;
+import com.octo.java.sql.query.QueryException;
+import com.octo.java.sql.query.SelectQuery;
+import com.octo.java.sql.query.cache.SQLTemplateCache;
+import com.octo.java.sql.query.visitor.H2QueryBuilder;
+import com.octo.java.sql.query.visitor.OracleQueryBuilder;
+import com.octo.java.sql.query.visitor.ParameterStyle;
+import com.octo.java.sql.query.visitor.PostgreSQLQueryBuilder;
+
+public class ArrayBindingTest {
+  private final QueryContext context = QueryContext.getInitial()
+      .withArrayBinding(3);
+
+  private static Object[] range(final int size) {
+    final Object[] values = new Object[size];
+    for (int i = 0; i < size; i++)
+      values[i] = i + 1;
+    return values;
+  }
+
+  @Test
+  public void testShouldBindArrayWithPostgreSQL() throws QueryException {
+    final Object[] ids = range(1000);
+    final SelectQuery query = context.withQueryBuilder(
+        PostgreSQLQueryBuilder.class).select("*").from("client") //
+        .where(c("id")).in(ids);
+
+    assertEquals("SELECT * FROM client WHERE (id = ANY(:id1))", query.toSql());
+    assertSame(ids, query.getParams().get("id1"));
+  }
+
+  @Test
+  public void testShouldBindNotInArray() throws QueryException {
+    final SelectQuery query = context.withQueryBuilder(H2QueryBuilder.class)
+        .select("*").from("client") //
+        .where(c("id")).notIn(range(10));
+
+    assertEquals("SELECT * FROM client WHERE (NOT (id = ANY(:id1)))", query
+        .toSql());
+  }
+
+  @Test
+  public void testShouldCastArrayWithOracle() throws QueryException {
+    final SelectQuery query = context.withQueryBuilder(
+        OracleQueryBuilder.class).select("*").from("client") //
+        .where(c("id")).in(range(10)) //
+        .and(c("name")).notIn("a", "b", "c");
+
+    assertEquals("SELECT * FROM client WHERE ((id IN (SELECT COLUMN_VALUE "
+        + "FROM TABLE(CAST(:id1 AS SYS.ODCINUMBERLIST)))) AND (name NOT IN "
+        + "(SELECT COLUMN_VALUE FROM TABLE(CAST(:name2 AS "
+        + "SYS.ODCIVARCHAR2LIST)))))", query.toSql());
+  }
+
+  @Test
+  public void testShouldExpandSmallListsAndUnsupportedDialects()
+      throws QueryException {
+    assertEquals("SELECT * FROM client WHERE (id IN (:id1,:id2))", context
+        .withQueryBuilder(PostgreSQLQueryBuilder.class).select("*").from(
+            "client").where(c("id")).in(1, 2).toSql());
+    assertEquals("SELECT * FROM client WHERE (id IN (:id1,:id2,:id3))",
+        context.select("*").from("client").where(c("id")).in(1, 2, 3)
+            .toSql());
+  }
+
+  @Test
+  public void testShouldKeepOneTemplateForAnySize() throws QueryException {
+    final SQLTemplateCache cache = new SQLTemplateCache();
+    final QueryContext cachedContext = context.withQueryBuilder(
+        PostgreSQLQueryBuilder.class).withTemplateCache(cache);
+    for (int size = 3; size < 100; size++) {
+      final Object[] ids = range(size);
+      final SelectQuery query = cachedContext.select("*").from("client")
+          .where(c("id")).in(ids);
+      assertEquals("SELECT * FROM client WHERE (id = ANY(:id1))", query
+          .toSql());
+      assertSame(ids, query.getParams().get("id1"));
+    }
+    assertEquals(1, cache.size());
+  }
+
+  @Test
+  public void testShouldSelectWithH2() throws QueryException, SQLException {
+    final Connection connection = DriverManager
+        .getConnection("jdbc:h2:mem:arrayBinding");
+    try {
+      final Statement statement = connection.createStatement();
+      statement.execute("CREATE TABLE client (id INT PRIMARY KEY)");
+      statement.execute("INSERT INTO client VALUES (1), (2), (3), (4), (5)");
+      statement.close();
+
+      final SelectQuery query = context.withQueryBuilder(
+          H2QueryBuilder.class).withParameterStyle(ParameterStyle.POSITIONAL)
+          .select(c("id")).from("client") //
+          .where(c("id")).notIn(2, 4, 6) //
+          .orderBy("id");
+      final PreparedStatement select = connection.prepareStatement(query
+          .toSql());
+      select.setObject(1, query.getParamValues().get(0));
+      final ResultSet resultSet = select.executeQuery();
+      final List<Integer> ids = new ArrayList<Integer>();
+      while (resultSet.next())
+        ids.add(resultSet.getInt(1));
+
+      assertEquals("[1, 3, 5]", ids.toString());
+    } finally {
+      connection.close();
+    }
+  }
+
+  @Test
+  public void testShouldBindJdbcArrayInSession() throws QueryException,
+      SQLException {
+    final List<Object> boundValues = new ArrayList<Object>();
+    final JdbcDataSource h2DataSource = new JdbcDataSource();
+    h2DataSource.setURL("jdbc:h2:mem:arrayBindingSession");
+    final DataSource dataSource = recordBoundValues(h2DataSource,
+        DataSource.class, boundValues);
+    final Connection keepAlive = h2DataSource.getConnection();
+    try {
+      final Statement statement = keepAlive.createStatement();
+      statement.execute("CREATE TABLE client (id INT PRIMARY KEY)");
+      statement.execute("INSERT INTO client VALUES (1), (2), (3), (4), (5)");
+      statement.close();
+
+      final SelectQuery query = context.withQueryBuilder(
+          H2QueryBuilder.class).select(c("id")).from("client") //
+          .where(c("id")).in(2, 4, 6) //
+          .orderBy("id");
+      final List<Integer> ids = new QueryExecutor(dataSource).query(query,
+          new RowMapper<Integer>() {
+            public Integer mapRow(final ResultSet resultSet,
+                final int rowNum) throws SQLException {
+              return resultSet.getInt(1);
+            }
+          });
+
+      assertEquals("[2, 4]", ids.toString());
+      assertEquals(1, boundValues.size());
+      assertTrue(boundValues.get(0) instanceof Array);
+    } finally {
+      keepAlive.close();
+    }
+  }
+
+  /**
+   * @return a proxy of the target recording the values given to setObject()
+   *         by the prepared statements of its connections
+   */
+  private static <T> T recordBoundValues(final Object target,
+      final Class<T> type, final List<Object> boundValues) {
+    return type.cast(Proxy.newProxyInstance(type.getClassLoader(),
+        new Class<?>[] { type }, new InvocationHandler() {
+          public Object invoke(final Object proxy, final Method method,
+              final Object[] args) throws Throwable {
+            if ("setObject".equals(method.getName()))
+              boundValues.add(args[1]);
+            final Object result = invokeTarget(target, method, args);
+            if (method.getReturnType() == Connection.class)
+              return recordBoundValues(result, Connection.class, boundValues);
+            if (method.getReturnType() == PreparedStatement.class)
+              return recordBoundValues(result, PreparedStatement.class,
+                  boundValues);
+            return result;
+          }
+        }));
+  }
+
+  private static Object invokeTarget(final Object target,
+      final Method method, final Object[] args) throws Throwable {
+    try {
+      return method.invoke(target, args);
+    } catch (final InvocationTargetException e) {
+      throw e.getCause();
+    }
+  }
+}
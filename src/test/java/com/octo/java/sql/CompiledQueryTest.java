@@ -0,0 +1,84 @@
+/**
+ * Copyright (C) 2010 David Rousselie <drousselie@octo.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.octo.java.sql;
+
+import static com.octo.java.sql.query.Query.c;
+import static com.octo.java.sql.query.Query.deleteFrom;
+import static com.octo.java.sql.query.Query.insertInto;
+import static com.octo.java.sql.query.Query.select;
+import static com.octo.java.sql.query.Query.update;
+import static org.junit.Assert.assertEquals;
+
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.octo.java.sql.query.CompiledQuery;
+import com.octo.java.sql.query.QueryException;
+
+public class CompiledQueryTest {
+  @Test
+  public void testShouldBindSelectQueryManyTimes() throws QueryException {
+    final CompiledQuery compiled = select("*").from("client") //
+        .where(c("firstname")).eq("") //
+        .and(c("age")).in(0, 0) //
+        .compile();
+
+    assertEquals(
+        "SELECT * FROM client WHERE ((firstname = :firstname1) AND (age IN (:age2,:age3)))",
+        compiled.getSql());
+    assertEquals(3, compiled.getParameterCount());
+    assertEquals("age2", compiled.getParameterName(1));
+
+    Map<String, Object> params = compiled.bind("John", 20, 30);
+    assertEquals("John", params.get("firstname1"));
+    assertEquals(20, params.get("age2"));
+    assertEquals(30, params.get("age3"));
+
+    params = compiled.bind("Jane", 40, 50);
+    assertEquals("Jane", params.get("firstname1"));
+    assertEquals(50, params.get("age3"));
+  }
+
+  @Test
+  public void testShouldCompileUpdateInsertAndDeleteQueries()
+      throws QueryException {
+    final CompiledQuery updateQuery = update("client") //
+        .set(c("firstname"), "").where(c("id")).eq(0).compile();
+    assertEquals(
+        "UPDATE client SET firstname = :firstname1 WHERE (id = :id2)",
+        updateQuery.getSql());
+    assertEquals(42, updateQuery.bind("John", 42).get("id2"));
+
+    final CompiledQuery insertQuery = insertInto("client") //
+        .set("id", 0).set("firstname", "").compile();
+    assertEquals(
+        "INSERT INTO client (id, firstname) VALUES (:id1, :firstname2)",
+        insertQuery.getSql());
+    assertEquals("John", insertQuery.bind(42, "John").get("firstname2"));
+
+    final CompiledQuery deleteQuery = deleteFrom("client") //
+        .where(c("id")).eq(0).compile();
+    assertEquals("DELETE FROM client WHERE (id = :id1)", deleteQuery.getSql());
+    assertEquals(42, deleteQuery.bind(42).get("id1"));
+  }
+
+  @Test(expected = QueryException.class)
+  public void testShouldNotBindWrongNumberOfValues() throws QueryException {
+    select("*").from("client").where(c("id")).eq(0).compile().bind(1, 2);
+  }
+}
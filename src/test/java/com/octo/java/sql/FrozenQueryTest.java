@@ -0,0 +1,154 @@
+/**
+ * Copyright (C) 2010 David Rousselie <drousselie@octo.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.octo.java.sql;
+
+import static com.octo.java.sql.query.Query.c;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Test;
+
+import com.octo.java.sql.exp.AndExp;
+import com.octo.java.sql.exp.Exp;
+import com.octo.java.sql.exp.OpExp;
+import com.octo.java.sql.exp.Operator;
+import com.octo.java.sql.query.DeleteQuery;
+import com.octo.java.sql.query.InsertQuery;
+import com.octo.java.sql.query.QueryContext;
+import com.octo.java.sql.query.QueryException;
+import com.octo.java.sql.query.RenderedSQL;
+import com.octo.java.sql.query.SelectQuery;
+import com.octo.java.sql.query.UpdateQuery;
+import com.octo.java.sql.query.visitor.ParameterStyle;
+
+public class FrozenQueryTest {
+  private final QueryContext context = QueryContext.getInitial();
+
+  private SelectQuery newBase() throws QueryException {
+    return context.select(c("t.col")).from("t").where(c("t.tenant")).eq(1)
+        .and(c("t.active")).eq(true).freeze();
+  }
+
+  @Test
+  public void testShouldNotModifyAFrozenQuery() throws QueryException {
+    final SelectQuery base = newBase();
+    final String baseSql = base.toSql();
+
+    final SelectQuery derived = base.and(c("t.id")).eq(2);
+
+    assertNotSame(base, derived);
+    assertTrue(base.isFrozen());
+    assertFalse(derived.isFrozen());
+    assertEquals(baseSql, base.toSql());
+    assertEquals("SELECT t.col FROM t WHERE ((t.tenant = :t.tenant1) "
+        + "AND (t.active = :t.active2) AND (t.id = :t.id3))", derived.toSql());
+  }
+
+  @Test
+  public void testShouldShareTheClausesOfAFrozenQuery() throws QueryException {
+    final SelectQuery base = newBase();
+    final Exp baseWhere = base.getWhereClause();
+
+    final SelectQuery derived = base.and(c("t.id")).eq(2);
+
+    assertSame(baseWhere, base.getWhereClause());
+    final AndExp derivedWhere = (AndExp) derived.getWhereClause();
+    assertEquals(3, derivedWhere.getClauses().size());
+    assertSame(((AndExp) baseWhere).getClauses().get(0), derivedWhere
+        .getClauses().get(0));
+  }
+
+  @Test
+  public void testShouldModifyADerivedQueryInPlace() throws QueryException {
+    final SelectQuery derived = newBase().orderBy("t.col");
+
+    assertSame(derived, derived.and(c("t.id")).eq(2));
+    assertSame(derived, derived.limit(10L));
+  }
+
+  @Test
+  public void testShouldDeriveIndependentQueries() throws QueryException {
+    final SelectQuery base = newBase();
+
+    final SelectQuery first = base.orderBy("t.col").desc();
+    final SelectQuery second = base.leftOuterJoin("u").on(c("u.id")).eq(
+        c("t.id"));
+
+    assertEquals("SELECT t.col FROM t WHERE ((t.tenant = :t.tenant1) "
+        + "AND (t.active = :t.active2)) ORDER BY t.col DESC", first.toSql());
+    assertEquals("SELECT t.col FROM t LEFT OUTER JOIN u ON (u.id = t.id) "
+        + "WHERE ((t.tenant = :t.tenant1) AND (t.active = :t.active2))", second
+        .toSql());
+    assertEquals("SELECT t.col FROM t WHERE ((t.tenant = :t.tenant1) "
+        + "AND (t.active = :t.active2))", base.toSql());
+  }
+
+  @Test
+  public void testShouldNotModifyTheAppendedSequence() throws QueryException {
+    final AndExp and = (AndExp) new OpExp(c("a"), Operator.EQ, 1)
+        .and(new OpExp(c("b"), Operator.EQ, 2));
+
+    final AndExp longer = and.and(new OpExp(c("c"), Operator.EQ, 3));
+
+    assertNotSame(and, longer);
+    assertEquals(2, and.getClauses().size());
+    assertEquals(3, longer.getClauses().size());
+  }
+
+  @Test
+  public void testShouldDeriveDmlQueries() throws QueryException {
+    final UpdateQuery update = context.update("t").set(c("a"), 1).freeze();
+    final DeleteQuery delete = context.deleteFrom("t").freeze();
+    final InsertQuery insert = context.insertInto("t").set("a", 1).freeze();
+
+    assertEquals("UPDATE t SET a = :a1, b = :b2 WHERE (id = :id3)", update
+        .set(c("b"), 2).where(c("id")).eq(3).toSql());
+    assertEquals("UPDATE t SET a = :a1", update.toSql());
+    assertEquals("DELETE FROM t WHERE (id = :id1)", delete.where(c("id")).eq(3)
+        .toSql());
+    assertEquals("DELETE FROM t", delete.toSql());
+    assertEquals("INSERT INTO t (a, b) VALUES (:a1, :b2)", insert.set("b", 2)
+        .toSql());
+    assertEquals("INSERT INTO t (a) VALUES (:a1)", insert.toSql());
+  }
+
+  @Test
+  public void testShouldRenderWithoutKeepingState() throws QueryException {
+    final SelectQuery base = newBase();
+
+    final RenderedSQL named = base.render();
+    final RenderedSQL positional = base.render(context
+        .withParameterStyle(ParameterStyle.POSITIONAL));
+
+    assertEquals("SELECT t.col FROM t WHERE ((t.tenant = :t.tenant1) "
+        + "AND (t.active = :t.active2))", named.getSql());
+    assertEquals(1, named.getParams().get("t.tenant1"));
+    assertEquals("SELECT t.col FROM t WHERE ((t.tenant = ?) "
+        + "AND (t.active = ?))", positional.getSql());
+    assertEquals(Collections.emptyMap(), positional.getParams());
+    assertEquals(Arrays.asList(1, true), positional.getParamValues());
+    assertEquals(Arrays.asList(1, true), named.getParamValues());
+    assertNull(base.getParams());
+  }
+}
@@ -0,0 +1,177 @@
+/**
+ * Copyright (C) 2010 David Rousselie <drousselie@octo.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.octo.java.sql;
+
+import static com.octo.java.sql.query.Query.c;
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.octo.java.sql.query.QueryContext;
+import com.octo.java.sql.query.QueryException;
+import com.octo.java.sql.query.SelectQuery;
+import com.octo.java.sql.query.cache.SQLTemplateCache;
+import com.octo.java.sql.query.visitor.InListPadding;
+import com.octo.java.sql.query.visitor.OracleQueryBuilder;
+import com.octo.java.sql.query.visitor.ParameterStyle;
+import com.octo.java.sql.query.visitor.PostgreSQLQueryBuilder;
+import com.octo.java.sql.query.visitor.SQLServerQueryBuilder;
+
+public class InListPaddingTest {
+  private final QueryContext context = QueryContext.getInitial()
+      .withInListPadding(InListPadding.POWERS_OF_TWO);
+
+  @Test
+  public void testShouldRoundUpToPowersOfTwo() {
+    final InListPadding padding = InListPadding.POWERS_OF_TWO;
+    assertEquals(1, padding.getPaddedSize(1));
+    assertEquals(2, padding.getPaddedSize(2));
+    assertEquals(4, padding.getPaddedSize(3));
+    assertEquals(8, padding.getPaddedSize(5));
+    assertEquals(1024, padding.getPaddedSize(1000));
+  }
+
+  @Test
+  public void testShouldRoundUpToLadder() {
+    final InListPadding padding = InListPadding.ladder(10, 50, 100);
+    assertEquals(10, padding.getPaddedSize(1));
+    assertEquals(50, padding.getPaddedSize(11));
+    assertEquals(100, padding.getPaddedSize(100));
+    assertEquals(200, padding.getPaddedSize(101));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testShouldRejectUnorderedLadder() {
+    InListPadding.ladder(10, 5);
+  }
+
+  @Test
+  public void testShouldRepeatLastValue() throws QueryException {
+    final SelectQuery query = context.select("*").from("client") //
+        .where(c("id")).in(1, 2, 3);
+
+    assertEquals(
+        "SELECT * FROM client WHERE (id IN (:id1,:id2,:id3,:id4))",
+        query.toSql());
+    assertEquals(Arrays.<Object> asList(1, 2, 3, 3), query.getParamValues());
+    assertEquals(3, query.getParams().get("id4"));
+  }
+
+  @Test
+  public void testShouldPadNotInWithPositionalParameters()
+      throws QueryException {
+    final SelectQuery query = context.withParameterStyle(
+        ParameterStyle.POSITIONAL).select("*").from("client") //
+        .where(c("id")).notIn(1, 2, 3, 4, 5);
+
+    assertEquals("SELECT * FROM client WHERE (id NOT IN (?,?,?,?,?,?,?,?))",
+        query.toSql());
+  }
+
+  @Test
+  public void testShouldNotPadBeyondMaxInListSize() throws QueryException {
+    final QueryContext oracleContext = context
+        .withQueryBuilder(OracleQueryBuilder.class);
+    final Object[] values = new Object[600];
+    Arrays.fill(values, 1);
+    final SelectQuery padded = oracleContext.select("*").from("client") //
+        .where(c("id")).in(values);
+    padded.toSql();
+    assertEquals(1000, padded.getParamValues().size());
+
+    final Object[] tooManyValues = new Object[1001];
+    Arrays.fill(tooManyValues, 1);
+    final SelectQuery notPadded = oracleContext.select("*").from("client") //
+        .where(c("id")).in(tooManyValues);
+    notPadded.toSql();
+    assertEquals(1001, notPadded.getParamValues().size());
+  }
+
+  @Test
+  public void testShouldNotPadBeyondMaxParameters() throws QueryException {
+    final QueryContext sqlServerContext = QueryContext.getInitial()
+        .withQueryBuilder(SQLServerQueryBuilder.class).withInListPadding(
+            InListPadding.ladder(10, 100, 1000));
+    final Object[] values = new Object[2001];
+    Arrays.fill(values, 1);
+    final SelectQuery notPadded = sqlServerContext.select("*").from("client") //
+        .where(c("id")).in(values) //
+        .and(c("name")).eq("Doe");
+    notPadded.toSql();
+    assertEquals(2002, notPadded.getParamValues().size());
+
+    final SelectQuery cached = sqlServerContext.withTemplateCache(
+        new SQLTemplateCache(10)).select("*").from("client") //
+        .where(c("id")).in(values) //
+        .and(c("name")).eq("Doe");
+    cached.toSql();
+    assertEquals(2002, cached.getParamValues().size());
+
+    final Object[] smallValues = new Object[5];
+    Arrays.fill(smallValues, 1);
+    final SelectQuery padded = sqlServerContext.select("*").from("client") //
+        .where(c("id")).in(smallValues) //
+        .and(c("code")).in(values);
+    padded.toSql();
+    assertEquals(2011, padded.getParamValues().size());
+
+    final Object[] manyValues = new Object[32769];
+    Arrays.fill(manyValues, 1);
+    final SelectQuery postgreSQLQuery = context.withQueryBuilder(
+        PostgreSQLQueryBuilder.class).select("*").from("client") //
+        .where(c("id")).in(manyValues);
+    postgreSQLQuery.toSql();
+    assertEquals(32769, postgreSQLQuery.getParamValues().size());
+  }
+
+  @Test
+  public void testShouldNotPadSubQuery() throws QueryException {
+    final SelectQuery query = QueryContext.getInitial().withInListPadding(
+        InListPadding.ladder(10)).select("*").from("client") //
+        .where(c("id")).in(
+            QueryContext.getInitial().select(c("id")).from("vip"));
+
+    assertEquals(
+        "SELECT * FROM client WHERE (id IN ((SELECT id FROM vip)))",
+        query.toSql());
+  }
+
+  @Test
+  public void testShouldBoundTemplatesNumber() throws QueryException {
+    final SQLTemplateCache cache = new SQLTemplateCache();
+    final QueryContext cachedContext = context.withTemplateCache(cache);
+    for (int size = 1; size <= 100; size++) {
+      final List<Object> ids = new ArrayList<Object>();
+      for (int id = 0; id < size; id++)
+        ids.add(id);
+      final SelectQuery query = cachedContext.select("*").from("client")
+          .where(c("id")).in(ids.toArray());
+      query.toSql();
+      assertEquals(Integer.valueOf(size - 1), query.getParamValues().get(
+          query.getParamValues().size() - 1));
+    }
+
+    assertEquals(8, cache.size());
+    assertEquals(92, cache.getHitCount());
+    assertEquals(0.92, cache.getHitRatio(), 0.001);
+    assertEquals(35, cache.getTemplates().get(0).getHitCount());
+  }
+}
@@ -0,0 +1,252 @@
+/**
+ * Copyright (C) 2010 David Rousselie <drousselie@octo.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.octo.java.sql;
+
+import static com.octo.java.sql.query.Query.c;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.Test;
+
+import com.octo.java.sql.exp.SQLFunc;
+import com.octo.java.sql.query.BasicQueryOptimizer;
+import com.octo.java.sql.query.QueryContext;
+import com.octo.java.sql.query.QueryException;
+import com.octo.java.sql.query.SchemaMetadata;
+import com.octo.java.sql.query.SelectQuery;
+import com.octo.java.sql.query.visitor.QueryVisitor;
+import com.octo.java.sql.query.visitor.QueryVisitorFactory;
+
+public class JoinEliminationTest {
+  private final SchemaMetadata metadata = new SchemaMetadata() //
+      .addNotNull("orders", "id", "customer_id") //
+      .addTable("orders", "coupon_id", "amount") //
+      .addUniqueKey("orders", "id") //
+      .addForeignKey("orders", new String[] { "customer_id" }, "customer",
+          new String[] { "id" }) //
+      .addForeignKey("orders", new String[] { "coupon_id" }, "coupon",
+          new String[] { "id" }) //
+      .addNotNull("customer", "id") //
+      .addTable("customer", "name", "email") //
+      .addUniqueKey("customer", "id") //
+      .addUniqueKey("customer", "email") //
+      .addNotNull("coupon", "id") //
+      .addTable("coupon", "label") //
+      .addUniqueKey("coupon", "id");
+
+  private final QueryContext context = QueryContext.getInitial().withVisitor(
+      BasicQueryOptimizer.FACTORY);
+  private final QueryContext metadataContext = QueryContext.getInitial()
+      .withVisitor(BasicQueryOptimizer.factory(metadata));
+
+  @Test
+  public void testShouldRemoveMutuallyDependentJoins() throws QueryException {
+    final SelectQuery query = context.select(c("t.col")).from("t") //
+        .innerJoin("a").on(c("a.id")).eq(c("b.id")) //
+        .innerJoin("b").on(c("b.id")).eq(c("a.id"));
+
+    assertEquals("SELECT t.col FROM t", query.toSql());
+
+    final SelectQuery used = context.select(c("b.col")).from("t") //
+        .innerJoin("a").on(c("a.id")).eq(c("b.id")) //
+        .innerJoin("b").on(c("b.id")).eq(c("a.id"));
+
+    assertEquals("SELECT b.col FROM t INNER JOIN a ON (a.id = b.id) "
+        + "INNER JOIN b ON (b.id = a.id)", used.toSql());
+  }
+
+  @Test
+  public void testShouldRemoveLongChainsOfUnusedJoins() throws QueryException {
+    final SelectQuery query = context.select(c("t0.col")).from("t0");
+    for (int i = 1; i <= 2000; i++)
+      query.leftOuterJoin("t" + i).on(c("t" + i + ".id")).eq(
+          c("t" + (i - 1) + ".id"));
+
+    assertEquals("SELECT t0.col FROM t0", query.toSql());
+  }
+
+  @Test
+  public void testShouldReferenceJoinsByAlias() throws QueryException {
+    final SelectQuery query = context.select(c("o.amount")).from("orders o") //
+        .innerJoin("customer c").on(c("c.id")).eq(c("o.customer_id")) //
+        .leftOuterJoin("coupon AS k").on(c("k.id")).eq(c("o.coupon_id")) //
+        .orderBy("c.name");
+
+    assertEquals("SELECT o.amount FROM orders o "
+        + "INNER JOIN customer c ON (c.id = o.customer_id) ORDER BY c.name",
+        query.toSql());
+  }
+
+  @Test
+  public void testShouldKeepJoinsUsedInFunctions() throws QueryException {
+    final SelectQuery query = context.select(new SQLFunc("count", c("c.id")))
+        .from("orders o") //
+        .innerJoin("customer c").on(c("c.id")).eq(c("o.customer_id"));
+
+    assertEquals("SELECT count(c.id) FROM orders o "
+        + "INNER JOIN customer c ON (c.id = o.customer_id)", query.toSql());
+  }
+
+  @Test
+  public void testShouldRemoveJoinsProvedUnnecessaryByMetadata()
+      throws QueryException {
+    final SelectQuery query = metadataContext.select(c("o.amount")).from(
+        "orders o") //
+        .innerJoin("customer c").on(c("c.id")).eq(c("o.customer_id")) //
+        .leftOuterJoin("coupon k").on(c("k.id")).eq(c("o.coupon_id"));
+
+    assertEquals("SELECT o.amount FROM orders o", query.toSql());
+  }
+
+  @Test
+  public void testShouldKeepJoinsWhichMayChangeTheResult()
+      throws QueryException {
+    // the coupon is nullable: an inner join removes the orders without coupon
+    final SelectQuery nullableForeignKey = metadataContext
+        .select(c("o.amount")).from("orders o") //
+        .innerJoin("coupon k").on(c("k.id")).eq(c("o.coupon_id"));
+    assertEquals("SELECT o.amount FROM orders o "
+        + "INNER JOIN coupon k ON (k.id = o.coupon_id)", nullableForeignKey
+        .toSql());
+
+    // customer.name is not unique: the join may duplicate the orders
+    final SelectQuery notUnique = metadataContext.select(c("o.amount")).from(
+        "orders o") //
+        .leftOuterJoin("customer c").on(c("c.name")).eq(c("o.customer_id"));
+    assertEquals("SELECT o.amount FROM orders o "
+        + "LEFT OUTER JOIN customer c ON (c.name = o.customer_id)", notUnique
+        .toSql());
+
+    // unknown table
+    final SelectQuery unknown = metadataContext.select(c("o.amount")).from(
+        "orders o") //
+        .leftOuterJoin("invoice i").on(c("i.id")).eq(c("o.id"));
+    assertEquals("SELECT o.amount FROM orders o "
+        + "LEFT OUTER JOIN invoice i ON (i.id = o.id)", unknown.toSql());
+  }
+
+  @Test
+  public void testShouldKeepJoinsRequiredBySubclasses() throws QueryException {
+    final QueryContext keepingCustomer = QueryContext.getInitial()
+        .withVisitor(new QueryVisitorFactory() {
+          public QueryVisitor newVisitor() {
+            return new BasicQueryOptimizer() {
+              @Override
+              protected boolean isJoinNecessary(final String table) {
+                return "c".equals(table) || super.isJoinNecessary(table);
+              }
+            };
+          }
+        });
+    final SelectQuery query = keepingCustomer.select(c("o.amount")).from(
+        "orders o") //
+        .innerJoin("customer c").on(c("c.id")).eq(c("o.customer_id")) //
+        .leftOuterJoin("coupon k").on(c("k.id")).eq(c("o.coupon_id"));
+
+    assertEquals("SELECT o.amount FROM orders o "
+        + "INNER JOIN customer c ON (c.id = o.customer_id)", query.toSql());
+  }
+
+  @Test
+  public void testShouldResolveUnqualifiedColumnsWithMetadata()
+      throws QueryException {
+    final SelectQuery query = metadataContext.select(c("label")).from(
+        "orders o") //
+        .innerJoin("customer c").on(c("c.id")).eq(c("o.customer_id")) //
+        .leftOuterJoin("coupon k").on(c("k.id")).eq(c("o.coupon_id"));
+
+    assertEquals("SELECT label FROM orders o "
+        + "LEFT OUTER JOIN coupon k ON (k.id = o.coupon_id)", query.toSql());
+  }
+
+  @Test
+  public void testShouldLoadMetadataFromDatabase() throws SQLException,
+      QueryException {
+    final JdbcDataSource dataSource = new JdbcDataSource();
+    dataSource.setURL("jdbc:h2:mem:joinElimination");
+    final Connection connection = dataSource.getConnection();
+    try {
+      final Statement statement = connection.createStatement();
+      statement.execute("CREATE TABLE customer (id INT PRIMARY KEY, "
+          + "email VARCHAR(50) UNIQUE, name VARCHAR(50))");
+      statement.execute("CREATE TABLE orders (id INT PRIMARY KEY, "
+          + "customer_id INT NOT NULL REFERENCES customer(id), "
+          + "amount INT)");
+      statement.close();
+
+      final SchemaMetadata loaded = SchemaMetadata.load(connection
+          .getMetaData(), null, null);
+
+      assertTrue(loaded.hasColumn("orders", "amount"));
+      assertTrue(loaded.isNotNull("ORDERS", "customer_id"));
+      assertFalse(loaded.isNotNull("orders", "amount"));
+      assertTrue(loaded.containsUniqueKey("customer", new HashSet<String>(
+          Arrays.asList("email"))));
+      assertFalse(loaded.containsUniqueKey("customer", new HashSet<String>(
+          Arrays.asList("name"))));
+      assertTrue(loaded.isForeignKey("orders", Collections.singletonMap(
+          "customer_id", "id"), "customer"));
+
+      final SelectQuery query = QueryContext.getInitial().withVisitor(
+          BasicQueryOptimizer.factory(loaded)).select(c("o.amount")).from(
+          "orders o") //
+          .innerJoin("customer c").on(c("c.id")).eq(c("o.customer_id"));
+      assertEquals("SELECT o.amount FROM orders o", query.toSql());
+    } finally {
+      connection.close();
+    }
+  }
+
+  @Test
+  public void testShouldKeepSameNamedTablesOfSeveralSchemas()
+      throws SQLException {
+    final JdbcDataSource dataSource = new JdbcDataSource();
+    dataSource.setURL("jdbc:h2:mem:joinEliminationSchemas");
+    final Connection connection = dataSource.getConnection();
+    try {
+      final Statement statement = connection.createStatement();
+      statement.execute("CREATE SCHEMA archive");
+      statement.execute("CREATE TABLE customer (id INT PRIMARY KEY)");
+      statement.execute("CREATE TABLE archive.customer (id INT, "
+          + "archived_at DATE NOT NULL)");
+      statement.close();
+
+      final SchemaMetadata loaded = SchemaMetadata.load(connection
+          .getMetaData(), null, null);
+
+      assertTrue(loaded.containsUniqueKey("public.customer", Collections
+          .singleton("id")));
+      assertFalse(loaded.containsUniqueKey("archive.customer", Collections
+          .singleton("id")));
+      assertTrue(loaded.isNotNull("ARCHIVE.CUSTOMER", "archived_at"));
+      assertFalse(loaded.hasColumn("public.customer", "archived_at"));
+      // ambiguous without schema
+      assertFalse(loaded.isKnownTable("customer"));
+    } finally {
+      connection.close();
+    }
+  }
+}
@@ -0,0 +1,235 @@
+/**
+ * Copyright (C) 2010 David Rousselie <drousselie@octo.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.octo.java.sql;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.List;
+
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.Test;
+
+import com.octo.java.sql.exec.QueryExecutor;
+import com.octo.java.sql.query.InsertQuery;
+import com.octo.java.sql.query.QueryContext;
+import com.octo.java.sql.query.QueryException;
+import com.octo.java.sql.query.QueryGrammarException;
+import com.octo.java.sql.query.cache.SQLTemplateCache;
+import com.octo.java.sql.query.visitor.OracleQueryBuilder;
+import com.octo.java.sql.query.visitor.ParameterStyle;
+import com.octo.java.sql.query.visitor.PostgreSQLQueryBuilder;
+import com.octo.java.sql.query.visitor.SQLServerQueryBuilder;
+
+public class MultiRowInsertTest {
+  private final QueryContext context = QueryContext.getInitial();
+
+  private static InsertQuery insertRows(final QueryContext context,
+      final int rowCount, final String... columns) throws QueryException {
+    final InsertQuery query = context.insertInto("client").columns(columns);
+    for (int i = 0; i < rowCount; i++) {
+      final Object[] row = new Object[columns.length];
+      for (int j = 0; j < columns.length; j++)
+        row[j] = i * columns.length + j;
+      query.row(row);
+    }
+    return query;
+  }
+
+  @Test
+  public void testShouldBuildMultiRowValues() throws QueryException {
+    final InsertQuery query = context.insertInto("client") //
+        .columns("id", "name") //
+        .row(1, "a") //
+        .row(2, "b");
+
+    assertEquals("INSERT INTO client (id, name) VALUES (:id1, :name2), "
+        + "(:id3, :name4)", query.toSql());
+    assertEquals(Arrays.<Object> asList(1, "a", 2, "b"), query
+        .getParamValues());
+  }
+
+  @Test
+  public void testShouldBuildOracleInsertAll() throws QueryException {
+    final InsertQuery query = context.withQueryBuilder(
+        OracleQueryBuilder.class).insertInto("client") //
+        .columns("id", "name") //
+        .row(1, "a") //
+        .row(2, "b");
+
+    assertEquals("INSERT ALL INTO client (id, name) VALUES (:id1, :name2) "
+        + "INTO client (id, name) VALUES (:id3, :name4) SELECT * FROM dual",
+        query.toSql());
+  }
+
+  @Test(expected = QueryGrammarException.class)
+  public void testShouldRejectRowOfWrongSize() throws QueryException {
+    context.insertInto("client").columns("id", "name").row(1);
+  }
+
+  @Test(expected = QueryGrammarException.class)
+  public void testShouldRejectRowWithoutColumns() throws QueryException {
+    context.insertInto("client").row(1);
+  }
+
+  @Test(expected = QueryGrammarException.class)
+  public void testShouldNotMixSetAndColumns() throws QueryException {
+    context.insertInto("client").set("id", 1).columns("id");
+  }
+
+  @Test(expected = QueryGrammarException.class)
+  public void testShouldNotRenderInsertWithoutRow() throws QueryException {
+    context.insertInto("client").columns("id").toSql();
+  }
+
+  @Test
+  public void testShouldNotSplitWithoutDialectLimits() throws QueryException {
+    final InsertQuery query = insertRows(context, 5000, "id", "name");
+    final List<InsertQuery> chunks = query.chunks();
+
+    assertEquals(1, chunks.size());
+    assertSame(query, chunks.get(0));
+  }
+
+  @Test
+  public void testShouldSplitOnSQLServerParameterLimit()
+      throws QueryException {
+    final List<InsertQuery> chunks = insertRows(
+        context.withQueryBuilder(SQLServerQueryBuilder.class), 2000, "a",
+        "b", "c").chunks();
+
+    assertEquals(3, chunks.size());
+    assertEquals(699, chunks.get(0).getRows().size());
+    assertEquals(699, chunks.get(1).getRows().size());
+    assertEquals(602, chunks.get(2).getRows().size());
+    assertEquals(Integer.valueOf(2097), chunks.get(1).getRows().get(0)[0]);
+  }
+
+  @Test
+  public void testShouldSplitOnSQLServerRowLimit() throws QueryException {
+    final List<InsertQuery> chunks = insertRows(
+        context.withQueryBuilder(SQLServerQueryBuilder.class), 1500, "id")
+        .chunks();
+
+    assertEquals(2, chunks.size());
+    assertEquals(1000, chunks.get(0).getRows().size());
+  }
+
+  @Test
+  public void testShouldSplitOnPostgreSQLAndOracleLimits()
+      throws QueryException {
+    assertEquals(2, insertRows(
+        context.withQueryBuilder(PostgreSQLQueryBuilder.class), 40000, "a",
+        "b").chunks().size());
+    assertEquals(3, insertRows(
+        context.withQueryBuilder(OracleQueryBuilder.class), 2001, "id")
+        .chunks().size());
+  }
+
+  @Test
+  public void testShouldSplitOnOracleColumnLimit() throws QueryException {
+    final List<InsertQuery> chunks = insertRows(
+        context.withQueryBuilder(OracleQueryBuilder.class), 1000, "a", "b",
+        "c").chunks();
+
+    assertEquals(4, chunks.size());
+    assertEquals(333, chunks.get(0).getRows().size());
+    assertEquals(1, chunks.get(3).getRows().size());
+  }
+
+  @Test
+  public void testShouldShareTemplateBetweenFullChunks() throws QueryException {
+    final SQLTemplateCache cache = new SQLTemplateCache();
+    final List<InsertQuery> chunks = insertRows(
+        context.withQueryBuilder(OracleQueryBuilder.class).withTemplateCache(
+            cache), 3500, "id").chunks();
+    for (final InsertQuery chunk : chunks)
+      chunk.toSql();
+
+    assertEquals(2, cache.size());
+    assertEquals(2, cache.getHitCount());
+    assertEquals(Integer.valueOf(2997), chunks.get(3).getParamValues().get(0));
+  }
+
+  @Test
+  public void testShouldInsertChunksWithH2() throws QueryException,
+      SQLException {
+    final Connection connection = DriverManager
+        .getConnection("jdbc:h2:mem:multiRowInsert");
+    try {
+      final Statement statement = connection.createStatement();
+      statement.execute("CREATE TABLE client (a INT, b INT, c INT)");
+
+      final List<InsertQuery> chunks = insertRows(
+          context.withQueryBuilder(SQLServerQueryBuilder.class)
+              .withParameterStyle(ParameterStyle.POSITIONAL), 1234, "a", "b",
+          "c").chunks();
+      for (final InsertQuery chunk : chunks) {
+        final PreparedStatement insert = connection.prepareStatement(chunk
+            .toSql());
+        final List<Object> values = chunk.getParamValues();
+        for (int i = 0; i < values.size(); i++)
+          insert.setObject(i + 1, values.get(i));
+        insert.executeUpdate();
+        insert.close();
+      }
+
+      final ResultSet resultSet = statement
+          .executeQuery("SELECT COUNT(*), SUM(c) FROM client");
+      resultSet.next();
+      assertEquals(1234, resultSet.getInt(1));
+      assertEquals(3 * 1234 * 1233 / 2 + 2 * 1234, resultSet.getLong(2));
+      statement.close();
+    } finally {
+      connection.close();
+    }
+  }
+
+  @Test
+  public void testShouldExecuteChunksWithExecutor() throws QueryException,
+      SQLException {
+    final JdbcDataSource dataSource = new JdbcDataSource();
+    dataSource.setURL("jdbc:h2:mem:multiRowInsertExecutor");
+    final Connection keepAlive = dataSource.getConnection();
+    try {
+      final Statement statement = keepAlive.createStatement();
+      statement.execute("CREATE TABLE client (a INT, b INT, c INT)");
+
+      final QueryExecutor executor = new QueryExecutor(dataSource);
+      assertEquals(1234, executor.executeUpdate(insertRows(context
+          .withQueryBuilder(SQLServerQueryBuilder.class), 1234, "a", "b",
+          "c")));
+      // one statement of 699 rows, executed once, and one of 535 rows
+      assertEquals(2, executor.getStatementCacheStatistics()
+          .getUncachedPrepareCount());
+      final ResultSet count = statement
+          .executeQuery("SELECT COUNT(*) FROM client");
+      count.next();
+      assertEquals(1234, count.getInt(1));
+      statement.close();
+    } finally {
+      keepAlive.close();
+    }
+  }
+}
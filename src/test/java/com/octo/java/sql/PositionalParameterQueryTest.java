@@ -0,0 +1,104 @@
+/**
+ * Copyright (C) 2010 David Rousselie <drousselie@octo.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.octo.java.sql;
+
+import static com.octo.java.sql.query.Query.c;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import com.octo.java.sql.query.CompiledQuery;
+import com.octo.java.sql.query.QueryContext;
+import com.octo.java.sql.query.QueryException;
+import com.octo.java.sql.query.SelectQuery;
+import com.octo.java.sql.query.cache.SQLTemplateCache;
+import com.octo.java.sql.query.visitor.ParameterStyle;
+import com.octo.java.sql.query.visitor.OracleQueryBuilder;
+
+public class PositionalParameterQueryTest {
+  private final QueryContext context = QueryContext.getInitial()
+      .withParameterStyle(ParameterStyle.POSITIONAL);
+
+  @Test
+  public void testShouldRenderJdbcPlaceholders() throws QueryException {
+    final SelectQuery query = context.select("*").from("table") //
+        .where(c("column")).eq("value") //
+        .and(c("id")).in(1, 2) //
+        .limit(10L);
+
+    assertEquals(
+        "SELECT * FROM table WHERE ((column = ?) AND (id IN (?,?))) LIMIT ?",
+        query.toSql());
+    assertEquals(Arrays.<Object> asList("value", 1, 2, 10L), query
+        .getParamValues());
+    assertEquals(0, query.getParams().size());
+  }
+
+  @Test
+  public void testShouldRenderOracleLimitWithJdbcPlaceholder()
+      throws QueryException {
+    final SelectQuery query = context.withQueryBuilder(
+        OracleQueryBuilder.class).select("*").from("table") //
+        .where(c("column")).eq("value").limit(10L);
+
+    assertEquals(
+        "SELECT * FROM (SELECT * FROM table WHERE (column = ?)) WHERE (rownum<=?)",
+        query.toSql());
+    assertEquals(Arrays.<Object> asList("value", 10L), query.getParamValues());
+  }
+
+  @Test
+  public void testShouldGiveOrderedValuesWithNamedParameters()
+      throws QueryException {
+    final SelectQuery query = QueryContext.getInitial().select("*").from(
+        "table").where(c("column")).eq("value").and(c("id")).eq(42);
+
+    assertEquals(
+        "SELECT * FROM table WHERE ((column = :column1) AND (id = :id2))",
+        query.toSql());
+    assertEquals(Arrays.<Object> asList("value", 42), query.getParamValues());
+  }
+
+  @Test
+  public void testShouldCollectValuesFromCachedTemplate()
+      throws QueryException {
+    final SQLTemplateCache cache = new SQLTemplateCache();
+    final QueryContext cachedContext = context.withTemplateCache(cache);
+    cachedContext.select("*").from("table").where(c("id")).eq(1).toSql();
+    final SelectQuery query = cachedContext.select("*").from("table") //
+        .where(c("id")).eq(2);
+
+    assertEquals("SELECT * FROM table WHERE (id = ?)", query.toSql());
+    assertEquals(1, cache.getHitCount());
+    assertEquals(Arrays.<Object> asList(2), query.getParamValues());
+  }
+
+  @Test
+  public void testShouldCompileWithPositionalParameters()
+      throws QueryException {
+    final CompiledQuery compiled = context.select("*").from("table") //
+        .where(c("id")).eq(0).compile();
+
+    assertEquals("SELECT * FROM table WHERE (id = ?)", compiled.getSql());
+    assertEquals(ParameterStyle.POSITIONAL, compiled.getParameterStyle());
+    assertEquals(1, compiled.getParameterCount());
+    assertNull(compiled.getParameterName(0));
+  }
+}
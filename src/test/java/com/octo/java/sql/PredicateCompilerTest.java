@@ -0,0 +1,193 @@
+/**
+ * Copyright (C) 2010 David Rousselie <drousselie@octo.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.octo.java.sql;
+
+import static com.octo.java.sql.query.Query.c;
+import static com.octo.java.sql.query.Query.select;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.collections.CollectionUtils;
+import org.apache.commons.collections.Predicate;
+import org.junit.Test;
+
+import com.octo.java.sql.exp.OpExp;
+import com.octo.java.sql.exp.Operator;
+import com.octo.java.sql.query.QueryException;
+import com.octo.java.sql.query.QueryGrammarException;
+import com.octo.java.sql.query.SelectQuery;
+import com.octo.java.sql.query.predicate.PredicateCompiler;
+import com.octo.java.sql.query.predicate.RowAccessor;
+
+public class PredicateCompilerTest {
+  private final PredicateCompiler mapCompiler = new PredicateCompiler(
+      RowAccessor.MAP);
+
+  public static class Client {
+    private final long id;
+    private final String lastName;
+
+    public Client(final long id, final String lastName) {
+      this.id = id;
+      this.lastName = lastName;
+    }
+
+    public long getId() {
+      return id;
+    }
+
+    public String getLastName() {
+      return lastName;
+    }
+  }
+
+  private static Map<String, Object> row(final Object id, final String name) {
+    final Map<String, Object> row = new HashMap<String, Object>();
+    row.put("id", id);
+    row.put("name", name);
+    return row;
+  }
+
+  private final List<Map<String, Object>> rows = Arrays.asList(row(1, "Ann"),
+      row(2L, "Bob"), row(3, null), row(new BigDecimal("4.0"), "Bea"));
+
+  @SuppressWarnings("unchecked")
+  private List<Object> selectIds(final SelectQuery query)
+      throws QueryException {
+    final Collection<Map<String, Object>> matching = CollectionUtils.select(
+        rows, mapCompiler.compile(query));
+    final List<Object> ids = new ArrayList<Object>();
+    for (final Map<String, Object> row : matching)
+      ids.add(row.get("id"));
+    return ids;
+  }
+
+  @Test
+  public void testShouldCompareNumbersByValue() throws QueryException {
+    assertEquals(Arrays.<Object> asList(2L), selectIds(select("*").from(
+        "client").where(c("id")).eq(2)));
+    assertEquals(Arrays.<Object> asList(3, new BigDecimal("4.0")),
+        selectIds(select("*").from("client").where(c("id")).geq(3L)));
+    assertEquals(Arrays.<Object> asList(new BigDecimal("4.0")),
+        selectIds(select("*").from("client").where(c("id")).op(Operator.GT,
+            3.5)));
+    assertEquals(Arrays.<Object> asList(2L, 3), selectIds(select("*").from(
+        "client").where(c("id")).between(2, 3L)));
+  }
+
+  @Test
+  public void testShouldCombineAndOr() throws QueryException {
+    final SelectQuery query = select("*").from("client").where(c("name"))
+        .like("B%").and(c("id")).leq(2L);
+    assertEquals(Arrays.<Object> asList(2L), selectIds(query));
+
+    final SelectQuery orQuery = select("*").from("client").where(
+        new OpExp(c("id"), Operator.EQ, 1).or(new OpExp(c("name"),
+            Operator.EQ, "Bea")));
+    assertEquals(Arrays.<Object> asList(1, new BigDecimal("4.0")),
+        selectIds(orQuery));
+  }
+
+  @Test
+  public void testShouldLookUpInSet() throws QueryException {
+    assertEquals(Arrays.<Object> asList(1, new BigDecimal("4.0")),
+        selectIds(select("*").from("client").where(c("id")).in(4, 1L, 9)));
+    assertEquals(Arrays.<Object> asList(2L, 3), selectIds(select("*").from(
+        "client").where(c("id")).notIn(4, 1L)));
+  }
+
+  @Test
+  public void testShouldMatchLikePatterns() throws QueryException {
+    assertEquals(Arrays.<Object> asList(2L, new BigDecimal("4.0")),
+        selectIds(select("*").from("client").where(c("name")).startWith("B")));
+    assertEquals(Arrays.<Object> asList(1), selectIds(select("*").from(
+        "client").where(c("name")).like("A_n")));
+    assertEquals(Arrays.<Object> asList(), selectIds(select("*").from(
+        "client").where(c("name")).like("A.n")));
+    assertEquals(Arrays.<Object> asList(2L), selectIds(select("*").from(
+        "client").where(c("name")).contains("o")));
+  }
+
+  @Test
+  public void testShouldSkipNullValuesLikeOptimizer() throws QueryException {
+    assertEquals(4, selectIds(select("*").from("client").where(c("name")).eq(
+        null)).size());
+    assertEquals(4, selectIds(select("*").from("client").where(c("name"))
+        .startWith(null)).size());
+    assertEquals(4, selectIds(select("*").from("client").where(c("id")).in(1,
+        null)).size());
+    assertEquals(Arrays.<Object> asList(1), selectIds(select("*").from(
+        "client").where(c("name")).eq(null).and(c("id")).eq(1)));
+    assertEquals(4, selectIds(select("*").from("client")).size());
+  }
+
+  @Test
+  public void testShouldMatchNullExplicitly() throws QueryException {
+    assertEquals(Arrays.<Object> asList(3), selectIds(select("*").from(
+        "client").where(c("name")).isNull()));
+    assertEquals(Arrays.<Object> asList(3), selectIds(select("*").from(
+        "client").where(c("name")).eqOrIsNull(null)));
+    assertEquals(3, selectIds(select("*").from("client").where(c("name"))
+        .isNotNull()).size());
+    assertEquals(2, selectIds(select("*").from("client").where(c("name"))
+        .neq("Ann")).size());
+  }
+
+  @Test
+  public void testShouldReadBeansAndArrays() throws QueryException {
+    final Predicate beanPredicate = new PredicateCompiler(RowAccessor
+        .bean(Client.class)).compile(select("*").from("client c").where(
+        c("c.last_name")).eq("Doe").and(c("id")).in(1, 2));
+    assertTrue(beanPredicate.evaluate(new Client(1, "Doe")));
+    assertFalse(beanPredicate.evaluate(new Client(3, "Doe")));
+    assertFalse(beanPredicate.evaluate(new Client(1, "Smith")));
+
+    final Predicate arrayPredicate = new PredicateCompiler(RowAccessor.array(
+        "ID", "NAME")).compile(select("*").from("client").where(c("name"))
+        .eq(c("id")));
+    assertTrue(arrayPredicate.evaluate(new Object[] { "x", "x" }));
+    assertFalse(arrayPredicate.evaluate(new Object[] { "x", "y" }));
+  }
+
+  @Test
+  public void testShouldRejectWhatCannotBeEvaluated() {
+    try {
+      mapCompiler.compile(select("*").from("client").where(c("id")).in(
+          select(c("id")).from("other")));
+      fail();
+    } catch (final QueryException e) {
+      assertTrue(e instanceof QueryGrammarException);
+    }
+    try {
+      new PredicateCompiler(RowAccessor.array("id")).compile(select("*").from(
+          "client").where(c("name")).eq("Ann"));
+      fail();
+    } catch (final QueryException e) {
+      assertFalse(e instanceof QueryGrammarException);
+    }
+  }
+}
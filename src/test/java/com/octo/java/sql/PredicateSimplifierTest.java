@@ -0,0 +1,256 @@
+/**
+ * Copyright (C) 2010 David Rousselie <drousselie@octo.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.octo.java.sql;
+
+import static com.octo.java.sql.query.Query.c;
+import static com.octo.java.sql.query.Query.e;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.Test;
+
+import com.octo.java.sql.exec.QueryExecutor;
+import com.octo.java.sql.exec.RowMapper;
+import com.octo.java.sql.exp.FalseExp;
+import com.octo.java.sql.query.BasicQueryOptimizer;
+import com.octo.java.sql.query.PredicateSimplifier;
+import com.octo.java.sql.query.QueryContext;
+import com.octo.java.sql.query.QueryException;
+import com.octo.java.sql.query.SelectQuery;
+import com.octo.java.sql.query.UpdateQuery;
+import com.octo.java.sql.query.predicate.PredicateCompiler;
+import com.octo.java.sql.query.predicate.RowAccessor;
+
+public class PredicateSimplifierTest {
+  private final QueryContext context = QueryContext.getInitial().withVisitor(
+      PredicateSimplifier.FACTORY);
+
+  @Test
+  public void testShouldMergeOrEqualitiesIntoIn() throws QueryException {
+    final SelectQuery query = context.select("*").from("table").where(
+        e(c("col")).eq(1).or(c("col")).eq(2).or(c("col")).in(2, 3));
+
+    assertEquals("SELECT * FROM table WHERE (col IN (:col1,:col2,:col3))",
+        query.toSql());
+    assertEquals(Arrays.<Object> asList(1, 2, 3), query.getParamValues());
+    assertFalse(query.isNeverMatching());
+  }
+
+  @Test
+  public void testShouldKeepOtherOrClauses() throws QueryException {
+    final SelectQuery query = context.select("*").from("table").where(
+        e(c("col")).eq(1).or(c("other")).eq("x").or(c("col")).eq(2));
+
+    assertEquals("SELECT * FROM table WHERE ((col IN (:col1,:col2)) "
+        + "OR (other = :other3))", query.toSql());
+  }
+
+  @Test
+  public void testShouldIntersectAndEqualities() throws QueryException {
+    final SelectQuery query = context.select("*").from("table") //
+        .where(c("col")).in(1, 2, 3) //
+        .and(c("other")).eq("x") //
+        .and(c("col")).in(3, 2, 5);
+
+    assertEquals("SELECT * FROM table WHERE ((col IN (:col1,:col2)) "
+        + "AND (other = :other3))", query.toSql());
+    assertFalse(query.isNeverMatching());
+  }
+
+  @Test
+  public void testShouldRemoveDuplicates() throws QueryException {
+    final SelectQuery query = context.select("*").from("table") //
+        .where(c("col")).geq(1L) //
+        .and(c("other")).like("a%") //
+        .and(c("col")).geq(1L) //
+        .and(c("other")).in(4, 4, 5);
+
+    assertEquals("SELECT * FROM table WHERE ((col >= :col1) AND "
+        + "(other LIKE :other2) AND (other IN (:other3,:other4)))", query
+        .toSql());
+  }
+
+  @Test
+  public void testShouldFlagContradictions() throws QueryException {
+    final SelectQuery query = context.select("*").from("table") //
+        .where(c("col")).eq(1) //
+        .and(c("other")).eq("x") //
+        .and(c("col")).eq(2);
+
+    assertEquals("SELECT * FROM table WHERE ((col = :col1) AND "
+        + "(other = :other2) AND (col = :col3))", query.toSql());
+    assertTrue(query.isNeverMatching());
+
+    query.where(c("col")).eq(1);
+    query.toSql();
+    assertFalse(query.isNeverMatching());
+  }
+
+  @Test
+  public void testShouldResetTheFlagWhenRenderedWithoutVisitors()
+      throws QueryException {
+    final SelectQuery query = context.select("*").from("table") //
+        .where(c("col")).eq(1) //
+        .and(c("col")).eq(2);
+    query.toSql();
+    assertTrue(query.isNeverMatching());
+
+    query.toSql(QueryContext.getInitial());
+    assertFalse(query.isNeverMatching());
+  }
+
+  @Test
+  public void testShouldCompareNumbersByValue() throws QueryException {
+    final SelectQuery sameValue = context.select("*").from("table") //
+        .where(c("id")).eq(1).and(c("id")).eq(1L) //
+        .and(c("price")).eq(new BigDecimal("1.0")) //
+        .and(c("price")).eq(new BigDecimal("1.00"));
+    assertEquals("SELECT * FROM table WHERE ((id = :id1) "
+        + "AND (price = :price2))", sameValue.toSql());
+    assertFalse(sameValue.isNeverMatching());
+
+    final SelectQuery otherValue = context.select("*").from("table") //
+        .where(c("id")).eq(1).and(c("id")).eq(2L);
+    otherValue.toSql();
+    assertTrue(otherValue.isNeverMatching());
+  }
+
+  @Test
+  public void testShouldKeepEqualitiesNotComparedExactly()
+      throws QueryException {
+    final SelectQuery query = context.select("*").from("table") //
+        .where(c("id")).in(1, 2).and(c("id")).eq(2.0) //
+        .and(c("name")).eq("x").and(c("name")).eq('y');
+
+    assertEquals("SELECT * FROM table WHERE ((id IN (:id1,:id2)) "
+        + "AND (id = :id3) AND (name = :name4) AND (name = :name5))", query
+        .toSql());
+    assertFalse(query.isNeverMatching());
+  }
+
+  @Test
+  public void testShouldFoldEmptyIn() throws QueryException {
+    final SelectQuery query = context.select("*").from("table").where(
+        c("col")).in();
+    assertEquals("SELECT * FROM table WHERE (1 = 0)", query.toSql());
+    assertTrue(query.isNeverMatching());
+
+    final SelectQuery orQuery = context.select("*").from("table").where(
+        e(c("col")).in().or(c("other")).eq(1));
+    assertEquals("SELECT * FROM table WHERE (other = :other1)", orQuery
+        .toSql());
+    assertFalse(orQuery.isNeverMatching());
+
+    final SelectQuery optimized = QueryContext.getInitial().withVisitor(
+        BasicQueryOptimizer.FACTORY).withVisitor(PredicateSimplifier.FACTORY)
+        .select("*").from("table").where(c("col")).in();
+    assertEquals("SELECT * FROM table", optimized.toSql());
+    assertFalse(optimized.isNeverMatching());
+  }
+
+  @Test
+  public void testShouldNotFlagSubQueriesAndUnions() throws QueryException {
+    final SelectQuery query = context.select("*").from("table").where(
+        c("col")).in(context.select(c("id")).from("other").where(c("id"))
+        .in());
+    query.toSql();
+    assertFalse(query.isNeverMatching());
+
+    final SelectQuery union = context.select(c("id")).from("table").where(
+        c("id")).in().union(context.select(c("id")).from("other"));
+    union.toSql();
+    assertFalse(union.isNeverMatching());
+  }
+
+  @Test
+  public void testShouldCompileTheFoldedEmptyIn() throws QueryException {
+    final SelectQuery optimized = context.select("*").from("table").where(
+        c("col")).in().optimize();
+    assertTrue(optimized.getWhereClause() instanceof FalseExp);
+    assertFalse(new PredicateCompiler(RowAccessor.MAP).compile(optimized)
+        .evaluate(Collections.singletonMap("col", 1)));
+  }
+
+  @Test
+  public void testShouldNotCompareStrings() throws QueryException {
+    // equal in a case insensitive collation
+    final SelectQuery query = context.select("*").from("table") //
+        .where(c("name")).eq("a").and(c("name")).eq("A");
+    query.toSql();
+    assertFalse(query.isNeverMatching());
+  }
+
+  @Test
+  public void testShouldNotFlagAggregates() throws QueryException {
+    final SelectQuery count = context.select(context.f("count", c("id")))
+        .from("table").where(c("id")).eq(1).and(c("id")).eq(2);
+    assertEquals("SELECT count(id) FROM table WHERE ((id = :id1) "
+        + "AND (id = :id2))", count.toSql());
+    assertFalse(count.isNeverMatching());
+
+    final SelectQuery rawCount = context.select(c("count(*)")).from("table")
+        .where(c("id")).in();
+    rawCount.toSql();
+    assertFalse(rawCount.isNeverMatching());
+  }
+
+  @Test
+  public void testShouldNotExecuteNeverMatchingQueries() throws SQLException,
+      QueryException {
+    final JdbcDataSource dataSource = new JdbcDataSource();
+    dataSource.setURL("jdbc:h2:mem:predicateSimplifier");
+    final Connection connection = dataSource.getConnection();
+    try {
+      final Statement statement = connection.createStatement();
+      statement.execute("CREATE TABLE client (id INT, name VARCHAR(10))");
+      statement.execute("INSERT INTO client VALUES (1, 'a')");
+      statement.close();
+
+      final QueryExecutor executor = new QueryExecutor(dataSource);
+      final RowMapper<Integer> idMapper = new RowMapper<Integer>() {
+        public Integer mapRow(final ResultSet resultSet, final int rowNum)
+            throws SQLException {
+          return resultSet.getInt("id");
+        }
+      };
+      assertEquals(0, executor.query(
+          context.select(c("id")).from("client").where(c("id")).eq(1).and(
+              c("id")).eq(2), idMapper).size());
+      final UpdateQuery update = context.update("client").set(c("name"), "b")
+          .where(c("id")).in();
+      assertEquals(0, executor.executeUpdate(update));
+      assertEquals(0, executor.getStatementCacheStatistics()
+          .getUncachedPrepareCount());
+      assertEquals(Arrays.asList(1), executor.query(context.select(c("id"))
+          .from("client").where(c("id")).in(1, 1), idMapper));
+      assertEquals(Arrays.asList(0), executor.query(context.select(
+          c("count(*) AS id")).from("client").where(c("id")).in(), idMapper));
+    } finally {
+      connection.close();
+    }
+  }
+}
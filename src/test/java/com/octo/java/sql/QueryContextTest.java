@@ -0,0 +1,121 @@
+/**
+ * Copyright (C) 2010 David Rousselie <drousselie@octo.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.octo.java.sql;
+
+import static com.octo.java.sql.query.Query.c;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+
+import com.octo.java.sql.exp.JavaSQLFunc;
+import com.octo.java.sql.query.BasicQueryOptimizer;
+import com.octo.java.sql.query.QueryContext;
+import com.octo.java.sql.query.QueryException;
+import com.octo.java.sql.query.SelectQuery;
+import com.octo.java.sql.query.visitor.OracleQueryBuilder;
+
+public class QueryContextTest {
+  private final QueryContext defaultContext = QueryContext.getInitial();
+  private final QueryContext oracleContext = defaultContext
+      .withQueryBuilder(OracleQueryBuilder.class);
+
+  @Test
+  public void testShouldRenderWithTheDialectOfEachContext()
+      throws QueryException {
+    assertEquals("SELECT * FROM table LIMIT :limit1", defaultContext.select(
+        "*").from("table").limit(10L).toSql());
+    assertEquals(
+        "SELECT * FROM (SELECT * FROM table) WHERE (rownum<=:limit1)",
+        oracleContext.select("*").from("table").limit(10L).toSql());
+  }
+
+  @Test
+  public void testShouldNotModifyContextWhenAddingAVisitor()
+      throws QueryException {
+    final QueryContext optimizedContext = defaultContext
+        .withVisitor(BasicQueryOptimizer.FACTORY);
+
+    assertEquals(0, defaultContext.getVisitorFactories().size());
+    assertEquals("SELECT * FROM table", optimizedContext.select("*").from(
+        "table").where(c("column")).eq(null).toSql());
+  }
+
+  @Test
+  public void testShouldNotAddAVisitorTwice() {
+    final BasicQueryOptimizer optimizer = new BasicQueryOptimizer();
+    final QueryContext context = defaultContext.withVisitor(
+        BasicQueryOptimizer.FACTORY).withVisitor(optimizer);
+
+    assertSame(context, context.withVisitor(BasicQueryOptimizer.FACTORY));
+    assertSame(context, context.withVisitor(optimizer));
+    assertEquals(2, context.getVisitorFactories().size());
+  }
+
+  @Test
+  public void testShouldCreateFunctionsWithContextEvaluators() {
+    final JavaSQLFunc.Evaluable<String> evaluator = new JavaSQLFunc.Evaluable<String>() {
+      public String eval(final Object... params) {
+        return "1";
+      }
+    };
+    final QueryContext context = defaultContext.withFuncEvaluator("myFunc",
+        evaluator);
+
+    assertTrue(context.f("myFunc") instanceof JavaSQLFunc);
+    assertTrue(!(defaultContext.f("myFunc") instanceof JavaSQLFunc));
+  }
+
+  @Test
+  public void testShouldRenderQueriesConcurrently() throws Exception {
+    final QueryContext context = oracleContext
+        .withVisitor(BasicQueryOptimizer.FACTORY);
+    final ExecutorService executor = Executors.newFixedThreadPool(8);
+    try {
+      final List<Future<String>> results = new ArrayList<Future<String>>();
+      for (int i = 0; i < 200; i++) {
+        final boolean withJoin = (i % 2) == 0;
+        results.add(executor.submit(new Callable<String>() {
+          public String call() throws Exception {
+            final SelectQuery query = context.select(
+                c(withJoin ? "t2.col" : "t1.col")).from("t1");
+            query.innerJoin("t2").on(c("t2.id")).eq(c("t1.id"));
+            return query.where(c("t1.col")).eq("value").toSql();
+          }
+        }));
+      }
+      for (int i = 0; i < results.size(); i++)
+        if ((i % 2) == 0)
+          assertEquals(
+              "SELECT t2.col FROM t1 INNER JOIN t2 ON (t2.id = t1.id) WHERE (t1.col = :t1.col1)",
+              results.get(i).get());
+        else
+          assertEquals("SELECT t1.col FROM t1 WHERE (t1.col = :t1.col1)",
+              results.get(i).get());
+    } finally {
+      executor.shutdown();
+    }
+  }
+}
@@ -0,0 +1,126 @@
+/**
+ * Copyright (C) 2010 David Rousselie <drousselie@octo.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.octo.java.sql;
+
+import static com.octo.java.sql.query.Query.c;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+
+import com.octo.java.sql.exec.RenderedQuery;
+import com.octo.java.sql.query.BasicQueryOptimizer;
+import com.octo.java.sql.query.PredicateSimplifier;
+import com.octo.java.sql.query.QueryContext;
+import com.octo.java.sql.query.QueryException;
+import com.octo.java.sql.query.SelectQuery;
+import com.octo.java.sql.query.visitor.ParameterStyle;
+
+public class QueryOptimizeTest {
+  private final QueryContext context = QueryContext.getInitial().withVisitor(
+      new BasicQueryOptimizer()).withVisitor(new PredicateSimplifier());
+
+  private SelectQuery newQuery(final QueryContext queryContext)
+      throws QueryException {
+    return queryContext.select(c("t.col")).from("t") //
+        .leftOuterJoin("u").on(c("u.id")).eq(c("t.id")) //
+        .where(c("t.a")).eq(null).and(c("t.b")).eq(1).and(c("t.b")).eq(1);
+  }
+
+  @Test
+  public void testShouldNotModifyTheRenderedQuery() throws QueryException {
+    final SelectQuery query = newQuery(context);
+
+    assertEquals("SELECT t.col FROM t WHERE (t.b = :t.b1)", query.toSql());
+    assertTrue(query.getJoinClauses().get(0).isValid());
+    assertTrue(query.getWhereClause().isValid());
+    assertEquals("SELECT t.col FROM t LEFT OUTER JOIN u ON (u.id = t.id) "
+        + "WHERE ((t.a IS NULL) AND (t.b = :t.b1) AND (t.b = :t.b2))", query
+        .toSql(QueryContext.getInitial()));
+    assertEquals("SELECT t.col FROM t WHERE (t.b = :t.b1)", query.toSql());
+  }
+
+  @Test
+  public void testShouldReturnAnOptimizedCopy() throws QueryException {
+    final SelectQuery query = newQuery(context);
+    final SelectQuery optimized = query.optimize();
+
+    assertNotSame(query, optimized);
+    assertFalse(optimized.getJoinClauses().get(0).isValid());
+    assertTrue(optimized.getContext().getVisitorFactories().isEmpty());
+    assertEquals("SELECT t.col FROM t WHERE (t.b = :t.b1)", optimized.toSql());
+    assertTrue(query.getJoinClauses().get(0).isValid());
+  }
+
+  @Test
+  public void testShouldNotCopyWithoutVisitors() throws QueryException {
+    final QueryContext withoutVisitors = QueryContext.getInitial();
+    final SelectQuery query = newQuery(withoutVisitors);
+
+    assertSame(query, query.optimize());
+    assertNotSame(query, query.optimize(context));
+    assertNotSame(query, query.optimize(withoutVisitors
+        .withParameterStyle(ParameterStyle.POSITIONAL)));
+    assertEquals("SELECT t.col FROM t LEFT OUTER JOIN u ON (u.id = t.id) "
+        + "WHERE ((t.a IS NULL) AND (t.b = ?) AND (t.b = ?))", RenderedQuery
+        .render(query).getSql());
+  }
+
+  @Test
+  public void testShouldDeriveQueriesFromACopy() throws QueryException {
+    final SelectQuery base = QueryContext.getInitial().select(c("col")).from(
+        "t").where(c("tenant")).eq(1);
+    final SelectQuery derived = base.copy().and(c("name")).eq("a");
+
+    assertEquals("SELECT col FROM t WHERE ((tenant = :tenant1) AND "
+        + "(name = :name2))", derived.toSql());
+    assertEquals("SELECT col FROM t WHERE (tenant = :tenant1)", base.toSql());
+  }
+
+  @Test
+  public void testShouldRenderASharedQueryConcurrently() throws Exception {
+    final SelectQuery query = newQuery(context);
+    final ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      final List<Future<RenderedQuery>> results = new ArrayList<Future<RenderedQuery>>();
+      for (int i = 0; i < 200; i++)
+        results.add(executor.submit(new Callable<RenderedQuery>() {
+          public RenderedQuery call() throws QueryException {
+            return RenderedQuery.render(query);
+          }
+        }));
+      for (final Future<RenderedQuery> result : results) {
+        assertEquals("SELECT t.col FROM t WHERE (t.b = ?)", result.get()
+            .getSql());
+        assertEquals(1, result.get().getValues().get(0));
+      }
+    } finally {
+      executor.shutdown();
+    }
+    assertTrue(query.getJoinClauses().get(0).isValid());
+  }
+}
@@ -0,0 +1,139 @@
+/**
+ * Copyright (C) 2010 David Rousselie <drousselie@octo.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.octo.java.sql;
+
+import static com.octo.java.sql.query.Query.c;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+
+import org.junit.Test;
+
+import com.octo.java.sql.query.QueryContext;
+import com.octo.java.sql.query.QueryException;
+import com.octo.java.sql.query.SelectQuery;
+import com.octo.java.sql.query.visitor.DefaultQueryBuilder;
+import com.octo.java.sql.query.visitor.OracleQueryBuilder;
+
+public class RenderToSinkTest {
+  /**
+   * Builder written before sinks, appending to result directly
+   */
+  public static class ResultQueryBuilder extends DefaultQueryBuilder {
+    @Override
+    protected void buildLimitClause(final SelectQuery query) {
+      result.append(" LIMIT ").append(query.getLimit());
+    }
+  }
+
+  private SelectQuery buildQuery(final QueryContext context)
+      throws QueryException {
+    return context.select(c("name"), c("pr\u00e9nom")).from("client").limit(10L);
+  }
+
+  @Test
+  public void testShouldRenderIntoWriter() throws QueryException {
+    final SelectQuery query = buildQuery(QueryContext.getInitial());
+    final StringWriter writer = new StringWriter();
+    query.renderTo(writer);
+
+    assertEquals("SELECT name,pr\u00e9nom FROM client LIMIT :limit1", writer
+        .toString());
+    assertEquals(10L, query.getParams().get("limit1"));
+  }
+
+  @Test
+  public void testShouldRenderOracleLimitIntoCharBuffer()
+      throws QueryException {
+    final CharBuffer buffer = CharBuffer.allocate(128);
+    buildQuery(QueryContext.getInitial().withQueryBuilder(
+        OracleQueryBuilder.class)).renderTo(buffer);
+    buffer.flip();
+
+    assertEquals(
+        "SELECT * FROM (SELECT name,pr\u00e9nom FROM client) WHERE (rownum<=:limit1)",
+        buffer.toString());
+  }
+
+  @Test
+  public void testShouldRenderInUtf8IntoByteBuffer() throws QueryException,
+      UnsupportedEncodingException {
+    final SelectQuery query = QueryContext.getInitial().select(c("pr\u00e9nom"),
+        c("\u20ac"), c("\ud83d\ude00")).from("client");
+    final ByteBuffer buffer = ByteBuffer.allocate(128);
+    query.renderTo(buffer);
+    buffer.flip();
+    final byte[] bytes = new byte[buffer.remaining()];
+    buffer.get(bytes);
+
+    assertArrayEquals(query.toSql().getBytes("UTF-8"), bytes);
+  }
+
+  @Test(expected = QueryException.class)
+  public void testShouldReportWriterErrors() throws QueryException {
+    final Writer failingWriter = new Writer() {
+      @Override
+      public void write(final char[] cbuf, final int off, final int len)
+          throws IOException {
+        throw new IOException("closed");
+      }
+
+      @Override
+      public void flush() {
+      }
+
+      @Override
+      public void close() {
+      }
+    };
+    buildQuery(QueryContext.getInitial()).renderTo(failingWriter);
+  }
+
+  @Test
+  public void testShouldRejectBuildersWritingIntoResult()
+      throws QueryException {
+    final SelectQuery query = buildQuery(QueryContext.getInitial()
+        .withQueryBuilder(ResultQueryBuilder.class));
+    assertEquals("SELECT name,pr\u00e9nom FROM client LIMIT 10", query
+        .toSql());
+    try {
+      query.renderTo(new StringWriter());
+      fail();
+    } catch (final QueryException e) {
+      // expected
+    }
+  }
+
+  @Test
+  public void testShouldWrapSubQueryWithOracleLimit() throws QueryException {
+    final QueryContext oracle = QueryContext.getInitial().withQueryBuilder(
+        OracleQueryBuilder.class);
+    final SelectQuery query = oracle.select("*").from("client") //
+        .where(c("id")).in(oracle.select(c("id")).from("vip").limit(5L));
+
+    assertEquals(
+        "SELECT * FROM client WHERE (id IN ((SELECT * FROM (SELECT id FROM vip) WHERE (rownum<=:limit1))))",
+        query.toSql());
+  }
+}
@@ -0,0 +1,154 @@
+/**
+ * Copyright (C) 2010 David Rousselie <drousselie@octo.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.octo.java.sql;
+
+import static com.octo.java.sql.query.Query.c;
+import static com.octo.java.sql.query.Query.select;
+import static org.junit.Assert.assertEquals;
+
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.octo.java.sql.query.BasicQueryOptimizer;
+import com.octo.java.sql.query.Query;
+import com.octo.java.sql.query.QueryException;
+import com.octo.java.sql.query.SelectQuery;
+import com.octo.java.sql.query.cache.SQLTemplateCache;
+import com.octo.java.sql.query.visitor.OracleQueryBuilder;
+
+public class SQLTemplateCacheTest {
+  private SQLTemplateCache cache;
+
+  @Before
+  public void setUp() {
+    cache = new SQLTemplateCache(2);
+    Query.setTemplateCache(cache);
+  }
+
+  @After
+  public void tearDown() {
+    Query.setTemplateCache(null);
+    Query.clearVisitors();
+    Query.resetDefaultQueryBuilder();
+  }
+
+  private SelectQuery buildQuery(final String firstname, final String lastname)
+      throws QueryException {
+    return select("*").from("client") //
+        .where(c("firstname")).eq(firstname) //
+        .and(c("lastname")).eq(lastname) //
+        .limit(10L);
+  }
+
+  @Test
+  public void testShouldReuseSQLForQueriesOfTheSameShape()
+      throws QueryException {
+    final SelectQuery query1 = buildQuery("John", "Doe");
+    final SelectQuery query2 = buildQuery("Jane", "Smith");
+
+    final String expected = "SELECT * FROM client WHERE ((firstname = :firstname1) AND (lastname = :lastname2)) LIMIT :limit3";
+    assertEquals(expected, query1.toSql());
+    assertEquals(expected, query2.toSql());
+    assertEquals(1, cache.getMissCount());
+    assertEquals(1, cache.getHitCount());
+
+    final Map<String, Object> params = query2.getParams();
+    assertEquals(3, params.size());
+    assertEquals("Jane", params.get("firstname1"));
+    assertEquals("Smith", params.get("lastname2"));
+    assertEquals(10L, params.get("limit3"));
+  }
+
+  @Test
+  public void testShouldNotReuseSQLWhenOptimizerInvalidatedAClause()
+      throws QueryException {
+    Query.addVisitor(new BasicQueryOptimizer());
+
+    assertEquals(
+        "SELECT * FROM client WHERE ((firstname = :firstname1) AND (lastname = :lastname2)) LIMIT :limit3",
+        buildQuery("John", "Doe").toSql());
+    final SelectQuery query = buildQuery(null, "Doe");
+    assertEquals(
+        "SELECT * FROM client WHERE ((lastname = :lastname1)) LIMIT :limit2",
+        query.toSql());
+    assertEquals(0, cache.getHitCount());
+    assertEquals(2, query.getParams().size());
+    assertEquals("Doe", query.getParams().get("lastname1"));
+  }
+
+  @Test
+  public void testShouldNotReuseSQLForDifferentInListSizes()
+      throws QueryException {
+    final SelectQuery query1 = select("*").from("client") //
+        .where(c("id")).in(1, 2);
+    final SelectQuery query2 = select("*").from("client") //
+        .where(c("id")).in(3, 4, 5);
+    final SelectQuery query3 = select("*").from("client") //
+        .where(c("id")).in(6, 7);
+
+    assertEquals("SELECT * FROM client WHERE (id IN (:id1,:id2))", query1
+        .toSql());
+    assertEquals("SELECT * FROM client WHERE (id IN (:id1,:id2,:id3))",
+        query2.toSql());
+    assertEquals("SELECT * FROM client WHERE (id IN (:id1,:id2))", query3
+        .toSql());
+    assertEquals(2, cache.getMissCount());
+    assertEquals(1, cache.getHitCount());
+    assertEquals(7, query3.getParams().get("id2"));
+  }
+
+  @Test
+  public void testShouldNotReuseSQLOfAnotherQueryBuilder()
+      throws QueryException {
+    assertEquals("SELECT * FROM client LIMIT :limit1", select("*").from(
+        "client").limit(10L).toSql());
+    Query.setDefaultQueryBuilder(OracleQueryBuilder.class);
+    assertEquals(
+        "SELECT * FROM (SELECT * FROM client) WHERE (rownum<=:limit1)",
+        select("*").from("client").limit(10L).toSql());
+    assertEquals(0, cache.getHitCount());
+  }
+
+  @Test
+  public void testShouldEvictOldestTemplateWhenCacheIsFull()
+      throws QueryException {
+    select("*").from("table1").toSql();
+    select("*").from("table2").toSql();
+    select("*").from("table3").toSql();
+
+    assertEquals(2, cache.size());
+    assertEquals(1, cache.getEvictionCount());
+    select("*").from("table1").toSql();
+    assertEquals(0, cache.getHitCount());
+  }
+
+  @Test
+  public void testShouldResetCountersOnClear() throws QueryException {
+    select("*").from("table1").toSql();
+    select("*").from("table1").toSql();
+    assertEquals(1, cache.getHitCount());
+
+    cache.clear();
+    assertEquals(0, cache.size());
+    assertEquals(0, cache.getHitCount());
+    assertEquals(0, cache.getMissCount());
+    assertEquals(0.0, cache.getHitRatio(), 0.0);
+  }
+}
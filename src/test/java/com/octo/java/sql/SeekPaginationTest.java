@@ -0,0 +1,247 @@
+/**
+ * Copyright (C) 2010 David Rousselie <drousselie@octo.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.octo.java.sql;
+
+import static com.octo.java.sql.query.Query.c;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.Test;
+
+import com.octo.java.sql.exp.SeekExp;
+import com.octo.java.sql.query.QueryContext;
+import com.octo.java.sql.query.QueryException;
+import com.octo.java.sql.query.QueryGrammarException;
+import com.octo.java.sql.query.SelectQuery;
+import com.octo.java.sql.query.cache.SQLTemplateCache;
+import com.octo.java.sql.query.page.SeekPageIterator;
+import com.octo.java.sql.query.visitor.OracleQueryBuilder;
+
+public class SeekPaginationTest {
+  private final QueryContext context = QueryContext.getInitial();
+
+  @Test
+  public void testShouldSeekAfterSingleColumn() throws QueryException {
+    final SelectQuery query = context.select("*").from("table") //
+        .orderBy("id") //
+        .seekAfter(42) //
+        .limit(10L);
+
+    assertEquals("SELECT * FROM table WHERE (id > :id1) ORDER BY id LIMIT "
+        + ":limit2", query.toSql());
+    assertEquals(Arrays.<Object> asList(42, 10L), query.getParamValues());
+  }
+
+  @Test
+  public void testShouldSeekAfterDescendingColumnWithWhereClause()
+      throws QueryException {
+    final SelectQuery query = context.select("*").from("table") //
+        .where(c("status")).eq("open") //
+        .orderBy("id").desc() //
+        .seekAfter(42);
+
+    assertEquals("SELECT * FROM table WHERE (status = :status1) AND "
+        + "(id < :id2) ORDER BY id DESC", query.toSql());
+  }
+
+  @Test
+  public void testShouldUseRowValueComparison() throws QueryException {
+    final SelectQuery query = context.select("*").from("table") //
+        .orderBy("created") //
+        .orderBy("id") //
+        .seekAfter("2010-01-01", 42);
+
+    assertEquals("SELECT * FROM table WHERE ((created, id) > "
+        + "(:created1, :id2)) ORDER BY created, id", query.toSql());
+  }
+
+  @Test
+  public void testShouldExpandMixedDirections() throws QueryException {
+    final SelectQuery query = context.select("*").from("table") //
+        .orderBy("created").desc() //
+        .orderBy("id").asc() //
+        .seekAfter("2010-01-01", 42);
+
+    assertEquals("SELECT * FROM table WHERE ((created < :created1) OR "
+        + "(created = :created2 AND id > :id3)) ORDER BY created DESC, id ASC",
+        query.toSql());
+    assertEquals(Arrays.<Object> asList("2010-01-01", "2010-01-01", 42), query
+        .getParamValues());
+  }
+
+  @Test
+  public void testShouldExpandRowValuesWithOracle() throws QueryException {
+    final SelectQuery query = context.withQueryBuilder(
+        OracleQueryBuilder.class).select("*").from("table") //
+        .orderBy("created") //
+        .orderBy("id") //
+        .seekAfter("2010-01-01", 42) //
+        .limit(10L);
+
+    assertEquals("SELECT * FROM (SELECT * FROM table WHERE "
+        + "((created > :created1) OR (created = :created2 AND id > :id3)) "
+        + "ORDER BY created, id) WHERE (rownum<=:limit4)", query.toSql());
+  }
+
+  @Test
+  public void testShouldRemoveSeekWithNullKey() throws QueryException {
+    final SelectQuery query = context.select("*").from("table") //
+        .orderBy("id").seekAfter(42).seekAfter((Object[]) null);
+
+    assertEquals("SELECT * FROM table ORDER BY id", query.toSql());
+  }
+
+  @Test(expected = QueryGrammarException.class)
+  public void testShouldNotSeekWithoutOrderBy() throws QueryException {
+    context.select("*").from("table").seekAfter(42);
+  }
+
+  @Test(expected = QueryGrammarException.class)
+  public void testShouldNotSeekWithWrongKeySize() throws QueryException {
+    context.select("*").from("table").orderBy("id").seekAfter(42, 43);
+  }
+
+  @Test(expected = QueryGrammarException.class)
+  public void testShouldNotSeekAfterNullValue() throws QueryException {
+    context.select("*").from("table").orderBy("a").orderBy("b").seekAfter(1,
+        null);
+  }
+
+  @Test
+  public void testShouldCacheSeekQueries() throws QueryException {
+    final QueryContext cachedContext = context
+        .withTemplateCache(new SQLTemplateCache());
+    final SelectQuery query = cachedContext.select("*").from("table")
+        .orderBy("created").desc().orderBy("id").seekAfter("2010-01-01", 42);
+    final String sql = query.toSql();
+    query.seekAfter("2010-02-01", 43);
+
+    assertEquals(sql, query.toSql());
+    assertEquals(Arrays.<Object> asList("2010-02-01", "2010-02-01", 43), query
+        .getParamValues());
+    assertEquals(1, cachedContext.getTemplateCache().getHitCount());
+  }
+
+  @Test
+  public void testShouldIteratePages() throws QueryException {
+    final TableFetcher fetcher = new TableFetcher(7);
+    final SeekPageIterator<Integer> pages = new SeekPageIterator<Integer>(
+        context.select("*").from("table").orderBy("id"), 3, fetcher, fetcher);
+
+    assertEquals(Arrays.asList(1, 2, 3), pages.next());
+    assertEquals(Arrays.asList(4, 5, 6), pages.next());
+    assertEquals(Arrays.asList(7), pages.next());
+    assertFalse(pages.hasNext());
+    assertEquals(3, fetcher.fetchCount);
+  }
+
+  @Test
+  public void testShouldIteratePagesOfFrozenQuery() throws QueryException {
+    final TableFetcher fetcher = new TableFetcher(7);
+    final SelectQuery frozen = context.select("*").from("table").orderBy("id")
+        .freeze();
+    final SeekPageIterator<Integer> pages = new SeekPageIterator<Integer>(
+        frozen, 3, fetcher, fetcher);
+
+    assertEquals(Arrays.asList(1, 2, 3), pages.next());
+    assertEquals(Arrays.asList(4, 5, 6), pages.next());
+    assertEquals(Arrays.asList(7), pages.next());
+    assertFalse(pages.hasNext());
+    assertEquals(null, frozen.getLimit());
+    assertEquals(null, frozen.getSeekClause());
+  }
+
+  @Test
+  public void testShouldStopOnEmptyLastPage() throws QueryException {
+    final TableFetcher fetcher = new TableFetcher(4);
+    final SeekPageIterator<Integer> pages = new SeekPageIterator<Integer>(
+        context.select("*").from("table").orderBy("id"), 2, fetcher, fetcher);
+
+    assertEquals(Arrays.asList(1, 2), pages.next());
+    assertEquals(Arrays.asList(3, 4), pages.next());
+    assertFalse(pages.hasNext());
+    assertEquals(3, fetcher.fetchCount);
+  }
+
+  @Test
+  public void testShouldPrefetchNextPage() throws Exception {
+    final ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      final TableFetcher fetcher = new TableFetcher(10);
+      final SeekPageIterator<Integer> pages = new SeekPageIterator<Integer>(
+          context.select("*").from("table").orderBy("id"), 4, fetcher,
+          fetcher, executor);
+      final List<Integer> rows = new ArrayList<Integer>();
+
+      assertTrue(pages.hasNext());
+      while (pages.hasNext())
+        rows.addAll(pages.next());
+      assertEquals(Arrays.asList(1, 2, 3, 4, 5, 6, 7, 8, 9, 10), rows);
+      assertEquals(3, fetcher.fetchCount);
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testShouldWrapFetchFailure() throws QueryException {
+    final TableFetcher fetcher = new TableFetcher(10) {
+      @Override
+      public List<Integer> fetch(final SelectQuery query) throws Exception {
+        throw new Exception("connection lost");
+      }
+    };
+    new SeekPageIterator<Integer>(context.select("*").from("table").orderBy(
+        "id"), 4, fetcher, fetcher).next();
+  }
+
+  /**
+   * Rows are the integers from 1 to size
+   */
+  private static class TableFetcher implements
+      SeekPageIterator.PageFetcher<Integer>,
+      SeekPageIterator.KeyExtractor<Integer> {
+    private final int size;
+    private volatile int fetchCount = 0;
+
+    public TableFetcher(final int size) {
+      this.size = size;
+    }
+
+    public List<Integer> fetch(final SelectQuery query) throws Exception {
+      fetchCount++;
+      final SeekExp seek = query.getSeekClause();
+      final int after = seek == null ? 0 : (Integer) seek.getValues()[0];
+      final List<Integer> page = new ArrayList<Integer>();
+      for (int row = after + 1; (row <= size)
+          && (page.size() < query.getLimit()); row++)
+        page.add(row);
+      return page;
+    }
+
+    public Object[] getKey(final Integer row) {
+      return new Object[] { row };
+    }
+  }
+}
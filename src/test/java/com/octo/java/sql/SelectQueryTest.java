@@ -25,11 +25,16 @@ import static org.easymock.EasyMock.expect;
 import static org.easymock.EasyMock.replay;
 import static org.easymock.EasyMock.verify;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
+import java.util.List;
 import java.util.Map;
 
 import org.junit.Test;
 
+import com.octo.java.sql.exp.Exp;
+import com.octo.java.sql.exp.ExpSeq;
 import com.octo.java.sql.exp.JavaSQLFunc;
 import com.octo.java.sql.exp.Nullable;
 import com.octo.java.sql.exp.Operator;
@@ -243,7 +248,7 @@ public class SelectQueryTest {
         .and(c("lastColumn")).eq("lastColumnValue");
 
     assertEquals(
-        "SELECT * FROM table WHERE (((column IS NULL) AND (otherColumn IS NULL)) AND (lastColumn = :lastColumn1))",
+        "SELECT * FROM table WHERE ((column IS NULL) AND (otherColumn IS NULL) AND (lastColumn = :lastColumn1))",
         query.toSql());
     assertEquals(1, query.getParams().size());
     assertEquals("lastColumnValue", query.getParams().get("lastColumn1"));
@@ -586,7 +591,7 @@ public class SelectQueryTest {
         .and(c("column")).eq("value"); //
 
     assertEquals(
-        "SELECT * FROM table WHERE (((col = :col1) AND (column = :column2)) AND (column = :column3))",
+        "SELECT * FROM table WHERE ((col = :col1) AND (column = :column2) AND (column = :column3))",
         query.toSql());
     final Map<String, Object> params = query.getParams();
     assertEquals(3, params.size());
@@ -604,7 +609,7 @@ public class SelectQueryTest {
         .and(c("column")).eq("value");
 
     assertEquals(
-        "SELECT * FROM table WHERE (((col = :col1) AND (column BETWEEN :column2 AND :column3)) AND (column = :column4))",
+        "SELECT * FROM table WHERE ((col = :col1) AND (column BETWEEN :column2 AND :column3) AND (column = :column4))",
         query.toSql());
     final Map<String, Object> params = query.getParams();
     assertEquals(4, params.size());
@@ -633,4 +638,77 @@ public class SelectQueryTest {
     assertEquals("val1", params.get("col12"));
     assertEquals("val", params.get("col1"));
   }
+
+  @Test
+  public void testShouldBuildSQLQueryWithUnionAllSelects()
+      throws QueryException {
+    final SelectQuery query = select(c("col")).from("table2009") //
+        .where(c("col")).eq("val") //
+        .unionAll(select(c("col")).from("table2010")) //
+        .union(select(c("col")).from("table2011"));
+
+    assertEquals("SELECT col FROM table2009 WHERE (col = :col1) "
+        + "UNION ALL SELECT col FROM table2010 "
+        + "UNION SELECT col FROM table2011", query.toSql());
+    assertTrue(query.isUnionAll(0));
+    assertFalse(query.isUnionAll(1));
+  }
+
+  @Test
+  public void testShouldSplitUnionBranches() throws QueryException {
+    final SelectQuery query = select(c("col")).from("table2009") //
+        .where(c("col")).eq("val") //
+        .orderBy("col") //
+        .unionAll(select(c("col")).from("table2010"));
+
+    final List<SelectQuery> branches = query.getUnionBranches();
+    assertEquals(2, branches.size());
+    assertEquals("SELECT col FROM table2009 WHERE (col = :col1) "
+        + "ORDER BY col", branches.get(0).toSql());
+    assertEquals("SELECT col FROM table2010", branches.get(1).toSql());
+    assertEquals(1, query.getUnions().size());
+  }
+
+  @Test
+  public void testShouldKeepAndChainsFlat() throws QueryException {
+    SelectQuery query = select("*").from("table").where(c("col0")).eq(0);
+    for (int i = 1; i < 500; i++)
+      query = query.and(c("col" + i)).eq(i);
+
+    final ExpSeq whereClause = (ExpSeq) query.getWhereClause();
+    assertEquals(500, whereClause.getClauses().size());
+    final String sql = query.toSql();
+    assertTrue(sql.startsWith("SELECT * FROM table WHERE ((col0 = :col01) "
+        + "AND (col1 = :col12) AND "));
+    assertTrue(sql.endsWith(" AND (col499 = :col499500))"));
+  }
+
+  @Test
+  public void testShouldNotModifyASharedAndChain() throws QueryException {
+    final Exp base = e(c("a")).eq(1).and(c("b")).eq(2);
+    final Exp first = base.and(c("x")).eq(3);
+    final Exp second = base.and(c("y")).eq(4).and(c("z")).eq(5);
+    final Exp third = first.and(c("w")).eq(6);
+
+    assertEquals(2, ((ExpSeq) base).getClauses().size());
+    assertEquals("SELECT * FROM table WHERE ((a = :a1) AND (b = :b2) "
+        + "AND (x = :x3))", select("*").from("table").where(first).toSql());
+    assertEquals("SELECT * FROM table WHERE ((a = :a1) AND (b = :b2) "
+        + "AND (y = :y3) AND (z = :z4))", select("*").from("table").where(
+        second).toSql());
+    assertEquals("SELECT * FROM table WHERE ((a = :a1) AND (b = :b2) "
+        + "AND (x = :x3) AND (w = :w4))", select("*").from("table").where(
+        third).toSql());
+    assertEquals("SELECT * FROM table WHERE ((a = :a1) AND (b = :b2))",
+        select("*").from("table").where(base).toSql());
+  }
+
+  @Test
+  public void testShouldKeepMixedOperatorsNested() throws QueryException {
+    final SelectQuery query = select("*").from("table").where(
+        e(c("a")).eq(1).or(c("b")).eq(2).or(c("c")).eq(3).and(c("d")).eq(4));
+
+    assertEquals("SELECT * FROM table WHERE (((a = :a1) OR (b = :b2) "
+        + "OR (c = :c3)) AND (d = :d4))", query.toSql());
+  }
 }
@@ -0,0 +1,180 @@
+/**
+ * Copyright (C) 2010 David Rousselie <drousselie@octo.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.octo.java.sql.exec;
+
+import static com.octo.java.sql.query.Query.c;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.octo.java.sql.query.QueryContext;
+import com.octo.java.sql.query.QueryException;
+import com.octo.java.sql.query.SelectQuery;
+
+public class AsyncQueryExecutorTest {
+  private final QueryContext context = QueryContext.getInitial();
+  private final AtomicInteger running = new AtomicInteger();
+  private final AtomicInteger maxRunning = new AtomicInteger();
+  private JdbcDataSource dataSource;
+  private Connection keepAlive;
+  private AsyncQueryExecutor async;
+
+  private final RowMapper<Integer> slowMapper = new RowMapper<Integer>() {
+    public Integer mapRow(final ResultSet resultSet, final int rowNum)
+        throws SQLException {
+      final int current = running.incrementAndGet();
+      synchronized (maxRunning) {
+        maxRunning.set(Math.max(maxRunning.get(), current));
+      }
+      try {
+        Thread.sleep(20);
+      } catch (final InterruptedException e) {
+        Thread.currentThread().interrupt();
+      } finally {
+        running.decrementAndGet();
+      }
+      return resultSet.getInt("id");
+    }
+  };
+
+  @Before
+  public void setUp() throws SQLException {
+    dataSource = new JdbcDataSource();
+    dataSource.setURL("jdbc:h2:mem:asyncQueryExecutor");
+    keepAlive = dataSource.getConnection();
+    final Statement statement = keepAlive.createStatement();
+    statement.execute("CREATE TABLE client (id INT PRIMARY KEY)");
+    statement.execute("INSERT INTO client VALUES (1), (2), (3)");
+    statement.close();
+    async = new AsyncQueryExecutor(new QueryExecutor(dataSource), 2);
+  }
+
+  @After
+  public void tearDown() throws SQLException {
+    async.shutdown();
+    final Statement statement = keepAlive.createStatement();
+    statement.execute("DROP TABLE client");
+    statement.close();
+    keepAlive.close();
+  }
+
+  @Test
+  public void testShouldFanOutSelects() throws QueryException {
+    final List<CompletableFuture<List<Integer>>> futures = new ArrayList<CompletableFuture<List<Integer>>>();
+    for (int id = 1; id <= 10; id++) {
+      final SelectQuery query = context.select(c("id")).from("client")
+          .where(c("id")).eq(1 + (id % 3));
+      futures.add(async.executeAsync(query, slowMapper));
+    }
+    CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0]))
+        .join();
+
+    for (int id = 1; id <= 10; id++)
+      assertEquals(Integer.valueOf(1 + (id % 3)), futures.get(id - 1).join()
+          .get(0));
+    assertTrue(maxRunning.get() <= 2);
+    assertEquals(2, async.getAvailablePermits());
+  }
+
+  @Test
+  public void testShouldSharePermitsOfDataSource() throws QueryException {
+    final Semaphore permits = new Semaphore(2, true);
+    final QueryExecutor executor = new QueryExecutor(dataSource);
+    final AsyncQueryExecutor first = new AsyncQueryExecutor(executor, permits);
+    final AsyncQueryExecutor second = new AsyncQueryExecutor(executor, permits);
+    try {
+      final List<CompletableFuture<List<Integer>>> futures = new ArrayList<CompletableFuture<List<Integer>>>();
+      for (int id = 1; id <= 10; id++) {
+        final SelectQuery query = context.select(c("id")).from("client")
+            .where(c("id")).eq(1 + (id % 3));
+        futures.add((id % 2 == 0 ? first : second).executeAsync(query,
+            slowMapper));
+      }
+      CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0]))
+          .join();
+
+      assertTrue(maxRunning.get() <= 2);
+      assertEquals(2, first.getMaxConcurrency());
+      assertEquals(2, permits.availablePermits());
+    } finally {
+      first.shutdown();
+      second.shutdown();
+    }
+  }
+
+  @Test
+  public void testShouldExecuteUpdatesAsynchronously() throws QueryException {
+    assertEquals(Integer.valueOf(1), async.executeAsync(
+        context.insertInto("client").set("id", 4)).join());
+    assertEquals(Integer.valueOf(1), async.executeAsync(
+        context.update("client").set(c("id"), 5).where(c("id")).eq(4))
+        .join());
+    assertEquals(Integer.valueOf(4), async.executeAsync(
+        context.deleteFrom("client")).join());
+  }
+
+  @Test
+  public void testShouldRenderOnCallingThread() throws QueryException {
+    final SelectQuery query = context.select(c("id")).from("client").where(
+        c("id")).eq(1);
+    final CompletableFuture<List<Integer>> future = async.executeAsync(query,
+        slowMapper);
+    query.where(c("id")).eq(2);
+
+    assertEquals(Integer.valueOf(1), future.join().get(0));
+  }
+
+  @Test
+  public void testShouldCompleteExceptionally() throws QueryException {
+    try {
+      async.executeAsync(context.insertInto("unknown").set("id", 1)).join();
+      fail();
+    } catch (final CompletionException e) {
+      assertTrue(e.getCause() instanceof QueryException);
+    }
+    assertEquals(2, async.getAvailablePermits());
+  }
+
+  @Test
+  public void testShouldDetectVirtualThreads() {
+    boolean supported;
+    try {
+      java.util.concurrent.Executors.class
+          .getMethod("newVirtualThreadPerTaskExecutor");
+      supported = true;
+    } catch (final NoSuchMethodException e) {
+      supported = false;
+    }
+    assertEquals(supported, async.isVirtualThreads());
+  }
+}
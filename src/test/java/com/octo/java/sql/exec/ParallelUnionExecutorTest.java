@@ -0,0 +1,214 @@
+/**
+ * Copyright (C) 2010 David Rousselie <drousselie@octo.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.octo.java.sql.exec;
+
+import static com.octo.java.sql.query.Query.c;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.octo.java.sql.query.QueryContext;
+import com.octo.java.sql.query.QueryException;
+import com.octo.java.sql.query.SelectQuery;
+
+public class ParallelUnionExecutorTest {
+  private final QueryContext context = QueryContext.getInitial();
+  private final List<Connection> keepAlives = new ArrayList<Connection>();
+  private final List<QueryExecutor> executors = new ArrayList<QueryExecutor>();
+  private ParallelUnionExecutor unionExecutor;
+
+  private final RowMapper<Integer> idMapper = new RowMapper<Integer>() {
+    public Integer mapRow(final ResultSet resultSet, final int rowNum)
+        throws SQLException {
+      return resultSet.getInt("id");
+    }
+  };
+
+  @Before
+  public void setUp() throws SQLException {
+    for (int db = 0; db < 3; db++) {
+      final JdbcDataSource dataSource = new JdbcDataSource();
+      dataSource.setURL("jdbc:h2:mem:parallelUnion" + db);
+      final Connection keepAlive = dataSource.getConnection();
+      final Statement statement = keepAlive.createStatement();
+      statement.execute("CREATE TABLE orders (id INT PRIMARY KEY)");
+      statement.execute("INSERT INTO orders SELECT X FROM SYSTEM_RANGE("
+          + (db * 100 + 1) + ", " + (db * 100 + 100) + ")");
+      statement.execute("INSERT INTO orders VALUES (1000)");
+      statement.close();
+      keepAlives.add(keepAlive);
+      executors.add(new QueryExecutor(dataSource));
+    }
+    unionExecutor = new ParallelUnionExecutor(
+        new ParallelUnionExecutor.BranchExecutorSelector() {
+          public QueryExecutor getExecutor(final SelectQuery branch,
+              final int index) {
+            return executors.get(index);
+          }
+        }, 2, 16);
+  }
+
+  @After
+  public void tearDown() throws SQLException {
+    unionExecutor.shutdown();
+    for (final Connection keepAlive : keepAlives) {
+      final Statement statement = keepAlive.createStatement();
+      statement.execute("DROP TABLE orders");
+      statement.close();
+      keepAlive.close();
+    }
+  }
+
+  private SelectQuery orders() {
+    return context.select(c("id")).from("orders");
+  }
+
+  @Test
+  public void testShouldMergeUnionAllBranches() throws QueryException {
+    final Stream<Integer> stream = unionExecutor.stream(orders().unionAll(
+        orders()).unionAll(orders()), idMapper);
+    final List<Integer> ids = stream.collect(Collectors.<Integer> toList());
+    stream.close();
+
+    assertEquals(303, ids.size());
+    Collections.sort(ids);
+    assertEquals(Integer.valueOf(1), ids.get(0));
+    assertEquals(Integer.valueOf(300), ids.get(299));
+    assertEquals(Integer.valueOf(1000), ids.get(302));
+  }
+
+  @Test
+  public void testShouldRemoveDuplicatesOfUnion() throws QueryException {
+    final Stream<Integer> stream = unionExecutor.stream(orders().unionAll(
+        orders()).union(orders().where(c("id")).geq(251L)), idMapper);
+    final long count = stream.count();
+    stream.close();
+
+    assertEquals(201 + 50, count);
+  }
+
+  @Test
+  public void testShouldKeepDuplicatesAfterTheLastUnion()
+      throws QueryException {
+    // (A UNION B) UNION ALL C
+    final Stream<Integer> stream = unionExecutor.stream(orders().union(
+        orders()).unionAll(orders()), idMapper);
+    final long count = stream.count();
+    stream.close();
+
+    assertEquals(201 + 101, count);
+  }
+
+  @Test
+  public void testShouldRejectOrderedAndLimitedUnions()
+      throws QueryException {
+    final SelectQuery ordered = orders().unionAll(orders()).orderBy("id");
+    final SelectQuery limited = orders().unionAll(orders()).limit(10L);
+    try {
+      unionExecutor.stream(ordered, idMapper);
+      fail();
+    } catch (final QueryException e) {
+      // expected
+    }
+    try {
+      unionExecutor.stream(limited, idMapper);
+      fail();
+    } catch (final QueryException e) {
+      // expected
+    }
+  }
+
+  @Test
+  public void testShouldStopBranchesOnClose() throws QueryException {
+    final Stream<Integer> stream = unionExecutor.stream(orders().unionAll(
+        orders()).unionAll(orders()), idMapper);
+    final Iterator<Integer> iterator = stream.iterator();
+    for (int i = 0; i < 10; i++)
+      iterator.next();
+    stream.close();
+
+    assertTrue(!iterator.hasNext());
+  }
+
+  @Test
+  public void testShouldReportBranchFailure() throws QueryException {
+    final Stream<Integer> stream = unionExecutor.stream(orders().unionAll(
+        context.select(c("id")).from("unknown")), idMapper);
+    try {
+      stream.count();
+      fail();
+    } catch (final IllegalStateException e) {
+      assertTrue(e.getCause() instanceof IllegalStateException
+          || e.getCause() instanceof QueryException);
+    } finally {
+      stream.close();
+    }
+  }
+
+  @Test(timeout = 10000)
+  public void testShouldReportBranchError() throws QueryException {
+    final RowMapper<Integer> failingMapper = new RowMapper<Integer>() {
+      public Integer mapRow(final ResultSet resultSet, final int rowNum)
+          throws SQLException {
+        final int id = resultSet.getInt("id");
+        if (id == 150)
+          throw new StackOverflowError();
+        return id;
+      }
+    };
+    final Stream<Integer> stream = unionExecutor.stream(orders().unionAll(
+        orders()), failingMapper);
+    try {
+      stream.count();
+      fail();
+    } catch (final IllegalStateException e) {
+      assertTrue(e.getCause() instanceof StackOverflowError);
+    } finally {
+      stream.close();
+    }
+  }
+
+  @Test
+  public void testShouldUseSingleExecutor() throws QueryException {
+    final ParallelUnionExecutor single = new ParallelUnionExecutor(executors
+        .get(0), 4);
+    try {
+      final Stream<Integer> stream = single.stream(orders().where(c("id"))
+          .leq(10L).unionAll(orders().where(c("id")).geq(91L)), idMapper);
+      assertEquals(21, stream.count());
+      stream.close();
+    } finally {
+      single.shutdown();
+    }
+  }
+}
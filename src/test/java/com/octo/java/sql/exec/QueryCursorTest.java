@@ -0,0 +1,229 @@
+/**
+ * Copyright (C) 2010 David Rousselie <drousselie@octo.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.octo.java.sql.exec;
+
+import static com.octo.java.sql.query.Query.c;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+
+import javax.sql.DataSource;
+
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.octo.java.sql.query.InsertQuery;
+import com.octo.java.sql.query.QueryContext;
+import com.octo.java.sql.query.QueryException;
+import com.octo.java.sql.query.SelectQuery;
+
+public class QueryCursorTest {
+  private static final int ROW_COUNT = 2500;
+
+  private final QueryContext context = QueryContext.getInitial();
+  private final AtomicInteger mappedRows = new AtomicInteger();
+  private final AtomicInteger openConnections = new AtomicInteger();
+  private final RowMapper<Integer> idMapper = new RowMapper<Integer>() {
+    public Integer mapRow(final ResultSet resultSet, final int rowNum)
+        throws SQLException {
+      mappedRows.incrementAndGet();
+      return resultSet.getInt("id");
+    }
+  };
+  private JdbcDataSource h2DataSource;
+  private DataSource dataSource;
+  private Connection keepAlive;
+
+  @Before
+  public void setUp() throws SQLException, QueryException {
+    h2DataSource = new JdbcDataSource();
+    h2DataSource.setURL("jdbc:h2:mem:queryCursor");
+    keepAlive = h2DataSource.getConnection();
+    final Statement statement = keepAlive.createStatement();
+    statement.execute("CREATE TABLE item (id INT PRIMARY KEY)");
+    statement.close();
+    dataSource = countingDataSource();
+
+    final InsertQuery insert = context.insertInto("item").columns("id");
+    for (int id = 1; id <= ROW_COUNT; id++)
+      insert.row(id);
+    new QueryExecutor(h2DataSource).executeUpdate(insert);
+  }
+
+  @After
+  public void tearDown() throws SQLException {
+    final Statement statement = keepAlive.createStatement();
+    statement.execute("DROP TABLE item");
+    statement.close();
+    keepAlive.close();
+  }
+
+  /**
+   * DataSource counting the connections not closed yet
+   */
+  private DataSource countingDataSource() {
+    return (DataSource) Proxy.newProxyInstance(getClass().getClassLoader(),
+        new Class<?>[] { DataSource.class }, new InvocationHandler() {
+          public Object invoke(final Object proxy, final Method method,
+              final Object[] args) throws Throwable {
+            final Object result = invokeTarget(h2DataSource, method, args);
+            if (!"getConnection".equals(method.getName()))
+              return result;
+            openConnections.incrementAndGet();
+            final Connection connection = (Connection) result;
+            return Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[] { Connection.class }, new InvocationHandler() {
+                  public Object invoke(final Object connectionProxy,
+                      final Method connectionMethod, final Object[] arguments)
+                      throws Throwable {
+                    if ("close".equals(connectionMethod.getName())
+                        && !connection.isClosed())
+                      openConnections.decrementAndGet();
+                    return invokeTarget(connection, connectionMethod,
+                        arguments);
+                  }
+                });
+          }
+        });
+  }
+
+  private static Object invokeTarget(final Object target, final Method method,
+      final Object[] args) throws Throwable {
+    try {
+      return method.invoke(target, args);
+    } catch (final InvocationTargetException e) {
+      throw e.getCause();
+    }
+  }
+
+  private SelectQuery selectIds() {
+    return context.select(c("id")).from("item").orderBy("id");
+  }
+
+  @Test
+  public void testShouldReadEveryRowAndClose() throws QueryException {
+    final QueryCursor<Integer> cursor = new QueryExecutor(dataSource).cursor(
+        selectIds().fetchSize(100), idMapper);
+    long sum = 0;
+    while (cursor.hasNext())
+      sum += cursor.next();
+
+    assertEquals((long) ROW_COUNT * (ROW_COUNT + 1) / 2, sum);
+    assertEquals(ROW_COUNT, cursor.getRowCount());
+    assertTrue(cursor.isClosed());
+    assertEquals(0, openConnections.get());
+  }
+
+  @Test
+  public void testShouldStreamRowsAndCloseWithTheStream()
+      throws QueryException {
+    final QueryCursor<Integer> cursor = new QueryExecutor(dataSource).cursor(
+        selectIds().fetchSize(100), idMapper);
+    final long evenIds;
+    try (Stream<Integer> ids = cursor.stream()) {
+      evenIds = ids.filter(new Predicate<Integer>() {
+        public boolean test(final Integer id) {
+          return id % 2 == 0;
+        }
+      }).limit(10).count();
+    }
+
+    assertEquals(10, evenIds);
+    assertTrue(cursor.isClosed());
+    assertEquals(0, openConnections.get());
+  }
+
+  @Test
+  public void testShouldMapRowsLazily() throws QueryException {
+    final QueryCursor<Integer> cursor = new QueryExecutor(dataSource).cursor(
+        selectIds(), idMapper);
+    try {
+      assertEquals(0, mappedRows.get());
+      assertEquals(Integer.valueOf(1), cursor.next());
+      assertEquals(Integer.valueOf(2), cursor.next());
+      assertTrue(cursor.hasNext());
+      assertEquals(2, mappedRows.get());
+      assertEquals(1, openConnections.get());
+    } finally {
+      cursor.close();
+    }
+    assertFalse(cursor.hasNext());
+    assertEquals(0, openConnections.get());
+  }
+
+  @Test
+  public void testShouldKeepSessionOpenAfterCursor() throws QueryException,
+      SQLException {
+    final QuerySession session = new QueryExecutor(dataSource).openSession();
+    try {
+      final QueryCursor<Integer> cursor = session.cursor(selectIds()
+          .fetchSize(10), idMapper);
+      cursor.next();
+      cursor.close();
+
+      assertFalse(session.getConnection().isClosed());
+      assertEquals(Integer.valueOf(1), session.cursor(selectIds(), idMapper)
+          .next());
+    } finally {
+      session.close();
+    }
+    assertEquals(0, openConnections.get());
+  }
+
+  @Test
+  public void testShouldCloseOnMappingFailure() throws QueryException {
+    final QueryCursor<Integer> cursor = new QueryExecutor(dataSource).cursor(
+        selectIds(), new RowMapper<Integer>() {
+          public Integer mapRow(final ResultSet resultSet, final int rowNum)
+              throws SQLException {
+            return resultSet.getInt("unknown");
+          }
+        });
+    try {
+      cursor.next();
+    } catch (final IllegalStateException e) {
+      assertTrue(e.getCause() instanceof SQLException);
+    }
+    assertTrue(cursor.isClosed());
+    assertEquals(0, openConnections.get());
+  }
+
+  @Test
+  public void testShouldCloseSessionWhenQueryFails() {
+    try {
+      new QueryExecutor(dataSource).cursor(context.select(c("id")).from(
+          "unknown"), idMapper);
+    } catch (final QueryException e) {
+      assertTrue(e.getCause() instanceof SQLException);
+    }
+    assertEquals(0, openConnections.get());
+  }
+}
@@ -0,0 +1,194 @@
+/**
+ * Copyright (C) 2010 David Rousselie <drousselie@octo.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.octo.java.sql.exec;
+
+import static com.octo.java.sql.query.Query.c;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.List;
+
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.octo.java.sql.query.QueryContext;
+import com.octo.java.sql.query.QueryException;
+import com.octo.java.sql.query.SelectQuery;
+
+public class QueryExecutorTest {
+  private static final RowMapper<String> NAME_MAPPER = new RowMapper<String>() {
+    public String mapRow(final ResultSet resultSet, final int rowNum)
+        throws SQLException {
+      return resultSet.getString("name");
+    }
+  };
+
+  private final QueryContext context = QueryContext.getInitial();
+  private JdbcDataSource dataSource;
+  private Connection keepAlive;
+
+  @Before
+  public void setUp() throws SQLException {
+    dataSource = new JdbcDataSource();
+    dataSource.setURL("jdbc:h2:mem:queryExecutor");
+    keepAlive = dataSource.getConnection();
+    final Statement statement = keepAlive.createStatement();
+    statement.execute("CREATE TABLE client (id INT PRIMARY KEY, "
+        + "name VARCHAR(20))");
+    statement.close();
+  }
+
+  @After
+  public void tearDown() throws SQLException {
+    final Statement statement = keepAlive.createStatement();
+    statement.execute("DROP TABLE client");
+    statement.close();
+    keepAlive.close();
+  }
+
+  private SelectQuery selectNames(final int minId) throws QueryException {
+    return context.select(c("name")).from("client") //
+        .where(c("id")).geq((long) minId) //
+        .orderBy("id");
+  }
+
+  @Test
+  public void testShouldExecuteQueries() throws QueryException {
+    final QueryExecutor executor = new QueryExecutor(dataSource);
+    assertEquals(1, executor.executeUpdate(context.insertInto("client").set(
+        "id", 1).set("name", "Alice")));
+    assertEquals(1, executor.executeUpdate(context.insertInto("client").set(
+        "id", 2).set("name", null)));
+    assertEquals(1, executor.executeUpdate(context.update("client").set(c(
+        "name"), "Bob").where(c("id")).eq(2)));
+
+    assertEquals(Arrays.asList("Alice", "Bob"), executor.query(
+        selectNames(0), NAME_MAPPER));
+    assertEquals(1, executor.executeUpdate(context.deleteFrom("client")
+        .where(c("id")).eq(1)));
+    assertEquals(Arrays.asList("Bob"), executor.query(selectNames(0),
+        NAME_MAPPER));
+  }
+
+  @Test
+  public void testShouldReusePreparedStatementsInSession()
+      throws QueryException {
+    final QueryExecutor executor = new QueryExecutor(dataSource);
+    final QuerySession session = executor.openSession();
+    try {
+      for (int id = 1; id <= 10; id++)
+        session.executeUpdate(context.insertInto("client").set("id", id).set(
+            "name", "client" + id));
+      final List<String> names = session.query(selectNames(9), NAME_MAPPER);
+
+      assertEquals(Arrays.asList("client9", "client10"), names);
+      assertEquals(2, session.getStatementCache().size());
+    } finally {
+      session.close();
+    }
+    final StatementCacheStatistics statistics = executor
+        .getStatementCacheStatistics();
+    assertEquals(9, statistics.getHitCount());
+    assertEquals(2, statistics.getMissCount());
+    assertEquals(9.0 / 11, statistics.getHitRatio(), 0.001);
+  }
+
+  @Test
+  public void testShouldCountOneShotStatementsAsUncached()
+      throws QueryException {
+    final QueryExecutor executor = new QueryExecutor(dataSource);
+    executor.executeUpdate(context.insertInto("client").set("id", 1).set(
+        "name", "client1"));
+    executor.query(selectNames(0), NAME_MAPPER);
+    executor.query(selectNames(0), NAME_MAPPER);
+
+    final StatementCacheStatistics statistics = executor
+        .getStatementCacheStatistics();
+    assertEquals(3, statistics.getUncachedPrepareCount());
+    assertEquals(0, statistics.getMissCount());
+    assertEquals(0, statistics.getHitCount());
+  }
+
+  @Test
+  public void testShouldCloseSessionAndCursorAsResources()
+      throws QueryException {
+    final QueryExecutor executor = new QueryExecutor(dataSource);
+    final QueryCursor<String> leftOpen;
+    try (QuerySession session = executor.openSession()) {
+      session.executeUpdate(context.insertInto("client").set("id", 1).set(
+          "name", null));
+      try (QueryCursor<String> cursor = session.cursor(context.select(
+          c("name")).from("client").where(c("name")).isNull(), NAME_MAPPER)) {
+        assertTrue(cursor.hasNext());
+        leftOpen = cursor;
+      }
+    }
+    assertTrue(leftOpen.isClosed());
+  }
+
+  @Test
+  public void testShouldEvictLeastRecentlyUsedStatement()
+      throws QueryException {
+    final QueryExecutor executor = new QueryExecutor(dataSource, 2);
+    final QuerySession session = executor.openSession();
+    try {
+      session.query(selectNames(0), NAME_MAPPER);
+      session.query(context.select(c("id")).from("client"), NAME_MAPPER);
+      session.query(selectNames(1), NAME_MAPPER);
+      session.query(context.select(c("name")).from("client"), NAME_MAPPER);
+      session.query(selectNames(2), NAME_MAPPER);
+
+      assertEquals(2, session.getStatementCache().size());
+      assertEquals(1, executor.getStatementCacheStatistics()
+          .getEvictionCount());
+      assertEquals(2, executor.getStatementCacheStatistics().getHitCount());
+    } finally {
+      session.close();
+    }
+  }
+
+  @Test
+  public void testShouldWrapSQLException() throws QueryException {
+    final QueryExecutor executor = new QueryExecutor(dataSource);
+    final QuerySession session = executor.openSession();
+    try {
+      session.executeUpdate(context.insertInto("client").set("id", 1));
+      session.executeUpdate(context.insertInto("client").set("id", 1));
+      fail();
+    } catch (final QueryException e) {
+      assertTrue(e.getCause() instanceof SQLException);
+      assertEquals(0, session.getStatementCache().size());
+    } finally {
+      session.close();
+    }
+  }
+
+  @Test(expected = QueryException.class)
+  public void testShouldNotExecuteInClosedSession() throws QueryException {
+    final QuerySession session = new QueryExecutor(dataSource).openSession();
+    session.close();
+    session.query(selectNames(0), NAME_MAPPER);
+  }
+}
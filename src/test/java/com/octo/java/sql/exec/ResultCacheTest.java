@@ -0,0 +1,215 @@
+/**
+ * Copyright (C) 2010 David Rousselie <drousselie@octo.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.octo.java.sql.exec;
+
+import static com.octo.java.sql.query.Query.c;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.octo.java.sql.query.QueryContext;
+import com.octo.java.sql.query.QueryException;
+import com.octo.java.sql.query.SelectQuery;
+
+public class ResultCacheTest {
+  private final QueryContext context = QueryContext.getInitial();
+  private final AtomicInteger mappedRows = new AtomicInteger();
+  private JdbcDataSource dataSource;
+  private Connection keepAlive;
+  private ResultCache cache;
+  private QueryExecutor executor;
+
+  private final RowMapper<String> nameMapper = new RowMapper<String>() {
+    public String mapRow(final ResultSet resultSet, final int rowNum)
+        throws SQLException {
+      mappedRows.incrementAndGet();
+      return resultSet.getString("name");
+    }
+  };
+
+  @Before
+  public void setUp() throws SQLException {
+    dataSource = new JdbcDataSource();
+    dataSource.setURL("jdbc:h2:mem:resultCache");
+    keepAlive = dataSource.getConnection();
+    final Statement statement = keepAlive.createStatement();
+    statement.execute("CREATE TABLE country (code VARCHAR(2), name VARCHAR(20))");
+    statement.execute("CREATE TABLE city (name VARCHAR(20), country VARCHAR(2))");
+    statement.execute("INSERT INTO country VALUES ('FR', 'France'), "
+        + "('IT', 'Italy')");
+    statement.execute("INSERT INTO city VALUES ('Paris', 'FR')");
+    statement.close();
+    cache = new ResultCache(2, 1, TimeUnit.HOURS);
+    executor = new QueryExecutor(dataSource,
+        QueryExecutor.DEFAULT_STATEMENT_CACHE_SIZE, cache);
+  }
+
+  @After
+  public void tearDown() throws SQLException {
+    final Statement statement = keepAlive.createStatement();
+    statement.execute("DROP TABLE country");
+    statement.execute("DROP TABLE city");
+    statement.close();
+    keepAlive.close();
+  }
+
+  private SelectQuery country(final String code) throws QueryException {
+    return context.select(c("name")).from("country").where(c("code")).eq(code);
+  }
+
+  @Test
+  public void testShouldReturnCachedRows() throws QueryException {
+    assertEquals(Arrays.asList("France"), executor.queryCached(country("FR"),
+        nameMapper));
+    assertEquals(Arrays.asList("France"), executor.queryCached(country("FR"),
+        nameMapper));
+    assertEquals(Arrays.asList("Italy"), executor.queryCached(country("IT"),
+        nameMapper));
+
+    assertEquals(2, mappedRows.get());
+    assertEquals(1, cache.getHitCount());
+    assertEquals(2, cache.getMissCount());
+  }
+
+  @Test
+  public void testShouldInvalidateOnUpdate() throws QueryException {
+    executor.queryCached(country("FR"), nameMapper);
+    executor.executeUpdate(context.update("COUNTRY c").set(c("name"),
+        "French Republic").where(c("code")).eq("FR"));
+
+    assertEquals(Arrays.asList("French Republic"), executor.queryCached(
+        country("FR"), nameMapper));
+    assertEquals(2, mappedRows.get());
+  }
+
+  @Test
+  public void testShouldInvalidateTablesWrittenWithTheirSchema()
+      throws QueryException {
+    executor.queryCached(country("FR"), nameMapper);
+    executor.executeUpdate(context.update("PUBLIC.country").set(c("name"),
+        "French Republic").where(c("code")).eq("FR"));
+
+    assertEquals(0, cache.size());
+    assertEquals(Arrays.asList("French Republic"), executor.queryCached(
+        country("FR"), nameMapper));
+  }
+
+  @Test
+  public void testShouldInvalidateJoinedAndSubQueryTables()
+      throws QueryException {
+    final SelectQuery join = context.select(c("city.name")).from("city");
+    join.innerJoin("country").on(c("country.code")).eq(c("city.country"));
+    final SelectQuery subQuery = context.select(c("name")).from("city").where(
+        c("country")).in(context.select(c("code")).from("country"));
+    final SelectQuery cityOnly = context.select(c("name")).from("city");
+    executor.queryCached(join, nameMapper);
+    executor.queryCached(subQuery, nameMapper);
+    assertEquals(2, cache.size());
+
+    executor.executeUpdate(context.deleteFrom("country").where(c("code")).eq(
+        "IT"));
+    assertEquals(0, cache.size());
+
+    executor.queryCached(cityOnly, nameMapper);
+    executor.executeUpdate(context.insertInto("country").set("code", "ES")
+        .set("name", "Spain"));
+    assertEquals(1, cache.size());
+  }
+
+  @Test
+  public void testShouldInvalidateSessionUpdatesOnClose()
+      throws QueryException, SQLException {
+    final QuerySession session = executor.openSession();
+    session.getConnection().setAutoCommit(false);
+    session.executeUpdate(context.update("country").set(c("name"), "Italia")
+        .where(c("code")).eq("IT"));
+    assertEquals(Arrays.asList("Italy"), executor.queryCached(country("IT"),
+        nameMapper));
+    session.getConnection().commit();
+    session.close();
+
+    assertEquals(0, cache.size());
+    assertEquals(Arrays.asList("Italia"), executor.queryCached(country("IT"),
+        nameMapper));
+  }
+
+  @Test
+  public void testShouldEvictLeastRecentlyUsed() throws QueryException {
+    executor.queryCached(country("FR"), nameMapper);
+    executor.queryCached(country("IT"), nameMapper);
+    executor.queryCached(country("FR"), nameMapper);
+    executor.queryCached(country("ES"), nameMapper);
+
+    assertEquals(2, cache.size());
+    assertEquals(1, cache.getEvictionCount());
+    final RenderedQuery italy = RenderedQuery.render(country("IT"));
+    assertNull(cache.get(italy, nameMapper));
+  }
+
+  @Test
+  public void testShouldExpireEntries() throws QueryException,
+      InterruptedException {
+    final ResultCache shortCache = new ResultCache(10, 20,
+        TimeUnit.MILLISECONDS);
+    final RenderedQuery query = RenderedQuery.render(country("FR"));
+    shortCache.put(shortCache.startLoad(), query, nameMapper, Collections
+        .singleton("country"), Arrays.asList("France"));
+    assertEquals(Arrays.asList("France"), shortCache.get(query, nameMapper));
+
+    Thread.sleep(50);
+    assertNull(shortCache.get(query, nameMapper));
+    assertEquals(0, shortCache.size());
+  }
+
+  @Test
+  public void testShouldNotCacheRowsReadDuringInvalidation()
+      throws QueryException {
+    final RenderedQuery query = RenderedQuery.render(country("FR"));
+    final long ticket = cache.startLoad();
+    cache.invalidate("country");
+    final List<String> rows = cache.put(ticket, query, nameMapper,
+        Collections.singleton("country"), Arrays.asList("France"));
+
+    assertEquals(Arrays.asList("France"), rows);
+    assertEquals(0, cache.size());
+  }
+
+  @Test
+  public void testShouldNotCacheRowsReadDuringClear() throws QueryException {
+    final RenderedQuery query = RenderedQuery.render(country("FR"));
+    final long ticket = cache.startLoad();
+    cache.clear();
+    cache.put(ticket, query, nameMapper, Collections.singleton("country"),
+        Arrays.asList("France"));
+
+    assertEquals(0, cache.size());
+  }
+}
@@ -0,0 +1,238 @@
+/**
+ * Copyright (C) 2010 David Rousselie <drousselie@octo.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.octo.java.sql.exec;
+
+import static com.octo.java.sql.query.Query.c;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.octo.java.sql.exp.OpExp;
+import com.octo.java.sql.exp.Operator;
+import com.octo.java.sql.query.QueryContext;
+import com.octo.java.sql.query.QueryException;
+import com.octo.java.sql.query.SelectQuery;
+
+public class ShardedQueryExecutorTest {
+  private final QueryContext context = QueryContext.getInitial();
+  private final List<Connection> keepAlives = new ArrayList<Connection>();
+  private final List<QueryExecutor> executors = new ArrayList<QueryExecutor>();
+  private final List<String> executedOn = Collections
+      .synchronizedList(new ArrayList<String>());
+  private ShardedQueryExecutor sharded;
+
+  private final RowMapper<Integer> idMapper = new RowMapper<Integer>() {
+    public Integer mapRow(final ResultSet resultSet, final int rowNum)
+        throws SQLException {
+      executedOn.add(resultSet.getString("shard"));
+      return resultSet.getInt("customer_id");
+    }
+  };
+
+  @Before
+  public void setUp() throws SQLException, QueryException {
+    for (int shard = 0; shard < 3; shard++) {
+      final JdbcDataSource dataSource = new JdbcDataSource();
+      dataSource.setURL("jdbc:h2:mem:shard" + shard);
+      final Connection keepAlive = dataSource.getConnection();
+      final Statement statement = keepAlive.createStatement();
+      statement.execute("CREATE TABLE orders (customer_id INT, "
+          + "shard VARCHAR(10) DEFAULT 'shard" + shard + "')");
+      statement.close();
+      keepAlives.add(keepAlive);
+      executors.add(new QueryExecutor(dataSource));
+    }
+    sharded = new ShardedQueryExecutor(new ShardRouter("customer_id",
+        new HashShardMap(3)), executors);
+    for (int customerId = 1; customerId <= 9; customerId++)
+      sharded.executeUpdate(context.insertInto("orders").set("customer_id",
+          customerId));
+  }
+
+  @After
+  public void tearDown() throws SQLException {
+    for (final Connection keepAlive : keepAlives) {
+      final Statement statement = keepAlive.createStatement();
+      statement.execute("DROP TABLE orders");
+      statement.close();
+      keepAlive.close();
+    }
+  }
+
+  private SelectQuery orders() {
+    return context.select(c("customer_id"), c("shard")).from("orders");
+  }
+
+  @Test
+  public void testShouldInsertOnShardOfKey() throws QueryException {
+    assertEquals(Arrays.asList(3, 6, 9), executors.get(0).query(orders(),
+        idMapper));
+    assertEquals(Arrays.asList(1, 4, 7), executors.get(1).query(orders(),
+        idMapper));
+  }
+
+  @Test
+  public void testShouldRouteEqualityToOneShard() throws QueryException {
+    final SelectQuery query = context.select(c("o.customer_id"),
+        c("o.shard")).from("orders o").where(c("o.customer_id")).eq(4);
+
+    assertEquals(Collections.singleton(1), sharded.route(query));
+    assertEquals(Arrays.asList(4), sharded.query(query, idMapper));
+    assertEquals(Arrays.asList("shard1"), executedOn);
+  }
+
+  @Test
+  public void testShouldRouteInToSeveralShards() throws QueryException {
+    final SelectQuery query = orders().where(c("customer_id")).in(4, 7, 5);
+
+    assertEquals(Arrays.asList(1, 2), new ArrayList<Integer>(sharded
+        .route(query)));
+    assertEquals(Arrays.asList(4, 7, 5), sharded.query(query, idMapper));
+  }
+
+  @Test
+  public void testShouldRejectOrderedOrAggregatedQueryOnSeveralShards()
+      throws QueryException {
+    final SelectQuery ordered = orders().where(c("customer_id")).in(4, 5)
+        .orderBy("customer_id");
+    try {
+      sharded.query(ordered, idMapper);
+      fail();
+    } catch (final QueryException e) {
+      assertTrue(e.getMessage().contains("ordered or limited"));
+    }
+    final SelectQuery limited = orders().limit(2L);
+    try {
+      sharded.query(limited, idMapper);
+      fail();
+    } catch (final QueryException e) {
+      assertTrue(e.getMessage().contains("ordered or limited"));
+    }
+    final SelectQuery count = context.select(
+        context.f("COUNT", c("customer_id"))).from("orders");
+    try {
+      sharded.query(count, idMapper);
+      fail();
+    } catch (final QueryException e) {
+      assertTrue(e.getMessage().contains("COUNT"));
+    }
+    assertEquals(Arrays.asList(4), sharded.query(orders().where(
+        c("customer_id")).eq(4).orderBy("customer_id"), idMapper));
+  }
+
+  @Test
+  public void testShouldRouteRanges() throws QueryException {
+    assertEquals(Arrays.asList(0, 1), new ArrayList<Integer>(sharded
+        .route(orders().where(c("customer_id")).between(3, 4))));
+    assertEquals(3, sharded.route(
+        orders().where(c("customer_id")).between(3, 40)).size());
+
+    final ShardRouter rangeRouter = new ShardRouter("customer_id",
+        new RangeShardMap(100, 200L));
+    assertEquals(Arrays.asList(0, 1), new ArrayList<Integer>(rangeRouter
+        .route(orders().where(c("customer_id")).between(50, 150))));
+    assertEquals(Collections.singleton(2), rangeRouter.route(orders().where(
+        c("customer_id")).eq(200)));
+  }
+
+  @Test
+  public void testShouldMapNonFiniteAndNonNumericKeys() {
+    final RangeShardMap numbers = new RangeShardMap(100, 200L);
+    assertEquals(2, numbers.getShard(Double.NaN));
+    assertEquals(2, numbers.getShard(Double.POSITIVE_INFINITY));
+    assertEquals(0, numbers.getShard(Float.NEGATIVE_INFINITY));
+    assertEquals(1, numbers.getShard(new BigDecimal("100.0")));
+    try {
+      numbers.getShard("150");
+      fail();
+    } catch (final IllegalArgumentException e) {
+      assertTrue(e.getMessage().contains("150"));
+    }
+    assertEquals(1, new RangeShardMap("m").getShard("x"));
+    assertEquals(2, new HashShardMap(3).getShard(-1L));
+  }
+
+  @Test
+  public void testShouldCombineAndOr() throws QueryException {
+    assertEquals(Collections.singleton(1), sharded.route(orders().where(
+        c("customer_id")).in(1, 2).and(c("customer_id")).in(1, 3)));
+    assertEquals(Collections.emptySet(), sharded.route(orders().where(
+        c("customer_id")).eq(1).and(c("customer_id")).eq(2)));
+    assertEquals(Collections.singleton(1), sharded.route(orders().where(
+        c("shard")).eq("x").and(c("customer_id")).eq(1)));
+    assertEquals(Arrays.asList(1, 2), new ArrayList<Integer>(sharded
+        .route(orders().where(
+            new OpExp(c("customer_id"), Operator.EQ, 4).or(new OpExp(
+                c("customer_id"), Operator.EQ, 2))))));
+  }
+
+  @Test
+  public void testShouldScatterWithoutKey() throws QueryException {
+    assertEquals(3, sharded.route(orders()).size());
+    assertEquals(3, sharded.route(orders().where(c("shard")).eq("shard0"))
+        .size());
+    assertEquals(3, sharded.route(orders().where(c("customer_id")).notIn(1))
+        .size());
+    assertEquals(9, sharded.query(orders(), idMapper).size());
+  }
+
+  @Test
+  public void testShouldRouteUpdatesAndDeletes() throws QueryException {
+    assertEquals(1, sharded.executeUpdate(context.update("orders").set(
+        c("customer_id"), 10).where(c("customer_id")).eq(1)));
+    assertEquals(2, sharded.executeUpdate(context.deleteFrom("orders").where(
+        c("customer_id")).in(2, 3)));
+    assertEquals(7, sharded.query(orders(), idMapper).size());
+    assertEquals(Arrays.asList(10, 4, 7), executors.get(1).query(orders(),
+        idMapper));
+  }
+
+  @Test
+  public void testShouldRouteMultiRowInsertOnOneShard() throws QueryException {
+    assertEquals(2, sharded.executeUpdate(context.insertInto("orders")
+        .columns("customer_id").row(10).row(13)));
+    try {
+      sharded.executeUpdate(context.insertInto("orders")
+          .columns("customer_id").row(10).row(11));
+      fail();
+    } catch (final QueryException e) {
+      assertNull(e.getCause());
+    }
+    try {
+      sharded.executeUpdate(context.insertInto("orders").set("shard", "x"));
+      fail();
+    } catch (final QueryException e) {
+      assertNull(e.getCause());
+    }
+  }
+}
@@ -17,6 +17,9 @@
 package com.octo.java.sql.exp;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 
 import org.junit.Test;
 
@@ -36,4 +39,36 @@ public class ColumnTest {
   public void testShouldGetNullFromColumnWithEmptyTableName() {
     assertEquals(null, new Column(".col").getTableName());
   }
+
+  @Test
+  public void testShouldGetQualifierAndUnqualifiedName() {
+    final Column column = new Column("schema.table.col");
+    assertEquals("schema", column.getTableName());
+    assertEquals("schema.table", column.getQualifier());
+    assertEquals("col", column.getUnqualifiedName());
+    assertFalse(column.isQuoted());
+    assertEquals(null, new Column("col").getQualifier());
+    assertEquals("col", new Column("col").getUnqualifiedName());
+  }
+
+  @Test
+  public void testShouldNotSplitQuotedIdentifiers() {
+    final Column column = new Column("\"my.table\".\"my.col\"");
+    assertEquals("\"my.table\"", column.getTableName());
+    assertEquals("\"my.table\"", column.getQualifier());
+    assertEquals("\"my.col\"", column.getUnqualifiedName());
+    assertTrue(column.isQuoted());
+    assertEquals("[a.b]", new Column("t.[a.b]").getUnqualifiedName());
+  }
+
+  @Test
+  public void testShouldInternColumnsAndTables() {
+    assertSame(SymbolTable.column("t.col"), SymbolTable.column("t.col"));
+    assertEquals(new Column("t.col"), SymbolTable.column("t.col"));
+    assertEquals("t", SymbolTable.column("t.col").getQualifier());
+    final Table table = SymbolTable.table(" Orders AS o ");
+    assertSame(table, SymbolTable.table(" Orders AS o "));
+    assertEquals("orders", table.getName());
+    assertEquals("o", table.getReference());
+  }
 }
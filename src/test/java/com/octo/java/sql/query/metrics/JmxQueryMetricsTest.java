@@ -0,0 +1,144 @@
+/**
+ * Copyright (C) 2010 David Rousselie <drousselie@octo.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.octo.java.sql.query.metrics;
+
+import static com.octo.java.sql.query.Query.c;
+import static com.octo.java.sql.query.Query.e;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.junit.Test;
+
+import com.octo.java.sql.query.BasicQueryOptimizer;
+import com.octo.java.sql.query.PredicateSimplifier;
+import com.octo.java.sql.query.QueryContext;
+import com.octo.java.sql.query.QueryException;
+import com.octo.java.sql.query.SelectQuery;
+import com.octo.java.sql.query.cache.SQLTemplateCache;
+import com.octo.java.sql.query.visitor.DefaultQueryBuilder;
+import com.octo.java.sql.query.visitor.OracleQueryBuilder;
+import com.octo.java.sql.query.visitor.PostgreSQLQueryBuilder;
+
+public class JmxQueryMetricsTest {
+  private final JmxQueryMetrics metrics = new JmxQueryMetrics();
+  private final QueryContext context = QueryContext.getInitial()
+      .withVisitor(new BasicQueryOptimizer()).withMetricsListener(metrics);
+
+  private SelectQuery newQuery(final QueryContext queryContext,
+      final Object lastname) throws QueryException {
+    return queryContext.select(c("c.name")).from("client c") //
+        .leftOuterJoin("address a").on(c("a.id")).eq(c("c.address_id")) //
+        .where(c("c.firstname")).eq("John") //
+        .and(c("c.lastname")).eq(lastname);
+  }
+
+  @Test
+  public void testShouldCountOptimizedClausesAndJoins() throws QueryException {
+    final String sql = newQuery(context, null).toSql();
+
+    assertEquals("SELECT c.name FROM client c "
+        + "WHERE ((c.firstname = :c.firstname1))", sql);
+    assertEquals(1, metrics.getOptimizeCount());
+    assertEquals(1, metrics.getClausesRemoved());
+    assertEquals(1, metrics.getJoinsRemoved());
+    assertEquals(1, metrics.getRenderCount());
+    assertEquals(sql.length(), metrics.getAverageSqlLength(), 0);
+    assertEquals(1, metrics.getAverageParamCount(), 0);
+  }
+
+  @Test
+  public void testShouldCountMergedAndDuplicateClauses() throws QueryException {
+    final QueryContext simplifyingContext = context
+        .withVisitor(PredicateSimplifier.FACTORY);
+
+    simplifyingContext.select(c("c.name")).from("client c").where(
+        e(c("c.id")).eq(1).or(c("c.id")).eq(2).or(c("c.id")).eq(2) //
+            .or(c("c.name")).eq(null)).toSql();
+
+    assertEquals(3, metrics.getClausesRemoved());
+    assertEquals(0, metrics.getJoinsRemoved());
+  }
+
+  @Test
+  public void testShouldSplitMetricsByQueryBuilder() throws QueryException {
+    newQuery(context, "Doe").toSql();
+    newQuery(context.withQueryBuilder(OracleQueryBuilder.class), null)
+        .toSql();
+
+    assertEquals(2, metrics.getRenderCount());
+    final JmxQueryMetrics oracleMetrics = metrics
+        .getMetrics(OracleQueryBuilder.class);
+    assertEquals(1, oracleMetrics.getOptimizeCount());
+    assertEquals(1, oracleMetrics.getRenderCount());
+    assertEquals(1, oracleMetrics.getClausesRemoved());
+    assertEquals(1, metrics.getMetrics(DefaultQueryBuilder.class)
+        .getRenderCount());
+    assertNull(metrics.getMetrics(PostgreSQLQueryBuilder.class));
+  }
+
+  @Test
+  public void testShouldCountTemplateCacheHitsAndMisses()
+      throws QueryException {
+    final QueryContext cachedContext = context
+        .withTemplateCache(new SQLTemplateCache());
+
+    newQuery(cachedContext, "Doe").toSql();
+    newQuery(cachedContext, "Smith").toSql();
+    newQuery(cachedContext, "Martin").toSql();
+
+    assertEquals(2, metrics.getTemplateCacheHits());
+    assertEquals(1, metrics.getTemplateCacheMisses());
+    assertEquals(2.0 / 3, metrics.getTemplateCacheHitRatio(), 0.0001);
+    assertEquals(3, metrics.getRenderCount());
+    assertEquals(0, metrics.getClausesRemoved());
+  }
+
+  @Test
+  public void testShouldNotOptimizeWithoutVisitors() throws QueryException {
+    newQuery(context.withoutVisitors(), "Doe").toSql();
+
+    assertEquals(0, metrics.getOptimizeCount());
+    assertEquals(1, metrics.getRenderCount());
+    assertEquals(2, metrics.getAverageParamCount(), 0);
+  }
+
+  @Test
+  public void testShouldExposeCountersThroughJmx() throws Exception {
+    final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    final ObjectName name = metrics.register();
+    try {
+      newQuery(context, "Doe").toSql();
+
+      final ObjectName builderName = new ObjectName(name + ",builder="
+          + DefaultQueryBuilder.class.getName());
+      assertEquals(Long.valueOf(1), server.getAttribute(name, "RenderCount"));
+      assertEquals(Long.valueOf(1), server.getAttribute(builderName,
+          "RenderCount"));
+      server.invoke(name, "reset", null, null);
+      assertEquals(Long.valueOf(0), server.getAttribute(name, "RenderCount"));
+      assertEquals(Long.valueOf(0), server.getAttribute(builderName,
+          "RenderCount"));
+    } finally {
+      metrics.unregister();
+    }
+  }
+}
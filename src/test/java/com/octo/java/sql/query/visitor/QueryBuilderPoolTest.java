@@ -0,0 +1,89 @@
+/**
+ * Copyright (C) 2010 David Rousselie <drousselie@octo.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.octo.java.sql.query.visitor;
+
+import static com.octo.java.sql.query.Query.c;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.octo.java.sql.exp.JavaSQLFunc.Evaluable;
+import com.octo.java.sql.query.QueryContext;
+import com.octo.java.sql.query.QueryException;
+import com.octo.java.sql.query.SelectQuery;
+
+public class QueryBuilderPoolTest {
+  private final QueryBuilderPool pool = new QueryBuilderPool(
+      DefaultQueryBuilder.FACTORY);
+
+  @Test
+  public void testShouldReuseReleasedBuilderInTheSameThread()
+      throws QueryException {
+    final DefaultQueryBuilder builder = pool.newQueryBuilder();
+    builder.getResult().append("SELECT 1");
+    builder.addFunction("now", new Evaluable<String>() {
+      public String eval(final Object... params) {
+        return "'2010-01-01'";
+      }
+    });
+    pool.release(builder);
+
+    final DefaultQueryBuilder reusedBuilder = pool.newQueryBuilder();
+    assertSame(builder, reusedBuilder);
+    assertEquals(0, reusedBuilder.getResult().length());
+    assertFalse(reusedBuilder.hasFunctions());
+    assertNotSame(builder, pool.newQueryBuilder());
+  }
+
+  @Test
+  public void testShouldNotModifyParamsOfPreviousQuery() throws QueryException {
+    final QueryContext context = QueryContext.getInitial()
+        .withQueryBuilderFactory(pool);
+    final SelectQuery query1 = context.select("*").from("table") //
+        .where(c("column")).eq("value1");
+    final SelectQuery query2 = context.select("*").from("table") //
+        .where(c("otherColumn")).eq("value2");
+
+    assertEquals("SELECT * FROM table WHERE (column = :column1)", query1
+        .toSql());
+    final Map<String, Object> params = query1.getParams();
+    assertEquals("SELECT * FROM table WHERE (otherColumn = :otherColumn1)",
+        query2.toSql());
+    assertEquals(1, params.size());
+    assertEquals("value1", params.get("column1"));
+    assertEquals("value2", query2.getParams().get("otherColumn1"));
+  }
+
+  @Test
+  public void testShouldNotKeepBuilderWithOversizedBuffer()
+      throws QueryException {
+    final DefaultQueryBuilder builder = pool.newQueryBuilder();
+    builder.getResult().append("SELECT 1");
+    pool.release(builder);
+    pool.newQueryBuilder();
+
+    final DefaultQueryBuilder hugeBuilder = pool.newQueryBuilder();
+    hugeBuilder.ensureCapacity(1024 * 1024);
+    pool.release(hugeBuilder);
+    assertNotSame(hugeBuilder, pool.newQueryBuilder());
+  }
+}